@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.time.Instant;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measure the cost of parsing journal "modified" headers.
+ *
+ * <p>The standard header is the form written by the journal itself; the non-standard header carries
+ * sub-millisecond precision and so is parsed by the general-purpose tokenizer.</p>
+ *
+ * @author acoburn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class JournalHeaderBenchmark {
+
+    private static final String SUFFIX = "\"^^<http://www.w3.org/2001/XMLSchema#dateTimeStamp> .";
+
+    private final String standard = "H modified \"2017-02-15T10:05:00.123Z" + SUFFIX;
+    private final String nonStandard = "H modified \"2017-02-15T10:05:00.123456Z" + SUFFIX;
+
+    /**
+     * Parse a header written by the journal
+     * @return the instant
+     */
+    @Benchmark
+    public Instant standardHeader() {
+        return RDFPatch.modifiedToInstant(standard);
+    }
+
+    /**
+     * Parse a header in a form that requires the tokenizer
+     * @return the instant
+     */
+    @Benchmark
+    public Instant nonStandardHeader() {
+        return RDFPatch.modifiedToInstant(nonStandard);
+    }
+}
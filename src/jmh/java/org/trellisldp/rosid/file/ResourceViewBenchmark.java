@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.time.Instant.parse;
+import static java.util.Arrays.asList;
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toSet;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.rdf.api.IRI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.trellisldp.api.Resource;
+import org.trellisldp.api.VersionRange;
+import org.trellisldp.rosid.common.ResourceData;
+import org.trellisldp.vocabulary.LDP;
+
+/**
+ * Measure the cost of the derived resource views as they are used while handling a single request.
+ *
+ * <p>Run with {@code ./gradlew jmh}; the {@code gc} profiler reports the allocation rate per operation
+ * ({@code gc.alloc.rate.norm}) of the memoized views alongside that of recomputing every view on each call.</p>
+ *
+ * @author acoburn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+public class ResourceViewBenchmark {
+
+    /** The number of times a request typically consults each view */
+    private static final int CALLS_PER_REQUEST = 4;
+
+    private final IRI identifier = AbstractFileResource.rdf.createIRI("trellis:repository/resource");
+
+    private ResourceData data;
+
+    /**
+     * Build the resource data shared by each iteration
+     */
+    @Setup
+    public void setUp() {
+        final Instant time = parse("2017-02-16T11:15:03Z");
+        data = new ResourceData();
+        data.setId(identifier.getIRIString());
+        data.setLdpType(LDP.DirectContainer.getIRIString());
+        data.setUserTypes(asList("http://example.org/types/Foo", "http://example.org/types/Bar",
+                    "http://example.org/types/Baz"));
+        data.setInbox("http://example.org/receiver/inbox");
+        data.setMembershipResource("trellis:repository/container");
+        data.setHasMemberRelation("http://purl.org/dc/terms/subject");
+        data.setGeneratedAtTime(asList(time.minusSeconds(300), time.minusSeconds(200), time.minusSeconds(100),
+                    time));
+        data.setModified(time);
+    }
+
+    /**
+     * Read each view several times from a resource that memoizes them
+     * @param blackhole the blackhole
+     */
+    @Benchmark
+    public void memoizedViews(final Blackhole blackhole) {
+        final Resource res = new VersionedResource(new File("."), identifier, data, data.getModified());
+        for (int i = 0; i < CALLS_PER_REQUEST; ++i) {
+            blackhole.consume(res.getInteractionModel());
+            blackhole.consume(res.getTypes());
+            blackhole.consume(res.getMementos());
+            blackhole.consume(res.getInsertedContentRelation());
+            blackhole.consume(res.getInbox());
+            blackhole.consume(res.getMembershipResource());
+        }
+    }
+
+    /**
+     * Read each view several times, rebuilding it from the resource data on every call
+     * @param blackhole the blackhole
+     */
+    @Benchmark
+    public void recomputedViews(final Blackhole blackhole) {
+        for (int i = 0; i < CALLS_PER_REQUEST; ++i) {
+            blackhole.consume(ofNullable(data.getLdpType()).map(AbstractFileResource.rdf::createIRI)
+                    .orElse(LDP.Resource));
+            blackhole.consume(ofNullable(data.getUserTypes()).orElseGet(Collections::emptyList).stream()
+                    .map(AbstractFileResource.rdf::createIRI).collect(toSet()));
+            blackhole.consume(mementos(data.getGeneratedAtTime()));
+            blackhole.consume(ofNullable(data.getInsertedContentRelation()).map(AbstractFileResource.rdf::createIRI)
+                    .orElseGet(() -> LDP.DirectContainer.equals(ofNullable(data.getLdpType())
+                            .map(AbstractFileResource.rdf::createIRI).orElse(LDP.Resource)) ? LDP.MemberSubject
+                        : null));
+            blackhole.consume(ofNullable(data.getInbox()).map(AbstractFileResource.rdf::createIRI));
+            blackhole.consume(ofNullable(data.getMembershipResource()).map(AbstractFileResource.rdf::createIRI));
+        }
+    }
+
+    private static List<VersionRange> mementos(final List<Instant> dateTimes) {
+        final List<VersionRange> ranges = new ArrayList<>();
+        Instant last = dateTimes.get(0);
+        for (final Instant time : dateTimes.subList(1, dateTimes.size())) {
+            ranges.add(new VersionRange(last, time));
+            last = time;
+        }
+        return ranges;
+    }
+}
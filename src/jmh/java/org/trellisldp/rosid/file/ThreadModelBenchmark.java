@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.time.Instant.parse;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.locks.LockSupport.parkNanos;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.RDF;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * Compare the platform and virtual thread models of the {@link IOExecutor} when many requests read a cached
+ * resource at once.
+ *
+ * <p>Run with {@code ./gradlew jmh -Pjava21Home=/path/to/jdk-21} on Java 21 or later; the {@code virtual} model
+ * fails its setup without the Java 21 classes of the multi-release jar. The {@code latencyMicros} parameter adds
+ * a blocking delay to each read, as a partition on networked storage would.</p>
+ *
+ * @author acoburn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+public class ThreadModelBenchmark {
+
+    private final IRI identifier = AbstractFileResource.rdf.createIRI("trellis:repository/resource");
+
+    @Param({"platform", "virtual"})
+    private String threadModel;
+
+    @Param({"1000"})
+    private int requests;
+
+    @Param({"64"})
+    private int threads;
+
+    @Param({"0", "500"})
+    private long latencyMicros;
+
+    private File directory;
+    private IOExecutor executor;
+
+    /**
+     * Write a cached resource and start the executor
+     * @throws IOException if the resource could not be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("trellis-rosid-benchmark").toFile();
+        final Quad[] quads = new Quad[] {
+            AbstractFileResource.rdf.createQuad(Trellis.PreferServerManaged, identifier, RDF.type, LDP.RDFSource),
+            AbstractFileResource.rdf.createQuad(Trellis.PreferUserManaged, identifier, DC.title,
+                    AbstractFileResource.rdf.createLiteral("A title")),
+            AbstractFileResource.rdf.createQuad(Trellis.PreferUserManaged, identifier, DC.description,
+                    AbstractFileResource.rdf.createLiteral("A longer description of the resource"))};
+        RDFPatch.write(new File(directory, RESOURCE_JOURNAL), empty(), of(quads), parse("2017-02-16T11:15:03Z"));
+        CachedResource.write(directory, identifier);
+
+        // Every request may wait for a thread, so that none is rejected
+        executor = new IOExecutor(threads, requests, "virtual".equals(threadModel));
+    }
+
+    /**
+     * Stop the executor and remove the resource
+     * @throws IOException if the resource could not be removed
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.close();
+        deleteDirectory(directory);
+    }
+
+    /**
+     * Read the resource from many concurrent requests, each a task on the executor
+     * @return the number of quads read
+     */
+    @Benchmark
+    public long concurrentReads() {
+        final long delay = MICROSECONDS.toNanos(latencyMicros);
+        @SuppressWarnings("unchecked")
+        final CompletableFuture<Long>[] futures = new CompletableFuture[requests];
+        for (int i = 0; i < requests; ++i) {
+            futures[i] = executor.submit(() -> {
+                if (delay > 0L) {
+                    parkNanos(delay);
+                }
+                return read();
+            });
+        }
+        allOf(futures).join();
+        long count = 0L;
+        for (final CompletableFuture<Long> future : futures) {
+            count += future.join();
+        }
+        return count;
+    }
+
+    private long read() {
+        return CachedResource.find(directory, identifier).map(res -> {
+            try (final Stream<? extends Quad> quads = res.stream()) {
+                return quads.count();
+            }
+        }).orElse(0L);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.String.format;
+import static java.util.Arrays.copyOf;
+import static java.util.Arrays.sort;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A recorder of the latencies of operations, which is used by a single client thread and then merged.
+ *
+ * @author acoburn
+ */
+public final class LatencyRecorder {
+
+    private static final double NANOS_PER_MILLI = MILLISECONDS.toNanos(1L);
+
+    private final Map<String, Latencies> operations = new TreeMap<>();
+
+    /**
+     * Record the latency of an operation
+     * @param operation the name of the operation
+     * @param latency the latency, in nanoseconds
+     * @param ok whether the operation succeeded
+     */
+    void record(final String operation, final long latency, final Boolean ok) {
+        operations.computeIfAbsent(operation, k -> new Latencies()).record(latency, ok);
+    }
+
+    /**
+     * Add the latencies recorded by another recorder
+     * @param other the other recorder
+     */
+    void add(final LatencyRecorder other) {
+        other.operations.forEach((operation, latencies) ->
+                operations.computeIfAbsent(operation, k -> new Latencies()).add(latencies));
+    }
+
+    /**
+     * Summarize the recorded latencies
+     * @param duration the period over which they were recorded, in nanoseconds
+     * @return the report
+     */
+    Report report(final long duration) {
+        return new Report(operations, duration);
+    }
+
+    private static final class Latencies {
+        private long[] values = new long[1024];
+        private int size;
+        private long errors;
+
+        private void record(final long latency, final Boolean ok) {
+            if (size == values.length) {
+                values = copyOf(values, size * 2);
+            }
+            values[size++] = latency;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        private void add(final Latencies other) {
+            if (size + other.size > values.length) {
+                values = copyOf(values, size + other.size);
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+            errors += other.errors;
+        }
+    }
+
+    /**
+     * The throughput and latency of each operation
+     */
+    public static final class Report {
+
+        private final Map<String, long[]> latencies = new TreeMap<>();
+        private final Map<String, Long> errors = new TreeMap<>();
+        private final long duration;
+
+        private Report(final Map<String, Latencies> operations, final long duration) {
+            operations.forEach((operation, recorded) -> {
+                final long[] sorted = copyOf(recorded.values, recorded.size);
+                sort(sorted);
+                latencies.put(operation, sorted);
+                errors.put(operation, recorded.errors);
+            });
+            this.duration = duration;
+        }
+
+        /**
+         * Get the operations that were performed
+         * @return the names of the operations
+         */
+        public Set<String> getOperations() {
+            return unmodifiableSet(latencies.keySet());
+        }
+
+        /**
+         * Get the number of times that an operation was performed
+         * @param operation the name of the operation
+         * @return the number of operations
+         */
+        public long getCount(final String operation) {
+            return latencies.getOrDefault(operation, new long[0]).length;
+        }
+
+        /**
+         * Get the number of operations that failed
+         * @param operation the name of the operation
+         * @return the number of failed operations
+         */
+        public long getErrors(final String operation) {
+            return errors.getOrDefault(operation, 0L);
+        }
+
+        /**
+         * Get the throughput of an operation
+         * @param operation the name of the operation
+         * @return the number of operations per second
+         */
+        public double getThroughput(final String operation) {
+            return getCount(operation) / (duration / 1e9);
+        }
+
+        /**
+         * Get a latency percentile of an operation
+         * @param operation the name of the operation
+         * @param percentile the percentile, between 0 and 100
+         * @return the latency, in milliseconds, or zero if the operation was not performed
+         */
+        public double getLatency(final String operation, final double percentile) {
+            final long[] values = latencies.get(operation);
+            if (values == null || values.length == 0) {
+                return 0.0;
+            }
+            final int rank = (int) ceil(percentile / 100.0 * values.length);
+            return values[max(0, min(values.length, rank) - 1)] / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder(format("%-8s %10s %10s %10s %10s %10s %10s %8s%n",
+                        "op", "count", "ops/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors"));
+            latencies.keySet().forEach(operation -> builder.append(format(
+                            "%-8s %10d %10.1f %10.3f %10.3f %10.3f %10.3f %8d%n", operation, getCount(operation),
+                            getThroughput(operation), getLatency(operation, 50.0), getLatency(operation, 99.0),
+                            getLatency(operation, 99.9), getLatency(operation, 100.0), getErrors(operation))));
+            return builder.toString();
+        }
+    }
+}
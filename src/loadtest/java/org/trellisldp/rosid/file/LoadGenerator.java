@@ -0,0 +1,351 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.nanoTime;
+import static java.time.Instant.now;
+import static java.util.Collections.singleton;
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.vocabulary.RDF.type;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.Dataset;
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.apache.commons.rdf.api.RDF;
+import org.slf4j.Logger;
+import org.trellisldp.api.Resource;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * Drive a {@link FileResourceService} with a mix of concurrent operations and report the throughput and
+ * latency percentiles of each kind of operation.
+ *
+ * <p>Unlike the JMH benchmarks, which measure one operation in isolation, this reproduces the pattern of a
+ * running repository: many readers of a few hot containers, writers that add children to those containers,
+ * occasional reads of past versions and occasional scans of the partition. Kafka is replaced with a mock
+ * producer and Zookeeper with an in-process test server, so only the file store is measured.</p>
+ *
+ * <p>Run with {@code ./gradlew loadTest -PloadTestArgs="--threads 32 --duration 120"}.</p>
+ *
+ * @author acoburn
+ */
+public final class LoadGenerator {
+
+    private static final Logger LOGGER = getLogger(LoadGenerator.class);
+
+    private static final RDF rdf = AbstractFileResource.rdf;
+
+    private static final String PARTITION = "repository";
+
+    private static final String DESCRIPTION = "A description of the resource, of a typical length for a literal";
+
+    /**
+     * The kinds of operation
+     */
+    public enum Operation {
+        /** Read the current state of a resource, with its quads */
+        READ,
+        /** Create a child and add it to its container */
+        WRITE,
+        /** Read a past version of a resource */
+        MEMENTO,
+        /** Scan the partition */
+        SCAN
+    }
+
+    private final FileResourceService service;
+    private final Map<Operation, Integer> mix;
+    private final Map<Integer, Integer> sizes;
+    private final List<IRI> containers = new ArrayList<>();
+    private final List<IRI> children = synchronizedList(new ArrayList<>());
+    private final AtomicLong counter = new AtomicLong();
+    private Instant populated;
+    private int populatedChildren;
+
+    /**
+     * Create a load generator
+     * @param service the resource service, with a partition named {@code repository}
+     * @param mix the relative weight of each kind of operation
+     * @param sizes the relative weight of each resource size, as a number of quads
+     */
+    public LoadGenerator(final FileResourceService service, final Map<Operation, Integer> mix,
+            final Map<Integer, Integer> sizes) {
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() <= 0 ||
+                sizes.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+            throw new IllegalArgumentException("The operation mix and size distribution must have a positive weight");
+        }
+        this.service = service;
+        this.mix = new EnumMap<>(mix);
+        this.sizes = new HashMap<>(sizes);
+    }
+
+    /**
+     * Create the containers, and their initial children, that the operations run against
+     * @param count the number of containers
+     * @param childrenPerContainer the number of children to create in each container
+     */
+    public void populate(final int count, final int childrenPerContainer) {
+        final Random random = new Random(count);
+        for (int i = 0; i < count; ++i) {
+            final IRI container = rdf.createIRI("trellis:" + PARTITION + "/container" + i);
+            if (!service.put(container, dataset(container, LDP.Container, size(random)))) {
+                throw new IllegalStateException("Could not create " + container.getIRIString());
+            }
+            containers.add(container);
+            for (int j = 0; j < childrenPerContainer; ++j) {
+                addChild(container, random);
+            }
+        }
+        populated = now();
+        populatedChildren = children.size();
+        LOGGER.info("Created {} containers and {} children", containers.size(), children.size());
+    }
+
+    /**
+     * Run the operations
+     * @param threads the number of concurrent clients
+     * @param warmupSeconds the number of seconds to run before latencies are recorded
+     * @param durationSeconds the number of seconds for which latencies are recorded
+     * @return the report
+     * @throws InterruptedException if interrupted while waiting for the clients
+     */
+    public LatencyRecorder.Report run(final int threads, final long warmupSeconds, final long durationSeconds)
+            throws InterruptedException {
+        if (containers.isEmpty()) {
+            throw new IllegalStateException("The load generator has not been populated");
+        }
+        final long start = nanoTime() + SECONDS.toNanos(warmupSeconds);
+        final long end = start + SECONDS.toNanos(durationSeconds);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<LatencyRecorder>> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; ++i) {
+                clients.add(executor.submit(() -> client(start, end)));
+            }
+            final LatencyRecorder merged = new LatencyRecorder();
+            for (final Future<LatencyRecorder> client : clients) {
+                merged.add(client.get());
+            }
+            return merged.report(SECONDS.toNanos(durationSeconds));
+        } catch (final ExecutionException ex) {
+            throw new IllegalStateException("A client failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Run a load test from the command line
+     * @param args optional arguments: --dir path, in which a partition directory is created, --threads N,
+     *        --warmup S, --duration S, --containers N, --children N, --mix read=80,write=15,memento=4,scan=1,
+     *        --sizes 5=70,50=25,500=5, --async and --max-p99 ms
+     * @throws Exception if the load test could not be run
+     */
+    public static void main(final String[] args) throws Exception {
+        File directory = null;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        long warmup = 10L;
+        long duration = 60L;
+        int containers = 10;
+        int children = 100;
+        Map<Operation, Integer> mix = parseMix("read=80,write=15,memento=4,scan=1");
+        Map<Integer, Integer> sizes = parseSizes("5=70,50=25,500=5");
+        Boolean async = false;
+        double maxP99 = 0.0;
+        for (int i = 0; i < args.length; ++i) {
+            final Boolean hasValue = i + 1 < args.length;
+            if ("--dir".equals(args[i]) && hasValue) {
+                directory = new File(args[++i]);
+            } else if ("--threads".equals(args[i]) && hasValue) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--warmup".equals(args[i]) && hasValue) {
+                warmup = Long.parseLong(args[++i]);
+            } else if ("--duration".equals(args[i]) && hasValue) {
+                duration = Long.parseLong(args[++i]);
+            } else if ("--containers".equals(args[i]) && hasValue) {
+                containers = Integer.parseInt(args[++i]);
+            } else if ("--children".equals(args[i]) && hasValue) {
+                children = Integer.parseInt(args[++i]);
+            } else if ("--mix".equals(args[i]) && hasValue) {
+                mix = parseMix(args[++i]);
+            } else if ("--sizes".equals(args[i]) && hasValue) {
+                sizes = parseSizes(args[++i]);
+            } else if ("--async".equals(args[i])) {
+                async = true;
+            } else if ("--max-p99".equals(args[i]) && hasValue) {
+                maxP99 = Double.parseDouble(args[++i]);
+            } else {
+                LOGGER.error("Usage: LoadGenerator [--dir path] [--threads N] [--warmup S] [--duration S] " +
+                        "[--containers N] [--children N] [--mix read=N,write=N,memento=N,scan=N] " +
+                        "[--sizes quads=N,...] [--async] [--max-p99 ms]");
+                return;
+            }
+        }
+
+        final LatencyRecorder.Report report;
+        try (final ServiceHarness harness = new ServiceHarness(directory, singleton(PARTITION), async)) {
+            final LoadGenerator generator = new LoadGenerator(harness.getService(), mix, sizes);
+            generator.populate(containers, children);
+            LOGGER.info("Running {} clients for {}s after a {}s warmup", threads, duration, warmup);
+            report = generator.run(threads, warmup, duration);
+        }
+
+        LOGGER.info("Load test results:\n{}", report);
+        // As a regression gate, a slow or failing operation fails the run
+        for (final String operation : report.getOperations()) {
+            if (report.getErrors(operation) > 0L ||
+                    (maxP99 > 0.0 && report.getLatency(operation, 99.0) > maxP99)) {
+                LOGGER.error("The {} operations did not meet their target", operation);
+                System.exit(1);
+            }
+        }
+    }
+
+    private static Map<Operation, Integer> parseMix(final String value) {
+        final Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        parseWeights(value).forEach((key, weight) -> mix.put(Operation.valueOf(key.toUpperCase()), weight));
+        return mix;
+    }
+
+    private static Map<Integer, Integer> parseSizes(final String value) {
+        final Map<Integer, Integer> sizes = new HashMap<>();
+        parseWeights(value).forEach((key, weight) -> sizes.put(Integer.parseInt(key), weight));
+        return sizes;
+    }
+
+    private static Map<String, Integer> parseWeights(final String value) {
+        final Map<String, Integer> weights = new HashMap<>();
+        for (final String pair : value.split(",")) {
+            final String[] parts = pair.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid weight: " + pair);
+            }
+            weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    private LatencyRecorder client(final long start, final long end) {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        final Random random = ThreadLocalRandom.current();
+        final int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        long time = nanoTime();
+        while (time < end && !Thread.currentThread().isInterrupted()) {
+            final Operation operation = choose(mix, random.nextInt(total));
+            Boolean ok;
+            try {
+                ok = perform(operation, random);
+            } catch (final RuntimeException ex) {
+                LOGGER.debug("Error performing {}: {}", operation, ex.getMessage());
+                ok = false;
+            }
+            final long finished = nanoTime();
+            if (time >= start) {
+                recorder.record(operation.name().toLowerCase(), finished - time, ok);
+            }
+            time = finished;
+        }
+        return recorder;
+    }
+
+    private Boolean perform(final Operation operation, final Random random) {
+        switch (operation) {
+            case WRITE:
+                return addChild(containers.get(random.nextInt(containers.size())), random);
+            case MEMENTO:
+                // Every resource created while populating existed at the end of it
+                return service.get(target(random, populatedChildren), populated).map(LoadGenerator::count)
+                    .isPresent();
+            case SCAN:
+                return service.scan(PARTITION).count() > 0L;
+            default:
+                return service.get(target(random, children.size())).map(LoadGenerator::count).isPresent();
+        }
+    }
+
+    private IRI target(final Random random, final int limit) {
+        // Half of the reads go to containers, skewed towards the first, so that a few of them are hot
+        if (limit == 0 || random.nextBoolean()) {
+            final double skew = random.nextDouble();
+            return containers.get((int) (skew * skew * skew * containers.size()));
+        }
+        return children.get(random.nextInt(limit));
+    }
+
+    private Boolean addChild(final IRI container, final Random random) {
+        final IRI child = rdf.createIRI(container.getIRIString() + "/child" + counter.incrementAndGet());
+        if (!service.put(child, dataset(child, LDP.RDFSource, size(random)))) {
+            return false;
+        }
+        children.add(child);
+        // As the containment consumer would, append the child to its container
+        return service.write(container, empty(), of(rdf.createQuad(LDP.PreferContainment, container, LDP.contains,
+                        child)), now(), false);
+    }
+
+    private int size(final Random random) {
+        return choose(sizes, random.nextInt(sizes.values().stream().mapToInt(Integer::intValue).sum()));
+    }
+
+    private static <T> T choose(final Map<T, Integer> weights, final int value) {
+        int remaining = value;
+        T chosen = null;
+        for (final Map.Entry<T, Integer> weight : weights.entrySet()) {
+            chosen = weight.getKey();
+            remaining -= weight.getValue();
+            if (remaining < 0) {
+                break;
+            }
+        }
+        return chosen;
+    }
+
+    private static Dataset dataset(final IRI identifier, final IRI interactionModel, final int size) {
+        final Dataset dataset = rdf.createDataset();
+        dataset.add(rdf.createQuad(Trellis.PreferServerManaged, identifier, type, interactionModel));
+        for (int i = 1; i < size; ++i) {
+            dataset.add(rdf.createQuad(Trellis.PreferUserManaged, identifier, DC.description,
+                        rdf.createLiteral(DESCRIPTION + " " + i)));
+        }
+        return dataset;
+    }
+
+    private static long count(final Resource resource) {
+        try (final Stream<? extends Quad> quads = resource.stream()) {
+            return quads.count();
+        }
+    }
+}
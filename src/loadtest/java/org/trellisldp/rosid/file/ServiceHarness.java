@@ -0,0 +1,90 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.curator.framework.CuratorFrameworkFactory.newClient;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.test.TestingServer;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+/**
+ * A file-based resource service whose Zookeeper server runs in-process and whose Kafka producer is a mock, so
+ * that only the file store is measured.
+ *
+ * @author acoburn
+ */
+final class ServiceHarness implements Closeable {
+
+    private final TestingServer zookeeper;
+    private final CuratorFramework curator;
+    private final FileResourceService service;
+    private final File root;
+    private final Boolean temporary;
+
+    /**
+     * Start a resource service
+     * @param directory the directory in which each partition has a subdirectory, or null for a temporary
+     *        directory that is removed when the service is closed
+     * @param partitions the partition names
+     * @param async whether resources are cached asynchronously
+     * @throws Exception if the service could not be started
+     */
+    ServiceHarness(final File directory, final Collection<String> partitions, final Boolean async) throws Exception {
+        this.temporary = directory == null;
+        this.root = temporary ? Files.createTempDirectory("trellis-rosid-load").toFile() : directory;
+        final Map<String, String> partitionData = new HashMap<>();
+        final Map<String, String> partitionUrls = new HashMap<>();
+        for (final String partition : partitions) {
+            partitionData.put(partition, new File(root, partition).getAbsolutePath());
+            partitionUrls.put(partition, "http://localhost/" + partition + "/");
+        }
+        this.zookeeper = new TestingServer(true);
+        this.curator = newClient(zookeeper.getConnectString(), new RetryNTimes(10, 1000));
+        curator.start();
+        this.service = new FileResourceService(partitionData, partitionUrls, curator,
+                new MockProducer<>(true, new StringSerializer(), new StringSerializer()), event -> { },
+                () -> randomUUID().toString(), async);
+    }
+
+    /**
+     * Get the resource service
+     * @return the resource service
+     */
+    FileResourceService getService() {
+        return service;
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+        curator.close();
+        zookeeper.close();
+        if (temporary) {
+            deleteDirectory(root);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Math.max;
+import static java.lang.System.nanoTime;
+import static java.time.Instant.now;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.locks.LockSupport.parkNanos;
+import static java.util.stream.Collectors.toCollection;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.vocabulary.RDF.type;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.Dataset;
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.apache.commons.rdf.api.RDF;
+import org.slf4j.Logger;
+import org.trellisldp.api.Resource;
+import org.trellisldp.rosid.file.WorkloadTrace.Event;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * Replay a {@link WorkloadTrace} against a file-based resource service, and report the throughput and latency
+ * percentiles of each operation.
+ *
+ * <p>Each traced resource is replayed as a resource named by the hash of its identifier, and its data is
+ * generated from that hash, with the recorded number and size of quads, so that every replay of a trace writes
+ * the same data. Calls are issued at their recorded offsets, divided by the speed, or as fast as possible when
+ * the speed is zero. The calls for one resource are always issued in order, by the same client, and a read
+ * that finds a resource the trace did not, or misses one the trace found, is counted as an error.</p>
+ *
+ * <p>Run with {@code ./gradlew loadTest -PloadTestMain=org.trellisldp.rosid.file.TraceReplayer
+ * -PloadTestArgs="trace.tsv --speed 10"}.</p>
+ *
+ * @author acoburn
+ */
+public final class TraceReplayer {
+
+    private static final Logger LOGGER = getLogger(TraceReplayer.class);
+
+    private static final RDF rdf = AbstractFileResource.rdf;
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // The size of a resource that existed before the trace began
+    private static final long SEED_QUADS = 5L;
+    private static final long SEED_BYTES = 500L;
+
+    // Marks the end of the trace for a client
+    private static final Event END = new Event(0L, WorkloadTrace.Operation.SCAN, "", "", 0L, 0L, 0L, "");
+
+    private final FileResourceService service;
+    private final double speed;
+    private final int threads;
+
+    /**
+     * Create a trace replayer
+     * @param service the resource service
+     * @param speed the factor by which the trace is accelerated, or zero to issue calls as fast as possible
+     * @param threads the number of concurrent clients
+     */
+    public TraceReplayer(final FileResourceService service, final double speed, final int threads) {
+        if (speed < 0.0 || threads < 1) {
+            throw new IllegalArgumentException("Invalid speed or number of threads");
+        }
+        this.service = service;
+        this.speed = speed;
+        this.threads = threads;
+    }
+
+    /**
+     * Create the resources that a trace reads before it writes them, as they existed before the trace began
+     * @param events the events of the trace
+     * @return the number of resources created
+     */
+    public long seed(final Stream<Event> events) {
+        final Set<String> written = new HashSet<>();
+        final Set<String> seeded = new TreeSet<>();
+        events.forEach(event -> {
+            final String resource = event.getPartition() + "/" + event.getKey();
+            if (event.getOperation() == WorkloadTrace.Operation.PUT) {
+                written.add(resource);
+            } else if (!written.contains(resource) && (event.getOperation() == WorkloadTrace.Operation.PURGE ||
+                        "hit".equals(event.getDetail()) || event.getOperation() == WorkloadTrace.Operation.MEMENTO)) {
+                seeded.add(resource);
+            }
+        });
+        return seeded.stream().map(resource -> rdf.createIRI("trellis:" + resource)).filter(identifier ->
+                service.put(identifier, dataset(identifier, new Event(0L, WorkloadTrace.Operation.PUT, "", "",
+                            0L, SEED_QUADS, SEED_BYTES, "-")))).count();
+    }
+
+    /**
+     * Replay a trace
+     * @param events the events of the trace
+     * @return the report
+     * @throws InterruptedException if interrupted while replaying the trace
+     */
+    public LatencyRecorder.Report replay(final Stream<Event> events) throws InterruptedException {
+        final List<BlockingQueue<Event>> queues = new ArrayList<>();
+        final List<LatencyRecorder> recorders = new ArrayList<>();
+        final List<Thread> clients = new ArrayList<>();
+        final long start = nanoTime();
+        for (int i = 0; i < threads; ++i) {
+            final BlockingQueue<Event> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            final LatencyRecorder recorder = new LatencyRecorder();
+            final Thread client = new Thread(() -> client(queue, recorder, start), "trellis-rosid-replay-" + i);
+            queues.add(queue);
+            recorders.add(recorder);
+            clients.add(client);
+            client.start();
+        }
+
+        try {
+            for (final Event event : (Iterable<Event>) events::iterator) {
+                // A client falls behind rather than reordering the calls for a resource
+                queues.get(Math.floorMod(event.getKey().hashCode(), threads)).put(event);
+            }
+        } finally {
+            for (final BlockingQueue<Event> queue : queues) {
+                queue.put(END);
+            }
+            for (final Thread client : clients) {
+                client.join();
+            }
+        }
+
+        final LatencyRecorder merged = new LatencyRecorder();
+        recorders.forEach(merged::add);
+        return merged.report(nanoTime() - start);
+    }
+
+    private void client(final BlockingQueue<Event> queue, final LatencyRecorder recorder, final long start) {
+        try {
+            Event event = queue.take();
+            while (event != END) {
+                if (speed > 0.0) {
+                    final long due = start + (long) (MICROSECONDS.toNanos(event.getOffset()) / speed);
+                    parkNanos(max(0L, due - nanoTime()));
+                }
+                final long begin = nanoTime();
+                Boolean ok;
+                try {
+                    ok = perform(event);
+                } catch (final RuntimeException ex) {
+                    LOGGER.debug("Error replaying {}: {}", event, ex.getMessage());
+                    ok = false;
+                }
+                recorder.record(event.getOperation().name().toLowerCase(), nanoTime() - begin, ok);
+                event = queue.take();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Boolean perform(final Event event) {
+        final IRI identifier = rdf.createIRI("trellis:" + event.getPartition() + "/" + event.getKey());
+        switch (event.getOperation()) {
+            case GET:
+                // A read that missed in the trace is expected to miss again; one that failed may do either
+                final boolean found = service.get(identifier).map(TraceReplayer::count).isPresent();
+                return event.isFailed() || found == "hit".equals(event.getDetail());
+            case MEMENTO:
+                final long age = event.isFailed() ? 0L : (long) (Long.parseLong(event.getDetail()) /
+                        max(1.0, speed));
+                service.get(identifier, now().minusMillis(age)).ifPresent(TraceReplayer::count);
+                return true;
+            case PUT:
+                return service.put(identifier, dataset(identifier, event));
+            case PURGE:
+                service.purge(identifier).count();
+                return true;
+            default:
+                return service.scan(event.getPartition()).count() >= 0L;
+        }
+    }
+
+    /**
+     * Generate the data of a traced write
+     * @param identifier the identifier
+     * @param event the traced write
+     * @return the data, which is the same for every replay of the event
+     */
+    static Dataset dataset(final IRI identifier, final Event event) {
+        final Dataset dataset = rdf.createDataset();
+        final IRI model = "-".equals(event.getDetail()) || event.isFailed() ? LDP.RDFSource :
+            rdf.createIRI(event.getDetail());
+        dataset.add(rdf.createQuad(Trellis.PreferServerManaged, identifier, type, model));
+        final long remaining = event.getQuads() - 1L;
+        if (remaining > 0L) {
+            // Each literal is padded, so that the quads have about the recorded size
+            final Random random = new Random(identifier.hashCode() ^ event.getOffset());
+            final int base = identifier.ntriplesString().length() + DC.description.ntriplesString().length() +
+                Trellis.PreferUserManaged.ntriplesString().length() + 8;
+            final long length = max(1L, (event.getBytes() - dataset.stream().findFirst().get().toString().length())
+                    / remaining - base);
+            for (long i = 0; i < remaining; ++i) {
+                final StringBuilder value = new StringBuilder(Long.toString(i)).append(' ');
+                while (value.length() < length) {
+                    value.append((char) ('a' + random.nextInt(26)));
+                }
+                dataset.add(rdf.createQuad(Trellis.PreferUserManaged, identifier, DC.description,
+                            rdf.createLiteral(value.toString())));
+            }
+        }
+        return dataset;
+    }
+
+    private static long count(final Resource resource) {
+        try (final Stream<? extends Quad> quads = resource.stream()) {
+            return quads.count();
+        }
+    }
+
+    /**
+     * Replay a trace from the command line
+     * @param args the trace file, followed by optional arguments: --dir path, in which a directory is created for
+     *        each partition, --speed X, --threads N and --async
+     * @throws Exception if the trace could not be replayed
+     */
+    public static void main(final String[] args) throws Exception {
+        if (args.length < 1) {
+            LOGGER.error("Usage: TraceReplayer <trace file> [--dir path] [--speed X] [--threads N] [--async]");
+            return;
+        }
+        final File trace = new File(args[0]);
+        File directory = null;
+        double speed = 1.0;
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        Boolean async = false;
+        for (int i = 1; i < args.length; ++i) {
+            if ("--dir".equals(args[i]) && i + 1 < args.length) {
+                directory = new File(args[++i]);
+            } else if ("--speed".equals(args[i]) && i + 1 < args.length) {
+                speed = Double.parseDouble(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--async".equals(args[i])) {
+                async = true;
+            }
+        }
+
+        final Set<String> partitions;
+        try (final Stream<Event> events = WorkloadTrace.read(trace)) {
+            partitions = events.map(Event::getPartition).filter(name -> !"-".equals(name))
+                .collect(toCollection(TreeSet::new));
+        }
+        LOGGER.info("Replaying {} against the partitions {}", trace, partitions);
+
+        final LatencyRecorder.Report report;
+        final long start;
+        try (final ServiceHarness harness = new ServiceHarness(directory, partitions, async)) {
+            final TraceReplayer replayer = new TraceReplayer(harness.getService(), speed, threads);
+            try (final Stream<Event> events = WorkloadTrace.read(trace)) {
+                LOGGER.info("Created {} resources that existed before the trace began", replayer.seed(events));
+            }
+            start = nanoTime();
+            try (final Stream<Event> events = WorkloadTrace.read(trace)) {
+                report = replayer.replay(events);
+            }
+        }
+        LOGGER.info("Replayed the trace in {} ms:\n{}", NANOSECONDS.toMillis(nanoTime() - start), report);
+    }
+}
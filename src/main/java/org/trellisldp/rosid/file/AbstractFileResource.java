@@ -13,6 +13,8 @@
  */
 package org.trellisldp.rosid.file;
 
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableSet;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.of;
 import static java.util.Optional.ofNullable;
@@ -26,6 +28,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import org.apache.commons.rdf.api.IRI;
 import org.apache.commons.rdf.api.RDF;
@@ -47,6 +50,17 @@ abstract class AbstractFileResource implements Resource {
     protected final File directory;
     protected final ResourceData data;
 
+    private final Supplier<IRI> interactionModel;
+    private final Supplier<Optional<IRI>> membershipResource;
+    private final Supplier<Optional<IRI>> memberRelation;
+    private final Supplier<Optional<IRI>> memberOfRelation;
+    private final Supplier<Optional<IRI>> insertedContentRelation;
+    private final Supplier<Optional<IRI>> inbox;
+    private final Supplier<Optional<IRI>> annotationService;
+    private final Supplier<Collection<IRI>> types;
+    private final Supplier<List<VersionRange>> mementos;
+    private final Supplier<Optional<Binary>> binary;
+
     /**
      * An abstract contructor for creating a file-based resource
      * @param directory the directory
@@ -61,6 +75,20 @@ abstract class AbstractFileResource implements Resource {
         this.identifier = identifier;
         this.directory = directory;
         this.data = data;
+
+        // The derived views are computed lazily, at most once per resource
+        this.interactionModel = memoize(() -> ofNullable(data.getLdpType()).map(rdf::createIRI).orElse(LDP.Resource));
+        this.membershipResource = memoize(() -> ofNullable(data.getMembershipResource()).map(rdf::createIRI));
+        this.memberRelation = memoize(() -> ofNullable(data.getHasMemberRelation()).map(rdf::createIRI));
+        this.memberOfRelation = memoize(() -> ofNullable(data.getIsMemberOfRelation()).map(rdf::createIRI));
+        this.insertedContentRelation = memoize(this::computeInsertedContentRelation);
+        this.inbox = memoize(() -> ofNullable(data.getInbox()).map(rdf::createIRI));
+        this.annotationService = memoize(() -> ofNullable(data.getAnnotationService()).map(rdf::createIRI));
+        this.types = memoize(() -> unmodifiableSet(ofNullable(data.getUserTypes()).orElseGet(Collections::emptyList)
+                    .stream().map(rdf::createIRI).collect(toSet())));
+        this.mementos = memoize(this::computeMementos);
+        this.binary = memoize(() -> ofNullable(data.getBinary()).map(b ->
+                    new Binary(rdf.createIRI(b.getId()), b.getModified(), b.getFormat(), b.getSize())));
     }
 
     @Override
@@ -75,71 +103,110 @@ abstract class AbstractFileResource implements Resource {
 
     @Override
     public List<VersionRange> getMementos() {
-        return ofNullable(data.getGeneratedAtTime()).filter(list -> list.size() > 1)
-            .map(dateTimes -> {
-                final List<VersionRange> mementos = new ArrayList<>();
-                Instant last = dateTimes.get(0);
-                for (final Instant time : dateTimes.subList(1, dateTimes.size())) {
-                    mementos.add(new VersionRange(last, time));
-                    last = time;
-                }
-                return mementos;
-            }).orElseGet(Collections::emptyList);
+        return mementos.get();
     }
 
     @Override
     public IRI getInteractionModel() {
-        return ofNullable(data.getLdpType()).map(rdf::createIRI).orElse(LDP.Resource);
+        return interactionModel.get();
     }
 
     @Override
     public Optional<IRI> getMembershipResource() {
-        return ofNullable(data.getMembershipResource()).map(rdf::createIRI);
+        return membershipResource.get();
     }
 
     @Override
     public Optional<IRI> getMemberRelation() {
-        return ofNullable(data.getHasMemberRelation()).map(rdf::createIRI);
+        return memberRelation.get();
     }
 
     @Override
     public Optional<IRI> getMemberOfRelation() {
-        return ofNullable(data.getIsMemberOfRelation()).map(rdf::createIRI);
+        return memberOfRelation.get();
     }
 
     @Override
     public Optional<IRI> getInsertedContentRelation() {
-        final Optional<IRI> relation = ofNullable(data.getInsertedContentRelation()).map(rdf::createIRI);
-        if (!relation.isPresent() && LDP.DirectContainer.equals(getInteractionModel())) {
-            return of(LDP.MemberSubject);
-        }
-        return relation;
+        return insertedContentRelation.get();
     }
 
     @Override
     public Optional<IRI> getInbox() {
-        return ofNullable(data.getInbox()).map(rdf::createIRI);
+        return inbox.get();
     }
 
     @Override
     public Optional<IRI> getAnnotationService() {
-        return ofNullable(data.getAnnotationService()).map(rdf::createIRI);
+        return annotationService.get();
     }
 
     @Override
     public Collection<IRI> getTypes() {
-        return ofNullable(data.getUserTypes()).orElseGet(Collections::emptyList).stream().map(rdf::createIRI)
-            .collect(toSet());
+        return types.get();
     }
 
     @Override
     public Optional<Binary> getBinary() {
-        return ofNullable(data.getBinary()).map(binary ->
-            new Binary(rdf.createIRI(binary.getId()), binary.getModified(), binary.getFormat(), binary.getSize()));
+        return binary.get();
     }
 
     @Override
     public Instant getModified() {
         return data.getModified();
     }
+
+    private List<VersionRange> computeMementos() {
+        return ofNullable(data.getGeneratedAtTime()).filter(list -> list.size() > 1)
+            .map(dateTimes -> {
+                final List<VersionRange> ranges = new ArrayList<>();
+                Instant last = dateTimes.get(0);
+                for (final Instant time : dateTimes.subList(1, dateTimes.size())) {
+                    ranges.add(new VersionRange(last, time));
+                    last = time;
+                }
+                return unmodifiableList(ranges);
+            }).orElseGet(Collections::emptyList);
+    }
+
+    private Optional<IRI> computeInsertedContentRelation() {
+        final Optional<IRI> relation = ofNullable(data.getInsertedContentRelation()).map(rdf::createIRI);
+        if (!relation.isPresent() && LDP.DirectContainer.equals(getInteractionModel())) {
+            return of(LDP.MemberSubject);
+        }
+        return relation;
+    }
+
+    /**
+     * Wrap a supplier such that its value is computed at most once, on first use
+     * @param supplier the supplier
+     * @param <T> the type of the value
+     * @return a memoizing supplier
+     */
+    static <T> Supplier<T> memoize(final Supplier<T> supplier) {
+        return new Memoized<>(supplier);
+    }
+
+    private static final class Memoized<T> implements Supplier<T> {
+        private final Supplier<T> delegate;
+        private volatile Boolean computed = false;
+        private T value;
+
+        Memoized(final Supplier<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public T get() {
+            if (!computed) {
+                synchronized (this) {
+                    if (!computed) {
+                        value = delegate.get();
+                        computed = true;
+                    }
+                }
+            }
+            return value;
+        }
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+import static java.lang.Math.min;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyIterator;
+import static java.util.Optional.empty;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.CachedResource.MAPPER;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+
+import org.trellisldp.rosid.common.ResourceData;
+
+/**
+ * A resource cache that holds the resource metadata and its quads in a single file, so that the two are always
+ * replaced together.
+ *
+ * <p>The file begins with a line that names the format and gives the length, in bytes, of the two parts of the
+ * header that follow: the resource metadata as a single line of JSON, and a {@link GraphOffsets} table whose
+ * offsets are relative to the end of the header. The quads follow, grouped by graph, to the end of the file.</p>
+ *
+ * @author acoburn
+ */
+final class CacheFile {
+
+    private static final Logger LOGGER = getLogger(CacheFile.class);
+
+    private static final String FORMAT = "trellis-rosid-cache";
+
+    private static final int VERSION = 1;
+
+    // The first line of a cache file is never longer than this
+    private static final int MAX_PREAMBLE = 128;
+
+    private final ResourceData data;
+    private final GraphOffsets offsets;
+    private final long start;
+
+    private CacheFile(final ResourceData data, final GraphOffsets offsets, final long start) {
+        this.data = data;
+        this.offsets = offsets;
+        this.start = start;
+    }
+
+    /**
+     * Get the resource metadata
+     * @return the resource data
+     */
+    public ResourceData getData() {
+        return data;
+    }
+
+    /**
+     * Get the location of each graph in the file
+     * @return the graph offsets, relative to the start of the file
+     */
+    public GraphOffsets getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Get the position at which the quads begin
+     * @return the byte offset
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Serialize the header of a cache file
+     * @param data the resource metadata
+     * @param offsets the location of each graph in the quads that follow the header
+     * @return the header
+     * @throws IOException if the metadata could not be serialized
+     */
+    static byte[] header(final ResourceData data, final GraphOffsets offsets) throws IOException {
+        final byte[] metadata = MAPPER.writeValueAsBytes(data);
+        final StringBuilder table = new StringBuilder();
+        offsets.lines().forEach(line -> table.append(line).append('\n'));
+        final byte[] sections = table.toString().getBytes(UTF_8);
+        final ByteArrayOutputStream header = new ByteArrayOutputStream(metadata.length + sections.length + 64);
+        header.write((FORMAT + " " + VERSION + " " + (metadata.length + 1) + " " + sections.length + "\n")
+                .getBytes(UTF_8));
+        header.write(metadata);
+        header.write('\n');
+        header.write(sections);
+        return header.toByteArray();
+    }
+
+    /**
+     * Read the header of a cache file
+     * @param file the file
+     * @return the header, or an empty value if the file is malformed
+     * @throws IOException if the file does not exist or could not be read
+     */
+    static Optional<CacheFile> read(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            return read(channel, file);
+        }
+    }
+
+    /**
+     * Read the header of an open cache file, without moving the position of the channel
+     * @param channel the channel
+     * @param file the file, for logging
+     * @return the header, or an empty value if the file is malformed
+     * @throws IOException if the file could not be read
+     */
+    static Optional<CacheFile> read(final FileChannel channel, final File file) throws IOException {
+        final long size = channel.size();
+        final byte[] preamble = read(channel, 0L, (int) min(MAX_PREAMBLE, size));
+        int end = 0;
+        while (end < preamble.length && preamble[end] != '\n') {
+            ++end;
+        }
+        final String[] parts = new String(preamble, 0, end, UTF_8).split(" ");
+        try {
+            if (end == preamble.length || parts.length != 4 || !FORMAT.equals(parts[0]) ||
+                    parseInt(parts[1]) != VERSION) {
+                LOGGER.warn("Ignoring cache in an unknown format at {}", file);
+                return empty();
+            }
+            final long metadata = parseLong(parts[2]);
+            final long sections = parseLong(parts[3]);
+            final long start = end + 1L + metadata + sections;
+            if (metadata < 1L || sections < 0L || start > size || metadata + sections > Integer.MAX_VALUE) {
+                LOGGER.warn("Ignoring truncated cache at {}", file);
+                return empty();
+            }
+            final byte[] header = read(channel, end + 1L, (int) (metadata + sections));
+            final ResourceData data = MAPPER.readValue(header, 0, (int) metadata, ResourceData.class);
+            final String table = new String(header, (int) metadata, (int) sections, UTF_8);
+            return GraphOffsets.parse(table.isEmpty() ? emptyIterator() : asList(table.split("\n")).iterator(),
+                    size - start, file)
+                .map(offsets -> new CacheFile(data, offsets.at(start), start));
+        } catch (final NumberFormatException | JsonProcessingException ex) {
+            LOGGER.warn("Ignoring malformed cache at {}: {}", file, ex.getMessage());
+        }
+        return empty();
+    }
+
+    private static byte[] read(final FileChannel channel, final long position, final int length)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of cache file");
+            }
+        }
+        return buffer.array();
+    }
+}
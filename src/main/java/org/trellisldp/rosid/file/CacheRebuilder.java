@@ -0,0 +1,377 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Math.max;
+import static java.lang.System.lineSeparator;
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.lines;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.Files.walk;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toSet;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+
+/**
+ * A tool that regenerates the cache of every resource in a partition from its journal, as is needed when the
+ * format of the cache changes.
+ *
+ * <p>Resources are rebuilt in parallel, either all of those in a partition or those named in a manifest, and
+ * may be limited to a number of resources and a number of journal bytes per second, so that a rebuild can run
+ * alongside the service; each resource is also charged to the {@link IOBudget} of the partition, which the
+ * service shares. Each cache is replaced with atomic renames, as it is by the service itself, and a journal that
+ * changes while its cache is rebuilt is read again; nothing else in the partition is modified.</p>
+ *
+ * <p>A rebuild may record its progress in a checkpoint file, to which each resource is added once its cache
+ * has been rebuilt. A rebuild that is interrupted can then be run again with the same checkpoint to continue
+ * where it stopped. The checkpoint is removed once a rebuild finishes without errors.</p>
+ *
+ * @author acoburn
+ */
+public final class CacheRebuilder {
+
+    private static final Logger LOGGER = getLogger(CacheRebuilder.class);
+
+    private static final int REBUILD_ATTEMPTS = 3;
+    private static final long PROGRESS_INTERVAL = 1000L;
+
+    private final int parallelism;
+    private final long interval;
+    private final long bytesPerSecond;
+
+    /**
+     * The outcome of a cache rebuild
+     */
+    public static final class Report {
+        private final AtomicLong resources = new AtomicLong();
+        private final AtomicLong rebuilt = new AtomicLong();
+        private final AtomicLong resumed = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final List<File> failures = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * Get the number of resources that were found
+         * @return the number of resources
+         */
+        public long getResources() {
+            return resources.get();
+        }
+
+        /**
+         * Get the number of caches that were rebuilt
+         * @return the number of caches
+         */
+        public long getRebuilt() {
+            return rebuilt.get();
+        }
+
+        /**
+         * Get the number of resources that were skipped, as an earlier run had already rebuilt them
+         * @return the number of resources
+         */
+        public long getResumed() {
+            return resumed.get();
+        }
+
+        /**
+         * Get the number of journal bytes that were read
+         * @return the number of bytes
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * Get the number of resources whose cache could not be rebuilt
+         * @return the number of errors
+         */
+        public long getErrors() {
+            return failures.size();
+        }
+
+        /**
+         * Get the resource directories whose cache could not be rebuilt
+         * @return the resource directories
+         */
+        public List<File> getFailures() {
+            synchronized (failures) {
+                return unmodifiableList(new ArrayList<>(failures));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "resources: " + getResources() + ", rebuilt: " + getRebuilt() + ", resumed: " + getResumed() +
+                ", bytes: " + getBytes() + ", errors: " + getErrors();
+        }
+    }
+
+    /**
+     * Create a cache rebuilder
+     * @param parallelism the number of caches to rebuild concurrently
+     * @param resourcesPerSecond the maximum number of resources to rebuild per second, or zero for no limit
+     * @param bytesPerSecond the maximum number of journal bytes to read per second, or zero for no limit
+     */
+    public CacheRebuilder(final int parallelism, final long resourcesPerSecond, final long bytesPerSecond) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.interval = resourcesPerSecond > 0 ? SECONDS.toNanos(1L) / resourcesPerSecond : 0L;
+        this.bytesPerSecond = max(0L, bytesPerSecond);
+    }
+
+    /**
+     * Rebuild the caches of all of the resources in a partition
+     * @param partition the partition directory
+     * @param checkpoint a file in which to record progress, or null to rebuild every resource
+     * @return a report of the rebuild
+     * @throws IOException if the partition or checkpoint could not be read
+     */
+    public Report rebuild(final File partition, final File checkpoint) throws IOException {
+        try (final Stream<Path> paths = walk(partition.toPath(), PartitionLayout.read(partition).getResourceDepth())) {
+            return rebuild(partition, paths.map(Path::toFile), checkpoint);
+        }
+    }
+
+    /**
+     * Rebuild the caches of the resources named in a manifest
+     * @param partition the partition directory
+     * @param manifest a file that lists resource identifiers, one per line
+     * @param checkpoint a file in which to record progress, or null to rebuild every resource
+     * @return a report of the rebuild
+     * @throws IOException if the manifest or checkpoint could not be read
+     */
+    public Report rebuild(final File partition, final File manifest, final File checkpoint) throws IOException {
+        final PartitionLayout layout = PartitionLayout.read(partition);
+        try (final Stream<String> identifiers = lines(manifest.toPath(), UTF_8)) {
+            return rebuild(partition, identifiers.map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .map(identifier -> layout.directory(partition, identifier)), checkpoint);
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private Report rebuild(final File partition, final Stream<File> candidates, final File checkpoint)
+            throws IOException {
+        LOGGER.info("Rebuilding caches in partition at {}", partition.getAbsolutePath());
+        final Set<String> completed = readCheckpoint(checkpoint);
+        final Report report = new Report();
+        final IOBudget budget = IOBudget.of(partition);
+        final ExecutorService executor = newFixedThreadPool(parallelism);
+        // Bound the number of queued resources so that a large partition is not held in memory
+        final Semaphore permits = new Semaphore(parallelism * 4);
+        final long start = nanoTime();
+        long next = start;
+        final BufferedWriter progress = openCheckpoint(checkpoint);
+        try {
+            final Iterator<File> directories = candidates.filter(dir -> new File(dir, RESOURCE_JOURNAL).isFile())
+                .iterator();
+            while (directories.hasNext()) {
+                final File directory = directories.next();
+                report.resources.incrementAndGet();
+                final String key = partition.toPath().relativize(directory.toPath()).toString();
+                if (completed.contains(key)) {
+                    report.resumed.incrementAndGet();
+                    continue;
+                }
+                // Pace the resources by whichever of the limits is the slower
+                final long wait = next - nanoTime();
+                if (wait > 0L) {
+                    NANOSECONDS.sleep(wait);
+                }
+                final long length = new File(directory, RESOURCE_JOURNAL).length();
+                next = max(next, nanoTime()) + max(interval, bytesPerSecond > 0L ?
+                        length * SECONDS.toNanos(1L) / bytesPerSecond : 0L);
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        budget.acquire(length);
+                        if (rebuildResource(directory, report)) {
+                            recordCheckpoint(progress, key);
+                            final long count = report.rebuilt.incrementAndGet();
+                            if (count % PROGRESS_INTERVAL == 0) {
+                                LOGGER.info("Rebuilt {} caches ({}/s)", count,
+                                        count * SECONDS.toNanos(1L) / max(1L, nanoTime() - start));
+                            }
+                        } else {
+                            report.failures.add(directory);
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Cache rebuild was interrupted");
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, NANOSECONDS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            // The checkpoint is only closed once no task can write to it
+            if (nonNull(progress)) {
+                progress.close();
+            }
+        }
+
+        report.getFailures().forEach(directory -> LOGGER.error("Could not rebuild the cache at {}", directory));
+        if (report.getErrors() == 0L && !Thread.currentThread().isInterrupted() && nonNull(checkpoint) &&
+                !checkpoint.delete()) {
+            LOGGER.warn("Could not remove the checkpoint at {}", checkpoint);
+        }
+        LOGGER.info("Finished rebuilding caches in partition at {}: {}", partition.getAbsolutePath(), report);
+        return report;
+    }
+
+    private static Boolean rebuildResource(final File directory, final Report report) {
+        final Optional<String> identifier = PartitionChecker.identifier(directory);
+        if (!identifier.isPresent()) {
+            LOGGER.error("Could not determine the identifier for the resource at {}", directory);
+            return false;
+        }
+        return rebuild(directory, identifier.get(), report.bytes::addAndGet);
+    }
+
+    /**
+     * Rebuild the cache of a resource from its journal, again if the journal changes in the meantime
+     * @param directory the resource directory
+     * @param identifier the resource identifier
+     * @param bytes a consumer of the number of journal bytes that each attempt reads
+     * @return true if the cache was rebuilt from the current journal
+     */
+    static Boolean rebuild(final File directory, final String identifier, final LongConsumer bytes) {
+        final File journal = new File(directory, RESOURCE_JOURNAL);
+        try {
+            for (int attempt = 1; attempt <= REBUILD_ATTEMPTS; ++attempt) {
+                final long length = journal.length();
+                final long modified = journal.lastModified();
+                bytes.accept(length);
+                if (!CachedResource.rebuild(directory, identifier)) {
+                    return false;
+                }
+                // A cache built from a journal that changed in the meantime may have replaced a newer one
+                if (journal.length() == length && journal.lastModified() == modified) {
+                    return true;
+                }
+                LOGGER.debug("Journal at {} changed during its rebuild", journal);
+            }
+        } catch (final UncheckedIOException ex) {
+            LOGGER.error("Error rebuilding the cache at {}: {}", directory, ex.getMessage());
+            return false;
+        }
+        LOGGER.error("Journal at {} changed during each of {} rebuilds", journal, REBUILD_ATTEMPTS);
+        return false;
+    }
+
+    private static Set<String> readCheckpoint(final File checkpoint) throws IOException {
+        if (isNull(checkpoint) || !checkpoint.exists()) {
+            return Collections.emptySet();
+        }
+        try (final Stream<String> keys = lines(checkpoint.toPath(), UTF_8)) {
+            final Set<String> completed = keys.filter(key -> !key.isEmpty()).collect(toSet());
+            LOGGER.info("Resuming from a checkpoint of {} resources at {}", completed.size(), checkpoint);
+            return completed;
+        }
+    }
+
+    private static BufferedWriter openCheckpoint(final File checkpoint) throws IOException {
+        return isNull(checkpoint) ? null : newBufferedWriter(checkpoint.toPath(), UTF_8, CREATE, APPEND);
+    }
+
+    private static void recordCheckpoint(final BufferedWriter progress, final String key) {
+        if (nonNull(progress)) {
+            // A line is only ever written whole, so a torn checkpoint costs at most one resource being rebuilt
+            synchronized (progress) {
+                try {
+                    progress.write(key + lineSeparator());
+                    progress.flush();
+                } catch (final IOException ex) {
+                    LOGGER.warn("Could not record {} in the checkpoint: {}", key, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuild the caches in a partition from the command line
+     * @param args the partition directory, followed by optional arguments: --manifest FILE, --checkpoint FILE,
+     *        --threads N, --rate N and --bytes N
+     * @throws IOException if the partition could not be read
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            LOGGER.error("Usage: CacheRebuilder <partition directory> [--manifest FILE] [--checkpoint FILE] " +
+                    "[--threads N] [--rate N] [--bytes N]");
+            return;
+        }
+        File manifest = null;
+        File checkpoint = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long rate = 0L;
+        long bytes = 0L;
+        for (int i = 1; i < args.length; ++i) {
+            if ("--manifest".equals(args[i]) && i + 1 < args.length) {
+                manifest = new File(args[++i]);
+            } else if ("--checkpoint".equals(args[i]) && i + 1 < args.length) {
+                checkpoint = new File(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--rate".equals(args[i]) && i + 1 < args.length) {
+                rate = Long.parseLong(args[++i]);
+            } else if ("--bytes".equals(args[i]) && i + 1 < args.length) {
+                bytes = Long.parseLong(args[++i]);
+            }
+        }
+        final CacheRebuilder rebuilder = new CacheRebuilder(threads, rate, bytes);
+        final File partition = new File(args[0]);
+        final Report report = isNull(manifest) ? rebuilder.rebuild(partition, checkpoint) :
+            rebuilder.rebuild(partition, manifest, checkpoint);
+        if (report.getErrors() > 0) {
+            LOGGER.error("Cache rebuild finished with errors");
+        }
+    }
+}
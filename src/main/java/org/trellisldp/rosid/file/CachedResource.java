@@ -15,44 +15,70 @@ package org.trellisldp.rosid.file;
 
 import static com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS;
 import static java.lang.System.lineSeparator;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Files.deleteIfExists;
-import static java.nio.file.Files.lines;
-import static java.nio.file.Files.move;
-import static java.nio.file.Files.newBufferedWriter;
-import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
-import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
-import static java.nio.file.StandardOpenOption.CREATE;
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
-import static java.nio.file.StandardOpenOption.WRITE;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.time.Instant.now;
 import static java.util.Objects.isNull;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Stream.concat;
 import static java.util.stream.Stream.empty;
+import static org.apache.commons.io.FileUtils.deleteQuietly;
 import static org.slf4j.LoggerFactory.getLogger;
 import static org.trellisldp.rosid.file.Constants.RESOURCE_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
 import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
 import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS_OFFSETS;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
 import static org.trellisldp.rosid.file.FileUtils.stringToQuad;
+import static org.trellisldp.rosid.file.FileUtils.tempFile;
+import static org.trellisldp.rosid.file.RDFPatch.isContainmentQuad;
+import static org.trellisldp.rosid.file.RDFPatch.quadToString;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.AtomicMoveNotSupportedException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
 import java.util.stream.Stream;
 
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.rdf.api.IRI;
 import org.apache.commons.rdf.api.Quad;
-import org.apache.commons.text.RandomStringGenerator;
+import org.apache.commons.rdf.api.Triple;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 
 import org.trellisldp.api.Resource;
 import org.trellisldp.rosid.common.ResourceData;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
 
 /**
  * An object that mediates access to the resource cache files.
@@ -61,12 +87,14 @@ import org.trellisldp.rosid.common.ResourceData;
  */
 public class CachedResource extends AbstractFileResource {
 
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    static final ObjectMapper MAPPER = new ObjectMapper();
 
     private static final Logger LOGGER = getLogger(CachedResource.class);
 
-    private static final RandomStringGenerator generator = new RandomStringGenerator.Builder()
-        .withinRange('a', 'z').build();
+    private final Boolean mapped;
+
+    // Caches at least this large are memory-mapped, when they cannot change while they are read
+    private static final long MAP_THRESHOLD = 64L * 1024L;
 
     static {
         MAPPER.configure(WRITE_DATES_AS_TIMESTAMPS, false);
@@ -80,7 +108,13 @@ public class CachedResource extends AbstractFileResource {
      * @param data the resource data
      */
     protected CachedResource(final File directory, final IRI identifier, final ResourceData data) {
+        this(directory, identifier, data, false);
+    }
+
+    private CachedResource(final File directory, final IRI identifier, final ResourceData data,
+            final Boolean mapped) {
         super(directory, identifier, data);
+        this.mapped = mapped;
         LOGGER.debug("Fetching a Cached Resource for {}", identifier.getIRIString());
     }
 
@@ -94,6 +128,18 @@ public class CachedResource extends AbstractFileResource {
         return read(directory).map(d -> new CachedResource(directory, identifier, d));
     }
 
+    /**
+     * Retrieve a cached resource, if it exists
+     * @param directory the directory
+     * @param identifier the identifier
+     * @param immutable whether the cache is known not to change, as on a read-only replica, so that large
+     *        caches may be memory-mapped
+     * @return the resource
+     */
+    static Optional<Resource> find(final File directory, final IRI identifier, final Boolean immutable) {
+        return read(directory).map(d -> new CachedResource(directory, identifier, d, immutable));
+    }
+
     /**
      * Read the cached resource from a directory
      * @param directory the directory
@@ -104,6 +150,16 @@ public class CachedResource extends AbstractFileResource {
             return Optional.empty();
         }
 
+        try {
+            LOGGER.debug("Parsing cache header");
+            return CacheFile.read(new File(directory, RESOURCE_COMBINED_CACHE)).map(CacheFile::getData);
+        } catch (final NoSuchFileException ex) {
+            LOGGER.trace("No cache in {}; looking for a cache in the older format", directory);
+        } catch (final IOException ex) {
+            LOGGER.warn("Error reading cached resource: {}", ex.getMessage());
+            return Optional.empty();
+        }
+
         try {
             LOGGER.debug("Parsing JSON metadata");
             return Optional.of(MAPPER.readValue(new File(directory, RESOURCE_CACHE), ResourceData.class));
@@ -113,6 +169,17 @@ public class CachedResource extends AbstractFileResource {
         return Optional.empty();
     }
 
+    /**
+     * Get the file that holds the cached metadata of a resource. Caches written before the metadata and quads were
+     * combined keep the metadata in a file of its own.
+     * @param directory the directory
+     * @return the file, which may not exist
+     */
+    static File cacheFile(final File directory) {
+        final File file = new File(directory, RESOURCE_COMBINED_CACHE);
+        return file.exists() ? file : new File(directory, RESOURCE_CACHE);
+    }
+
     /**
      * Write the resource data into a file as JSON
      * @param directory the directory
@@ -152,83 +219,440 @@ public class CachedResource extends AbstractFileResource {
      * @return true if the write operation succeeds
      */
     public static Boolean write(final File directory, final IRI identifier, final Instant time) {
+        return write(directory, identifier, time, false);
+    }
+
+    /**
+     * Write the resource data into a file as JSON, checking the child index against the journal
+     * @param directory the directory
+     * @param identifier the resource identifier
+     * @return true if the write operation succeeds
+     */
+    static Boolean rebuild(final File directory, final String identifier) {
+        return write(directory, rdf.createIRI(identifier), now(), true);
+    }
+
+    private static Boolean write(final File directory, final IRI identifier, final Instant time,
+            final Boolean reconcile) {
 
         if (isNull(directory)) {
             return false;
         }
 
-        // Write the JSON file
-        LOGGER.debug("Writing JSON cache for {}", identifier);
+        LOGGER.debug("Writing cache for {}", identifier);
         final Optional<ResourceData> data = VersionedResource.read(directory, identifier, time);
-        final File jsonSource = new File(directory, RESOURCE_CACHE + random(16));
-        try {
-            if (data.isPresent()) {
-                MAPPER.writeValue(jsonSource, data.get());
-                moveIntoPlace(jsonSource, new File(directory, RESOURCE_CACHE));
-            } else {
-                LOGGER.error("No resource data to cache for {}", identifier.getIRIString());
-                return false;
-            }
-        } catch (final IOException ex) {
-            LOGGER.error("Error writing resource metadata cache for {}: {}",
-                    identifier.getIRIString(), ex.getMessage());
+        if (!data.isPresent()) {
+            LOGGER.error("No resource data to cache for {}", identifier.getIRIString());
             return false;
         }
 
-        // Write the quads
-        LOGGER.debug("Writing NQuads cache for {}", identifier);
-        final File nquadSource = new File(directory, RESOURCE_QUADS + random(16));
-        try (final BufferedWriter writer = newBufferedWriter(nquadSource.toPath(), UTF_8, CREATE, WRITE,
-                    TRUNCATE_EXISTING)) {
+        // Write the quads, grouped by graph; containment triples are kept in the child index rather than the
+        // cache, so they are only read from the journal to build a missing index or, during a repair, to check
+        // the index for a change that never reached it, as when a process stops between the two writes.
+        final Boolean containment = reconcile || !ChildIndex.exists(directory);
+        final List<IRI> children = new ArrayList<>();
+        final File source = tempFile(directory, RESOURCE_COMBINED_CACHE);
+        try {
+            final GraphPartitionedWriter writer = new GraphPartitionedWriter();
             final File file = new File(directory, RESOURCE_JOURNAL);
-            try (final Stream<? extends Quad> stream = RDFPatch.asStream(rdf, file, identifier, time)) {
-                final Iterator<String> lineIter = stream.map(RDFPatch.quadToString).iterator();
-                while (lineIter.hasNext()) {
-                    writer.write(lineIter.next() + lineSeparator());
+            try (final Stream<? extends Quad> stream = RDFPatch.asStream(rdf, file, identifier, time,
+                            containment)) {
+                final Iterator<? extends Quad> quadIter = stream.iterator();
+                while (quadIter.hasNext()) {
+                    final Quad quad = quadIter.next();
+                    if (isContainment(quad)) {
+                        children.add((IRI) quad.getObject());
+                    } else {
+                        writer.write(quad);
+                    }
                 }
             }
+            writer.join(source, data.get());
         } catch (final IOException ex) {
             LOGGER.error("Error writing resource cache for {}: {}", identifier.getIRIString(), ex.getMessage());
+            deleteQuietly(source);
             return false;
         }
 
         try {
-            LOGGER.trace("Moving NQuad cache into place for {}", identifier);
-            moveIntoPlace(nquadSource, new File(directory, RESOURCE_QUADS));
+            LOGGER.trace("Moving cache into place for {}", identifier);
+            // The metadata and the quads are replaced together, so that they are never read out of step
+            moveIntoPlace(source, new File(directory, RESOURCE_COMBINED_CACHE));
+            if (new File(directory, RESOURCE_CACHE).exists()) {
+                LOGGER.debug("Removing the cache of {} in the older format", identifier);
+                deleteLegacy(directory);
+            }
         } catch (final IOException ex) {
             LOGGER.error("Error replacing resource cache: {}", ex.getMessage());
+            deleteQuietly(source);
             return false;
         }
-        return true;
+
+        return !containment || writeChildIndex(directory, children);
+    }
+
+    /**
+     * Remove the cache of a resource, in whichever format it was written
+     * @param directory the directory
+     * @throws IOException if the cache could not be removed
+     */
+    static void delete(final File directory) throws IOException {
+        deleteIfExists(new File(directory, RESOURCE_COMBINED_CACHE).toPath());
+        deleteLegacy(directory);
+    }
+
+    private static void deleteLegacy(final File directory) throws IOException {
+        deleteIfExists(new File(directory, RESOURCE_CACHE).toPath());
+        deleteIfExists(new File(directory, RESOURCE_QUADS_OFFSETS).toPath());
+        deleteIfExists(new File(directory, RESOURCE_QUADS).toPath());
+    }
+
+    private static Boolean writeChildIndex(final File directory, final List<IRI> children) {
+        final Boolean indexed = ChildIndex.exists(directory);
+        if (!indexed && children.isEmpty()) {
+            return true;
+        }
+        final Set<String> expected = children.stream().map(IRI::getIRIString).collect(toCollection(TreeSet::new));
+        if (indexed) {
+            try (final Stream<IRI> stream = ChildIndex.stream(rdf, directory)) {
+                if (stream.map(IRI::getIRIString).collect(toCollection(TreeSet::new)).equals(expected)) {
+                    return true;
+                }
+            }
+            LOGGER.warn("Child index in {} does not match the journal; rebuilding it", directory);
+        }
+        return ChildIndex.write(directory, children.stream());
     }
 
     @Override
     public Stream<Quad> stream() {
         LOGGER.trace("Streaming quads for {}", identifier);
-        final File file = new File(directory, RESOURCE_QUADS);
-        if (file.exists()) {
+        final Optional<OpenCache> cache = open(false);
+        if (cache.isPresent()) {
             try {
+                // Older caches may still hold containment triples, which the child index supersedes
+                final Boolean indexed = ChildIndex.exists(directory);
                 // TODO -- JDK9 shortcut Optional::stream and flatMap
-                return lines(file.toPath()).map(line -> stringToQuad(rdf, line)).filter(Optional::isPresent)
-                    .map(Optional::get);
+                final Stream<Quad> quads = cache.get().lines(mapped)
+                    .filter(line -> !indexed || !isContainmentQuad(line)).map(line -> stringToQuad(rdf, line))
+                    .filter(Optional::isPresent).map(Optional::get).onClose(() -> close(cache.get()));
+                return indexed ? concat(quads, containment()) : quads;
             } catch (final IOException ex) {
-                LOGGER.warn("Could not read file at {}: {}", file, ex.getMessage());
+                LOGGER.warn("Could not read cache at {}: {}", cache.get().file, ex.getMessage());
+                close(cache.get());
             }
         }
         return empty();
     }
 
-    private static void moveIntoPlace(final File from, final File to) throws IOException {
+    @Override
+    public Stream<? extends Triple> stream(final Collection<IRI> graphNames) {
+        final Optional<OpenCache> cache = open(true);
+        if (!cache.isPresent()) {
+            return empty();
+        }
+        final Optional<GraphOffsets> offsets = cache.get().offsets;
+        if (!offsets.isPresent()) {
+            close(cache.get());
+            return stream().filter(quad -> quad.getGraphName().filter(graphNames::contains).isPresent())
+                .map(Quad::asTriple);
+        }
+        LOGGER.trace("Streaming quads in {} for {}", graphNames, identifier);
+        final Boolean indexed = ChildIndex.exists(directory);
+        return graphNames.stream().distinct().flatMap(graphName -> {
+            if (indexed && LDP.PreferContainment.equals(graphName)) {
+                return containment();
+            }
+            return offsets.get().get(graphName).map(section -> cache.get().quads(section, mapped))
+                .orElseGet(Stream::empty);
+        }).onClose(() -> close(cache.get())).map(Quad::asTriple);
+    }
+
+    /**
+     * Export the serialized N-Quads of this resource without parsing them
+     * @return the raw quads, or an empty value if the cache cannot be exported as it is stored
+     */
+    public Optional<RawQuads> export() {
+        return export(null);
+    }
+
+    /**
+     * Export the serialized N-Quads in some graphs of this resource without parsing them. Selecting
+     * graphs requires the offset table that accompanies newer caches.
+     * @param graphNames the graphs to export
+     * @return the raw quads, or an empty value if the cache cannot be exported as it is stored
+     */
+    public Optional<RawQuads> export(final Collection<IRI> graphNames) {
+        final Optional<OpenCache> cache = open(true);
+        if (!cache.isPresent()) {
+            return Optional.empty();
+        }
+        try {
+            final FileChannel channel = cache.get().channel;
+            final Optional<GraphOffsets> offsets = cache.get().offsets;
+            final Boolean indexed = ChildIndex.exists(directory);
+            final List<RawQuads.Range> ranges = new ArrayList<>();
+            boolean children = false;
+            if (offsets.isPresent()) {
+                final Map<String, GraphOffsets.Section> sections = offsets.get().getSections();
+                final Collection<String> graphs = isNull(graphNames) ? sections.keySet() :
+                    graphNames.stream().map(IRI::ntriplesString).distinct().collect(toList());
+                for (final String graph : graphs) {
+                    if (indexed && LDP.PreferContainment.ntriplesString().equals(graph)) {
+                        children = true;
+                    } else if (sections.containsKey(graph)) {
+                        final GraphOffsets.Section section = sections.get(graph);
+                        ranges.add(new RawQuads.Range(section.getOffset(), section.getLength()));
+                    }
+                }
+                children = children || indexed && isNull(graphNames);
+            } else if (isNull(graphNames) && !indexed) {
+                ranges.add(new RawQuads.Range(cache.get().start, channel.size() - cache.get().start));
+            } else {
+                // Without an offset table, graphs and stale containment triples can only be filtered by parsing
+                LOGGER.debug("Cache for {} cannot be exported without parsing", identifier);
+                close(cache.get());
+                return Optional.empty();
+            }
+            LOGGER.trace("Exporting {} ranges of the cache for {}", ranges.size(), identifier);
+            return Optional.of(new RawQuads(channel, ranges, children ?
+                        () -> containment().map(quadToString) : null));
+        } catch (final IOException ex) {
+            LOGGER.warn("Could not export file at {}: {}", cache.get().file, ex.getMessage());
+            close(cache.get());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Publish the quads of this resource. The cache is read in bounded chunks, only as a subscriber
+     * requests more quads, and no file is held open between chunks.
+     * @param executor the executor on which the cache is read
+     * @return a publisher of the quads
+     */
+    public Publisher<Quad> publish(final Executor executor) {
+        LOGGER.trace("Publishing quads for {}", identifier);
+        return new ChunkedPublisher<>(() -> {
+            final Boolean indexed = ChildIndex.exists(directory);
+            // TODO -- JDK9 shortcut Optional::stream and flatMap
+            final ChunkedPublisher.Source<Quad> quads = cacheLines(indexed).map(line -> stringToQuad(rdf, line))
+                .filter(Optional::isPresent).map(Optional::get);
+            return indexed ? quads.concat(() -> children(null).map(this::containmentQuad)) : quads;
+        }, executor, ChunkedPublisher.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Publish the quads of this resource as N-Quads lines, without parsing them
+     * @param executor the executor on which the cache is read
+     * @return a publisher of the serialized quads
+     */
+    public Publisher<String> publishLines(final Executor executor) {
+        LOGGER.trace("Publishing serialized quads for {}", identifier);
+        return new ChunkedPublisher<>(() -> {
+            final Boolean indexed = ChildIndex.exists(directory);
+            final ChunkedPublisher.Source<String> lines = cacheLines(indexed).filter(line -> !line.isEmpty());
+            return indexed ? lines.concat(() -> children(null).map(this::containmentQuad).map(quadToString)) : lines;
+        }, executor, ChunkedPublisher.DEFAULT_CHUNK_SIZE);
+    }
+
+    private static void close(final Closeable closeable) {
+        if (!isNull(closeable)) {
+            try {
+                closeable.close();
+            } catch (final IOException ex) {
+                LOGGER.warn("Error closing file: {}", ex.getMessage());
+            }
+        }
+    }
+
+    private ChunkedPublisher.Source<String> cacheLines(final Boolean indexed) {
+        final File file = new File(directory, RESOURCE_COMBINED_CACHE);
+        final ChunkedPublisher.Source<String> lines = limit -> {
+            try {
+                // The file is identified before its header is read, so that a replacement fails the subscription
+                final List<Object> identity = ChunkedPublisher.identify(file);
+                return CacheFile.read(file).map(cache -> ChunkedPublisher.lines(file, cache.getStart(), identity))
+                    .orElseGet(ChunkedPublisher::empty).read(limit);
+            } catch (final NoSuchFileException ex) {
+                return ChunkedPublisher.lines(new File(directory, RESOURCE_QUADS)).read(limit);
+            }
+        };
+        // Older caches may still hold containment triples, which the child index supersedes
+        return indexed ? lines.filter(line -> !isContainmentQuad(line)) : lines;
+    }
+
+    private ChunkedPublisher.Source<IRI> children(final String after) {
+        return limit -> {
+            final List<IRI> children;
+            try (final Stream<IRI> stream = ChildIndex.stream(rdf, directory, after)) {
+                children = stream.limit(limit).collect(toList());
+            }
+            return new ChunkedPublisher.Chunk<>(children, children.size() < limit ? null :
+                    children(children.get(children.size() - 1).getIRIString()));
+        };
+    }
+
+    /**
+     * Open the cache of this resource, preferring a cache in the combined format
+     * @param withOffsets whether to read the offset table of a cache in the older format
+     * @return the open cache, if it exists and is well formed
+     */
+    private Optional<OpenCache> open(final Boolean withOffsets) {
+        final File file = new File(directory, RESOURCE_COMBINED_CACHE);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), READ);
+            // The header is read from the same channel as the quads, so that the two always match
+            final Optional<CacheFile> cache = CacheFile.read(channel, file);
+            if (cache.isPresent()) {
+                return Optional.of(new OpenCache(file, channel, cache.get().getStart(),
+                            Optional.of(cache.get().getOffsets())));
+            }
+            channel.close();
+            return Optional.empty();
+        } catch (final NoSuchFileException ex) {
+            return openLegacy(withOffsets);
+        } catch (final IOException ex) {
+            LOGGER.warn("Could not read cache at {}: {}", file, ex.getMessage());
+            close(channel);
+        }
+        return Optional.empty();
+    }
+
+    private Optional<OpenCache> openLegacy(final Boolean withOffsets) {
+        final File file = new File(directory, RESOURCE_QUADS);
+        FileChannel channel = null;
         try {
-            move(from.toPath(), to.toPath(), ATOMIC_MOVE);
-        } catch (final AtomicMoveNotSupportedException ex) {
-            move(from.toPath(), to.toPath(), REPLACE_EXISTING);
-        } finally {
-            deleteIfExists(from.toPath());
+            channel = FileChannel.open(file.toPath(), READ);
+            // Validate the offsets against the file that was opened, in case the cache was since replaced
+            return Optional.of(new OpenCache(file, channel, 0L, withOffsets ?
+                        GraphOffsets.read(new File(directory, RESOURCE_QUADS_OFFSETS), channel.size()) :
+                        Optional.empty()));
+        } catch (final NoSuchFileException ex) {
+            LOGGER.trace("No cache in {}", directory);
+        } catch (final IOException ex) {
+            LOGGER.warn("Could not read file at {}: {}", file, ex.getMessage());
+            close(channel);
+        }
+        return Optional.empty();
+    }
+
+    private Stream<Quad> containment() {
+        return ChildIndex.stream(rdf, directory).map(this::containmentQuad);
+    }
+
+    private Quad containmentQuad(final IRI child) {
+        return rdf.createQuad(LDP.PreferContainment, identifier, LDP.contains, child);
+    }
+
+    /**
+     * An open cache file, with the position at which its quads begin and, if known, the location of each graph
+     */
+    private static final class OpenCache implements Closeable {
+        private final File file;
+        private final FileChannel channel;
+        private final long start;
+        private final Optional<GraphOffsets> offsets;
+
+        private OpenCache(final File file, final FileChannel channel, final long start,
+                final Optional<GraphOffsets> offsets) {
+            this.file = file;
+            this.channel = channel;
+            this.start = start;
+            this.offsets = offsets;
+        }
+
+        private Stream<String> lines(final Boolean mapped) throws IOException {
+            return lines(start, channel.size() - start, mapped);
+        }
+
+        private Stream<Quad> quads(final GraphOffsets.Section section, final Boolean mapped) {
+            try {
+                // TODO -- JDK9 shortcut Optional::stream and flatMap
+                return lines(section.getOffset(), section.getLength(), mapped).map(line -> stringToQuad(rdf, line))
+                    .filter(Optional::isPresent).map(Optional::get);
+            } catch (final IOException ex) {
+                LOGGER.warn("Could not read cache at {}: {}", file, ex.getMessage());
+            }
+            return empty();
+        }
+
+        private Stream<String> lines(final long offset, final long length, final Boolean mapped)
+                throws IOException {
+            if (mapped && length >= MAP_THRESHOLD) {
+                // The mapping outlives the channel, and is released once the buffer is unreachable
+                final ByteBuffer buffer = channel.map(READ_ONLY, offset, length);
+                return new BufferedReader(new InputStreamReader(new ByteBufferInputStream(buffer), UTF_8)).lines();
+            }
+            channel.position(offset);
+            final BoundedInputStream input = new BoundedInputStream(Channels.newInputStream(channel), length);
+            // The channel is shared by the sections of the cache, and is closed along with the cache
+            input.setPropagateClose(false);
+            return new BufferedReader(new InputStreamReader(input, UTF_8)).lines();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Reads a byte buffer as a stream
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+
+    /**
+     * Collects quads in memory, grouped by named graph, and writes them after the header of a single cache file
+     */
+    private static final class GraphPartitionedWriter {
+        private final Map<String, ByteArrayOutputStream> sections = new LinkedHashMap<>();
+
+        public void write(final Quad quad) {
+            final String graphName = quad.getGraphName().orElse(Trellis.PreferUserManaged).ntriplesString();
+            final byte[] line = (quadToString.apply(quad) + lineSeparator()).getBytes(UTF_8);
+            sections.computeIfAbsent(graphName, k -> new ByteArrayOutputStream()).write(line, 0, line.length);
+        }
+
+        public void join(final File target, final ResourceData data) throws IOException {
+            final Map<String, GraphOffsets.Section> offsets = new LinkedHashMap<>();
+            long offset = 0L;
+            for (final Map.Entry<String, ByteArrayOutputStream> entry : sections.entrySet()) {
+                offsets.put(entry.getKey(), new GraphOffsets.Section(offset, entry.getValue().size()));
+                offset += entry.getValue().size();
+            }
+            try (final OutputStream out = new BufferedOutputStream(new FileOutputStream(target))) {
+                out.write(CacheFile.header(data, new GraphOffsets(offsets)));
+                for (final ByteArrayOutputStream section : sections.values()) {
+                    section.writeTo(out);
+                }
+            }
         }
     }
 
-    private static String random(final Integer length) {
-        return generator.generate(length);
+    private static Boolean isContainment(final Quad quad) {
+        return quad.getGraphName().filter(LDP.PreferContainment::equals).isPresent() &&
+            quad.getObject() instanceof IRI;
     }
 }
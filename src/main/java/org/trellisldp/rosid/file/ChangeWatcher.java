@@ -0,0 +1,495 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.Arrays.asList;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.Objects.isNull;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.regex.Pattern.compile;
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CHILDREN;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CHILDREN_LOG;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS_OFFSETS;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+
+/**
+ * A detector of changes that other processes make to resources in the partition directories.
+ *
+ * <p>Any change to the journal or cache files of a resource produces an {@link Invalidation} that is keyed
+ * by the name of the resource directory, which is the MD5 hash of the identifier (see {@link #key}). Changes
+ * are detected with a {@link WatchService}; a partition whose file system cannot be watched, or whose
+ * directories exceed the watch limits of the operating system, is polled instead.</p>
+ *
+ * <p>Invalidations pass through a bounded queue to the listeners. If the queue overflows, or the operating
+ * system drops events, the pending invalidations are replaced by a broad invalidation of each partition,
+ * after which every cached value must be considered stale.</p>
+ *
+ * @author acoburn
+ */
+public final class ChangeWatcher implements Closeable {
+
+    private static final Logger LOGGER = getLogger(ChangeWatcher.class);
+
+    private static final Set<String> RESOURCE_FILES = unmodifiableSet(new HashSet<>(asList(RESOURCE_JOURNAL,
+                    RESOURCE_CACHE, RESOURCE_COMBINED_CACHE, RESOURCE_QUADS, RESOURCE_QUADS_OFFSETS,
+                    RESOURCE_CHILDREN, RESOURCE_CHILDREN_LOG)));
+
+    private static final Pattern KEY_PATTERN = compile("^[0-9a-f]{32}$");
+
+    private static final long DISPATCH_TIMEOUT = 100L;
+
+    /**
+     * A notice that cached values derived from a resource, or from an entire partition, are stale
+     */
+    public static final class Invalidation {
+        private final String partition;
+        private final String key;
+
+        /**
+         * Create an invalidation
+         * @param partition the partition
+         * @param key the key of the changed resource, or null to invalidate the entire partition
+         */
+        public Invalidation(final String partition, final String key) {
+            this.partition = partition;
+            this.key = key;
+        }
+
+        /**
+         * Get the partition
+         * @return the partition name
+         */
+        public String getPartition() {
+            return partition;
+        }
+
+        /**
+         * Get the key of the changed resource
+         * @return the key, or an empty value if the entire partition is invalidated
+         */
+        public Optional<String> getKey() {
+            return ofNullable(key);
+        }
+
+        /**
+         * Determine whether the entire partition is invalidated
+         * @return true if every cached value in the partition is stale
+         */
+        public boolean isBroad() {
+            return isNull(key);
+        }
+
+        @Override
+        public String toString() {
+            return partition + ":" + (isBroad() ? "*" : key);
+        }
+    }
+
+    private static final class Watched {
+        private final String partition;
+        private final Path directory;
+
+        private Watched(final String partition, final Path directory) {
+            this.partition = partition;
+            this.directory = directory;
+        }
+    }
+
+    @FunctionalInterface
+    private interface DirectoryVisitor {
+        void visit(Path directory) throws IOException;
+    }
+
+    private final Map<String, Path> partitions = new LinkedHashMap<>();
+    private final BlockingQueue<Invalidation> queue;
+    private final long pollInterval;
+    private final boolean pollOnly;
+    private final List<Consumer<Invalidation>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<WatchKey, Watched> watched = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Long>> snapshots = new ConcurrentHashMap<>();
+    private final AtomicBoolean overflow = new AtomicBoolean();
+    private final AtomicLong overflows = new AtomicLong();
+
+    private volatile boolean running;
+    private WatchService watchService;
+    private ScheduledExecutorService poller;
+    private Thread watchThread;
+    private Thread dispatchThread;
+
+    /**
+     * Create a change watcher
+     * @param partitions the partition directories, keyed by partition name
+     * @param queueCapacity the maximum number of invalidations waiting for the listeners
+     * @param pollInterval the interval, in milliseconds, at which partitions that cannot be watched are polled
+     * @param pollOnly whether to poll every partition, even where a watch service is available
+     */
+    public ChangeWatcher(final Map<String, String> partitions, final int queueCapacity, final long pollInterval,
+            final boolean pollOnly) {
+        partitions.forEach((name, path) -> this.partitions.put(name, new File(path).toPath()));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.pollInterval = pollInterval;
+        this.pollOnly = pollOnly;
+    }
+
+    /**
+     * Get the key under which the invalidations of a resource are published
+     * @param identifier the identifier
+     * @return the key
+     */
+    public static String key(final String identifier) {
+        return md5Hex(identifier);
+    }
+
+    /**
+     * Add a listener for invalidations, which is called from a single dispatch thread
+     * @param listener the listener
+     */
+    public void addListener(final Consumer<Invalidation> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Start watching the partitions
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        if (!pollOnly) {
+            try {
+                watchService = FileSystems.getDefault().newWatchService();
+            } catch (final IOException | UnsupportedOperationException ex) {
+                LOGGER.warn("No watch service is available, polling for changes: {}", ex.getMessage());
+            }
+        }
+        partitions.forEach((partition, root) -> {
+            if (isNull(watchService) || !register(partition, root)) {
+                startPolling(partition);
+            }
+        });
+        if (!watched.isEmpty()) {
+            watchThread = daemon(this::watch, "trellis-rosid-watch");
+        }
+        dispatchThread = daemon(this::dispatch, "trellis-rosid-invalidation");
+    }
+
+    /**
+     * Determine whether a partition is polled rather than watched
+     * @param partition the partition
+     * @return true if the partition is polled
+     */
+    public boolean isPolling(final String partition) {
+        return snapshots.containsKey(partition);
+    }
+
+    /**
+     * Get the number of times that invalidations were lost and replaced with broad invalidations
+     * @return the number of overflows
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        if (!isNull(poller)) {
+            poller.shutdownNow();
+        }
+        if (!isNull(watchService)) {
+            watchService.close();
+        }
+        if (!isNull(dispatchThread)) {
+            dispatchThread.interrupt();
+        }
+    }
+
+    /**
+     * Queue an invalidation for the listeners
+     * @param invalidation the invalidation
+     */
+    void publish(final Invalidation invalidation) {
+        if (invalidation.isBroad() || !queue.offer(invalidation)) {
+            LOGGER.debug("Invalidating partition {}", invalidation.getPartition());
+            overflow.set(true);
+        }
+    }
+
+    private boolean register(final String partition, final Path root) {
+        final List<WatchKey> keys = new ArrayList<>();
+        try {
+            walkDirectories(root, depth(root), dir -> {
+                final WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                keys.add(key);
+                watched.put(key, new Watched(partition, dir));
+            });
+            LOGGER.info("Watching {} directories in partition {}", keys.size(), partition);
+            return true;
+        } catch (final IOException ex) {
+            // Most often, the operating system limit on the number of watches has been reached
+            LOGGER.warn("Unable to watch partition {}, polling for changes instead: {}", partition, ex.getMessage());
+            keys.forEach(key -> {
+                key.cancel();
+                watched.remove(key);
+            });
+            return false;
+        }
+    }
+
+    private synchronized void startPolling(final String partition) {
+        snapshots.put(partition, snapshot(partitions.get(partition)));
+        if (isNull(poller) && running) {
+            poller = newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "trellis-rosid-poll");
+                thread.setDaemon(true);
+                return thread;
+            });
+            poller.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval, MILLISECONDS);
+        }
+    }
+
+    private void watch() {
+        while (running) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (final ClosedWatchServiceException ex) {
+                break;
+            }
+            final Watched dir = watched.get(key);
+            if (!isNull(dir)) {
+                key.pollEvents().forEach(event -> handle(dir, event));
+            }
+            if (!key.reset()) {
+                watched.remove(key);
+            }
+        }
+    }
+
+    private void handle(final Watched dir, final WatchEvent<?> event) {
+        if (OVERFLOW.equals(event.kind())) {
+            LOGGER.warn("File system events were lost in partition {}", dir.partition);
+            publish(new Invalidation(dir.partition, null));
+            return;
+        }
+        final Path child = dir.directory.resolve((Path) event.context());
+        final String name = child.getFileName().toString();
+        if (ENTRY_CREATE.equals(event.kind()) && Files.isDirectory(child, NOFOLLOW_LINKS)) {
+            registerNew(dir.partition, child);
+        } else if (RESOURCE_FILES.contains(name)) {
+            resourceKey(dir.directory).ifPresent(key -> publish(new Invalidation(dir.partition, key)));
+        } else if (ENTRY_DELETE.equals(event.kind()) && KEY_PATTERN.matcher(name).matches()) {
+            publish(new Invalidation(dir.partition, name));
+        }
+    }
+
+    private void registerNew(final String partition, final Path directory) {
+        final Path root = partitions.get(partition);
+        try {
+            walkDirectories(directory, depth(root) - root.relativize(directory).getNameCount(), dir -> {
+                watched.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE),
+                        new Watched(partition, dir));
+                // Files may have been written before the directory was registered
+                resourceKey(dir).ifPresent(key -> publish(new Invalidation(partition, key)));
+            });
+        } catch (final IOException ex) {
+            LOGGER.warn("Unable to watch {}, polling partition {} instead: {}", directory, partition,
+                    ex.getMessage());
+            watched.entrySet().removeIf(entry -> {
+                if (entry.getValue().partition.equals(partition)) {
+                    entry.getKey().cancel();
+                    return true;
+                }
+                return false;
+            });
+            startPolling(partition);
+            publish(new Invalidation(partition, null));
+        }
+    }
+
+    private void poll() {
+        snapshots.replaceAll((partition, previous) -> {
+            final Map<String, Long> current = snapshot(partitions.get(partition));
+            current.forEach((key, signature) -> {
+                if (!signature.equals(previous.get(key))) {
+                    publish(new Invalidation(partition, key));
+                }
+            });
+            previous.keySet().stream().filter(key -> !current.containsKey(key))
+                .forEach(key -> publish(new Invalidation(partition, key)));
+            return current;
+        });
+    }
+
+    private void dispatch() {
+        while (running) {
+            final Invalidation invalidation;
+            try {
+                invalidation = queue.poll(DISPATCH_TIMEOUT, MILLISECONDS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (overflow.getAndSet(false)) {
+                // Any pending invalidation is subsumed by a broad invalidation
+                overflows.incrementAndGet();
+                queue.clear();
+                partitions.keySet().forEach(partition -> deliver(new Invalidation(partition, null)));
+            } else if (!isNull(invalidation)) {
+                deliver(invalidation);
+            }
+        }
+    }
+
+    private void deliver(final Invalidation invalidation) {
+        LOGGER.trace("Invalidating {}", invalidation);
+        for (final Consumer<Invalidation> listener : listeners) {
+            try {
+                listener.accept(invalidation);
+            } catch (final RuntimeException ex) {
+                LOGGER.error("Error handling invalidation {}: {}", invalidation, ex.getMessage());
+            }
+        }
+    }
+
+    private static Map<String, Long> snapshot(final Path root) {
+        final Map<String, Long> snapshot = new HashMap<>();
+        try {
+            for (final Path dir : directories(root, depth(root))) {
+                resourceKey(dir).ifPresent(key -> snapshot.put(key, signature(dir.toFile())));
+            }
+        } catch (final IOException ex) {
+            LOGGER.warn("Unable to poll partition at {}: {}", root, ex.getMessage());
+        }
+        return snapshot;
+    }
+
+    private static Long signature(final File directory) {
+        long signature = 1L;
+        for (final String name : RESOURCE_FILES) {
+            final File file = new File(directory, name);
+            signature = 31L * (31L * signature + file.lastModified()) + file.length();
+        }
+        return signature;
+    }
+
+    private static Optional<String> resourceKey(final Path directory) {
+        final String name = directory.getFileName().toString();
+        if (KEY_PATTERN.matcher(name).matches()) {
+            return Optional.of(name);
+        }
+        return Optional.empty();
+    }
+
+    private static List<Path> directories(final Path root, final int depth) throws IOException {
+        final List<Path> directories = new ArrayList<>();
+        walkDirectories(root, depth, directories::add);
+        return directories;
+    }
+
+    private static void walkDirectories(final Path root, final int depth, final DirectoryVisitor visitor)
+            throws IOException {
+        if (depth < 0 || !Files.isDirectory(root)) {
+            return;
+        }
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), depth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+                    throws IOException {
+                // A directory is visited before its entries are listed, so that a watch registered here
+                // sees any subdirectory that the listing misses
+                visitor.visit(dir);
+                return CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                // Directories at the maximum depth are visited as files
+                if (attrs.isDirectory()) {
+                    visitor.visit(file);
+                }
+                return CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException ex) {
+                // A directory that is removed during the walk is of no interest
+                return CONTINUE;
+            }
+        });
+    }
+
+    private static int depth(final Path root) {
+        return PartitionLayout.of(root.toFile()).getResourceDepth();
+    }
+
+    private static Thread daemon(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Math.max;
+import static java.lang.System.lineSeparator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.lines;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.time.Instant.ofEpochMilli;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static java.util.Spliterator.IMMUTABLE;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CHILDREN;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CHILDREN_LOCK;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CHILDREN_LOG;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
+import static org.trellisldp.rosid.file.FileUtils.tempFile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.RDF;
+import org.slf4j.Logger;
+
+/**
+ * A sorted index of the children of a container.
+ *
+ * <p>The index is made up of a file of child identifiers, one per line, in sorted order, along with
+ * a short, unsorted log of recent additions and removals. Readers merge the two, and once the log
+ * grows beyond {@link #LOG_THRESHOLD} bytes, it is folded back into the sorted file. Because the
+ * sorted file can be searched, a page of children can be read without reading the entire index.</p>
+ *
+ * <p>Changes to the index are serialized per container, both within this process and, through a lock file,
+ * across processes, so that a change logged while the log is being folded into the sorted file is not lost.</p>
+ *
+ * @author acoburn
+ */
+public final class ChildIndex {
+
+    private static final Logger LOGGER = getLogger(ChildIndex.class);
+
+    private static final String ADD = "A ";
+    private static final String DELETE = "D ";
+
+    // Below this many bytes, a sorted index is scanned linearly rather than searched
+    private static final long SCAN_LENGTH = 4096L;
+
+    // The size, in bytes, at which the change log is merged into the sorted index
+    public static final long LOG_THRESHOLD = 64 * 1024L;
+
+    // The number of locks among which containers are spread, within this process
+    private static final int LOCK_STRIPES = 1024;
+
+    private static final ReentrantLock[] STRIPES = new ReentrantLock[LOCK_STRIPES];
+
+    static {
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            STRIPES[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * A change to the index, made while it is locked
+     */
+    @FunctionalInterface
+    private interface Change {
+        void apply() throws IOException;
+    }
+
+    /**
+     * Determine whether a child index exists for a resource
+     * @param directory the resource directory
+     * @return true if the index exists; false otherwise
+     */
+    public static Boolean exists(final File directory) {
+        return nonNull(directory) && new File(directory, RESOURCE_CHILDREN).exists();
+    }
+
+    /**
+     * Get the time at which the child index was last changed
+     * @param directory the resource directory
+     * @return the modification time, if the index exists
+     */
+    public static Optional<Instant> modified(final File directory) {
+        if (!exists(directory)) {
+            return empty();
+        }
+        return of(ofEpochMilli(max(new File(directory, RESOURCE_CHILDREN).lastModified(),
+                        new File(directory, RESOURCE_CHILDREN_LOG).lastModified())));
+    }
+
+    /**
+     * Write a new child index, replacing any existing index
+     * @param directory the resource directory
+     * @param children the child resources
+     * @return true if the index was written; false otherwise
+     */
+    public static Boolean write(final File directory, final Stream<IRI> children) {
+        if (isNull(directory)) {
+            return false;
+        }
+        final TreeSet<String> sorted = new TreeSet<>();
+        children.map(IRI::getIRIString).forEachOrdered(sorted::add);
+        try {
+            locked(directory, () -> install(writeSorted(directory, sorted.iterator()), directory));
+        } catch (final IOException ex) {
+            LOGGER.error("Error writing child index in {}: {}", directory, ex.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record changes to the children of a container. If no index exists, this has no effect.
+     * @param directory the resource directory
+     * @param remove the children to remove
+     * @param add the children to add
+     * @return true if the index was updated; false otherwise
+     */
+    public static Boolean update(final File directory, final Collection<IRI> remove, final Collection<IRI> add) {
+        if (!exists(directory)) {
+            return false;
+        }
+        LOGGER.debug("Updating child index in {}", directory);
+        final File log = new File(directory, RESOURCE_CHILDREN_LOG);
+        try {
+            locked(directory, () -> {
+                try (final BufferedWriter writer = newBufferedWriter(log.toPath(), UTF_8, CREATE, APPEND)) {
+                    for (final IRI child : remove) {
+                        writer.write(DELETE + child.getIRIString() + lineSeparator());
+                    }
+                    for (final IRI child : add) {
+                        writer.write(ADD + child.getIRIString() + lineSeparator());
+                    }
+                }
+                if (log.length() > LOG_THRESHOLD) {
+                    merge(directory);
+                }
+            });
+        } catch (final IOException ex) {
+            LOGGER.error("Error updating child index in {}: {}", directory, ex.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Merge any logged changes into the sorted index
+     * @param directory the resource directory
+     * @throws IOException if the index could not be rewritten
+     */
+    public static void compact(final File directory) throws IOException {
+        locked(directory, () -> merge(directory));
+    }
+
+    private static void merge(final File directory) throws IOException {
+        LOGGER.debug("Compacting child index in {}", directory);
+        final File source;
+        try (final Stream<String> children = read(directory, null)) {
+            source = writeSorted(directory, children.iterator());
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        install(source, directory);
+    }
+
+    /**
+     * Stream the children of a container, in sorted order
+     * @param rdf the RDF object
+     * @param directory the resource directory
+     * @return the child resources
+     */
+    public static Stream<IRI> stream(final RDF rdf, final File directory) {
+        return stream(rdf, directory, null);
+    }
+
+    /**
+     * Stream the children of a container, in sorted order, starting after a given child. Together
+     * with {@link Stream#limit}, this can be used to read the children one page at a time.
+     * @param rdf the RDF object
+     * @param directory the resource directory
+     * @param after the child after which to start, or null to start at the beginning
+     * @return the child resources
+     */
+    public static Stream<IRI> stream(final RDF rdf, final File directory, final String after) {
+        if (!exists(directory)) {
+            return Stream.empty();
+        }
+        try {
+            return read(directory, after).map(rdf::createIRI);
+        } catch (final UncheckedIOException ex) {
+            LOGGER.warn("Could not read child index in {}: {}", directory, ex.getMessage());
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * Remove the child index for a resource
+     * @param directory the resource directory
+     * @throws IOException if the index could not be removed
+     */
+    public static void delete(final File directory) throws IOException {
+        deleteIfExists(new File(directory, RESOURCE_CHILDREN_LOG).toPath());
+        deleteIfExists(new File(directory, RESOURCE_CHILDREN).toPath());
+        deleteIfExists(new File(directory, RESOURCE_CHILDREN_LOCK).toPath());
+    }
+
+    private static void locked(final File directory, final Change change) throws IOException {
+        final ReentrantLock stripe = STRIPES[(directory.getAbsolutePath().hashCode() & Integer.MAX_VALUE) %
+            LOCK_STRIPES];
+        stripe.lock();
+        // The lock file is never otherwise opened, since closing any channel on a file may release its locks
+        try (final FileChannel channel = FileChannel.open(new File(directory, RESOURCE_CHILDREN_LOCK).toPath(),
+                    CREATE, WRITE); final FileLock lock = channel.lock()) {
+            change.apply();
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    private static File writeSorted(final File directory, final Iterator<String> children) throws IOException {
+        final File source = tempFile(directory, RESOURCE_CHILDREN);
+        try (final BufferedWriter writer = newBufferedWriter(source.toPath(), UTF_8, CREATE, WRITE,
+                    TRUNCATE_EXISTING)) {
+            while (children.hasNext()) {
+                writer.write(children.next() + lineSeparator());
+            }
+        } catch (final IOException ex) {
+            deleteIfExists(source.toPath());
+            throw ex;
+        }
+        return source;
+    }
+
+    private static void install(final File source, final File directory) throws IOException {
+        moveIntoPlace(source, new File(directory, RESOURCE_CHILDREN));
+        deleteIfExists(new File(directory, RESOURCE_CHILDREN_LOG).toPath());
+    }
+
+    private static Stream<String> read(final File directory, final String after) {
+        final NavigableMap<String, Boolean> changes = readLog(new File(directory, RESOURCE_CHILDREN_LOG));
+        final File index = new File(directory, RESOURCE_CHILDREN);
+        try {
+            final FileChannel channel = FileChannel.open(index.toPath(), READ);
+            try {
+                if (nonNull(after)) {
+                    try (final RandomAccessFile file = new RandomAccessFile(index, "r")) {
+                        channel.position(seek(file, after));
+                    }
+                }
+                final BufferedReader reader = new BufferedReader(Channels.newReader(channel, UTF_8.name()));
+                final Iterator<String> base = reader.lines().iterator();
+                final Iterator<String> merged = new MergingIterator(base,
+                        nonNull(after) ? changes.tailMap(after, false) : changes);
+                return StreamSupport.stream(spliteratorUnknownSize(merged, IMMUTABLE | NONNULL | ORDERED), false)
+                    .onClose(() -> {
+                        try {
+                            reader.close();
+                        } catch (final IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+            } catch (final IOException ex) {
+                channel.close();
+                throw ex;
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static NavigableMap<String, Boolean> readLog(final File log) {
+        final NavigableMap<String, Boolean> changes = new TreeMap<>();
+        if (log.exists()) {
+            try (final Stream<String> lineStream = lines(log.toPath())) {
+                lineStream.forEachOrdered(line -> {
+                    if (line.startsWith(ADD)) {
+                        changes.put(line.substring(ADD.length()), true);
+                    } else if (line.startsWith(DELETE)) {
+                        changes.put(line.substring(DELETE.length()), false);
+                    }
+                });
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Find the offset of the first line that sorts after the given value
+     */
+    private static long seek(final RandomAccessFile file, final String after) throws IOException {
+        long lo = 0L;
+        long hi = file.length();
+        // The target line always starts somewhere in [lo, hi]; lo is always the start of a line
+        while (hi - lo > SCAN_LENGTH) {
+            final long start = nextLine(file, lo + (hi - lo) / 2);
+            if (start >= hi) {
+                break;
+            }
+            final String line = readLine(file);
+            if (line.compareTo(after) <= 0) {
+                lo = file.getFilePointer();
+            } else {
+                hi = start;
+            }
+        }
+        file.seek(lo);
+        long position = lo;
+        String line = readLine(file);
+        while (nonNull(line) && line.compareTo(after) <= 0) {
+            position = file.getFilePointer();
+            line = readLine(file);
+        }
+        return position;
+    }
+
+    private static long nextLine(final RandomAccessFile file, final long position) throws IOException {
+        file.seek(position - 1);
+        int b = file.read();
+        while (b != -1 && b != '\n') {
+            b = file.read();
+        }
+        return file.getFilePointer();
+    }
+
+    private static String readLine(final RandomAccessFile file) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int b = file.read();
+        if (b == -1) {
+            return null;
+        }
+        while (b != -1 && b != '\n') {
+            if (b != '\r') {
+                bytes.write(b);
+            }
+            b = file.read();
+        }
+        return new String(bytes.toByteArray(), UTF_8);
+    }
+
+    /**
+     * An iterator that merges the sorted index with the logged changes
+     */
+    static class MergingIterator implements Iterator<String> {
+        private final Iterator<String> base;
+        private final Map<String, Boolean> changes;
+        private final Iterator<Map.Entry<String, Boolean>> changeIter;
+
+        private String nextBase = null;
+        private String nextChange = null;
+
+        /**
+         * Create a merging iterator
+         * @param base the sorted index
+         * @param changes the logged changes, in sorted order
+         */
+        public MergingIterator(final Iterator<String> base, final NavigableMap<String, Boolean> changes) {
+            this.base = base;
+            this.changes = changes;
+            this.changeIter = changes.entrySet().iterator();
+            advanceBase();
+            advanceChange();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nonNull(nextBase) || nonNull(nextChange);
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final String child;
+            if (isNull(nextChange) || (nonNull(nextBase) && nextBase.compareTo(nextChange) < 0)) {
+                child = nextBase;
+                advanceBase();
+            } else {
+                child = nextChange;
+                advanceChange();
+            }
+            return child;
+        }
+
+        private void advanceBase() {
+            nextBase = null;
+            while (base.hasNext()) {
+                final String child = base.next();
+                // Logged entries supersede the index, whether they are additions or removals
+                if (!child.isEmpty() && !changes.containsKey(child)) {
+                    nextBase = child;
+                    return;
+                }
+            }
+        }
+
+        private void advanceChange() {
+            nextChange = null;
+            while (changeIter.hasNext()) {
+                final Map.Entry<String, Boolean> change = changeIter.next();
+                if (change.getValue()) {
+                    nextChange = change.getKey();
+                    return;
+                }
+            }
+        }
+    }
+
+    private ChildIndex() {
+        // prevent instantiation
+    }
+}
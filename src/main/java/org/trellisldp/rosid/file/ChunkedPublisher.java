@@ -0,0 +1,456 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+
+/**
+ * A publisher that reads its items in bounded chunks, and only as subscribers signal demand.
+ *
+ * <p>Each chunk opens its file, reads at most a fixed number of items and closes the file again, so
+ * a slow or idle subscriber does not hold a file handle, and a cancelled subscription has nothing to
+ * release. Chunks are read on the given executor, one at a time for each subscription.</p>
+ *
+ * <p>The publisher is cold: each subscriber reads the source from the beginning. On Java 9 and later,
+ * {@code org.reactivestreams.FlowAdapters} converts it to a {@code java.util.concurrent.Flow.Publisher}.</p>
+ *
+ * @param <T> the type of the published items
+ * @author acoburn
+ */
+public final class ChunkedPublisher<T> implements Publisher<T> {
+
+    private static final Logger LOGGER = getLogger(ChunkedPublisher.class);
+
+    /** The default number of items in a chunk */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Supplier<Source<T>> source;
+    private final Executor executor;
+    private final int chunkSize;
+
+    /**
+     * Create a publisher
+     * @param source a supplier of the source, called once for each subscriber
+     * @param executor the executor on which chunks are read and items are published
+     * @param chunkSize the maximum number of items to read at once
+     */
+    public ChunkedPublisher(final Supplier<Source<T>> source, final Executor executor, final int chunkSize) {
+        requireNonNull(source, "The source may not be null!");
+        requireNonNull(executor, "The executor may not be null!");
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive");
+        }
+        this.source = source;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        requireNonNull(subscriber, "The subscriber may not be null!");
+        subscriber.onSubscribe(new ChunkedSubscription(subscriber));
+    }
+
+    /**
+     * A source of items that is read one chunk at a time
+     * @param <T> the type of the items
+     */
+    @FunctionalInterface
+    public interface Source<T> {
+
+        /**
+         * Read the next chunk
+         * @param limit the maximum number of items to read
+         * @return the chunk
+         * @throws IOException if the items could not be read
+         */
+        Chunk<T> read(int limit) throws IOException;
+
+        /**
+         * Transform the items of this source
+         * @param mapper the function to apply to each item
+         * @param <R> the type of the transformed items
+         * @return the transformed source
+         */
+        default <R> Source<R> map(final Function<? super T, ? extends R> mapper) {
+            return limit -> {
+                final Chunk<T> chunk = read(limit);
+                final List<R> items = new ArrayList<>(chunk.getItems().size());
+                chunk.getItems().forEach(item -> items.add(mapper.apply(item)));
+                return new Chunk<>(items, isNull(chunk.getNext()) ? null : chunk.getNext().map(mapper));
+            };
+        }
+
+        /**
+         * Select some of the items of this source. A chunk may then hold fewer items than were read.
+         * @param predicate the items to keep
+         * @return the filtered source
+         */
+        default Source<T> filter(final Predicate<? super T> predicate) {
+            return limit -> {
+                final Chunk<T> chunk = read(limit);
+                final List<T> items = new ArrayList<>(chunk.getItems().size());
+                chunk.getItems().stream().filter(predicate).forEachOrdered(items::add);
+                return new Chunk<>(items, isNull(chunk.getNext()) ? null : chunk.getNext().filter(predicate));
+            };
+        }
+
+        /**
+         * Follow this source with another
+         * @param after a supplier of the following source, called once this source is exhausted
+         * @return the combined source
+         */
+        default Source<T> concat(final Supplier<Source<T>> after) {
+            return limit -> {
+                final Chunk<T> chunk = read(limit);
+                return new Chunk<>(chunk.getItems(), isNull(chunk.getNext()) ? after.get() :
+                        chunk.getNext().concat(after));
+            };
+        }
+    }
+
+    /**
+     * The items of a single read, along with the source of the remaining items
+     * @param <T> the type of the items
+     */
+    public static final class Chunk<T> {
+        private final List<T> items;
+        private final Source<T> next;
+
+        /**
+         * Create a chunk
+         * @param items the items
+         * @param next the source of the remaining items, or null if there are none
+         */
+        public Chunk(final List<T> items, final Source<T> next) {
+            this.items = items;
+            this.next = next;
+        }
+
+        /**
+         * Get the items
+         * @return the items
+         */
+        public List<T> getItems() {
+            return items;
+        }
+
+        /**
+         * Get the source of the remaining items
+         * @return the source, or null if there are no more items
+         */
+        public Source<T> getNext() {
+            return next;
+        }
+    }
+
+    /**
+     * A source with no items
+     * @param <T> the type of the items
+     * @return the source
+     */
+    public static <T> Source<T> empty() {
+        return limit -> new Chunk<>(emptyList(), null);
+    }
+
+    /**
+     * A source of the items of a stream. The stream is held open between chunks, and is closed once it is
+     * exhausted or the subscription ends.
+     * @param stream the stream
+     * @param <T> the type of the items
+     * @return the source
+     */
+    public static <T> Source<T> of(final Stream<T> stream) {
+        return new StreamSource<>(stream);
+    }
+
+    /**
+     * A source of the lines in a file. A missing file has no lines, and a file that is replaced while
+     * it is being read fails the subscription rather than mixing the lines of two files.
+     * @param file the file
+     * @return the source
+     */
+    public static Source<String> lines(final File file) {
+        return lines(file, 0L, null);
+    }
+
+    /**
+     * A source of the lines in a file, from a given position. If the identity of the file is given, a file that
+     * no longer has that identity fails the subscription, as does a missing file.
+     * @param file the file
+     * @param position the position, in bytes, of the first line
+     * @param identity the identity of the file, as given by {@link #identify}, or null
+     * @return the source
+     */
+    static Source<String> lines(final File file, final long position, final List<Object> identity) {
+        return limit -> {
+            final List<String> lines = new ArrayList<>();
+            final List<Object> current;
+            long next = position;
+            boolean eof = false;
+            try (final FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+                current = identify(file);
+                if (!isNull(identity) && !identity.equals(current)) {
+                    throw new IOException("The file " + file + " changed while it was being read");
+                }
+                channel.position(position);
+                final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                final byte[] bytes = buffer.array();
+                // The bytes of a line that spans buffers
+                byte[] pending = new byte[0];
+                while (!eof && lines.size() < limit) {
+                    buffer.clear();
+                    final int read = channel.read(buffer);
+                    if (read < 0) {
+                        eof = true;
+                        break;
+                    }
+                    int start = 0;
+                    for (int i = 0; i < read && lines.size() < limit; ++i) {
+                        if (bytes[i] == '\n') {
+                            final byte[] line = join(pending, bytes, start, i);
+                            lines.add(decode(line));
+                            next += line.length + 1;
+                            pending = new byte[0];
+                            start = i + 1;
+                        }
+                    }
+                    if (lines.size() < limit) {
+                        pending = join(pending, bytes, start, read);
+                    }
+                }
+                if (eof && pending.length > 0) {
+                    lines.add(decode(pending));
+                }
+            } catch (final NoSuchFileException ex) {
+                if (!isNull(identity)) {
+                    throw ex;
+                }
+                LOGGER.debug("No file at {}", file);
+                return new Chunk<>(emptyList(), null);
+            }
+            return new Chunk<>(lines, eof ? null : lines(file, next, current));
+        };
+    }
+
+    /**
+     * Identify a file, so that its replacement can be detected
+     * @param file the file
+     * @return the identity of the file
+     * @throws IOException if the file does not exist or could not be read
+     */
+    static List<Object> identify(final File file) throws IOException {
+        final BasicFileAttributes attrs = readAttributes(file.toPath(), BasicFileAttributes.class);
+        return asList(attrs.fileKey(), attrs.lastModifiedTime(), attrs.size());
+    }
+
+    private static byte[] join(final byte[] head, final byte[] bytes, final int from, final int to) {
+        final byte[] joined = new byte[head.length + to - from];
+        System.arraycopy(head, 0, joined, 0, head.length);
+        System.arraycopy(bytes, from, joined, head.length, to - from);
+        return joined;
+    }
+
+    private static String decode(final byte[] line) {
+        final int length = line.length > 0 && line[line.length - 1] == '\r' ? line.length - 1 : line.length;
+        return new String(line, 0, length, UTF_8);
+    }
+
+    /**
+     * The state of a single subscriber. Chunks are read and items are published only while holding the
+     * work-in-progress counter, so that at most one thread drains a subscription at a time.
+     */
+    private final class ChunkedSubscription implements Subscription {
+        private final Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private volatile boolean cancelled;
+        private Throwable failure;
+        private boolean started;
+        private boolean done;
+        private List<T> items = emptyList();
+        private int index;
+        private Source<T> next;
+
+        private ChunkedSubscription(final Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0L) {
+                failure = new IllegalArgumentException("The requested number of items must be positive: " + n);
+            } else {
+                requested.accumulateAndGet(n, (current, add) -> current + add < 0L ? Long.MAX_VALUE : current + add);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this::drain);
+                } catch (final RejectedExecutionException ex) {
+                    // The counter is never released, so that no other thread drains this subscription
+                    done = true;
+                    if (!cancelled) {
+                        subscriber.onError(ex);
+                    }
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!started && !done) {
+                    started = true;
+                    next = source.get();
+                }
+                while (!done) {
+                    if (cancelled) {
+                        finish();
+                        break;
+                    }
+                    if (!isNull(failure)) {
+                        finish();
+                        subscriber.onError(failure);
+                        break;
+                    }
+                    if (index >= items.size() && isNull(next)) {
+                        finish();
+                        subscriber.onComplete();
+                        break;
+                    }
+                    if (requested.get() == 0L) {
+                        break;
+                    }
+                    if (index >= items.size()) {
+                        readChunk();
+                        continue;
+                    }
+                    final T item = items.get(index++);
+                    if (requested.get() != Long.MAX_VALUE) {
+                        requested.decrementAndGet();
+                    }
+                    try {
+                        subscriber.onNext(item);
+                    } catch (final RuntimeException ex) {
+                        LOGGER.error("Subscriber failed to handle an item: {}", ex.getMessage());
+                        cancelled = true;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void readChunk() {
+            try {
+                final Chunk<T> chunk = next.read(chunkSize);
+                items = chunk.getItems();
+                next = chunk.getNext();
+                index = 0;
+            } catch (final IOException ex) {
+                failure = ex;
+            } catch (final UncheckedIOException ex) {
+                failure = ex.getCause();
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (next instanceof Closeable) {
+                try {
+                    ((Closeable) next).close();
+                } catch (final IOException ex) {
+                    LOGGER.warn("Error closing source: {}", ex.getMessage());
+                }
+            }
+            items = emptyList();
+            next = null;
+        }
+    }
+
+    /**
+     * A source that reads a stream one chunk at a time
+     */
+    private static final class StreamSource<T> implements Source<T>, Closeable {
+        private final Stream<T> stream;
+        private final Iterator<T> iterator;
+
+        private StreamSource(final Stream<T> stream) {
+            this.stream = stream;
+            this.iterator = stream.iterator();
+        }
+
+        @Override
+        public Chunk<T> read(final int limit) {
+            final List<T> items = new ArrayList<>();
+            while (items.size() < limit && iterator.hasNext()) {
+                items.add(iterator.next());
+            }
+            if (iterator.hasNext()) {
+                return new Chunk<>(items, this);
+            }
+            close();
+            return new Chunk<>(items, null);
+        }
+
+        @Override
+        public void close() {
+            stream.close();
+        }
+    }
+}
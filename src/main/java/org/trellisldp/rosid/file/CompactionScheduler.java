@@ -0,0 +1,258 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Math.floorMod;
+import static java.lang.Math.max;
+import static java.lang.System.nanoTime;
+import static java.nio.file.Files.walk;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+
+/**
+ * Compacts the journals of a partition in the background, as they grow.
+ *
+ * <p>Each write to a resource is recorded with the size of its journal. A resource whose journal grows beyond a
+ * number of bytes, or to which a number of transactions have been written since it was last compacted, is queued;
+ * an initial scan of the partition queues any journal that is already too large. Queued resources are compacted
+ * by a {@link JournalArchiver}, which moves the history before the current version to the archive tier, so that
+ * reading the current state of a long-lived, frequently written resource stays cheap.</p>
+ *
+ * <p>The queue is processed at a fixed interval, but only while the partition is quiet: a run is deferred while
+ * foreground requests arrive faster than a given rate, as recorded by the {@link IOBudget} of the partition,
+ * through which each compaction is also throttled. Writers hold the {@linkplain #getLock lock} of a journal
+ * while they append to it, so that a journal is never replaced while a transaction is written.</p>
+ *
+ * @author acoburn
+ */
+public final class CompactionScheduler implements AutoCloseable {
+
+    private static final Logger LOGGER = getLogger(CompactionScheduler.class);
+
+    /** The default size, in bytes, beyond which a journal is compacted */
+    public static final long DEFAULT_JOURNAL_SIZE = 1024L * 1024L;
+
+    /** The default number of transactions after which a journal is compacted */
+    public static final long DEFAULT_TRANSACTIONS = 1000L;
+
+    /** The default interval, in milliseconds, between compaction runs */
+    public static final long DEFAULT_INTERVAL = 60000L;
+
+    /** The default rate of foreground requests per second, above which a compaction run is deferred */
+    public static final long DEFAULT_IDLE_RATE = 50L;
+
+    // The number of resources whose transactions are counted; the least recently written are forgotten first
+    private static final int MAX_TRACKED = 100000;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private final File partition;
+    private final JournalArchiver archiver;
+    private final long journalSize;
+    private final long transactions;
+    private final long idleRate;
+    private final IOBudget budget;
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+    private final Map<File, Long> counts = new LinkedHashMap<File, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<File, Long> eldest) {
+            return size() > MAX_TRACKED;
+        }
+    };
+    private final Set<File> queue = new LinkedHashSet<>();
+    private final ScheduledExecutorService executor;
+    private volatile JournalArchiver.Report lastReport;
+    private long lastOps;
+    private long lastCheck = nanoTime();
+
+    /**
+     * Create a compaction scheduler with the default thresholds and interval
+     * @param partition the partition directory
+     * @param archive the directory of the archive tier
+     */
+    public CompactionScheduler(final File partition, final File archive) {
+        this(partition, archive, DEFAULT_JOURNAL_SIZE, DEFAULT_TRANSACTIONS, DEFAULT_INTERVAL, DEFAULT_IDLE_RATE);
+    }
+
+    /**
+     * Create a compaction scheduler
+     * @param partition the partition directory
+     * @param archive the directory of the archive tier
+     * @param journalSize the size, in bytes, beyond which a journal is compacted
+     * @param transactions the number of transactions after which a journal is compacted
+     * @param interval the interval, in milliseconds, between compaction runs, or zero to only compact when
+     *        {@link #compact} is called
+     * @param idleRate the rate of foreground requests per second, above which a compaction run is deferred
+     */
+    public CompactionScheduler(final File partition, final File archive, final long journalSize,
+            final long transactions, final long interval, final long idleRate) {
+        if (journalSize < 1L || transactions < 1L || interval < 0L || idleRate < 0L) {
+            throw new IllegalArgumentException("Invalid compaction thresholds or interval");
+        }
+        this.partition = partition;
+        this.archiver = new JournalArchiver(archive, 0L, 1);
+        this.journalSize = journalSize;
+        this.transactions = transactions;
+        this.idleRate = idleRate;
+        this.budget = IOBudget.of(partition);
+        this.lastOps = budget.getForegroundOps();
+        for (int i = 0; i < LOCK_STRIPES; ++i) {
+            locks[i] = new ReentrantLock();
+        }
+        if (interval > 0L) {
+            executor = newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "trellis-rosid-compaction-" + partition.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.execute(this::scan);
+            executor.scheduleWithFixedDelay(this::compactIfIdle, interval, interval, MILLISECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Get the lock that is held while a journal is appended to or replaced
+     * @param directory the resource directory
+     * @return the lock
+     */
+    public Lock getLock(final File directory) {
+        return locks[floorMod(directory.hashCode(), LOCK_STRIPES)];
+    }
+
+    /**
+     * Record a write to the journal of a resource
+     * @param directory the resource directory
+     * @param length the size of the journal after the write, in bytes
+     */
+    public synchronized void record(final File directory, final long length) {
+        final long count = ofNullable(counts.get(directory)).orElse(0L) + 1L;
+        if (length > journalSize || count >= transactions) {
+            counts.remove(directory);
+            queue.add(directory);
+        } else {
+            counts.put(directory, count);
+        }
+    }
+
+    /**
+     * Queue every resource in the partition whose journal is already beyond the size threshold
+     */
+    public void scan() {
+        try (final Stream<Path> paths = walk(partition.toPath(), PartitionLayout.read(partition).getResourceDepth())) {
+            paths.map(Path::toFile).filter(dir -> new File(dir, RESOURCE_JOURNAL).length() > journalSize)
+                .forEach(this::enqueue);
+        } catch (final IOException | UncheckedIOException ex) {
+            LOGGER.error("Error scanning partition at {} for compaction: {}", partition, ex.getMessage());
+        }
+        LOGGER.info("Queued {} resources in {} for compaction", getQueueSize(), partition);
+    }
+
+    /**
+     * Compact every queued resource
+     * @return a report of the compaction run
+     */
+    public JournalArchiver.Report compact() {
+        final List<File> directories;
+        synchronized (this) {
+            directories = new ArrayList<>(queue);
+            queue.clear();
+        }
+        final JournalArchiver.Report report = new JournalArchiver.Report();
+        for (int i = 0; i < directories.size(); ++i) {
+            if (Thread.currentThread().isInterrupted()) {
+                // The rest are left for a later run
+                directories.subList(i, directories.size()).forEach(this::enqueue);
+                break;
+            }
+            final File directory = directories.get(i);
+            budget.acquire(new File(directory, RESOURCE_JOURNAL).length());
+            archiver.archive(partition, directory, getLock(directory), report);
+        }
+        if (!directories.isEmpty()) {
+            LOGGER.info("Compacted resources in {}: {}", partition, report);
+            lastReport = report;
+        }
+        return report;
+    }
+
+    /**
+     * Get the number of resources that are waiting to be compacted
+     * @return the number of resources
+     */
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * Get the report of the most recent compaction run that found queued resources
+     * @return the report, if there has been such a run
+     */
+    public Optional<JournalArchiver.Report> getLastReport() {
+        return ofNullable(lastReport);
+    }
+
+    @Override
+    public void close() {
+        if (nonNull(executor)) {
+            executor.shutdownNow();
+        }
+    }
+
+    private synchronized void enqueue(final File directory) {
+        counts.remove(directory);
+        queue.add(directory);
+    }
+
+    private void compactIfIdle() {
+        final long now = nanoTime();
+        final long ops = budget.getForegroundOps();
+        final long rate = (ops - lastOps) * SECONDS.toNanos(1L) / max(1L, now - lastCheck);
+        lastOps = ops;
+        lastCheck = now;
+        if (rate > idleRate) {
+            LOGGER.debug("Deferring compaction of {} at {} requests per second", partition, rate);
+            return;
+        }
+        try {
+            compact();
+        } catch (final RuntimeException ex) {
+            LOGGER.error("Error compacting the partition at {}: {}", partition, ex.getMessage());
+        }
+    }
+}
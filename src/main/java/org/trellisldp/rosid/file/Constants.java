@@ -23,6 +23,26 @@ final class Constants {
 
     public static final String RESOURCE_QUADS = "resource.nq";
 
+    public static final String RESOURCE_QUADS_OFFSETS = "resource.offsets";
+
+    public static final String RESOURCE_COMBINED_CACHE = "resource.cache";
+
+    public static final String RESOURCE_CHILDREN = "resource.children";
+
+    public static final String RESOURCE_CHILDREN_LOG = "resource.children.log";
+
+    public static final String RESOURCE_CHILDREN_LOCK = "resource.children.lock";
+
+    public static final String RESOURCE_MEMENTOS = "mementos";
+
+    public static final String PARTITION_LAYOUT = "layout.properties";
+
+    public static final String PARTITION_LOCK = "layout.lock";
+
+    public static final String RESOURCE_PACKS = "packs";
+
+    public static final String RESOURCE_LOG = "log";
+
     private Constants() {
         // prevent instantiation
     }
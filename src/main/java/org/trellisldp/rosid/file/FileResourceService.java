@@ -13,6 +13,10 @@
  */
 package org.trellisldp.rosid.file;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.Runtime.getRuntime;
+import static java.lang.System.nanoTime;
 import static java.net.URI.create;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.Files.deleteIfExists;
@@ -22,43 +26,64 @@ import static java.nio.file.Files.walk;
 import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static java.time.Instant.now;
+import static java.util.Collections.emptySet;
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 import static java.util.Objects.requireNonNull;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Stream.concat;
 import static java.util.stream.Stream.empty;
 import static java.util.stream.Stream.of;
 import static org.slf4j.LoggerFactory.getLogger;
 import static org.trellisldp.api.RDFUtils.TRELLIS_PREFIX;
 import static org.trellisldp.rosid.file.Constants.RESOURCE_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
 import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
-import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS;
+import static org.trellisldp.rosid.file.FileUtils.partitionDirectory;
 import static org.trellisldp.rosid.file.FileUtils.resourceDirectory;
+import static org.trellisldp.rosid.file.FileUtils.resourceLocation;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
+import org.apache.commons.rdf.api.Dataset;
 import org.apache.commons.rdf.api.IRI;
 import org.apache.commons.rdf.api.Quad;
 import org.apache.commons.rdf.api.Triple;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.kafka.clients.producer.Producer;
+import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.trellisldp.api.EventService;
 import org.trellisldp.api.Resource;
 import org.trellisldp.rosid.common.AbstractResourceService;
+import org.trellisldp.rosid.common.ResourceData;
 import org.trellisldp.vocabulary.ACL;
 import org.trellisldp.vocabulary.AS;
-import org.trellisldp.vocabulary.DC;
 import org.trellisldp.vocabulary.FOAF;
 import org.trellisldp.vocabulary.LDP;
 import org.trellisldp.vocabulary.PROV;
@@ -69,11 +94,196 @@ import org.trellisldp.vocabulary.XSD;
 /**
  * @author acoburn
  */
-public class FileResourceService extends AbstractResourceService {
+public class FileResourceService extends AbstractResourceService implements AutoCloseable {
 
     private static final Logger LOGGER = getLogger(FileResourceService.class);
 
+    // The maximum number of partitions to initialize concurrently
+    private static final int MAX_INIT_THREADS = 16;
+
+    // The default number of asynchronous I/O tasks that may wait for a thread
+    private static final int DEFAULT_IO_QUEUE = 1024;
+
     private final Map<String, String> partitionData;
+    private final Boolean repairOnStartup;
+    private final IOExecutor executor;
+    private final Boolean ownsExecutor;
+    private final Set<String> packedPartitions;
+    private final Map<File, PackStore> packs = new ConcurrentHashMap<>();
+    private final Set<String> logPartitions;
+    private final Map<File, LogStore> logs = new ConcurrentHashMap<>();
+    private final Map<File, IOBudget> budgets = new ConcurrentHashMap<>();
+    private final Boolean readOnly;
+    private final File archive;
+    private final Map<File, CompactionScheduler> compactions = new ConcurrentHashMap<>();
+    private final Set<File> repairing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A builder of a File-based repository service, for the options beyond those of the basic constructor
+     */
+    public static final class Builder {
+        private Map<String, String> partitionData;
+        private Map<String, String> partitionUrls;
+        private CuratorFramework curator;
+        private Producer<String, String> producer;
+        private EventService notifications;
+        private Supplier<String> idSupplier;
+        private Boolean async = false;
+        private Boolean repairOnStartup = false;
+        private IOExecutor executor;
+        private Set<String> packedPartitions = emptySet();
+        private Set<String> logPartitions = emptySet();
+        private Boolean readOnly = false;
+        private File archive;
+
+        private Builder() {
+            // use FileResourceService.builder()
+        }
+
+        /**
+         * Set the partition data configuration
+         * @param partitionData the data directory of each partition, keyed by partition name
+         * @return this builder
+         */
+        public Builder partitionData(final Map<String, String> partitionData) {
+            this.partitionData = partitionData;
+            return this;
+        }
+
+        /**
+         * Set the partition URL configuration
+         * @param partitionUrls the base URL of each partition, keyed by partition name
+         * @return this builder
+         */
+        public Builder partitionUrls(final Map<String, String> partitionUrls) {
+            this.partitionUrls = partitionUrls;
+            return this;
+        }
+
+        /**
+         * Set the curator framework
+         * @param curator the curator framework
+         * @return this builder
+         */
+        public Builder curator(final CuratorFramework curator) {
+            this.curator = curator;
+            return this;
+        }
+
+        /**
+         * Set the kafka producer
+         * @param producer the kafka producer
+         * @return this builder
+         */
+        public Builder producer(final Producer<String, String> producer) {
+            this.producer = producer;
+            return this;
+        }
+
+        /**
+         * Set the notification service
+         * @param notifications the notification service
+         * @return this builder
+         */
+        public Builder notifications(final EventService notifications) {
+            this.notifications = notifications;
+            return this;
+        }
+
+        /**
+         * Set the identifier supplier
+         * @param idSupplier an identifier supplier for new resources
+         * @return this builder
+         */
+        public Builder idSupplier(final Supplier<String> idSupplier) {
+            this.idSupplier = idSupplier;
+            return this;
+        }
+
+        /**
+         * Set whether cached resources are generated asynchronously; by default, they are generated synchronously
+         * @param async generate cached resources asynchronously if true, synchonously if false
+         * @return this builder
+         */
+        public Builder async(final Boolean async) {
+            this.async = async;
+            return this;
+        }
+
+        /**
+         * Set whether the partitions are checked and repaired, as after an unclean shutdown, before they are used
+         * @param repairOnStartup check and repair each partition before it is used
+         * @return this builder
+         */
+        public Builder repairOnStartup(final Boolean repairOnStartup) {
+            this.repairOnStartup = repairOnStartup;
+            return this;
+        }
+
+        /**
+         * Set the executor on which asynchronous operations perform their I/O. An executor that is set here
+         * remains open when the service is closed; by default, the service creates, and closes, its own.
+         * @param executor the executor
+         * @return this builder
+         */
+        public Builder executor(final IOExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Set the partitions in which small resources are kept in pack files, rather than in a directory of
+         * their own
+         * @param packedPartitions the names of the partitions
+         * @return this builder
+         */
+        public Builder packedPartitions(final Set<String> packedPartitions) {
+            this.packedPartitions = packedPartitions;
+            return this;
+        }
+
+        /**
+         * Set the partitions in which every resource is kept in a single, segmented log, rather than in a
+         * directory of its own
+         * @param logPartitions the names of the partitions
+         * @return this builder
+         */
+        public Builder logPartitions(final Set<String> logPartitions) {
+            this.logPartitions = logPartitions;
+            return this;
+        }
+
+        /**
+         * Set whether the service only serves reads, as from a replica of the data directories, without ever
+         * changing the partitions; any write, purge or compaction then fails at once
+         * @param readOnly serve reads only
+         * @return this builder
+         */
+        public Builder readOnly(final Boolean readOnly) {
+            this.readOnly = readOnly;
+            return this;
+        }
+
+        /**
+         * Set the directory of the archive tier, to which the history of growing journals is moved in the
+         * background; by default, journals are left as they are written
+         * @param archive the archive directory
+         * @return this builder
+         */
+        public Builder archive(final File archive) {
+            this.archive = archive;
+            return this;
+        }
+
+        /**
+         * Create the service
+         * @return the service, which should be closed once it is no longer used
+         * @throws IOException if a partition is not writable, or in read-only mode, not readable
+         */
+        public FileResourceService build() throws IOException {
+            return new FileResourceService(this);
+        }
+    }
 
     /**
      * Create a File-based repository service
@@ -85,99 +295,371 @@ public class FileResourceService extends AbstractResourceService {
      * @param idSupplier an identifier supplier for new resources
      * @param async generate cached resources asynchronously if true, synchonously if false
      * @throws IOException if the directory is not writable
+     * @see #builder
      */
     public FileResourceService(final Map<String, String> partitionData, final Map<String, String> partitionUrls,
             final CuratorFramework curator, final Producer<String, String> producer, final EventService notifications,
             final Supplier<String> idSupplier, final Boolean async) throws IOException {
-        super(partitionUrls, producer, curator, notifications, idSupplier, async);
+        this(builder().partitionData(partitionData).partitionUrls(partitionUrls).curator(curator).producer(producer)
+                .notifications(notifications).idSupplier(idSupplier).async(async));
+    }
+
+    private FileResourceService(final Builder builder) throws IOException {
+        super(builder.partitionUrls, builder.producer, builder.curator, builder.notifications, builder.idSupplier,
+                builder.async);
 
-        requireNonNull(partitionData, "partition data configuration may not be null!");
+        requireNonNull(builder.partitionData, "partition data configuration may not be null!");
+        requireNonNull(builder.packedPartitions, "packed partitions may not be null!");
+        requireNonNull(builder.logPartitions, "log partitions may not be null!");
 
-        RESERVED_PARTITION_NAMES.stream().filter(partitionData::containsKey).findAny().ifPresent(name -> {
+        RESERVED_PARTITION_NAMES.stream().filter(builder.partitionData::containsKey).findAny().ifPresent(name -> {
             throw new IllegalArgumentException("Invalid partition name: " + name);
         });
+        builder.packedPartitions.stream().filter(builder.logPartitions::contains).findAny().ifPresent(name -> {
+            throw new IllegalArgumentException("A partition may not be both packed and logged: " + name);
+        });
+
+        this.partitionData = builder.partitionData;
+        this.repairOnStartup = builder.repairOnStartup;
+        this.ownsExecutor = isNull(builder.executor);
+        this.executor = ownsExecutor ? new IOExecutor(getRuntime().availableProcessors() * 2, DEFAULT_IO_QUEUE) :
+            builder.executor;
+        this.packedPartitions = builder.packedPartitions;
+        this.logPartitions = builder.logPartitions;
+        this.readOnly = builder.readOnly;
+        this.archive = builder.archive;
 
-        this.partitionData = partitionData;
+        try {
+            init();
+        } catch (final IOException | RuntimeException ex) {
+            // Release whatever partitions were opened before the failure
+            try {
+                close();
+            } catch (final IOException inner) {
+                ex.addSuppressed(inner);
+            }
+            throw ex;
+        }
+    }
 
-        init();
+    /**
+     * Create a builder of a File-based repository service
+     * @return the builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Release the partitions: stop compacting journals in the background, close the partition logs, which
+     * releases their locks, and shut down the I/O executor, unless it was given to the builder. A partition
+     * may only be opened by another service once this one is closed.
+     * @throws IOException if a partition log could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        compactions.values().forEach(CompactionScheduler::close);
+        compactions.clear();
+        IOException error = null;
+        for (final LogStore log : logs.values()) {
+            try {
+                log.close();
+            } catch (final IOException ex) {
+                LOGGER.error("Error closing partition log: {}", ex.getMessage());
+                if (isNull(error)) {
+                    error = ex;
+                } else {
+                    error.addSuppressed(ex);
+                }
+            }
+        }
+        logs.clear();
+        if (ownsExecutor) {
+            executor.close();
+        }
+        if (nonNull(error)) {
+            throw error;
+        }
+    }
+
+    /**
+     * Get a resource without blocking the calling thread
+     * @param identifier the identifier
+     * @return a future holding the resource, if it exists
+     */
+    public CompletableFuture<Optional<Resource>> getAsync(final IRI identifier) {
+        return executor.submit(() -> get(identifier));
+    }
+
+    /**
+     * Get a resource at a point in time without blocking the calling thread
+     * @param identifier the identifier
+     * @param time the time
+     * @return a future holding the resource, if it existed at that time
+     */
+    public CompletableFuture<Optional<Resource>> getAsync(final IRI identifier, final Instant time) {
+        return executor.submit(() -> get(identifier, time));
+    }
+
+    /**
+     * Write a resource without blocking the calling thread
+     * @param identifier the identifier
+     * @param dataset the dataset
+     * @return a future holding whether the write succeeded
+     */
+    public CompletableFuture<Boolean> putAsync(final IRI identifier, final Dataset dataset) {
+        return executor.submit(() -> put(identifier, dataset));
+    }
+
+    /**
+     * Scan a partition without blocking the calling thread
+     *
+     * <p>The partition is walked on the I/O executor, one chunk at a time as the subscriber signals demand, so
+     * that no more of a large partition is held in memory than the subscriber has asked for.</p>
+     *
+     * @param partition the partition
+     * @return a publisher of the resources in the partition
+     */
+    public Publisher<Triple> scanAsync(final String partition) {
+        return new ChunkedPublisher<>(() -> ChunkedPublisher.of(scan(partition)), executor,
+                ChunkedPublisher.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Publish the quads of a resource, reading its cache on the I/O executor as a subscriber signals demand
+     * @param identifier the identifier
+     * @return a publisher of the quads, if the resource is cached
+     */
+    public Optional<Publisher<Quad>> publish(final IRI identifier) {
+        // Packed and logged resources have no cache file
+        if (isPacked(identifier) || nonNull(logStore(identifier))) {
+            return Optional.empty();
+        }
+        return ofNullable(directory(identifier)).flatMap(dir -> CachedResource.read(dir)
+                .map(data -> new CachedResource(dir, identifier, data).publish(executor)));
+    }
+
+    /**
+     * Get the executor on which asynchronous operations perform their I/O
+     * @return the executor
+     */
+    public IOExecutor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Get the I/O budget of a partition, through which scans, purges and other maintenance are throttled
+     * @param partition the partition
+     * @return the budget, if the partition is configured
+     */
+    public Optional<IOBudget> getBudget(final String partition) {
+        return ofNullable(partitionDirectory(partitionData, TRELLIS_PREFIX + partition)).map(budgets::get);
+    }
+
+    /**
+     * Get the scheduler that compacts the journals of a partition in the background
+     * @param partition the partition
+     * @return the scheduler, if the partition is configured and its journals are compacted
+     */
+    public Optional<CompactionScheduler> getCompactionScheduler(final String partition) {
+        return ofNullable(partitionDirectory(partitionData, TRELLIS_PREFIX + partition)).map(compactions::get);
     }
 
     @Override
     public Optional<Resource> get(final IRI identifier) {
-        return ofNullable(resourceDirectory(partitionData, identifier)).filter(File::exists)
-            .flatMap(dir -> new File(dir, RESOURCE_CACHE).exists() ?
-                    CachedResource.find(dir, identifier) : VersionedResource.find(dir, identifier, now()));
+        record(identifier, 0L);
+        final LogStore log = logStore(identifier);
+        if (nonNull(log)) {
+            return log.get(identifier);
+        }
+        if (isPacked(identifier)) {
+            return PackedResource.find(packStore(identifier), identifier, now());
+        }
+        return ofNullable(directory(identifier)).filter(File::exists).flatMap(dir -> {
+            if (CachedResource.cacheFile(dir).exists()) {
+                final Optional<Resource> cached = CachedResource.find(dir, identifier, readOnly);
+                if (cached.isPresent()) {
+                    return cached;
+                }
+                // A cache that cannot be read is bypassed until it is rebuilt
+                repairCache(identifier, dir);
+            }
+            return VersionedResource.find(dir, identifier, now());
+        });
     }
 
     @Override
     public Optional<Resource> get(final IRI identifier, final Instant time) {
-        return ofNullable(resourceDirectory(partitionData, identifier)).filter(File::exists)
-            .flatMap(dir -> VersionedResource.find(dir, identifier, time));
+        record(identifier, 0L);
+        final LogStore log = logStore(identifier);
+        if (nonNull(log)) {
+            return log.get(identifier, time);
+        }
+        if (isPacked(identifier)) {
+            return PackedResource.find(packStore(identifier), identifier, time);
+        }
+        return ofNullable(directory(identifier)).filter(File::exists)
+            .flatMap(dir -> {
+                // Closed versions never change, so they are served from a persisted snapshot
+                final Optional<Resource> snapshot = SnapshotResource.find(dir, identifier, time, !readOnly);
+                return snapshot.isPresent() ? snapshot : VersionedResource.find(dir, identifier, time);
+            });
+    }
+
+    @Override
+    public Boolean put(final IRI identifier, final Dataset dataset) {
+        checkWritable();
+        return super.put(identifier, dataset);
+    }
+
+    @Override
+    public Stream<IRI> purge(final IRI identifier) {
+        checkWritable();
+        return super.purge(identifier);
     }
 
     @Override
     protected Boolean write(final IRI identifier, final Stream<? extends Quad> remove,
             final Stream<? extends Quad> add, final Instant time, final Boolean cacheAsync) {
-        final File dir = resourceDirectory(partitionData, identifier);
-        if (isNull(dir)) {
+        checkWritable();
+        final LogStore log = logStore(identifier);
+        if (nonNull(log)) {
+            record(identifier, 0L);
+            return log.write(identifier, remove, add, time, !async && !cacheAsync);
+        }
+        if (isPacked(identifier)) {
+            record(identifier, 0L);
+            // Another writer may promote the resource to a directory of its own before the transaction is
+            // packed, in which case the same quads are written there instead
+            final List<Quad> removed = remove.collect(toList());
+            final List<Quad> added = add.collect(toList());
+            return writePacked(identifier, removed.stream(), added.stream(), time, cacheAsync)
+                .orElseGet(() -> writeDirectory(identifier, removed.stream(), added.stream(), time, cacheAsync));
+        }
+        return writeDirectory(identifier, remove, add, time, cacheAsync);
+    }
+
+    private Boolean writeDirectory(final IRI identifier, final Stream<? extends Quad> remove,
+            final Stream<? extends Quad> add, final Instant time, final Boolean cacheAsync) {
+        final File root = partitionDirectory(partitionData, identifier.getIRIString());
+        if (isNull(root)) {
+            return false;
+        }
+        // During a layout migration, the resource directory is not moved between finding it and writing it
+        try (final PartitionLayout.Hold hold = PartitionLayout.hold(root, identifier.getIRIString())) {
+            final File dir = resourceDirectory(partitionData, identifier);
+            final File journal = new File(dir, RESOURCE_JOURNAL);
+            final long length = journal.length();
+            try {
+                return writeJournal(identifier, dir, remove, add, time) &&
+                    (async || cacheAsync || CachedResource.write(dir, identifier));
+            } finally {
+                record(identifier, journal.length() - length);
+            }
+        } catch (final IOException ex) {
+            LOGGER.error("Error locking resource {}: {}", identifier, ex.getMessage());
             return false;
         }
-        dir.mkdirs();
-        return RDFPatch.write(new File(dir, RESOURCE_JOURNAL), remove, add, time) &&
-            (async || cacheAsync || CachedResource.write(dir, identifier));
     }
 
     @Override
     public Stream<IRI> compact(final IRI identifier, final Instant from, final Instant until) {
+        checkWritable();
         throw new UnsupportedOperationException("compact is not implemented");
     }
 
     @Override
     public Stream<IRI> tryPurge(final IRI identifier) {
-        final List<IRI> binaries;
+        checkWritable();
+        final LogStore log = logStore(identifier);
+        if (nonNull(log)) {
+            acquire(identifier, 0L);
+            return log.tryPurge(identifier);
+        }
+        if (isPacked(identifier)) {
+            acquire(identifier, 0L);
+            final PackStore store = packStore(identifier);
+            final List<IRI> binaries = store.journal(identifier.getIRIString())
+                .map(journal -> RDFPatch.binaries(rdf, identifier, journal.stream())).orElseGet(Collections::emptyList);
+            try {
+                store.remove(identifier.getIRIString());
+            } catch (final IOException ex) {
+                LOGGER.error("Error removing packed resource: {}", ex.getMessage());
+                throw new UncheckedIOException(ex);
+            }
+            return binaries.stream();
+        }
+
+        // During a layout migration, the resource directory is not moved while it is purged
+        try (final PartitionLayout.Hold hold = PartitionLayout.hold(partitionDirectory(partitionData,
+                        identifier.getIRIString()), identifier.getIRIString())) {
+            // The binaries of the current version are recorded both in the archive and in the journal
+            return purgeDirectory(identifier).stream().distinct();
+        } catch (final IOException ex) {
+            LOGGER.error("Error locking resource {}: {}", identifier, ex.getMessage());
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private List<IRI> purgeDirectory(final IRI identifier) {
+        final List<IRI> binaries = new ArrayList<>();
         final File directory = resourceDirectory(partitionData, identifier);
+        final Optional<File> archive = RDFPatch.archive(new File(directory, RESOURCE_JOURNAL));
+        acquire(identifier, new File(directory, RESOURCE_JOURNAL).length());
 
         try (final Stream<String> lineStream = lines(new File(directory, RESOURCE_JOURNAL).toPath())) {
-            binaries = lineStream.flatMap(line -> {
-                final String[] parts = line.split(" ", 6);
-                if (parts.length == 6 && parts[0].equals("A") &&
-                        parts[1].equals(identifier.toString()) &&
-                        parts[2].equals(DC.hasPart.toString()) &&
-                        parts[4].equals(Trellis.PreferServerManaged.toString())) {
-                    return of(parts[3]);
+            if (archive.isPresent()) {
+                try (final Stream<String> archived = RDFPatch.readArchive(archive.get(),
+                            RDFPatch.archiveLength(new File(directory, RESOURCE_JOURNAL)).get())) {
+                    binaries.addAll(RDFPatch.binaries(rdf, identifier, archived));
                 }
-                return empty();
-            }).map(iri -> iri.substring(1, iri.length() - 1)).map(rdf::createIRI).collect(toList());
+            }
+            binaries.addAll(RDFPatch.binaries(rdf, identifier, lineStream));
         } catch (final IOException ex) {
             LOGGER.error("Error processing journal file: {}", ex.getMessage());
             throw new UncheckedIOException(ex);
         }
 
         try {
-            deleteIfExists(new File(directory, RESOURCE_CACHE).toPath());
-            deleteIfExists(new File(directory, RESOURCE_QUADS).toPath());
-            // Truncate history file, rather than actually deleting it
-            try (final BufferedWriter writer = newBufferedWriter(
-                        new File(directory, RESOURCE_JOURNAL).toPath(), UTF_8, WRITE, TRUNCATE_EXISTING)) {
-                writer.write("");
+            CachedResource.delete(directory);
+            ChildIndex.delete(directory);
+            SnapshotResource.delete(directory);
+            truncateJournal(identifier, directory);
+            if (archive.isPresent()) {
+                deleteIfExists(archive.get().toPath());
             }
         } catch (final IOException ex) {
             LOGGER.error("Error deleting files: {}", ex.getMessage());
             throw new UncheckedIOException(ex);
         }
 
-        return binaries.stream();
+        return binaries;
     }
 
     @Override
     public Stream<Triple> scan(final String partition) {
         if (partitionData.containsKey(partition)) {
             try {
-                return walk(new File(partitionData.get(partition)).toPath(), FileUtils.MAX + 2)
-                    .filter(p -> p.endsWith(RESOURCE_CACHE)).map(Path::getParent).map(Path::toFile)
-                    .map(CachedResource::read)
+                final File root = new File(partitionData.get(partition));
+                final IOBudget budget = IOBudget.of(partitionDirectory(partitionData, TRELLIS_PREFIX + partition));
+                final LogStore log = logs.get(partitionDirectory(partitionData, TRELLIS_PREFIX + partition));
+                if (nonNull(log)) {
+                    return log.scan().map(data -> rdf.createTriple(rdf.createIRI(data.getId()), RDF.type,
+                                rdf.createIRI(data.getLdpType())));
+                }
+                final PackStore store = packs.get(partitionDirectory(partitionData, TRELLIS_PREFIX + partition));
+                final Stream<ResourceData> packed = isNull(store) ? empty() : store.identifiers()
+                    .map(id -> PackedResource.read(store, rdf.createIRI(id), now()))
+                    .flatMap(res -> res.map(Stream::of).orElseGet(Stream::empty));
+                return concat(walk(root.toPath(), PartitionLayout.of(root).getResourceDepth() + 1)
+                    .filter(p -> p.endsWith(RESOURCE_COMBINED_CACHE) || p.endsWith(RESOURCE_CACHE) &&
+                            !p.resolveSibling(RESOURCE_COMBINED_CACHE).toFile().exists())
+                    .map(Path::toFile).map(cache -> {
+                        budget.acquire(cache.length());
+                        return cache.getParentFile();
+                    }).map(CachedResource::read)
                     // TODO - JDK9 optional to stream
-                    .flatMap(res -> res.map(Stream::of).orElseGet(Stream::empty)).map(data ->
+                    .flatMap(res -> res.map(Stream::of).orElseGet(Stream::empty)), packed).map(data ->
                         rdf.createTriple(rdf.createIRI(data.getId()), RDF.type, rdf.createIRI(data.getLdpType())));
             } catch (final IOException ex) {
                 LOGGER.error("Error reading partition root: {}", ex.getMessage());
@@ -186,45 +668,269 @@ public class FileResourceService extends AbstractResourceService {
         return empty();
     }
 
+    private File directory(final IRI identifier) {
+        // Reads never create a resource directory on a read-only replica
+        return readOnly ? resourceLocation(partitionData, identifier.getIRIString()) :
+            resourceDirectory(partitionData, identifier);
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("This resource service is read-only");
+        }
+    }
+
+    private Boolean writeJournal(final IRI identifier, final File directory, final Stream<? extends Quad> remove,
+            final Stream<? extends Quad> add, final Instant time) {
+        final CompactionScheduler scheduler = compactions.get(partitionDirectory(partitionData,
+                    identifier.getIRIString()));
+        if (isNull(scheduler)) {
+            return VersionedResource.write(directory, remove, add, time);
+        }
+        // A journal is never compacted while a transaction is appended to it
+        final Lock lock = scheduler.getLock(directory);
+        lock.lock();
+        try {
+            return VersionedResource.write(directory, remove, add, time);
+        } finally {
+            lock.unlock();
+            scheduler.record(directory, new File(directory, RESOURCE_JOURNAL).length());
+        }
+    }
+
+    private void truncateJournal(final IRI identifier, final File directory) throws IOException {
+        final CompactionScheduler scheduler = compactions.get(partitionDirectory(partitionData,
+                    identifier.getIRIString()));
+        final Lock lock = isNull(scheduler) ? null : scheduler.getLock(directory);
+        if (nonNull(lock)) {
+            lock.lock();
+        }
+        // Truncate history file, rather than actually deleting it
+        try (final BufferedWriter writer = newBufferedWriter(new File(directory, RESOURCE_JOURNAL).toPath(), UTF_8,
+                    WRITE, TRUNCATE_EXISTING)) {
+            writer.write("");
+        } finally {
+            if (nonNull(lock)) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void repairCache(final IRI identifier, final File directory) {
+        if (readOnly) {
+            LOGGER.warn("Cannot read the cache at {}; reading {} from its journal", directory, identifier);
+            return;
+        }
+        if (!repairing.add(directory)) {
+            return;
+        }
+        LOGGER.warn("Cannot read the cache at {}; rebuilding it from the journal", directory);
+        try {
+            executor.execute(() -> {
+                final File root = partitionDirectory(partitionData, identifier.getIRIString());
+                try (final PartitionLayout.Hold hold = PartitionLayout.hold(root, identifier.getIRIString())) {
+                    CacheRebuilder.rebuild(resourceDirectory(partitionData, identifier), identifier.getIRIString(),
+                            bytes -> acquire(identifier, bytes));
+                } catch (final IOException ex) {
+                    LOGGER.error("Error locking resource {}: {}", identifier, ex.getMessage());
+                } finally {
+                    repairing.remove(directory);
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            LOGGER.warn("Could not schedule a rebuild of the cache at {}: {}", directory, ex.getMessage());
+            repairing.remove(directory);
+        }
+    }
+
+    private void record(final IRI identifier, final long bytes) {
+        final File root = partitionDirectory(partitionData, identifier.getIRIString());
+        if (nonNull(root)) {
+            ofNullable(budgets.get(root)).ifPresent(budget -> budget.record(bytes));
+        }
+    }
+
+    private void acquire(final IRI identifier, final long bytes) {
+        final File root = partitionDirectory(partitionData, identifier.getIRIString());
+        if (nonNull(root)) {
+            ofNullable(budgets.get(root)).ifPresent(budget -> budget.acquire(bytes));
+        }
+    }
+
+    private LogStore logStore(final IRI identifier) {
+        final File root = partitionDirectory(partitionData, identifier.getIRIString());
+        return isNull(root) ? null : logs.get(root);
+    }
+
+    private PackStore packStore(final IRI identifier) {
+        final File root = partitionDirectory(partitionData, identifier.getIRIString());
+        return isNull(root) ? null : packs.get(root);
+    }
+
+    private Boolean isPacked(final IRI identifier) {
+        final PackStore store = packStore(identifier);
+        return nonNull(store) && !store.directory(identifier.getIRIString()).isPresent();
+    }
+
+    private Optional<Boolean> writePacked(final IRI identifier, final Stream<? extends Quad> remove,
+            final Stream<? extends Quad> add, final Instant time, final Boolean cacheAsync) {
+        final PackStore store = packStore(identifier);
+        final StringWriter transaction = new StringWriter();
+        try {
+            RDFPatch.write(transaction, remove, add, time);
+            if (!store.write(identifier.getIRIString(), transaction.toString())) {
+                // The resource has just been given a directory of its own
+                return Optional.empty();
+            }
+        } catch (final IOException ex) {
+            LOGGER.error("Error writing packed resource {}: {}", identifier.getIRIString(), ex.getMessage());
+            return Optional.of(false);
+        }
+        // A promoted resource is cached like any other resource with a directory of its own
+        return Optional.of(store.directory(identifier.getIRIString())
+                .map(dir -> async || cacheAsync || CachedResource.write(dir, identifier)).orElse(true));
+    }
+
     private void init() throws IOException {
-        for (final Map.Entry<String, String> storage : partitionData.entrySet()) {
-            final File data = storage.getValue().startsWith("file:") ?
-                 new File(create(storage.getValue())) : new File(storage.getValue());
-            LOGGER.info("Using resource data directory for '{}': {}", storage.getKey(), data.getAbsolutePath());
-            if (!data.exists()) {
-                data.mkdirs();
-            }
-            if (!data.canWrite()) {
-                throw new IOException("Cannot write to " + data.getAbsolutePath());
-            }
-            final IRI identifier = rdf.createIRI(TRELLIS_PREFIX + storage.getKey());
-            final IRI authIdentifier = rdf.createIRI(TRELLIS_PREFIX + storage.getKey() + "#auth");
-            final File root = resourceDirectory(partitionData, identifier);
-            final File rootData = new File(root, RESOURCE_JOURNAL);
-
-            if (!root.exists() || !rootData.exists()) {
-                LOGGER.info("Initializing root container for '{}'", identifier.getIRIString());
-                root.mkdirs();
-                final Instant time = now();
-                final IRI skolem = (IRI) skolemize(rdf.createBlankNode());
-                final Stream<Quad> quads = of(
-                        rdf.createQuad(Trellis.PreferServerManaged, identifier, RDF.type, LDP.Container),
-                        rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, RDF.type, ACL.Authorization),
-                        rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.mode, ACL.Read),
-                        rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.mode, ACL.Write),
-                        rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.mode, ACL.Control),
-                        rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.accessTo, identifier),
-                        rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.agentClass, FOAF.Agent),
-                        rdf.createQuad(Trellis.PreferAudit, identifier, PROV.wasGeneratedBy, skolem),
-                        rdf.createQuad(Trellis.PreferAudit, skolem, RDF.type, PROV.Activity),
-                        rdf.createQuad(Trellis.PreferAudit, skolem, RDF.type, AS.Create),
-                        rdf.createQuad(Trellis.PreferAudit, skolem, PROV.wasAssociatedWith,
-                            Trellis.RepositoryAdministrator),
-                        rdf.createQuad(Trellis.PreferAudit, skolem, PROV.generatedAtTime,
-                            rdf.createLiteral(time.toString(), XSD.dateTime)));
-                RDFPatch.write(rootData, empty(), quads, now());
-                CachedResource.write(root, identifier);
+        // Partitions often live on separate devices, so they are initialized concurrently
+        final ExecutorService executor = newFixedThreadPool(max(1, min(partitionData.size(), MAX_INIT_THREADS)));
+        try {
+            final Map<String, Future<Void>> tasks = new LinkedHashMap<>();
+            for (final Map.Entry<String, String> storage : partitionData.entrySet()) {
+                tasks.put(storage.getKey(), executor.submit(() -> {
+                    initPartition(storage.getKey(), storage.getValue());
+                    return null;
+                }));
+            }
+
+            IOException error = null;
+            for (final Map.Entry<String, Future<Void>> task : tasks.entrySet()) {
+                try {
+                    task.getValue().get();
+                } catch (final ExecutionException ex) {
+                    LOGGER.error("Could not initialize partition '{}': {}", task.getKey(), ex.getCause().getMessage());
+                    final IOException cause = ex.getCause() instanceof IOException ? (IOException) ex.getCause() :
+                        new IOException("Could not initialize partition " + task.getKey(), ex.getCause());
+                    if (isNull(error)) {
+                        error = cause;
+                    } else {
+                        error.addSuppressed(cause);
+                    }
+                }
             }
+            if (nonNull(error)) {
+                throw error;
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while initializing partitions", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void initPartition(final String partition, final String location) throws IOException {
+        final long start = nanoTime();
+        final File data = location.startsWith("file:") ? new File(create(location)) : new File(location);
+        LOGGER.info("Using resource data directory for '{}': {}", partition, data.getAbsolutePath());
+        budgets.put(data, IOBudget.of(data));
+        // The partition directory is canonicalized here, so that lookups of its resources never resolve it
+        PartitionLayout.canonical(data);
+        final IRI identifier = rdf.createIRI(TRELLIS_PREFIX + partition);
+        // Fail early on a partition with an unreadable layout descriptor
+        final PartitionLayout layout = PartitionLayout.read(data);
+        LOGGER.info("Partition '{}' uses the layout: {}", partition, layout);
+        final File root = layout.directory(data, identifier.getIRIString());
+        final File rootData = new File(root, RESOURCE_JOURNAL);
+
+        if (readOnly) {
+            initReadOnlyPartition(partition, data, identifier, root);
+            LOGGER.info("Partition '{}' ready in {} ms", partition, NANOSECONDS.toMillis(nanoTime() - start));
+            return;
+        }
+
+        // An existing root journal implies that both the partition and root directories exist
+        final Boolean initialized = rootData.isFile();
+        if (!initialized) {
+            data.mkdirs();
+        }
+        if (!data.canWrite()) {
+            throw new IOException("Cannot write to " + data.getAbsolutePath());
+        }
+        if (repairOnStartup) {
+            new PartitionChecker(getRuntime().availableProcessors(), 0L, true).check(data);
+        }
+        if (logPartitions.contains(partition)) {
+            // The root container of a logged partition is kept in the log, like any other resource
+            final LogStore log = LogStore.open(data);
+            logs.put(data, log);
+            if (!log.contains(identifier)) {
+                LOGGER.info("Initializing root container for '{}' in the partition log", identifier.getIRIString());
+                log.write(identifier, empty(), rootQuads(partition, identifier), now(), true);
+            }
+            LOGGER.info("Partition '{}' ready in {} ms", partition, NANOSECONDS.toMillis(nanoTime() - start));
+            return;
+        }
+        if (packedPartitions.contains(partition) || PackStore.exists(data)) {
+            // Once packing is disabled, packed resources remain readable and are promoted when they are written
+            final int threshold = packedPartitions.contains(partition) ? PackStore.DEFAULT_THRESHOLD : 0;
+            packs.put(data, new PackStore(data, threshold));
+            LOGGER.info("Partition '{}' packs resources with journals of up to {} bytes", partition, threshold);
         }
+        if (nonNull(archive)) {
+            compactions.put(data, new CompactionScheduler(data, archive));
+            LOGGER.info("Partition '{}' compacts its journals into {}", partition, archive.getAbsolutePath());
+        }
+
+        if (!initialized) {
+            LOGGER.info("Initializing root container for '{}'", identifier.getIRIString());
+            root.mkdirs();
+            RDFPatch.write(rootData, empty(), rootQuads(partition, identifier), now());
+            CachedResource.write(root, identifier);
+        }
+        LOGGER.info("Partition '{}' ready in {} ms", partition, NANOSECONDS.toMillis(nanoTime() - start));
+    }
+
+    private void initReadOnlyPartition(final String partition, final File data, final IRI identifier,
+            final File root) throws IOException {
+        // Nothing is created, checked for writability or repaired on a read-only replica
+        if (!data.isDirectory() || !data.canRead()) {
+            throw new IOException("Cannot read from " + data.getAbsolutePath());
+        }
+        if (repairOnStartup) {
+            LOGGER.warn("Partition '{}' is read-only, so it will not be repaired", partition);
+        }
+        if (logPartitions.contains(partition)) {
+            logs.put(data, LogStore.openReadOnly(data));
+        } else {
+            if (packedPartitions.contains(partition) || PackStore.exists(data)) {
+                packs.put(data, new PackStore(data, 0));
+            }
+            if (!new File(root, RESOURCE_JOURNAL).isFile()) {
+                LOGGER.warn("Partition '{}' has no root container", partition);
+            }
+        }
+        LOGGER.info("Partition '{}' is read-only", partition);
+    }
+
+    private Stream<Quad> rootQuads(final String partition, final IRI identifier) {
+        final IRI authIdentifier = rdf.createIRI(TRELLIS_PREFIX + partition + "#auth");
+        final Instant time = now();
+        final IRI skolem = (IRI) skolemize(rdf.createBlankNode());
+        return of(
+                rdf.createQuad(Trellis.PreferServerManaged, identifier, RDF.type, LDP.Container),
+                rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, RDF.type, ACL.Authorization),
+                rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.mode, ACL.Read),
+                rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.mode, ACL.Write),
+                rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.mode, ACL.Control),
+                rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.accessTo, identifier),
+                rdf.createQuad(Trellis.PreferAccessControl, authIdentifier, ACL.agentClass, FOAF.Agent),
+                rdf.createQuad(Trellis.PreferAudit, identifier, PROV.wasGeneratedBy, skolem),
+                rdf.createQuad(Trellis.PreferAudit, skolem, RDF.type, PROV.Activity),
+                rdf.createQuad(Trellis.PreferAudit, skolem, RDF.type, AS.Create),
+                rdf.createQuad(Trellis.PreferAudit, skolem, PROV.wasAssociatedWith,
+                    Trellis.RepositoryAdministrator),
+                rdf.createQuad(Trellis.PreferAudit, skolem, PROV.generatedAtTime,
+                    rdf.createLiteral(time.toString(), XSD.dateTime)));
     }
 }
@@ -13,30 +13,41 @@
  */
 package org.trellisldp.rosid.file;
 
-import static java.io.File.separator;
-import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.Objects.requireNonNull;
+import static java.lang.String.join;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.move;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.nonNull;
 import static java.util.Optional.empty;
 import static java.util.Optional.of;
-import static java.util.stream.IntStream.range;
-import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static java.util.regex.Pattern.compile;
+import static java.util.regex.Pattern.quote;
 import static org.apache.commons.rdf.jena.JenaRDF.asQuad;
 import static org.apache.jena.riot.Lang.NQUADS;
 import static org.apache.jena.riot.RDFParser.fromString;
 import static org.apache.jena.sparql.core.DatasetGraphFactory.create;
 import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CHILDREN;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS_OFFSETS;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
-import java.util.StringJoiner;
-import java.util.zip.CRC32;
+import java.util.regex.Pattern;
 
 import org.apache.commons.rdf.api.IRI;
 import org.apache.commons.rdf.api.Quad;
 import org.apache.commons.rdf.api.RDF;
+import org.apache.commons.text.RandomStringGenerator;
 import org.apache.jena.riot.RiotException;
 import org.apache.jena.sparql.core.DatasetGraph;
 import org.slf4j.Logger;
@@ -48,12 +59,23 @@ public final class FileUtils {
 
     private static final Logger LOGGER = getLogger(FileUtils.class);
 
-    // The length of the CRC directory partition
+    // The length and number of the CRC directory partitions in the legacy layout
     public static final int LENGTH = 2;
     public static final int MAX = 3;
 
+    // The length of the random suffix on temporary files
+    private static final int TEMP_SUFFIX_LENGTH = 16;
+
+    private static final RandomStringGenerator generator = new RandomStringGenerator.Builder()
+        .withinRange('a', 'z').build();
+
+    private static final Pattern tempFilePattern = compile("^(" + join("|", quote(RESOURCE_CACHE),
+                quote(RESOURCE_COMBINED_CACHE), quote(RESOURCE_QUADS), quote(RESOURCE_QUADS_OFFSETS),
+                quote(RESOURCE_CHILDREN), quote(RESOURCE_JOURNAL), "resource\\.\\d+\\.rdfp\\.gz", "\\d+\\.nq",
+                "\\d+\\.json") + ")[a-z]{" + TEMP_SUFFIX_LENGTH + "}$");
+
     /**
-     * Partition an identifier into a directory structure
+     * Partition an identifier into a directory structure, using the legacy layout
      * @param identifier the identifier
      * @return a string usable as a directory path
      */
@@ -62,23 +84,13 @@ public final class FileUtils {
     }
 
     /**
-     * Partition an identifier into a directory structure
+     * Partition an identifier into a directory structure, using the legacy layout
      * @param identifier the identifier
      * @return a string usable as a directory path
+     * @see PartitionLayout#LEGACY
      */
     public static String partition(final String identifier) {
-        requireNonNull(identifier, "identifier must not be null!");
-
-        final StringJoiner joiner = new StringJoiner(separator);
-        final CRC32 hasher = new CRC32();
-        hasher.update(identifier.getBytes(UTF_8));
-        final String intermediate = Long.toHexString(hasher.getValue());
-
-        range(0, intermediate.length() / LENGTH).limit(MAX)
-            .forEach(i -> joiner.add(intermediate.substring(i * LENGTH, (i + 1) * LENGTH)));
-
-        joiner.add(md5Hex(identifier));
-        return joiner.toString();
+        return PartitionLayout.LEGACY.path(identifier);
     }
 
     /**
@@ -119,21 +131,76 @@ public final class FileUtils {
      * @return the file
      */
     public static File resourceDirectory(final Map<String, String> config, final String identifier) {
+        final File directory = resourceLocation(config, identifier);
+        if (nonNull(directory)) {
+            directory.mkdirs();
+        }
+        return directory;
+    }
+
+    /**
+     * Get the resource directory for a given identifier, without creating it
+     * @param config the configuration
+     * @param identifier the identifier
+     * @return the directory, which may not exist, or null if the partition is not configured
+     */
+    static File resourceLocation(final Map<String, String> config, final String identifier) {
+        final File root = partitionDirectory(config, identifier);
+        return nonNull(root) ? PartitionLayout.of(root).directory(root, identifier) : null;
+    }
+
+    /**
+     * Get the partition directory for a given identifier
+     * @param config the configuration
+     * @param identifier the identifier
+     * @return the partition directory, or null if the partition is not configured
+     */
+    static File partitionDirectory(final Map<String, String> config, final String identifier) {
         final String repo = identifier.split("/")[0].split(":")[1];
         if (config.containsKey(repo)) {
-            final File root;
             if (config.get(repo).startsWith("file:")) {
-                root = new File(URI.create(config.get(repo)));
-            } else {
-                root = new File(config.get(repo));
+                return new File(URI.create(config.get(repo)));
             }
-            final File directory = new File(root, partition(identifier));
-            directory.mkdirs();
-            return directory;
+            return new File(config.get(repo));
         }
         return null;
     }
 
+    /**
+     * Get a uniquely named, temporary file for the given resource file
+     * @param directory the directory
+     * @param name the name of the file that will eventually be replaced
+     * @return the temporary file
+     */
+    static File tempFile(final File directory, final String name) {
+        return new File(directory, name + generator.generate(TEMP_SUFFIX_LENGTH));
+    }
+
+    /**
+     * Test whether a file name is that of a temporary file created by {@link #tempFile}
+     * @param name the file name
+     * @return true if the name is that of a temporary file
+     */
+    static Boolean isTempFile(final String name) {
+        return tempFilePattern.matcher(name).matches();
+    }
+
+    /**
+     * Move a file into place, atomically if the filesystem supports it
+     * @param from the source file
+     * @param to the destination file
+     * @throws IOException if the file could not be moved
+     */
+    static void moveIntoPlace(final File from, final File to) throws IOException {
+        try {
+            move(from.toPath(), to.toPath(), ATOMIC_MOVE);
+        } catch (final AtomicMoveNotSupportedException ex) {
+            move(from.toPath(), to.toPath(), REPLACE_EXISTING);
+        } finally {
+            deleteIfExists(from.toPath());
+        }
+    }
+
     private FileUtils() {
         // prevent instantiation
     }
@@ -0,0 +1,211 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Long.parseLong;
+import static java.lang.System.lineSeparator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static java.util.Optional.ofNullable;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.slf4j.Logger;
+
+/**
+ * A table of the location of each named graph in a cached N-Quads file.
+ *
+ * <p>Each line of the table holds a graph name, the byte offset at which that graph's quads begin
+ * and the number of bytes they occupy. The sections are contiguous and together span the entire
+ * N-Quads file, which allows a reader to detect a table that does not match its file.</p>
+ *
+ * @author acoburn
+ */
+final class GraphOffsets {
+
+    private static final Logger LOGGER = getLogger(GraphOffsets.class);
+
+    /**
+     * A contiguous range of bytes in a file
+     */
+    static final class Section {
+        private final long offset;
+        private final long length;
+
+        /**
+         * Create a section
+         * @param offset the offset, in bytes
+         * @param length the length, in bytes
+         */
+        Section(final long offset, final long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Get the offset of the section
+         * @return the byte offset
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get the length of the section
+         * @return the length in bytes
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+
+    private final Map<String, Section> sections;
+
+    /**
+     * Create a table of graph offsets
+     * @param sections the sections, keyed by N-Triples graph name and in file order
+     */
+    GraphOffsets(final Map<String, Section> sections) {
+        this.sections = unmodifiableMap(new LinkedHashMap<>(sections));
+    }
+
+    /**
+     * Get the section of the file that holds a given graph
+     * @param graphName the graph name
+     * @return the section, if the graph has any quads
+     */
+    public Optional<Section> get(final IRI graphName) {
+        return ofNullable(sections.get(graphName.ntriplesString()));
+    }
+
+    /**
+     * Get all of the sections of the file
+     * @return the sections, keyed by N-Triples graph name and in file order
+     */
+    public Map<String, Section> getSections() {
+        return sections;
+    }
+
+    /**
+     * Get the total length, in bytes, of all the sections
+     * @return the total length
+     */
+    public long getLength() {
+        return sections.values().stream().mapToLong(Section::getLength).sum();
+    }
+
+    /**
+     * Get a copy of the table whose sections begin at a given position, as when the quads follow a header
+     * @param start the position of the first section, in bytes
+     * @return the shifted table
+     */
+    public GraphOffsets at(final long start) {
+        final Map<String, Section> shifted = new LinkedHashMap<>();
+        sections.forEach((graphName, section) -> shifted.put(graphName, new Section(start + section.getOffset(),
+                        section.getLength())));
+        return new GraphOffsets(shifted);
+    }
+
+    /**
+     * Get the lines of the table
+     * @return the lines, without line terminators
+     */
+    public List<String> lines() {
+        return sections.entrySet().stream().map(entry -> entry.getKey() + " " + entry.getValue().getOffset() + " " +
+                entry.getValue().getLength()).collect(toList());
+    }
+
+    /**
+     * Write the table to a file
+     * @param file the file
+     * @throws IOException if the table could not be written
+     */
+    public void write(final File file) throws IOException {
+        try (final BufferedWriter writer = newBufferedWriter(file.toPath(), UTF_8, CREATE, WRITE,
+                    TRUNCATE_EXISTING)) {
+            for (final String line : lines()) {
+                writer.write(line + lineSeparator());
+            }
+        }
+    }
+
+    /**
+     * Read a table of graph offsets
+     * @param file the file holding the table
+     * @param length the length of the N-Quads file that the table describes
+     * @return the table, if it exists and matches a file of the given length
+     */
+    public static Optional<GraphOffsets> read(final File file, final long length) {
+        if (!file.exists()) {
+            return empty();
+        }
+        try (final Stream<String> lineStream = Files.lines(file.toPath())) {
+            return parse(lineStream.iterator(), length, file);
+        } catch (final IOException | UncheckedIOException ex) {
+            LOGGER.warn("Could not read graph offsets in {}: {}", file, ex.getMessage());
+        }
+        return empty();
+    }
+
+    /**
+     * Parse the lines of a table of graph offsets
+     * @param lines the lines of the table
+     * @param length the length of the N-Quads that the table describes
+     * @param file the file holding the table
+     * @return the table, if it is well formed and matches quads of the given length
+     */
+    static Optional<GraphOffsets> parse(final Iterator<String> lines, final long length, final File file) {
+        final Map<String, Section> sections = new LinkedHashMap<>();
+        long position = 0L;
+        try {
+            while (lines.hasNext()) {
+                final String[] parts = lines.next().split(" ");
+                if (parts.length != 3 || parseLong(parts[1]) != position) {
+                    LOGGER.warn("Ignoring malformed graph offsets in {}", file);
+                    return empty();
+                }
+                final Section section = new Section(position, parseLong(parts[2]));
+                sections.put(parts[0], section);
+                position += section.getLength();
+            }
+        } catch (final NumberFormatException ex) {
+            LOGGER.warn("Could not read graph offsets in {}: {}", file, ex.getMessage());
+            return empty();
+        }
+        if (position != length) {
+            LOGGER.debug("Graph offsets in {} do not match the cache", file);
+            return empty();
+        }
+        return of(new GraphOffsets(sections));
+    }
+}
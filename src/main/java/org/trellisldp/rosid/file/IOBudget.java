@@ -0,0 +1,220 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+/**
+ * A budget of I/O operations and bytes per second for a partition, shared by everything that reads or writes the
+ * partition in this process.
+ *
+ * <p>Foreground requests, such as gets and writes, are {@linkplain #record recorded} against the budget but never
+ * wait. Background maintenance, such as cache rebuilds, scans, purges and compactions, must {@linkplain #acquire
+ * acquire} its share of the budget first, and waits for as long as the budget is spent, whether by other
+ * maintenance or by foreground requests. Maintenance therefore only uses whatever the foreground requests leave of
+ * the budget. Foreground requests may overspend the budget by at most a second, so that maintenance resumes soon
+ * after a burst of requests ends, rather than waiting for the whole burst to be paid for.</p>
+ *
+ * <p>A budget has no limits until they are {@linkplain #setLimits set}, in which case maintenance is only counted.
+ * The time that maintenance spends waiting is counted, so that throttling can be monitored.</p>
+ *
+ * @author acoburn
+ */
+public final class IOBudget {
+
+    private static final Logger LOGGER = getLogger(IOBudget.class);
+
+    // Maintenance may run ahead of the budget by this much, so that short bursts are not throttled
+    private static final long BURST = MILLISECONDS.toNanos(100L);
+
+    // Foreground requests may spend the budget this far ahead of the present, but no further
+    private static final long DEBT = SECONDS.toNanos(1L);
+
+    private static final Map<File, IOBudget> BUDGETS = new ConcurrentHashMap<>();
+
+    private final File root;
+    private final AtomicLong opsDue = new AtomicLong(nanoTime());
+    private final AtomicLong bytesDue = new AtomicLong(nanoTime());
+    private final AtomicLong foregroundOps = new AtomicLong();
+    private final AtomicLong foregroundBytes = new AtomicLong();
+    private final AtomicLong backgroundOps = new AtomicLong();
+    private final AtomicLong backgroundBytes = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private volatile long opsPerSecond = 0L;
+    private volatile long bytesPerSecond = 0L;
+
+    private IOBudget(final File root) {
+        this.root = root;
+    }
+
+    /**
+     * Get the budget of a partition
+     * @param root the partition directory
+     * @return the budget that is shared by every user of the partition
+     */
+    public static IOBudget of(final File root) {
+        return BUDGETS.computeIfAbsent(root.toPath().toAbsolutePath().normalize().toFile(), IOBudget::new);
+    }
+
+    /**
+     * Set the limits of this budget
+     * @param opsPerSecond the maximum number of operations per second, or zero for no limit
+     * @param bytesPerSecond the maximum number of bytes per second, or zero for no limit
+     */
+    public void setLimits(final long opsPerSecond, final long bytesPerSecond) {
+        if (opsPerSecond < 0L || bytesPerSecond < 0L) {
+            throw new IllegalArgumentException("Invalid I/O budget: " + opsPerSecond + " operations, " +
+                    bytesPerSecond + " bytes per second");
+        }
+        LOGGER.info("Limiting maintenance of {} to {} operations and {} bytes per second", root, opsPerSecond,
+                bytesPerSecond);
+        this.opsPerSecond = opsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Get the maximum number of operations per second
+     * @return the number of operations, or zero if there is no limit
+     */
+    public long getOpsPerSecond() {
+        return opsPerSecond;
+    }
+
+    /**
+     * Get the maximum number of bytes per second
+     * @return the number of bytes, or zero if there is no limit
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Record a foreground operation, which never waits
+     * @param bytes the number of bytes that the operation read or wrote, if known, or else zero
+     */
+    public void record(final long bytes) {
+        foregroundOps.incrementAndGet();
+        foregroundBytes.addAndGet(bytes);
+        spend(bytes, DEBT);
+    }
+
+    /**
+     * Acquire a part of the budget for a background operation, waiting until it is available.
+     *
+     * <p>A thread that is interrupted while it waits stops waiting, with its interrupt status set.</p>
+     *
+     * @param bytes the number of bytes that the operation will read or write, if known, or else zero
+     */
+    public void acquire(final long bytes) {
+        backgroundOps.incrementAndGet();
+        backgroundBytes.addAndGet(bytes);
+        final long wait = spend(bytes, Long.MAX_VALUE) - BURST;
+        if (wait > 0L) {
+            throttled.addAndGet(wait);
+            try {
+                NANOSECONDS.sleep(wait);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the number of foreground operations
+     * @return the number of operations
+     */
+    public long getForegroundOps() {
+        return foregroundOps.get();
+    }
+
+    /**
+     * Get the number of bytes read or written by foreground operations
+     * @return the number of bytes
+     */
+    public long getForegroundBytes() {
+        return foregroundBytes.get();
+    }
+
+    /**
+     * Get the number of background operations
+     * @return the number of operations
+     */
+    public long getBackgroundOps() {
+        return backgroundOps.get();
+    }
+
+    /**
+     * Get the number of bytes read or written by background operations
+     * @return the number of bytes
+     */
+    public long getBackgroundBytes() {
+        return backgroundBytes.get();
+    }
+
+    /**
+     * Get the total time that background operations have waited for the budget
+     * @return the time, in milliseconds
+     */
+    public long getThrottledMillis() {
+        return NANOSECONDS.toMillis(throttled.get());
+    }
+
+    @Override
+    public String toString() {
+        return "foreground: " + getForegroundOps() + " ops, " + getForegroundBytes() + " bytes; background: " +
+            getBackgroundOps() + " ops, " + getBackgroundBytes() + " bytes, " + getThrottledMillis() +
+            " ms throttled";
+    }
+
+    /**
+     * Spend a part of the budget, returning how long, in nanoseconds, until it would have been available
+     */
+    private long spend(final long bytes, final long debt) {
+        final long now = nanoTime();
+        final long ops = opsPerSecond;
+        final long rate = bytesPerSecond;
+        long due = now;
+        if (ops > 0L) {
+            due = max(due, schedule(opsDue, now, SECONDS.toNanos(1L) / ops, debt));
+        }
+        if (rate > 0L && bytes > 0L) {
+            due = max(due, schedule(bytesDue, now, (long) (bytes * (double) SECONDS.toNanos(1L) / rate),
+                        debt));
+        }
+        return due - now;
+    }
+
+    /**
+     * Advance the time at which the budget is next free, which never lags the present, by a cost, but not past
+     * a given distance from the present unless it was already further ahead
+     */
+    private static long schedule(final AtomicLong due, final long now, final long cost, final long debt) {
+        final long limit = debt == Long.MAX_VALUE ? Long.MAX_VALUE : now + debt;
+        return due.accumulateAndGet(cost, (previous, nanos) -> max(min(max(previous, now) + nanos, limit),
+                    previous));
+    }
+}
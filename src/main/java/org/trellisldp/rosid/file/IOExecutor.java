@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+
+/**
+ * A bounded executor for file I/O.
+ *
+ * <p>Tasks run on a fixed number of daemon threads, and at most a fixed number of tasks may wait in the
+ * queue. When both are exhausted, a task is rejected rather than queued without bound, and the rejection
+ * is counted so that it can be monitored.</p>
+ *
+ * <p>On Java 21 and later, and with a multi-release jar, each task instead runs on its own virtual thread, so
+ * that blocking file I/O does not exhaust the platform threads. The same number of tasks may be in flight,
+ * and further tasks are rejected in the same way.</p>
+ *
+ * @author acoburn
+ */
+public final class IOExecutor implements Executor, AutoCloseable {
+
+    private static final Logger LOGGER = getLogger(IOExecutor.class);
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final Semaphore permits;
+    private final int capacity;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    /**
+     * Create a bounded I/O executor
+     * @param threads the number of threads
+     * @param queueCapacity the maximum number of tasks that may wait for a thread
+     */
+    public IOExecutor(final int threads, final int queueCapacity) {
+        this(threads, queueCapacity, IOThreads.isVirtual());
+    }
+
+    /**
+     * Create a bounded I/O executor that runs its tasks on either platform or virtual threads
+     * @param threads the number of threads
+     * @param queueCapacity the maximum number of tasks that may wait for a thread
+     * @param virtual whether each task runs on its own virtual thread
+     * @throws UnsupportedOperationException if virtual threads are not available
+     */
+    IOExecutor(final int threads, final int queueCapacity, final boolean virtual) {
+        if (virtual && !IOThreads.isVirtual()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 and a multi-release jar");
+        }
+        this.capacity = threads + queueCapacity;
+        this.permits = new Semaphore(capacity);
+        this.virtual = virtual;
+        final String prefix = "trellis-rosid-io-" + POOL_COUNTER.incrementAndGet() + "-";
+        final RejectedExecutionHandler handler = (runnable, pool) -> {
+            throw new RejectedExecutionException("The I/O queue is full");
+        };
+        this.executor = virtual ? IOThreads.newExecutor(prefix, threads, queueCapacity, handler) :
+            newPlatformExecutor(prefix, threads, queueCapacity, handler);
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (!permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many I/O tasks are in flight");
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    completed.incrementAndGet();
+                    permits.release();
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            rejected.incrementAndGet();
+            permits.release();
+            throw ex;
+        }
+    }
+
+    /**
+     * Run a task on this executor
+     * @param supplier the task
+     * @param <T> the type of the result
+     * @return a future holding the result, which completes exceptionally if the task is rejected
+     */
+    public <T> CompletableFuture<T> submit(final Supplier<T> supplier) {
+        try {
+            return supplyAsync(supplier, this);
+        } catch (final RejectedExecutionException ex) {
+            LOGGER.warn("Rejected I/O task: {}", ex.getMessage());
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(ex);
+            return future;
+        }
+    }
+
+    /**
+     * Get the number of tasks that have been rejected
+     * @return the number of rejected tasks
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Get the number of tasks waiting for a thread
+     * @return the queue size, which is always zero for virtual threads
+     */
+    public int getQueueSize() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * Get the approximate number of threads that are running tasks
+     * @return the number of active threads
+     */
+    public int getActiveCount() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getActiveCount();
+        }
+        return getInFlightCount();
+    }
+
+    /**
+     * Get the number of tasks that are running or waiting for a thread
+     * @return the number of tasks in flight
+     */
+    public int getInFlightCount() {
+        return capacity - permits.availablePermits();
+    }
+
+    /**
+     * Get the approximate number of tasks that have completed
+     * @return the number of completed tasks
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Whether tasks run on virtual threads
+     * @return true if each task runs on its own virtual thread
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Create a fixed pool of platform threads for blocking I/O
+     * @param prefix the prefix of the thread names
+     * @param threads the number of threads
+     * @param queueCapacity the maximum number of tasks that may wait for a thread
+     * @param handler the handler for rejected tasks
+     * @return the executor
+     */
+    static ExecutorService newPlatformExecutor(final String prefix, final int threads, final int queueCapacity,
+            final RejectedExecutionHandler handler) {
+        final AtomicInteger counter = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    final Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, handler);
+        // Idle threads are released, so an unused executor costs nothing
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
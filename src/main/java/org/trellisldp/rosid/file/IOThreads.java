@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+
+/**
+ * The threads on which an {@link IOExecutor} runs its tasks.
+ *
+ * <p>This implementation uses a fixed pool of platform threads. On Java 21 and later, a multi-release jar built
+ * with a {@code java21Home} replaces this class with one that runs each task on its own virtual thread.</p>
+ *
+ * @author acoburn
+ */
+final class IOThreads {
+
+    /**
+     * Whether tasks run on virtual threads
+     * @return true if each task runs on its own virtual thread
+     */
+    static boolean isVirtual() {
+        return false;
+    }
+
+    /**
+     * Create an executor for blocking I/O
+     * @param prefix the prefix of the thread names
+     * @param threads the number of threads
+     * @param queueCapacity the maximum number of tasks that may wait for a thread
+     * @param handler the handler for rejected tasks
+     * @return the executor
+     */
+    static ExecutorService newExecutor(final String prefix, final int threads, final int queueCapacity,
+            final RejectedExecutionHandler handler) {
+        return IOExecutor.newPlatformExecutor(prefix, threads, queueCapacity, handler);
+    }
+
+    private IOThreads() {
+        // prevent instantiation
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.lineSeparator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.lines;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.Files.walk;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.time.temporal.ChronoUnit.MILLIS;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Stream.empty;
+import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.api.RDFUtils.getInstance;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_MEMENTOS;
+import static org.trellisldp.rosid.file.FileUtils.isTempFile;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
+import static org.trellisldp.rosid.file.FileUtils.tempFile;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.rdf.api.Quad;
+import org.apache.commons.rdf.api.RDF;
+import org.slf4j.Logger;
+import org.trellisldp.api.VersionRange;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * A tool that moves the older history of resource journals to a compressed archive tier.
+ *
+ * <p>The journal of each resource that has not been modified for a given period is split at the start of its
+ * current version. Every earlier transaction is appended to a gzip-compressed archive, in a directory of its own
+ * that may be on slower storage, while the journal is replaced by a single transaction that holds the state of
+ * the resource at the start of the current version, followed by any later transactions. The journal records
+ * the location of the archive and the versions that it holds, so that the current state of the resource and its
+ * list of versions are read from the journal alone; only a memento of an archived version is read from the
+ * archive (see {@link RDFPatch}). Snapshots of archived versions are removed.</p>
+ *
+ * <p>Journals that end with an uncommitted transaction are left for the {@link PartitionChecker}, and a journal
+ * that changes while it is being archived is left for a later run. Since the check for such a change and the
+ * replacement of the journal are not atomic, an archive run should be scheduled when the partition is quiet.</p>
+ *
+ * @author acoburn
+ */
+public final class JournalArchiver {
+
+    private static final Logger LOGGER = getLogger(JournalArchiver.class);
+
+    private static final RDF rdf = getInstance();
+
+    private static final String TX_COMMIT = "TC .";
+    private static final String ARCHIVE_EXTENSION = ".rdfp.gz";
+    private static final long PROGRESS_INTERVAL = 1000L;
+
+    private final File archive;
+    private final long age;
+    private final int parallelism;
+
+    /**
+     * The outcome of an archive run
+     */
+    public static final class Report {
+        private final AtomicLong resources = new AtomicLong();
+        private final AtomicLong archived = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        /**
+         * Get the number of resources that were examined
+         * @return the number of resources
+         */
+        public long getResources() {
+            return resources.get();
+        }
+
+        /**
+         * Get the number of resources whose history was archived
+         * @return the number of resources
+         */
+        public long getArchived() {
+            return archived.get();
+        }
+
+        /**
+         * Get the number of bytes by which the journals were reduced
+         * @return the number of bytes
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * Get the number of resources that could not be archived
+         * @return the number of errors
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        @Override
+        public String toString() {
+            return "resources: " + getResources() + ", archived: " + getArchived() + ", bytes: " + getBytes() +
+                ", errors: " + getErrors();
+        }
+    }
+
+    /**
+     * Create a journal archiver
+     * @param archive the directory of the archive tier
+     * @param age the time, in milliseconds, since a journal was last modified before it may be archived
+     * @param parallelism the number of resources to archive concurrently
+     */
+    public JournalArchiver(final File archive, final long age, final int parallelism) {
+        if (parallelism < 1 || age < 0L) {
+            throw new IllegalArgumentException("Invalid parallelism or age: " + parallelism + ", " + age);
+        }
+        this.archive = archive;
+        this.age = age;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Archive the older history of the resources in a partition
+     * @param partition the partition directory
+     * @return a report of the archive run
+     * @throws IOException if the partition could not be read
+     */
+    public Report archive(final File partition) throws IOException {
+        LOGGER.info("Archiving partition at {} to {}", partition.getAbsolutePath(), archive.getAbsolutePath());
+        final Report report = new Report();
+        final long cutoff = currentTimeMillis() - age;
+        final List<File> directories;
+        try (final Stream<Path> paths = walk(partition.toPath(), PartitionLayout.read(partition).getResourceDepth())) {
+            directories = paths.map(Path::toFile).filter(dir -> new File(dir, RESOURCE_JOURNAL).isFile())
+                .collect(toList());
+        }
+        final IOBudget budget = IOBudget.of(partition);
+        final ExecutorService executor = newFixedThreadPool(parallelism);
+        try {
+            directories.forEach(directory -> executor.execute(() -> {
+                budget.acquire(new File(directory, RESOURCE_JOURNAL).length());
+                archiveResource(partition, directory, cutoff, null, report);
+                final long count = report.resources.incrementAndGet();
+                if (count % PROGRESS_INTERVAL == 0) {
+                    LOGGER.info("Examined {} resources", count);
+                }
+            }));
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, NANOSECONDS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while archiving " + partition, ex);
+            }
+        }
+        LOGGER.info("Finished archiving partition at {}: {}", partition.getAbsolutePath(), report);
+        return report;
+    }
+
+    /**
+     * Archive the older history of a single resource
+     * @param partition the partition directory
+     * @param directory the resource directory
+     * @param lock a lock that writers of the journal hold while they append to it
+     * @param report the report to which the outcome is added
+     */
+    void archive(final File partition, final File directory, final Lock lock, final Report report) {
+        archiveResource(partition, directory, currentTimeMillis() - age, lock, report);
+        report.resources.incrementAndGet();
+    }
+
+    private void archiveResource(final File partition, final File directory, final long cutoff, final Lock lock,
+            final Report report) {
+        final File journal = new File(directory, RESOURCE_JOURNAL);
+        final long modified = journal.lastModified();
+        final long length = journal.length();
+        try {
+            if (modified > cutoff || PartitionChecker.committedLength(journal) < length) {
+                return;
+            }
+            // Only the versions before the current one are archived
+            final List<VersionRange> versions = RDFPatch.asTimeMap(journal);
+            if (versions.isEmpty()) {
+                return;
+            }
+            final Instant until = versions.get(versions.size() - 1).getUntil().truncatedTo(MILLIS);
+            if (RDFPatch.archivedUntil(journal).filter(time -> !time.isBefore(until)).isPresent()) {
+                return;
+            }
+            final Optional<String> identifier = PartitionChecker.identifier(directory);
+            if (!identifier.isPresent()) {
+                LOGGER.error("Could not determine the identifier for the resource at {}", directory);
+                report.errors.incrementAndGet();
+                return;
+            }
+
+            // A later run appends to the archive that the journal already refers to
+            final Optional<File> previous = RDFPatch.archive(journal);
+            final long previousLength = RDFPatch.archiveLength(journal).orElse(0L);
+            final File history = previous.orElseGet(() -> new File(new File(new File(archive, partition.getName()),
+                            partition.toPath().relativize(directory.toPath()).toString()),
+                        "resource." + until.toEpochMilli() + ARCHIVE_EXTENSION));
+            history.getParentFile().mkdirs();
+            removeTempFiles(history.getParentFile(), cutoff);
+            final File historySource = tempFile(history.getParentFile(), history.getName());
+            final File journalSource = tempFile(directory, RESOURCE_JOURNAL);
+            try {
+                final long archivedLines = writeArchive(journal, previous.isPresent(), until, historySource);
+                writeJournal(journal, identifier.get(), history, previousLength + historySource.length(), until,
+                        versions, archivedLines, journalSource);
+                // With a lock, no write can be appended between the check for changes and the replacement
+                if (nonNull(lock)) {
+                    lock.lock();
+                }
+                try {
+                    if (journal.lastModified() != modified || journal.length() != length) {
+                        LOGGER.info("Journal at {} changed while it was being archived", journal);
+                        return;
+                    }
+                    // The archive is written first, since the journal refers to it
+                    if (previous.isPresent()) {
+                        append(historySource, history, previousLength);
+                    } else {
+                        moveIntoPlace(historySource, history);
+                    }
+                    moveIntoPlace(journalSource, journal);
+                    journal.setLastModified(modified);
+                } finally {
+                    if (nonNull(lock)) {
+                        lock.unlock();
+                    }
+                }
+            } finally {
+                deleteQuietly(historySource);
+                deleteQuietly(journalSource);
+            }
+            removeSnapshots(directory, until);
+            report.archived.incrementAndGet();
+            report.bytes.addAndGet(length - journal.length());
+        } catch (final IOException | UncheckedIOException ex) {
+            LOGGER.error("Error archiving resource at {}: {}", directory, ex.getMessage());
+            report.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove the temporary files that an interrupted archive run left in the archive tier; those that are
+     * newer than the cutoff may still belong to a concurrent run
+     */
+    private static void removeTempFiles(final File target, final long cutoff) {
+        final File[] files = target.listFiles((dir, name) -> isTempFile(name));
+        if (nonNull(files)) {
+            for (final File file : files) {
+                if (file.lastModified() < cutoff) {
+                    LOGGER.warn("Removing orphaned temporary file: {}", file);
+                    deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a gzip member to an archive, replacing anything beyond the length to which its journal refers
+     */
+    private static void append(final File member, final File archive, final long length) throws IOException {
+        try (final FileChannel source = FileChannel.open(member.toPath(), READ);
+                final FileChannel channel = FileChannel.open(archive.toPath(), WRITE)) {
+            // Anything beyond that length was left by an interrupted run, and is never read
+            channel.truncate(length);
+            long written = 0L;
+            while (written < source.size()) {
+                written += channel.transferFrom(source, length + written, source.size() - written);
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Write the transactions of a journal before a given time that are not yet archived, as a single gzip member
+     * @return the number of lines of the journal that are held by the archive
+     */
+    private static long writeArchive(final File journal, final Boolean archived, final Instant until,
+            final File target) throws IOException {
+        long count = 0L;
+        try (final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                        new GZIPOutputStream(new FileOutputStream(target)), UTF_8));
+                final Stream<String> lineStream = lines(journal.toPath(), UTF_8)) {
+            // The headers and the first transaction of a journal that was already archived are not history
+            Boolean checkpoint = archived;
+            final Iterator<String> lineIter = lineStream.iterator();
+            while (lineIter.hasNext()) {
+                final String line = lineIter.next();
+                if (checkpoint) {
+                    checkpoint = !line.startsWith(TX_COMMIT);
+                } else if (RDFPatch.headerTime(line).filter(time -> time.truncatedTo(MILLIS).isAfter(until))
+                        .isPresent()) {
+                    break;
+                } else {
+                    writer.write(line + lineSeparator());
+                }
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write a journal that begins with the state of the resource at a given time
+     */
+    private static void writeJournal(final File journal, final String identifier, final File history,
+            final long historyLength, final Instant until, final List<VersionRange> versions,
+            final long archivedLines, final File target) throws IOException {
+        try (final BufferedWriter writer = newBufferedWriter(target.toPath(), UTF_8, CREATE, WRITE,
+                    TRUNCATE_EXISTING)) {
+            RDFPatch.writeArchiveHeaders(writer, history, historyLength, until, versions);
+            try (final Stream<Quad> state = RDFPatch.asStream(rdf, journal, rdf.createIRI(identifier), until, true)) {
+                // The modification time is derived from the transaction, rather than stored
+                RDFPatch.write(writer, empty(), state.filter(quad -> !DC.modified.equals(quad.getPredicate()) ||
+                            !quad.getGraphName().filter(Trellis.PreferServerManaged::equals).isPresent()), until);
+            }
+            try (final Stream<String> lineStream = lines(journal.toPath(), UTF_8)) {
+                final Iterator<String> lineIter = lineStream.skip(archivedLines).iterator();
+                while (lineIter.hasNext()) {
+                    writer.write(lineIter.next() + lineSeparator());
+                }
+            }
+        }
+    }
+
+    private static void removeSnapshots(final File directory, final Instant until) {
+        final File[] snapshots = new File(directory, RESOURCE_MEMENTOS).listFiles((dir, name) -> {
+            final int dot = name.indexOf('.');
+            return dot > 0 && name.substring(0, dot).chars().allMatch(Character::isDigit) &&
+                Long.parseLong(name.substring(0, dot)) < until.toEpochMilli();
+        });
+        if (nonNull(snapshots)) {
+            // The metadata is removed first, since its presence marks a complete snapshot
+            Stream.of(snapshots).filter(file -> file.getName().endsWith(".json")).forEach(file -> deleteQuietly(file));
+            Stream.of(snapshots).forEach(file -> deleteQuietly(file));
+        }
+    }
+
+    /**
+     * Archive the history of a partition from the command line
+     * @param args the partition directory and the archive directory, followed by optional arguments:
+     *        --days N and --threads N
+     * @throws IOException if the partition could not be read
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            LOGGER.error("Usage: JournalArchiver <partition directory> <archive directory> [--days N] " +
+                    "[--threads N]");
+            return;
+        }
+        long days = 30L;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 2; i < args.length; ++i) {
+            if ("--days".equals(args[i]) && i + 1 < args.length) {
+                days = Long.parseLong(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+        final Report report = new JournalArchiver(new File(args[1]), DAYS.toMillis(days), threads)
+            .archive(new File(args[0]));
+        if (report.getErrors() > 0) {
+            LOGGER.error("Journal archive finished with errors");
+        }
+    }
+}
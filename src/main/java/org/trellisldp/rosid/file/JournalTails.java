@@ -0,0 +1,272 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAttributes;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+
+/**
+ * A bounded, in-memory copy of the most recent transactions of resource journals.
+ *
+ * <p>Each transaction that this process appends to a journal is also kept here, so that reading the journal
+ * soon afterwards, as when its cache is rebuilt, need not read those transactions back from disk. A tail is
+ * only used while the journal on disk is exactly as it was left by the last write from this process: the
+ * size, modification time and file key of the journal are checked on every use, so that a journal that is
+ * appended to elsewhere, truncated or replaced is read from disk, and its tail discarded.</p>
+ *
+ * <p>Each tail holds whole transactions, up to a limit for each journal, and the least recently used tails are
+ * discarded when the limit for all journals is reached. Sizes are measured in bytes of the journal.</p>
+ *
+ * @author acoburn
+ */
+final class JournalTails {
+
+    private static final Logger LOGGER = getLogger(JournalTails.class);
+
+    /** The default limit on the size of the tail of each journal */
+    public static final long DEFAULT_JOURNAL_CAPACITY = 64L * 1024L;
+
+    /** The default limit on the size of all of the tails */
+    public static final long DEFAULT_CAPACITY = 64L * 1024L * 1024L;
+
+    private final long journalCapacity;
+    private final long capacity;
+    private final Map<String, Tail> tails = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0L;
+
+    /**
+     * The recent transactions of a journal
+     */
+    static final class Snapshot {
+        private final long start;
+        private final List<String> lines;
+
+        private Snapshot(final long start, final List<String> lines) {
+            this.start = start;
+            this.lines = lines;
+        }
+
+        /**
+         * Get the position in the journal at which the tail begins
+         * @return the number of bytes of the journal that precede the tail
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Get the lines of the tail
+         * @return the lines, in the order in which they were written
+         */
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+
+    private static final class Transaction {
+        private final List<String> lines;
+        private final long bytes;
+
+        private Transaction(final List<String> lines, final long bytes) {
+            this.lines = lines;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Tail {
+        private final Deque<Transaction> transactions = new ArrayDeque<>();
+        private final Object fileKey;
+        private long start;
+        private long end;
+        private long bytes = 0L;
+        private FileTime modified;
+
+        private Tail(final Object fileKey, final long start) {
+            this.fileKey = fileKey;
+            this.start = start;
+            this.end = start;
+        }
+
+        private Boolean matches(final BasicFileAttributes attributes) {
+            return attributes.size() == end && attributes.lastModifiedTime().equals(modified) &&
+                Objects.equals(attributes.fileKey(), fileKey);
+        }
+    }
+
+    /**
+     * Create a set of journal tails
+     * @param journalCapacity the maximum size of the tail of each journal, in bytes
+     * @param capacity the maximum size of all of the tails, in bytes
+     */
+    JournalTails(final long journalCapacity, final long capacity) {
+        if (journalCapacity < 0L || capacity < journalCapacity) {
+            throw new IllegalArgumentException("Invalid journal tail capacity: " + journalCapacity + ", " +
+                    capacity);
+        }
+        this.journalCapacity = journalCapacity;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get the largest transaction that may be kept
+     * @return the size of the transaction, in bytes
+     */
+    long getJournalCapacity() {
+        return journalCapacity;
+    }
+
+    /**
+     * Record a transaction that was appended to a journal
+     * @param journal the journal
+     * @param before the size of the journal before the transaction was written
+     * @param text the text of the transaction, or null if it was too large to keep
+     */
+    void append(final File journal, final long before, final String text) {
+        final BasicFileAttributes attributes = attributes(journal);
+        final String key = journal.getAbsolutePath();
+        synchronized (this) {
+            Tail tail = tails.get(key);
+            if (nonNull(tail) && (isNull(attributes) || tail.end != before ||
+                        !Objects.equals(tail.fileKey, attributes.fileKey()))) {
+                remove(key);
+                tail = null;
+            }
+            final long bytes = isNull(text) ? 0L : text.getBytes(UTF_8).length;
+            // Unless the journal holds exactly what was written, the transaction cannot be placed within it
+            if (isNull(text) || isNull(attributes) || bytes > journalCapacity ||
+                    attributes.size() != before + bytes) {
+                remove(key);
+                return;
+            }
+            if (isNull(tail)) {
+                tail = new Tail(attributes.fileKey(), before);
+                tails.put(key, tail);
+            }
+            tail.transactions.addLast(new Transaction(lines(text), bytes));
+            tail.end = attributes.size();
+            tail.modified = attributes.lastModifiedTime();
+            tail.bytes += bytes;
+            size += bytes;
+            while (tail.bytes > journalCapacity) {
+                final Transaction oldest = tail.transactions.removeFirst();
+                tail.start += oldest.bytes;
+                tail.bytes -= oldest.bytes;
+                size -= oldest.bytes;
+            }
+            final Iterator<Map.Entry<String, Tail>> iterator = tails.entrySet().iterator();
+            while (size > capacity && iterator.hasNext()) {
+                final Tail eldest = iterator.next().getValue();
+                size -= eldest.bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the tail of a journal
+     * @param journal the journal
+     * @return the tail, if one is held and the journal is unchanged since it was written
+     */
+    Optional<Snapshot> get(final File journal) {
+        final String key = journal.getAbsolutePath();
+        synchronized (this) {
+            if (!tails.containsKey(key)) {
+                return empty();
+            }
+        }
+        final BasicFileAttributes attributes = attributes(journal);
+        synchronized (this) {
+            final Tail tail = tails.get(key);
+            if (isNull(tail)) {
+                return empty();
+            } else if (isNull(attributes) || !tail.matches(attributes)) {
+                LOGGER.debug("Discarding the tail of the changed journal at {}", journal);
+                remove(key);
+                return empty();
+            }
+            final List<String> lines = new ArrayList<>();
+            tail.transactions.forEach(transaction -> lines.addAll(transaction.lines));
+            return of(new Snapshot(tail.start, unmodifiableList(lines)));
+        }
+    }
+
+    /**
+     * Discard all of the tails
+     */
+    synchronized void clear() {
+        tails.clear();
+        size = 0L;
+    }
+
+    /**
+     * Get the size of all of the tails
+     * @return the size, in bytes
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    private void remove(final String key) {
+        final Tail tail = tails.remove(key);
+        if (nonNull(tail)) {
+            size -= tail.bytes;
+        }
+    }
+
+    private static List<String> lines(final String text) {
+        final List<String> lines = new ArrayList<>();
+        int start = 0;
+        int end = text.indexOf('\n');
+        while (end >= 0) {
+            lines.add(text.substring(start, end > start && text.charAt(end - 1) == '\r' ? end - 1 : end));
+            start = end + 1;
+            end = text.indexOf('\n', start);
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return unmodifiableList(lines);
+    }
+
+    private static BasicFileAttributes attributes(final File journal) {
+        try {
+            return readAttributes(journal.toPath(), BasicFileAttributes.class);
+        } catch (final IOException ex) {
+            LOGGER.debug("Could not read the attributes of {}: {}", journal, ex.getMessage());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.move;
+import static java.nio.file.Files.walk;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.util.Objects.isNull;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+
+/**
+ * A tool that moves the resources of a partition into a new directory layout.
+ *
+ * <p>The partition stays available while it is migrated: the new layout is first recorded in the partition
+ * descriptor along with the current one, so that each resource is found in whichever layout holds it. Once
+ * every process has had time to notice the new descriptor, each resource directory is moved, with an atomic
+ * rename, to its place in the new layout. A resource is only moved while no writer
+ * {@linkplain PartitionLayout#hold holds} it. Once every resource has been moved, the descriptor records only
+ * the new layout. A migration that is interrupted can be run again to completion.</p>
+ *
+ * @author acoburn
+ */
+public final class LayoutMigrator {
+
+    private static final Logger LOGGER = getLogger(LayoutMigrator.class);
+
+    private static final int MOVE_ATTEMPTS = 3;
+    private static final long PROGRESS_INTERVAL = 1000L;
+
+    // Other processes read the layout of a partition at most this long after it changes, in milliseconds
+    private static final long SETTLE_INTERVAL = 2 * PartitionLayout.RECHECK_INTERVAL;
+
+    private final int parallelism;
+    private final long settle;
+
+    /**
+     * The outcome of a migration
+     */
+    public static final class Report {
+        private final AtomicLong moved = new AtomicLong();
+        private final AtomicLong unchanged = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        /**
+         * Get the number of resources that were moved
+         * @return the number of resources
+         */
+        public long getMoved() {
+            return moved.get();
+        }
+
+        /**
+         * Get the number of resources that were already in place
+         * @return the number of resources
+         */
+        public long getUnchanged() {
+            return unchanged.get();
+        }
+
+        /**
+         * Get the number of resources that could not be moved
+         * @return the number of errors
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        @Override
+        public String toString() {
+            return "moved: " + getMoved() + ", unchanged: " + getUnchanged() + ", errors: " + getErrors();
+        }
+    }
+
+    /**
+     * Create a layout migrator
+     * @param parallelism the number of resources to move concurrently
+     */
+    public LayoutMigrator(final int parallelism) {
+        this(parallelism, SETTLE_INTERVAL);
+    }
+
+    /**
+     * Create a layout migrator
+     * @param parallelism the number of resources to move concurrently
+     * @param settle the time to wait, in milliseconds, between recording a migration and moving any resources
+     */
+    LayoutMigrator(final int parallelism, final long settle) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.settle = settle;
+    }
+
+    /**
+     * Migrate a partition to a new layout
+     * @param partition the partition directory
+     * @param target the new layout
+     * @return a report of the migration
+     * @throws IOException if the partition could not be read or its descriptor could not be written
+     */
+    public Report migrate(final File partition, final PartitionLayout target) throws IOException {
+        final PartitionLayout layout = target.withoutPrevious();
+        final PartitionLayout current = PartitionLayout.read(partition);
+        final PartitionLayout source;
+        if (isNull(current.getPrevious())) {
+            source = current;
+        } else if (current.withoutPrevious().equals(layout)) {
+            LOGGER.info("Resuming the migration of {}", partition);
+            source = current.getPrevious();
+        } else {
+            throw new IOException("Partition " + partition + " is already being migrated to another layout: " +
+                    current);
+        }
+        final Report report = new Report();
+        if (source.equals(layout)) {
+            LOGGER.info("Partition {} already uses the layout: {}", partition, layout);
+            return report;
+        }
+
+        LOGGER.info("Migrating partition {} from {} to {}", partition, source, layout);
+        final PartitionLayout migrating = layout.migratingFrom(source);
+        migrating.write(partition);
+        try {
+            // Until every process reads both layouts, a writer could recreate a directory that has been moved
+            Thread.sleep(settle);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while migrating " + partition, ex);
+        }
+
+        // The directories are listed before any are moved, as the two layouts may share directories
+        final List<File> directories;
+        try (final Stream<Path> paths = walk(partition.toPath(), migrating.getResourceDepth())) {
+            directories = paths.map(Path::toFile).filter(file -> new File(file, RESOURCE_JOURNAL).exists())
+                .collect(toList());
+        }
+        final ExecutorService executor = newFixedThreadPool(parallelism);
+        try {
+            directories.forEach(directory -> executor.execute(() ->
+                        migrateResource(partition, directory, layout, report)));
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, NANOSECONDS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while migrating " + partition, ex);
+            }
+        }
+
+        if (report.getErrors() == 0L) {
+            layout.write(partition);
+            LOGGER.info("Finished migrating partition {}: {}", partition, report);
+        } else {
+            LOGGER.error("Partition {} remains readable in both layouts after errors: {}", partition, report);
+        }
+        return report;
+    }
+
+    private void migrateResource(final File partition, final File directory, final PartitionLayout layout,
+            final Report report) {
+        final Optional<String> identifier = PartitionChecker.identifier(directory);
+        if (!identifier.isPresent()) {
+            LOGGER.error("Could not determine the identifier for the resource at {}", directory);
+            report.errors.incrementAndGet();
+            return;
+        }
+        final File destination = new File(partition, layout.path(identifier.get()));
+        if (destination.equals(directory)) {
+            report.unchanged.incrementAndGet();
+            return;
+        }
+        try {
+            try (final PartitionLayout.Hold hold = PartitionLayout.lock(partition, identifier.get())) {
+                moveResource(partition, directory, destination);
+            }
+            final long count = report.moved.incrementAndGet();
+            if (count % PROGRESS_INTERVAL == 0) {
+                LOGGER.info("Moved {} resources", count);
+            }
+        } catch (final IOException ex) {
+            LOGGER.error("Could not move {} to {}: {}", directory, destination, ex.getMessage());
+            report.errors.incrementAndGet();
+        }
+    }
+
+    private static void moveResource(final File partition, final File directory, final File destination)
+            throws IOException {
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                createDirectories(destination.getParentFile().toPath());
+                // A lookup may have created an empty directory in the new layout
+                deleteIfExists(destination.toPath());
+                move(directory.toPath(), destination.toPath(), ATOMIC_MOVE);
+                break;
+            } catch (final DirectoryNotEmptyException ex) {
+                throw new IOException("A different resource directory already exists at " + destination, ex);
+            } catch (final NoSuchFileException ex) {
+                // Another thread removed an empty parent directory in the meantime
+                if (attempt >= MOVE_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+        removeEmptyParents(partition, directory.getParentFile());
+    }
+
+    private static void removeEmptyParents(final File partition, final File directory) {
+        File parent = directory;
+        while (!isNull(parent) && !parent.equals(partition)) {
+            final String[] entries = parent.list();
+            if (isNull(entries) || entries.length > 0 || !parent.delete()) {
+                break;
+            }
+            parent = parent.getParentFile();
+        }
+    }
+
+    /**
+     * Migrate a partition from the command line
+     * @param args the partition directory, the hash function, the number of levels and the width of each
+     *        level, followed by optional arguments: --padded and --threads N
+     * @throws IOException if the partition could not be migrated
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 4) {
+            LOGGER.error("Usage: LayoutMigrator <partition directory> <crc32|md5> <depth> <width> [--padded] " +
+                    "[--threads N]");
+            return;
+        }
+        boolean padded = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 4; i < args.length; ++i) {
+            if ("--padded".equals(args[i])) {
+                padded = true;
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+        final PartitionLayout layout = new PartitionLayout(args[1], Integer.parseInt(args[3]),
+                Integer.parseInt(args[2]), padded);
+        final Report report = new LayoutMigrator(threads).migrate(new File(args[0]), layout);
+        if (report.getErrors() > 0) {
+            LOGGER.error("Layout migration finished with errors");
+        }
+    }
+}
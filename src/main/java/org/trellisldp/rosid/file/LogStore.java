@@ -0,0 +1,756 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newBufferedReader;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.time.Instant.now;
+import static java.util.Objects.isNull;
+import static java.util.Optional.empty;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.CachedResource.MAPPER;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_LOG;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
+import static org.trellisldp.rosid.file.FileUtils.tempFile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.apache.commons.rdf.api.RDF;
+import org.slf4j.Logger;
+import org.trellisldp.api.Resource;
+import org.trellisldp.rosid.common.ResourceData;
+
+/**
+ * A partition store that appends every change to a segmented log, rather than keeping a directory per resource.
+ *
+ * <p>Each journal transaction is appended to the active segment of the log as a record tagged with the
+ * identifier of its resource, and the resource data may be cached in a later record. An in-memory index maps
+ * each identifier to the offsets of its journal records and of its latest cache. Once the active segment
+ * reaches its size limit, it is sealed and a hint file listing its records is written beside it, so that a
+ * restart reads the hint files rather than whole segments.</p>
+ *
+ * <p>Records that are no longer needed, such as superseded caches and the history of purged resources,
+ * are removed by a background task that rewrites any sealed segment in which they dominate. Records keep
+ * their order within a segment, so that the journal of a resource is always replayed in order.</p>
+ *
+ * <p>A log may be written by only one process at a time, although copies of it may be read elsewhere (see
+ * {@link #openReadOnly}).</p>
+ *
+ * @author acoburn
+ */
+public final class LogStore implements PartitionStore, Closeable {
+
+    private static final Logger LOGGER = getLogger(LogStore.class);
+
+    /**
+     * The default size, in bytes, at which a segment is sealed
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * The default interval, in milliseconds, between compactions
+     */
+    public static final long DEFAULT_COMPACTION_INTERVAL = 60000L;
+
+    // A sealed segment is compacted once at least this fraction of it is no longer needed
+    private static final double COMPACTION_RATIO = 0.5;
+
+    private static final char JOURNAL_RECORD = 'J';
+    private static final char CACHE_RECORD = 'C';
+    private static final char DELETE_RECORD = 'D';
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String HINT_SUFFIX = ".hint";
+    private static final String LOCK_FILE = "lock";
+
+    private static final RDF rdf = AbstractFileResource.rdf;
+
+    private final File directory;
+    private final long segmentSize;
+    private final Boolean readOnly;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ScheduledExecutorService compactor;
+
+    // Compaction moves records, so it excludes any reader that holds record locations
+    private final ReadWriteLock relocation = new ReentrantReadWriteLock();
+
+    // The index and the segments are guarded by this object
+    private final Map<String, Entry> index = new HashMap<>();
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+
+    /**
+     * Open the log of a partition, with the default segment size and compaction interval
+     * @param partition the partition directory
+     * @return the log store
+     * @throws IOException if the log could not be opened
+     */
+    public static LogStore open(final File partition) throws IOException {
+        return open(partition, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Open the log of a partition
+     * @param partition the partition directory
+     * @param segmentSize the size, in bytes, at which a segment is sealed
+     * @param compactionInterval the interval, in milliseconds, between compactions, or zero to only compact
+     *        when {@link #compact} is called
+     * @return the log store
+     * @throws IOException if the log could not be opened, as when another process holds it
+     */
+    public static LogStore open(final File partition, final long segmentSize, final long compactionInterval)
+            throws IOException {
+        return new LogStore(new File(partition, RESOURCE_LOG), segmentSize, compactionInterval, false);
+    }
+
+    /**
+     * Open the log of a partition that does not change, such as a copy on a read-only replica
+     *
+     * <p>The log is neither locked nor repaired, and any attempt to write it fails.</p>
+     * @param partition the partition directory
+     * @return the log store
+     * @throws IOException if the log could not be read
+     */
+    public static LogStore openReadOnly(final File partition) throws IOException {
+        return new LogStore(new File(partition, RESOURCE_LOG), DEFAULT_SEGMENT_SIZE, 0L, true);
+    }
+
+    private LogStore(final File directory, final long segmentSize, final long compactionInterval,
+            final Boolean readOnly) throws IOException {
+        if (segmentSize < 1L || compactionInterval < 0L) {
+            throw new IllegalArgumentException("Invalid segment size or compaction interval");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.readOnly = readOnly;
+        if (readOnly) {
+            lockChannel = null;
+            lock = null;
+        } else {
+            directory.mkdirs();
+            lockChannel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), CREATE, WRITE);
+            lock = tryLock(lockChannel, directory);
+            if (isNull(lock)) {
+                lockChannel.close();
+                throw new IOException("The partition log at " + directory + " is in use by another process");
+            }
+        }
+        try {
+            load();
+        } catch (final IOException ex) {
+            closeSegments();
+            releaseLock();
+            throw ex;
+        }
+        if (compactionInterval > 0L) {
+            compactor = newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "trellis-rosid-compact-" + directory.getParentFile()
+                        .getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(() -> {
+                try {
+                    compact();
+                } catch (final IOException ex) {
+                    LOGGER.error("Error compacting the partition log at {}: {}", directory, ex.getMessage());
+                }
+            }, compactionInterval, compactionInterval, MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    /**
+     * Determine whether a resource exists
+     * @param identifier the identifier
+     * @return true if the log holds the resource
+     */
+    public synchronized Boolean contains(final IRI identifier) {
+        return index.containsKey(identifier.getIRIString());
+    }
+
+    @Override
+    public Optional<Resource> get(final IRI identifier) {
+        return find(identifier, now(), true);
+    }
+
+    @Override
+    public Optional<Resource> get(final IRI identifier, final Instant time) {
+        return find(identifier, time, false);
+    }
+
+    @Override
+    public Boolean write(final IRI identifier, final Stream<? extends Quad> delete, final Stream<? extends Quad> add,
+            final Instant time, final Boolean cache) {
+        final StringWriter transaction = new StringWriter();
+        try {
+            RDFPatch.write(transaction, delete, add, time);
+            append(JOURNAL_RECORD, identifier.getIRIString(), transaction.toString().getBytes(UTF_8), -1L);
+        } catch (final IOException ex) {
+            LOGGER.error("Error writing {} to the partition log: {}", identifier.getIRIString(), ex.getMessage());
+            return false;
+        }
+        return !cache || cache(identifier);
+    }
+
+    @Override
+    public Stream<ResourceData> scan() {
+        final List<String> identifiers;
+        synchronized (this) {
+            identifiers = new ArrayList<>(index.keySet());
+        }
+        return identifiers.stream().map(rdf::createIRI).map(this::data)
+            .flatMap(data -> data.map(Stream::of).orElseGet(Stream::empty));
+    }
+
+    @Override
+    public Stream<IRI> tryPurge(final IRI identifier) {
+        relocation.readLock().lock();
+        try {
+            final Snapshot snapshot = snapshot(identifier.getIRIString());
+            if (isNull(snapshot)) {
+                return Stream.empty();
+            }
+            final List<IRI> binaries = RDFPatch.binaries(rdf, identifier, journal(snapshot).stream());
+            append(DELETE_RECORD, identifier.getIRIString(), new byte[0], -1L);
+            return binaries.stream();
+        } catch (final IOException ex) {
+            LOGGER.error("Error purging {} from the partition log: {}", identifier.getIRIString(), ex.getMessage());
+            throw new UncheckedIOException(ex);
+        } finally {
+            relocation.readLock().unlock();
+        }
+    }
+
+    /**
+     * Compact any sealed segment in which most records are no longer needed
+     * @return the number of bytes reclaimed
+     * @throws IOException if a segment could not be compacted
+     */
+    public long compact() throws IOException {
+        if (readOnly) {
+            return 0L;
+        }
+        final List<Segment> candidates;
+        synchronized (this) {
+            candidates = segments.values().stream().filter(segment -> segment != active)
+                .filter(segment -> segment.dead >= COMPACTION_RATIO * segment.size && segment.dead > 0L)
+                .collect(toList());
+        }
+        long reclaimed = 0L;
+        final IOBudget budget = IOBudget.of(directory.getParentFile());
+        for (final Segment segment : candidates) {
+            budget.acquire(segment.size);
+            reclaimed += compact(segment);
+        }
+        return reclaimed;
+    }
+
+    /**
+     * Get the number of segments in the log
+     * @return the number of segments
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Get the total size of the segments
+     * @return the size, in bytes
+     */
+    public synchronized long getSize() {
+        return segments.values().stream().mapToLong(segment -> segment.size).sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!isNull(compactor)) {
+            compactor.shutdownNow();
+        }
+        relocation.writeLock().lock();
+        try {
+            synchronized (this) {
+                closeSegments();
+                releaseLock();
+            }
+        } finally {
+            relocation.writeLock().unlock();
+        }
+    }
+
+    private Optional<Resource> find(final IRI identifier, final Instant time, final Boolean current) {
+        relocation.readLock().lock();
+        try {
+            final Snapshot snapshot = snapshot(identifier.getIRIString());
+            if (isNull(snapshot)) {
+                return empty();
+            }
+            final Optional<ResourceData> cached = current ? cached(snapshot) : empty();
+            if (cached.isPresent()) {
+                // The journal is only read if the quads of the resource are read
+                return cached.map(data -> PackedResource.of(directory, () -> journal(identifier, snapshot.count),
+                            identifier, data, time));
+            }
+            final List<String> journal = journal(snapshot);
+            return VersionedResource.read(journal, identifier, time).map(data ->
+                    PackedResource.of(directory, () -> journal, identifier, data, time));
+        } catch (final IOException ex) {
+            LOGGER.error("Error reading {} from the partition log: {}", identifier.getIRIString(), ex.getMessage());
+            return empty();
+        } finally {
+            relocation.readLock().unlock();
+        }
+    }
+
+    private Optional<ResourceData> data(final IRI identifier) {
+        relocation.readLock().lock();
+        try {
+            final Snapshot snapshot = snapshot(identifier.getIRIString());
+            if (isNull(snapshot)) {
+                return empty();
+            }
+            final Optional<ResourceData> cached = cached(snapshot);
+            return cached.isPresent() ? cached : VersionedResource.read(journal(snapshot), identifier, now());
+        } catch (final IOException ex) {
+            LOGGER.error("Error reading {} from the partition log: {}", identifier.getIRIString(), ex.getMessage());
+            return empty();
+        } finally {
+            relocation.readLock().unlock();
+        }
+    }
+
+    private Boolean cache(final IRI identifier) {
+        relocation.readLock().lock();
+        try {
+            final Snapshot snapshot = snapshot(identifier.getIRIString());
+            if (isNull(snapshot)) {
+                return false;
+            }
+            final Optional<ResourceData> data = VersionedResource.read(journal(snapshot), identifier, now());
+            if (!data.isPresent()) {
+                LOGGER.error("No resource data to cache for {}", identifier.getIRIString());
+                return false;
+            }
+            append(CACHE_RECORD, identifier.getIRIString(), MAPPER.writeValueAsBytes(data.get()), snapshot.count);
+            return true;
+        } catch (final IOException ex) {
+            LOGGER.error("Error caching {} in the partition log: {}", identifier.getIRIString(), ex.getMessage());
+            return false;
+        } finally {
+            relocation.readLock().unlock();
+        }
+    }
+
+    private List<String> journal(final IRI identifier, final int count) {
+        relocation.readLock().lock();
+        try {
+            final Snapshot snapshot = snapshot(identifier.getIRIString());
+            if (isNull(snapshot)) {
+                return new ArrayList<>();
+            }
+            return Records.lines(read(snapshot.journal.subList(0, Math.min(count, snapshot.journal.size()))));
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            relocation.readLock().unlock();
+        }
+    }
+
+    private List<String> journal(final Snapshot snapshot) throws IOException {
+        return Records.lines(read(snapshot.journal));
+    }
+
+    private Optional<ResourceData> cached(final Snapshot snapshot) throws IOException {
+        // A cache is only used if no journal record has been written since
+        if (isNull(snapshot.cache) || snapshot.cached != snapshot.count) {
+            return empty();
+        }
+        return Optional.of(MAPPER.readValue(read(snapshot.cache), ResourceData.class));
+    }
+
+    private synchronized Snapshot snapshot(final String identifier) {
+        final Entry entry = index.get(identifier);
+        return isNull(entry) ? null : new Snapshot(entry);
+    }
+
+    private synchronized void append(final char kind, final String identifier, final byte[] data,
+            final long count) throws IOException {
+        if (readOnly) {
+            throw new IOException("The partition log at " + directory + " is read-only");
+        }
+        if (active.size >= segmentSize) {
+            roll();
+        }
+        final byte[] record = Records.encode(kind, identifier, data, count);
+        final ByteBuffer buffer = ByteBuffer.wrap(record);
+        long position = active.size;
+        while (buffer.hasRemaining()) {
+            position += active.channel.write(buffer, position);
+        }
+        final Location location = new Location(active.id, active.size + record.length - data.length, data.length,
+                record.length);
+        active.size = position;
+        apply(kind, identifier, count, location);
+    }
+
+    private void apply(final char kind, final String identifier, final long count, final Location location) {
+        if (kind == JOURNAL_RECORD) {
+            index.computeIfAbsent(identifier, id -> new Entry()).journal.add(location);
+        } else if (kind == CACHE_RECORD) {
+            final Entry entry = index.get(identifier);
+            if (isNull(entry)) {
+                discard(location);
+            } else {
+                if (!isNull(entry.cache)) {
+                    discard(entry.cache);
+                }
+                entry.cache = location;
+                entry.cached = count;
+            }
+        } else if (kind == DELETE_RECORD) {
+            final Entry entry = index.remove(identifier);
+            if (!isNull(entry)) {
+                entry.journal.forEach(this::discard);
+                if (!isNull(entry.cache)) {
+                    discard(entry.cache);
+                }
+            }
+        }
+    }
+
+    private void discard(final Location location) {
+        final Segment segment = segments.get(location.segment);
+        if (!isNull(segment)) {
+            segment.dead += location.size;
+        }
+    }
+
+    private void roll() throws IOException {
+        LOGGER.debug("Sealing segment {} of the partition log at {}", active.id, directory);
+        writeHint(active);
+        active = openSegment(active.id + 1L);
+    }
+
+    private long compact(final Segment segment) throws IOException {
+        final Set<Long> live = new HashSet<>();
+        synchronized (this) {
+            index.values().forEach(entry -> {
+                entry.journal.stream().filter(location -> location.segment == segment.id)
+                    .forEach(location -> live.add(location.offset));
+                if (!isNull(entry.cache) && entry.cache.segment == segment.id) {
+                    live.add(entry.cache.offset);
+                }
+            });
+        }
+
+        // Live records, and every delete record, are copied in order; sealed segments are never appended to
+        final File temp = tempFile(directory, segment.file.getName());
+        final Map<Long, Long> relocated = new HashMap<>();
+        try (final FileChannel output = FileChannel.open(temp.toPath(), CREATE, WRITE)) {
+            final long[] position = {0L};
+            Records.scan(segment.file, 0L, segment.size, (header, start) -> {
+                final long offset = start + header.size;
+                if (header.kind == DELETE_RECORD || live.contains(offset)) {
+                    final ByteBuffer buffer = ByteBuffer.allocate((int) (header.size + header.length));
+                    while (buffer.hasRemaining()) {
+                        if (segment.channel.read(buffer, start + buffer.position()) < 0) {
+                            throw new IOException("Unexpected end of segment " + segment.file);
+                        }
+                    }
+                    buffer.flip();
+                    relocated.put(offset, position[0] + header.size);
+                    while (buffer.hasRemaining()) {
+                        position[0] += output.write(buffer, position[0]);
+                    }
+                }
+            });
+        }
+
+        relocation.writeLock().lock();
+        try {
+            synchronized (this) {
+                segment.channel.close();
+                moveIntoPlace(temp, segment.file);
+                segment.channel = FileChannel.open(segment.file.toPath(), READ, WRITE);
+                final long before = segment.size;
+                segment.size = segment.channel.size();
+                long retained = 0L;
+                for (final Entry entry : index.values()) {
+                    for (int i = 0; i < entry.journal.size(); ++i) {
+                        entry.journal.set(i, relocate(entry.journal.get(i), segment, relocated));
+                        retained += entry.journal.get(i).segment == segment.id ? entry.journal.get(i).size : 0L;
+                    }
+                    if (!isNull(entry.cache)) {
+                        entry.cache = relocate(entry.cache, segment, relocated);
+                        retained += entry.cache.segment == segment.id ? entry.cache.size : 0L;
+                    }
+                }
+                // Records that were discarded while the segment was copied remain until the next compaction
+                segment.dead = segment.size - retained - deleted(segment);
+                writeHint(segment);
+                LOGGER.info("Compacted segment {} of the partition log at {} from {} to {} bytes", segment.id,
+                        directory, before, segment.size);
+                return before - segment.size;
+            }
+        } finally {
+            relocation.writeLock().unlock();
+        }
+    }
+
+    private static Location relocate(final Location location, final Segment segment, final Map<Long, Long> moved) {
+        if (location.segment != segment.id) {
+            return location;
+        }
+        return new Location(segment.id, moved.get(location.offset), location.length, location.size);
+    }
+
+    private static long deleted(final Segment segment) throws IOException {
+        final long[] size = {0L};
+        Records.scan(segment.file, 0L, segment.size, (header, start) -> {
+            if (header.kind == DELETE_RECORD) {
+                size[0] += header.size + header.length;
+            }
+        });
+        return size[0];
+    }
+
+    private byte[] read(final List<Location> locations) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (final Location location : locations) {
+            output.write(read(location));
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] read(final Location location) throws IOException {
+        final FileChannel channel;
+        synchronized (this) {
+            channel = segments.get(location.segment).channel;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, location.offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment " + location.segment);
+            }
+        }
+        return buffer.array();
+    }
+
+    private void load() throws IOException {
+        final List<Long> ids = new ArrayList<>();
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (!isNull(files)) {
+            for (final File file : files) {
+                final String name = file.getName();
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (final NumberFormatException ex) {
+                    LOGGER.warn("Ignoring unexpected file in the partition log: {}", file);
+                }
+            }
+        }
+        ids.sort(null);
+        for (final Long id : ids) {
+            final Segment segment = openSegment(id);
+            final Boolean last = id.equals(ids.get(ids.size() - 1));
+            if (last || !readHint(segment)) {
+                final long end = Records.scan(segment.file, 0L, segment.size, (header, start) ->
+                        apply(header.kind, header.identifier, header.count, new Location(segment.id,
+                                start + header.size, (int) header.length, header.size + header.length)));
+                if (end < segment.size) {
+                    LOGGER.warn("Discarding {} bytes of an incomplete record in {}", segment.size - end, segment.file);
+                    if (!readOnly) {
+                        segment.channel.truncate(end);
+                    }
+                    segment.size = end;
+                }
+                if (!last && !readOnly) {
+                    writeHint(segment);
+                }
+            }
+        }
+        active = ids.isEmpty() ? (readOnly ? null : openSegment(1L)) : segments.lastEntry().getValue();
+        LOGGER.info("Loaded {} resources from {} segments of the partition log at {}", index.size(),
+                segments.size(), directory);
+    }
+
+    private Segment openSegment(final long id) throws IOException {
+        final Segment segment = new Segment(id, new File(directory, format("%020d", id) + SEGMENT_SUFFIX), readOnly);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void writeHint(final Segment segment) throws IOException {
+        final File temp = tempFile(directory, hintFile(segment).getName());
+        try (final BufferedWriter writer = newBufferedWriter(temp.toPath(), UTF_8)) {
+            writer.write(Long.toString(segment.size));
+            writer.newLine();
+            Records.scan(segment.file, 0L, segment.size, (header, start) -> {
+                writer.write(header.kind + " " + header.identifier + " " + start + " " + header.size + " " +
+                        header.length + " " + header.count);
+                writer.newLine();
+            });
+        }
+        moveIntoPlace(temp, hintFile(segment));
+    }
+
+    private Boolean readHint(final Segment segment) {
+        final File hint = hintFile(segment);
+        if (!hint.exists()) {
+            return false;
+        }
+        // The records are only applied once the whole hint file has been read
+        final List<Runnable> records = new ArrayList<>();
+        try (final BufferedReader reader = newBufferedReader(hint.toPath(), UTF_8)) {
+            if (Long.parseLong(reader.readLine()) != segment.size) {
+                LOGGER.warn("Ignoring a stale hint file: {}", hint);
+                return false;
+            }
+            String line = reader.readLine();
+            while (!isNull(line)) {
+                final String[] parts = line.split(" ");
+                if (parts.length != 6 || parts[0].length() != 1) {
+                    LOGGER.warn("Ignoring a malformed hint file: {}", hint);
+                    return false;
+                }
+                final long start = Long.parseLong(parts[2]);
+                final int size = Integer.parseInt(parts[3]);
+                final long length = Long.parseLong(parts[4]);
+                final long count = Long.parseLong(parts[5]);
+                final Location location = new Location(segment.id, start + size, (int) length, size + length);
+                records.add(() -> apply(parts[0].charAt(0), parts[1], count, location));
+                line = reader.readLine();
+            }
+            records.forEach(Runnable::run);
+            return true;
+        } catch (final IOException | NumberFormatException ex) {
+            LOGGER.warn("Ignoring an unreadable hint file {}: {}", hint, ex.getMessage());
+            return false;
+        }
+    }
+
+    private File hintFile(final Segment segment) {
+        return new File(directory, segment.file.getName() + HINT_SUFFIX);
+    }
+
+    private void closeSegments() throws IOException {
+        for (final Segment segment : segments.values()) {
+            segment.channel.close();
+        }
+    }
+
+    private void releaseLock() throws IOException {
+        if (!isNull(lock)) {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private static FileLock tryLock(final FileChannel channel, final File directory) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (final OverlappingFileLockException ex) {
+            channel.close();
+            throw new IOException("The partition log at " + directory + " is already open in this process; " +
+                    "close the other service first", ex);
+        }
+    }
+
+    private static final class Location {
+        private final long segment;
+        private final long offset;
+        private final int length;
+        private final long size;
+
+        private Location(final long segment, final long offset, final int length, final long size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+        }
+    }
+
+    private static final class Entry {
+        private final List<Location> journal = new ArrayList<>();
+        private Location cache;
+        private long cached = -1L;
+    }
+
+    private static final class Snapshot {
+        private final List<Location> journal;
+        private final Location cache;
+        private final long cached;
+        private final int count;
+
+        private Snapshot(final Entry entry) {
+            this.journal = new ArrayList<>(entry.journal);
+            this.cache = entry.cache;
+            this.cached = entry.cached;
+            this.count = journal.size();
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final File file;
+        private FileChannel channel;
+        private long size;
+        private long dead;
+
+        private Segment(final long id, final File file, final Boolean readOnly) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = readOnly ? FileChannel.open(file.toPath(), READ) :
+                FileChannel.open(file.toPath(), READ, WRITE, CREATE);
+            this.size = channel.size();
+        }
+    }
+}
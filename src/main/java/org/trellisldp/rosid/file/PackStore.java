@@ -0,0 +1,347 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAttributes;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.isNull;
+import static java.util.Optional.empty;
+import static java.util.Optional.of;
+import static java.util.stream.IntStream.range;
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_PACKS;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
+import static org.trellisldp.rosid.file.FileUtils.tempFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+
+/**
+ * A store that keeps the journals of small resources in shared pack files, rather than in a directory of
+ * their own.
+ *
+ * <p>Resources are spread across a fixed number of append-only pack files by a hash of their identifier.
+ * Each write appends a record, holding one journal transaction, to the pack of its resource, and an
+ * in-memory index of the offsets of each resource's records is kept up to date by reading any records that
+ * have since been appended, including those written by another process. A resource whose journal would
+ * grow past a threshold is promoted: its journal is moved into its own resource directory, and a tombstone
+ * record removes it from the pack.</p>
+ *
+ * <p>Packs are never compacted: the records of promoted and purged resources stay in their pack, and are
+ * skipped when it is indexed.</p>
+ *
+ * @author acoburn
+ */
+public final class PackStore {
+
+    private static final Logger LOGGER = getLogger(PackStore.class);
+
+    /**
+     * The default size, in bytes, past which a journal is promoted to its own resource directory
+     */
+    public static final int DEFAULT_THRESHOLD = 16 * 1024;
+
+    // The number of hexadecimal characters of the hash that select a pack
+    private static final int BUCKET_WIDTH = 2;
+
+    private static final String PACK_SUFFIX = ".pack";
+    private static final char JOURNAL_RECORD = 'J';
+    private static final char TOMBSTONE_RECORD = 'D';
+
+    // Packs are shared within the process, since a file may only be locked once per process
+    private static final Map<File, Pack> PACKS = new ConcurrentHashMap<>();
+
+    private final File partition;
+    private final File directory;
+    private final int threshold;
+
+    /**
+     * Create a pack store for a partition
+     * @param partition the partition directory
+     * @param threshold the size, in bytes, past which a journal is promoted to its own directory; with a
+     *        threshold of zero, every write to a packed resource promotes it, and no resource is newly packed
+     */
+    public PackStore(final File partition, final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        this.partition = partition;
+        this.directory = new File(partition, RESOURCE_PACKS);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Determine whether a partition holds any packed resources
+     * @param partition the partition directory
+     * @return true if the partition has a pack directory
+     */
+    public static Boolean exists(final File partition) {
+        return new File(partition, RESOURCE_PACKS).isDirectory();
+    }
+
+    /**
+     * Get the directory that holds the pack files
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get the size past which a journal is promoted to its own directory
+     * @return the size, in bytes
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Get the directory of a resource that is not packed
+     * @param identifier the identifier
+     * @return the resource directory, if the resource has a journal of its own
+     */
+    public Optional<File> directory(final String identifier) {
+        final File resource = PartitionLayout.of(partition).directory(partition, identifier);
+        return new File(resource, RESOURCE_JOURNAL).exists() ? of(resource) : empty();
+    }
+
+    /**
+     * Read the journal of a packed resource
+     * @param identifier the identifier
+     * @return the lines of the journal, if the resource is packed
+     */
+    public Optional<List<String>> journal(final String identifier) {
+        final Pack pack = pack(identifier);
+        synchronized (pack) {
+            try {
+                pack.refresh();
+                final Entry entry = pack.index.get(identifier);
+                return isNull(entry) ? empty() : of(Records.lines(pack.read(entry)));
+            } catch (final IOException ex) {
+                LOGGER.error("Error reading pack {}: {}", pack.file, ex.getMessage());
+                return empty();
+            }
+        }
+    }
+
+    /**
+     * Get the identifiers of every packed resource
+     * @return the identifiers
+     */
+    public Stream<String> identifiers() {
+        final List<String> identifiers = new ArrayList<>();
+        range(0, 1 << (4 * BUCKET_WIDTH)).mapToObj(i -> String.format("%0" + BUCKET_WIDTH + "x", i))
+            .map(this::bucket).filter(pack -> pack.file.exists()).forEach(pack -> {
+                synchronized (pack) {
+                    try {
+                        pack.refresh();
+                        identifiers.addAll(pack.index.keySet());
+                    } catch (final IOException ex) {
+                        LOGGER.error("Error reading pack {}: {}", pack.file, ex.getMessage());
+                    }
+                }
+            });
+        return identifiers.stream();
+    }
+
+    /**
+     * Write a journal transaction for a resource that does not have a directory of its own
+     *
+     * <p>The transaction is appended to the pack of the resource unless the journal would then grow past the
+     * threshold, in which case the resource is promoted to its own directory along with the transaction.</p>
+     *
+     * @param identifier the identifier
+     * @param transaction the journal transaction
+     * @return true if the transaction was written; false if the resource already has a directory of its own,
+     *         in which case the transaction must be written there
+     * @throws IOException if the transaction could not be written
+     */
+    public Boolean write(final String identifier, final String transaction) throws IOException {
+        final byte[] bytes = transaction.getBytes(UTF_8);
+        final Pack pack = pack(identifier);
+        synchronized (pack) {
+            try (final FileChannel channel = pack.open(); final FileLock lock = channel.lock()) {
+                pack.refresh();
+                // Another writer may have promoted the resource in the meantime
+                if (directory(identifier).isPresent()) {
+                    return false;
+                }
+                final Entry entry = pack.index.get(identifier);
+                final long size = isNull(entry) ? 0L : entry.length;
+                if (size + bytes.length <= threshold) {
+                    pack.append(channel, JOURNAL_RECORD, identifier, bytes);
+                } else {
+                    promote(pack, channel, identifier, entry, bytes);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Remove a resource from its pack, as when it is purged
+     * @param identifier the identifier
+     * @throws IOException if the resource could not be removed
+     */
+    public void remove(final String identifier) throws IOException {
+        final Pack pack = pack(identifier);
+        synchronized (pack) {
+            try (final FileChannel channel = pack.open(); final FileLock lock = channel.lock()) {
+                pack.refresh();
+                if (pack.index.containsKey(identifier)) {
+                    pack.append(channel, TOMBSTONE_RECORD, identifier, new byte[0]);
+                }
+            }
+        }
+    }
+
+    private void promote(final Pack pack, final FileChannel channel, final String identifier, final Entry entry,
+            final byte[] transaction) throws IOException {
+        LOGGER.debug("Promoting {} to a resource directory", identifier);
+        final File resource = PartitionLayout.of(partition).directory(partition, identifier);
+        resource.mkdirs();
+        final File temp = tempFile(resource, RESOURCE_JOURNAL);
+        try (final OutputStream output = new FileOutputStream(temp)) {
+            if (!isNull(entry)) {
+                output.write(pack.read(entry));
+            }
+            output.write(transaction);
+        }
+        // Once the journal is in place, the resource is read from its directory rather than the pack
+        moveIntoPlace(temp, new File(resource, RESOURCE_JOURNAL));
+        if (!isNull(entry)) {
+            pack.append(channel, TOMBSTONE_RECORD, identifier, new byte[0]);
+        }
+    }
+
+    private Pack pack(final String identifier) {
+        return bucket(md5Hex(identifier).substring(0, BUCKET_WIDTH));
+    }
+
+    private Pack bucket(final String bucket) {
+        return PACKS.computeIfAbsent(new File(directory, bucket + PACK_SUFFIX).getAbsoluteFile(), Pack::new);
+    }
+
+    private static final class Entry {
+        private final List<long[]> records = new ArrayList<>();
+        private long length;
+    }
+
+    /**
+     * A single pack file, along with the index of the records that have been read from it
+     */
+    private static final class Pack {
+        private final File file;
+        private final Map<String, Entry> index = new HashMap<>();
+        private long indexed;
+        private Object fileKey;
+
+        private Pack(final File file) {
+            this.file = file;
+        }
+
+        private FileChannel open() throws IOException {
+            file.getParentFile().mkdirs();
+            return FileChannel.open(file.toPath(), READ, WRITE, CREATE);
+        }
+
+        /**
+         * Index any complete records that have been appended since the last refresh
+         */
+        private void refresh() throws IOException {
+            if (!file.exists()) {
+                reset(null);
+                return;
+            }
+            final Object key = readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            final long size = file.length();
+            if (size < indexed || !Objects.equals(key, fileKey)) {
+                // The pack has been truncated or replaced, as when it is deleted and created anew, so it is
+                // indexed anew
+                reset(key);
+            }
+            if (size <= indexed) {
+                return;
+            }
+            indexed = Records.scan(file, indexed, size, (header, position) -> {
+                if (header.kind == TOMBSTONE_RECORD) {
+                    index.remove(header.identifier);
+                } else {
+                    final Entry entry = index.computeIfAbsent(header.identifier, id -> new Entry());
+                    entry.records.add(new long[]{position + header.size, header.length});
+                    entry.length += header.length;
+                }
+            });
+        }
+
+        private void reset(final Object key) {
+            index.clear();
+            indexed = 0L;
+            fileKey = key;
+        }
+
+        private void append(final FileChannel channel, final char kind, final String identifier,
+                final byte[] data) throws IOException {
+            // Discard the remains of a record torn by a crash; no other writer holds the lock
+            if (channel.size() > indexed) {
+                LOGGER.warn("Discarding {} bytes of an incomplete record in {}", channel.size() - indexed, file);
+                channel.truncate(indexed);
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(Records.encode(kind, identifier, data, -1L));
+            long position = indexed;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            refresh();
+        }
+
+        private byte[] read(final Entry entry) throws IOException {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream((int) entry.length);
+            try (final FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+                for (final long[] record : entry.records) {
+                    final ByteBuffer buffer = ByteBuffer.allocate((int) record[1]);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, record[0] + buffer.position()) < 0) {
+                            throw new IOException("Unexpected end of pack " + file);
+                        }
+                    }
+                    output.write(buffer.array());
+                }
+            }
+            return output.toByteArray();
+        }
+    }
+}
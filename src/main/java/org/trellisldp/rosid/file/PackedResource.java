@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.RDFPatch.asStream;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.slf4j.Logger;
+import org.trellisldp.api.Resource;
+import org.trellisldp.rosid.common.ResourceData;
+
+/**
+ * A versioned resource whose journal is read into memory, as from a pack file or a partition log.
+ *
+ * @author acoburn
+ */
+final class PackedResource extends VersionedResource {
+
+    private static final Logger LOGGER = getLogger(PackedResource.class);
+
+    private final Supplier<List<String>> journal;
+
+    /**
+     * Find a packed resource at a particular point in time
+     * @param store the pack store
+     * @param identifier the identifier
+     * @param time the time
+     * @return the resource, if it is packed and exists at the given time
+     */
+    public static Optional<Resource> find(final PackStore store, final IRI identifier, final Instant time) {
+        return store.journal(identifier.getIRIString()).flatMap(journal ->
+                VersionedResource.read(journal, identifier, time).map(data ->
+                    new PackedResource(store.getDirectory(), () -> journal, identifier, data, time)));
+    }
+
+    /**
+     * Create a resource whose journal is read into memory
+     * @param directory the directory that holds the journal
+     * @param journal a supplier of the lines of the journal, which is called at most once, when the quads of
+     *        the resource are first read
+     * @param identifier the identifier
+     * @param data the resource data
+     * @param time the time
+     * @return the resource
+     */
+    static Resource of(final File directory, final Supplier<List<String>> journal, final IRI identifier,
+            final ResourceData data, final Instant time) {
+        return new PackedResource(directory, memoize(journal), identifier, data, time);
+    }
+
+    /**
+     * Read the current state of a packed resource
+     * @param store the pack store
+     * @param identifier the identifier
+     * @param time the time
+     * @return the resource data, if the resource is packed and exists at the given time
+     */
+    public static Optional<ResourceData> read(final PackStore store, final IRI identifier, final Instant time) {
+        return store.journal(identifier.getIRIString()).flatMap(journal ->
+                VersionedResource.read(journal, identifier, time));
+    }
+
+    private PackedResource(final File directory, final Supplier<List<String>> journal, final IRI identifier,
+            final ResourceData data, final Instant time) {
+        super(directory, identifier, data, time);
+        this.journal = journal;
+        LOGGER.debug("Fetching a Packed Resource for {}", identifier.getIRIString());
+    }
+
+    @Override
+    protected Stream<Quad> readJournal(final Boolean containment) {
+        return asStream(rdf, journal.get(), identifier, time, containment);
+    }
+}
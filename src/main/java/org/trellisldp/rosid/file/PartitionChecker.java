@@ -0,0 +1,361 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Math.max;
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.file.Files.lines;
+import static java.nio.file.Files.walk;
+import static java.util.Objects.nonNull;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_MEMENTOS;
+import static org.trellisldp.rosid.file.FileUtils.isTempFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.trellisldp.rosid.common.ResourceData;
+import org.trellisldp.vocabulary.RDF;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * A consistency checker for the resources in a partition, suitable for use after an unclean shutdown.
+ *
+ * <p>Each resource directory is checked for:</p>
+ * <ul>
+ *   <li>a journal that ends with a transaction that was never committed, which is truncated
+ *       to the end of the last committed transaction;</li>
+ *   <li>temporary files left behind by an interrupted cache or snapshot write, which are removed;</li>
+ *   <li>a cache that is missing or older than its journal, which is rebuilt.</li>
+ * </ul>
+ *
+ * <p>Resources are checked in parallel, optionally limited to a number of resources per second so that
+ * a check can run alongside other work, and always within the {@link IOBudget} of the partition. Since
+ * temporary files are removed regardless of their age, a repair should only be run while the partition is not
+ * otherwise being written.</p>
+ *
+ * @author acoburn
+ */
+public final class PartitionChecker {
+
+    private static final Logger LOGGER = getLogger(PartitionChecker.class);
+
+    private static final String TX_COMMIT = "TC .";
+    private static final int BLOCK_SIZE = 8192;
+    private static final long PROGRESS_INTERVAL = 1000L;
+
+    private final int parallelism;
+    private final long interval;
+    private final Boolean repair;
+
+    /**
+     * The outcome of a partition check
+     */
+    public static final class Report {
+        private final AtomicLong resources = new AtomicLong();
+        private final AtomicLong tornJournals = new AtomicLong();
+        private final AtomicLong tempFiles = new AtomicLong();
+        private final AtomicLong staleCaches = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+
+        /**
+         * Get the number of resources that were checked
+         * @return the number of resources
+         */
+        public long getResources() {
+            return resources.get();
+        }
+
+        /**
+         * Get the number of journals that ended with an uncommitted transaction
+         * @return the number of journals
+         */
+        public long getTornJournals() {
+            return tornJournals.get();
+        }
+
+        /**
+         * Get the number of orphaned temporary files
+         * @return the number of files
+         */
+        public long getTempFiles() {
+            return tempFiles.get();
+        }
+
+        /**
+         * Get the number of caches that were missing or older than their journals
+         * @return the number of caches
+         */
+        public long getStaleCaches() {
+            return staleCaches.get();
+        }
+
+        /**
+         * Get the number of resources that could not be checked or repaired
+         * @return the number of errors
+         */
+        public long getErrors() {
+            return errors.get();
+        }
+
+        @Override
+        public String toString() {
+            return "resources: " + getResources() + ", torn journals: " + getTornJournals() + ", temporary files: " +
+                getTempFiles() + ", stale caches: " + getStaleCaches() + ", errors: " + getErrors();
+        }
+    }
+
+    /**
+     * Create a partition checker
+     * @param parallelism the number of resources to check concurrently
+     * @param resourcesPerSecond the maximum number of resources to check per second, or zero for no limit
+     * @param repair whether to repair any problems, or only to report them
+     */
+    public PartitionChecker(final int parallelism, final long resourcesPerSecond, final Boolean repair) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.interval = resourcesPerSecond > 0 ? SECONDS.toNanos(1L) / resourcesPerSecond : 0L;
+        this.repair = repair;
+    }
+
+    /**
+     * Check all of the resources in a partition
+     * @param partition the partition directory
+     * @return a report of what was found
+     * @throws IOException if the partition could not be read
+     */
+    public Report check(final File partition) throws IOException {
+        LOGGER.info("{} partition at {}", repair ? "Repairing" : "Checking", partition.getAbsolutePath());
+        final Report report = new Report();
+        final IOBudget budget = IOBudget.of(partition);
+        final ExecutorService executor = newFixedThreadPool(parallelism);
+        // Bound the number of queued resources so that a large partition is not held in memory
+        final Semaphore permits = new Semaphore(parallelism * 4);
+        final long start = nanoTime();
+        long next = start;
+        // Stop the walk at the resource directories: their contents change under a concurrent repair
+        try (final Stream<Path> paths = walk(partition.toPath(), PartitionLayout.read(partition).getResourceDepth())) {
+            final Iterator<File> directories = paths.map(Path::toFile)
+                .filter(dir -> new File(dir, RESOURCE_JOURNAL).isFile()).iterator();
+            while (directories.hasNext()) {
+                final File directory = directories.next();
+                if (interval > 0L) {
+                    final long wait = next - nanoTime();
+                    if (wait > 0L) {
+                        NANOSECONDS.sleep(wait);
+                    }
+                    next = max(next, nanoTime()) + interval;
+                }
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        budget.acquire(new File(directory, RESOURCE_JOURNAL).length());
+                        checkResource(directory, report);
+                    } finally {
+                        permits.release();
+                    }
+                    final long count = report.resources.incrementAndGet();
+                    if (count % PROGRESS_INTERVAL == 0) {
+                        LOGGER.info("Checked {} resources ({}/s)", count,
+                                count * SECONDS.toNanos(1L) / max(1L, nanoTime() - start));
+                    }
+                });
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Partition check was interrupted");
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, NANOSECONDS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        LOGGER.info("Finished {} partition at {}: {}", repair ? "repairing" : "checking",
+                partition.getAbsolutePath(), report);
+        return report;
+    }
+
+    private void checkResource(final File directory, final Report report) {
+        try {
+            final File journal = new File(directory, RESOURCE_JOURNAL);
+            final long committed = committedLength(journal);
+            final Boolean torn = committed < journal.length();
+            if (torn) {
+                LOGGER.warn("Journal at {} ends with an uncommitted transaction", journal);
+                report.tornJournals.incrementAndGet();
+                if (repair) {
+                    try (final RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+                        file.setLength(committed);
+                    }
+                }
+            }
+
+            removeTempFiles(directory, report);
+            removeTempFiles(new File(directory, RESOURCE_MEMENTOS), report);
+
+            final File cache = CachedResource.cacheFile(directory);
+            if (committed > 0L && (torn || !cache.exists() || cache.lastModified() < journal.lastModified())) {
+                LOGGER.warn("Cache at {} is out of date", directory);
+                report.staleCaches.incrementAndGet();
+                if (repair && !rebuildCache(directory)) {
+                    report.errors.incrementAndGet();
+                }
+            }
+        } catch (final IOException | UncheckedIOException ex) {
+            LOGGER.error("Error checking resource at {}: {}", directory, ex.getMessage());
+            report.errors.incrementAndGet();
+        }
+    }
+
+    private void removeTempFiles(final File directory, final Report report) {
+        final File[] files = directory.listFiles((dir, name) -> isTempFile(name));
+        if (nonNull(files)) {
+            for (final File file : files) {
+                LOGGER.warn("Found orphaned temporary file: {}", file);
+                report.tempFiles.incrementAndGet();
+                if (repair && !file.delete()) {
+                    LOGGER.error("Could not remove temporary file: {}", file);
+                    report.errors.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static Boolean rebuildCache(final File directory) {
+        final Optional<String> identifier = identifier(directory);
+        if (!identifier.isPresent()) {
+            LOGGER.error("Could not determine the identifier for the resource at {}", directory);
+            return false;
+        }
+        return CachedResource.rebuild(directory, identifier.get());
+    }
+
+    /**
+     * Find the identifier of the resource in a directory, from its cache or else from its journal
+     * @param directory the resource directory
+     * @return the identifier, if it could be found
+     */
+    static Optional<String> identifier(final File directory) {
+        return CachedResource.read(directory).map(ResourceData::getId).map(Optional::of)
+            .orElseGet(() -> findIdentifier(new File(directory, RESOURCE_JOURNAL)));
+    }
+
+    /**
+     * Find the resource identifier from the first server-managed type in a journal
+     */
+    private static Optional<String> findIdentifier(final File journal) {
+        final String graph = " " + Trellis.PreferServerManaged.ntriplesString() + " .";
+        try (final Stream<String> lineStream = lines(journal.toPath())) {
+            return lineStream.filter(line -> line.startsWith("A <") && line.endsWith(graph))
+                .map(line -> line.split(" ", 4)).filter(parts -> RDF.type.ntriplesString().equals(parts[2]))
+                .map(parts -> parts[1].substring(1, parts[1].length() - 1)).findFirst();
+        } catch (final IOException ex) {
+            LOGGER.error("Could not read journal at {}: {}", journal, ex.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Find the length of a journal, in bytes, up to and including its last committed transaction
+     * @param journal the journal file
+     * @return the length of the committed portion of the journal
+     * @throws IOException if the journal could not be read
+     */
+    static long committedLength(final File journal) throws IOException {
+        try (final RandomAccessFile file = new RandomAccessFile(journal, "r")) {
+            final long length = file.length();
+            long size = BLOCK_SIZE;
+            while (true) {
+                final long start = max(0L, length - size);
+                final byte[] block = new byte[(int) (length - start)];
+                file.seek(start);
+                file.readFully(block);
+                // Each byte maps to exactly one character, so positions in the text are positions in the file
+                final String text = new String(block, ISO_8859_1);
+                final int end = lastCommit(text, start == 0L);
+                if (end >= 0) {
+                    // Anything other than whitespace after the last commit is part of a torn transaction
+                    return text.substring(end).trim().isEmpty() ? length : start + end;
+                } else if (start == 0L) {
+                    return text.trim().isEmpty() ? length : 0L;
+                }
+                size *= 2;
+            }
+        }
+    }
+
+    /**
+     * Find the position just after the last commit line in a block of text, or -1 if there is none
+     */
+    private static int lastCommit(final String text, final Boolean atStart) {
+        int index = text.lastIndexOf(TX_COMMIT);
+        while (index >= 0) {
+            final int end = index + TX_COMMIT.length();
+            final Boolean lineStart = index > 0 ? text.charAt(index - 1) == '\n' : atStart;
+            if (lineStart && (end == text.length() || text.charAt(end) == '\r' || text.charAt(end) == '\n')) {
+                final int newline = text.indexOf('\n', end);
+                return newline < 0 ? text.length() : newline + 1;
+            }
+            index = index > 0 ? text.lastIndexOf(TX_COMMIT, index - 1) : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Check or repair a partition from the command line
+     * @param args the partition directory, followed by optional arguments: --repair, --threads N and --rate N
+     * @throws IOException if the partition could not be read
+     */
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 1) {
+            LOGGER.error("Usage: PartitionChecker <partition directory> [--repair] [--threads N] [--rate N]");
+            return;
+        }
+        Boolean repair = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long rate = 0L;
+        for (int i = 1; i < args.length; ++i) {
+            if ("--repair".equals(args[i])) {
+                repair = true;
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--rate".equals(args[i]) && i + 1 < args.length) {
+                rate = Long.parseLong(args[++i]);
+            }
+        }
+        final Report report = new PartitionChecker(threads, rate, repair).check(new File(args[0]));
+        if (report.getErrors() > 0) {
+            LOGGER.error("Partition check finished with errors");
+        }
+    }
+}
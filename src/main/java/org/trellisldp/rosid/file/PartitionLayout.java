@@ -0,0 +1,458 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.io.File.separator;
+import static java.lang.Integer.parseInt;
+import static java.lang.Math.max;
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.newBufferedReader;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.isNull;
+import static java.util.Objects.requireNonNull;
+import static java.util.stream.IntStream.range;
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.Constants.PARTITION_LAYOUT;
+import static org.trellisldp.rosid.file.Constants.PARTITION_LOCK;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
+import static org.trellisldp.rosid.file.FileUtils.tempFile;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+
+/**
+ * The layout of the resource directories in a partition.
+ *
+ * <p>A resource directory is named for the MD5 hash of its identifier, and it is nested below a number
+ * of intermediate directories that are taken from the leading characters of a hexadecimal hash of the
+ * identifier. The hash function, the number of levels and the number of characters in each level
+ * determine how evenly the resources are spread across directories.</p>
+ *
+ * <p>The layout of a partition is recorded in a descriptor in the partition directory. A partition
+ * without a descriptor uses the {@link #LEGACY} layout. While a partition is being migrated, the
+ * descriptor also records the previous layout, and a resource is found in whichever layout holds it.</p>
+ *
+ * <p>While a partition is being migrated, a writer {@linkplain #hold holds} a resource in place, so that the
+ * migration does not move its directory between the moment it is found and the moment its journal is written.</p>
+ *
+ * @author acoburn
+ */
+public final class PartitionLayout {
+
+    private static final Logger LOGGER = getLogger(PartitionLayout.class);
+
+    /** The CRC-32 hash function */
+    public static final String CRC32 = "crc32";
+
+    /** The MD5 hash function */
+    public static final String MD5 = "md5";
+
+    /**
+     * The original layout: three levels of two characters of an unpadded CRC-32 hash, so that a short
+     * hash produces fewer levels
+     */
+    public static final PartitionLayout LEGACY = new PartitionLayout(CRC32, FileUtils.LENGTH, FileUtils.MAX, false);
+
+    private static final String PREVIOUS = "previous.";
+
+    // A descriptor is checked for changes by another process at most this often, in milliseconds
+    static final long RECHECK_INTERVAL = 1000L;
+
+    // A resource is held by locking one byte, chosen by its identifier, of this many in the lock file
+    private static final int LOCK_STRIPES = 1024;
+
+    // Descriptors are keyed by the canonical partition directory, so that every path to a partition sees a change
+    private static final Map<File, Descriptor> DESCRIPTORS = new ConcurrentHashMap<>();
+
+    // Each path to a partition is canonicalized once, rather than on each lookup of its layout
+    private static final Map<File, File> ROOTS = new ConcurrentHashMap<>();
+
+    // A file lock is held by the whole process, so the threads of this process take turns at each stripe
+    private static final Map<String, ReentrantLock> STRIPES = new ConcurrentHashMap<>();
+
+    /**
+     * A resource that is held in place while its partition is being migrated
+     */
+    public static final class Hold implements AutoCloseable {
+        private final ReentrantLock stripe;
+        private final FileChannel channel;
+
+        private Hold(final ReentrantLock stripe, final FileChannel channel) {
+            this.stripe = stripe;
+            this.channel = channel;
+        }
+
+        /**
+         * Release the resource
+         */
+        @Override
+        public void close() {
+            if (isNull(stripe)) {
+                return;
+            }
+            try {
+                // Closing the channel releases its lock
+                channel.close();
+            } catch (final IOException ex) {
+                LOGGER.warn("Error releasing partition lock: {}", ex.getMessage());
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    private static final class Descriptor {
+        private final PartitionLayout layout;
+        private final long modified;
+        private final long length;
+        private final long checked;
+
+        private Descriptor(final PartitionLayout layout, final long modified, final long length,
+                final long checked) {
+            this.layout = layout;
+            this.modified = modified;
+            this.length = length;
+            this.checked = checked;
+        }
+    }
+
+    private final String hash;
+    private final int width;
+    private final int depth;
+    private final boolean padded;
+    private final PartitionLayout previous;
+
+    /**
+     * Create a layout
+     * @param hash the hash function, either {@link #CRC32} or {@link #MD5}
+     * @param width the number of hexadecimal characters in each level
+     * @param depth the number of levels
+     * @param padded whether a hash is zero-padded to its full length, so that every resource has the same depth
+     */
+    public PartitionLayout(final String hash, final int width, final int depth, final boolean padded) {
+        this(hash, width, depth, padded, null);
+    }
+
+    private PartitionLayout(final String hash, final int width, final int depth, final boolean padded,
+            final PartitionLayout previous) {
+        requireNonNull(hash, "The hash function may not be null!");
+        if (!CRC32.equals(hash) && !MD5.equals(hash)) {
+            throw new IllegalArgumentException("Unsupported hash function: " + hash);
+        }
+        if (width < 1 || depth < 0 || width * depth > hexLength(hash)) {
+            throw new IllegalArgumentException("Invalid layout of " + depth + " levels of width " + width);
+        }
+        this.hash = hash;
+        this.width = width;
+        this.depth = depth;
+        this.padded = padded;
+        this.previous = previous;
+    }
+
+    /**
+     * Get the hash function
+     * @return the hash function
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Get the number of hexadecimal characters in each level
+     * @return the width of a level
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the number of levels
+     * @return the depth
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Determine whether hashes are zero-padded
+     * @return true if every resource has the same depth
+     */
+    public boolean isPadded() {
+        return padded;
+    }
+
+    /**
+     * Get the layout from which the partition is being migrated
+     * @return the previous layout, or null if no migration is in progress
+     */
+    public PartitionLayout getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Create a layout that records a migration in progress
+     * @param from the layout from which resources are being migrated
+     * @return the layout
+     */
+    public PartitionLayout migratingFrom(final PartitionLayout from) {
+        return new PartitionLayout(hash, width, depth, padded, from.withoutPrevious());
+    }
+
+    /**
+     * Get this layout without any record of a migration
+     * @return the layout
+     */
+    public PartitionLayout withoutPrevious() {
+        return isNull(previous) ? this : new PartitionLayout(hash, width, depth, padded);
+    }
+
+    /**
+     * Get the greatest depth, below the partition directory, of any resource directory
+     * @return the depth, including the resource directory itself
+     */
+    public int getResourceDepth() {
+        return max(depth, isNull(previous) ? 0 : previous.getResourceDepth() - 1) + 1;
+    }
+
+    /**
+     * Get the path of a resource directory, relative to the partition directory
+     * @param identifier the identifier
+     * @return the relative path
+     */
+    public String path(final String identifier) {
+        requireNonNull(identifier, "identifier must not be null!");
+        final StringJoiner joiner = new StringJoiner(separator);
+        final String intermediate = hex(identifier);
+        range(0, intermediate.length() / width).limit(depth)
+            .forEach(i -> joiner.add(intermediate.substring(i * width, (i + 1) * width)));
+        joiner.add(md5Hex(identifier));
+        return joiner.toString();
+    }
+
+    /**
+     * Get the directory of a resource. During a migration, a resource that is only in its previous
+     * location is found there; otherwise, the directory is that of this layout.
+     * @param root the partition directory
+     * @param identifier the identifier
+     * @return the resource directory
+     */
+    public File directory(final File root, final String identifier) {
+        final File directory = new File(root, path(identifier));
+        if (isNull(previous) || new File(directory, RESOURCE_JOURNAL).exists()) {
+            return directory;
+        }
+        final File old = previous.directory(root, identifier);
+        return new File(old, RESOURCE_JOURNAL).exists() ? old : directory;
+    }
+
+    /**
+     * Record this layout in the descriptor of a partition
+     * @param root the partition directory
+     * @throws IOException if the descriptor could not be written
+     */
+    public void write(final File root) throws IOException {
+        final Properties properties = new Properties();
+        store(properties, "");
+        if (!isNull(previous)) {
+            previous.store(properties, PREVIOUS);
+        }
+        final File temp = tempFile(root, PARTITION_LAYOUT);
+        try (final BufferedWriter writer = newBufferedWriter(temp.toPath(), UTF_8)) {
+            properties.store(writer, "Trellis partition layout");
+        }
+        moveIntoPlace(temp, new File(root, PARTITION_LAYOUT));
+        DESCRIPTORS.remove(canonical(root));
+        LOGGER.info("Recorded partition layout at {}: {}", root, this);
+    }
+
+    /**
+     * Read the layout of a partition from its descriptor
+     * @param root the partition directory
+     * @return the layout, which is the legacy layout if there is no descriptor
+     * @throws IOException if the descriptor could not be read
+     */
+    public static PartitionLayout read(final File root) throws IOException {
+        final File file = new File(root, PARTITION_LAYOUT);
+        if (!file.exists()) {
+            return LEGACY;
+        }
+        final Properties properties = new Properties();
+        try (final BufferedReader reader = newBufferedReader(file.toPath(), UTF_8)) {
+            properties.load(reader);
+        }
+        try {
+            final PartitionLayout layout = load(properties, "");
+            return properties.containsKey(PREVIOUS + "hash") ? layout.migratingFrom(load(properties, PREVIOUS))
+                : layout;
+        } catch (final IllegalArgumentException ex) {
+            throw new IOException("Invalid partition layout at " + file + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * Get the layout of a partition. Descriptors are cached, but a change by another process, such as
+     * a migration tool, is noticed within a second.
+     * @param root the partition directory
+     * @return the layout
+     * @throws UncheckedIOException if the descriptor could not be read
+     */
+    public static PartitionLayout of(final File root) {
+        final long now = currentTimeMillis();
+        try {
+            final File key = canonical(root);
+            final Descriptor cached = DESCRIPTORS.get(key);
+            if (!isNull(cached) && now - cached.checked < RECHECK_INTERVAL) {
+                return cached.layout;
+            }
+            final File file = new File(root, PARTITION_LAYOUT);
+            final long modified = file.lastModified();
+            final long length = file.length();
+            final PartitionLayout layout = !isNull(cached) && cached.modified == modified &&
+                cached.length == length ? cached.layout : read(root);
+            DESCRIPTORS.put(key, new Descriptor(layout, modified, length, now));
+            return layout;
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Hold a resource in place while its partition is being migrated. A migration only moves a resource that
+     * it holds, so the directory of a held resource may be found, created and written without being moved in
+     * the meantime. Outside of a migration, nothing is locked.
+     * @param root the partition directory
+     * @param identifier the identifier
+     * @return the hold, to be closed once the resource directory has been written
+     * @throws IOException if the lock could not be taken
+     */
+    public static Hold hold(final File root, final String identifier) throws IOException {
+        return isNull(of(root).getPrevious()) ? new Hold(null, null) : lock(root, identifier);
+    }
+
+    /**
+     * Lock a resource, whether or not its partition is being migrated. The lock is shared with other processes
+     * through a lock file in the partition directory.
+     * @param root the partition directory
+     * @param identifier the identifier
+     * @return the hold, to be closed to release the lock
+     * @throws IOException if the lock could not be taken
+     */
+    static Hold lock(final File root, final String identifier) throws IOException {
+        final File file = new File(canonical(root), PARTITION_LOCK);
+        final int index = (identifier.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+        final ReentrantLock stripe = STRIPES.computeIfAbsent(file.getPath() + "#" + index,
+                k -> new ReentrantLock());
+        stripe.lock();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), CREATE, WRITE);
+            channel.lock(index, 1L, false);
+            return new Hold(stripe, channel);
+        } catch (final IOException | RuntimeException ex) {
+            if (!isNull(channel)) {
+                channel.close();
+            }
+            stripe.unlock();
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof PartitionLayout)) {
+            return false;
+        }
+        final PartitionLayout layout = (PartitionLayout) other;
+        return hash.equals(layout.hash) && width == layout.width && depth == layout.depth &&
+            padded == layout.padded && Objects.equals(previous, layout.previous);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(hash, width, depth, padded, previous);
+    }
+
+    @Override
+    public String toString() {
+        return hash + " hash, " + depth + " levels of width " + width + (padded ? ", padded" : "") +
+            (isNull(previous) ? "" : " (migrating from " + previous + ")");
+    }
+
+    private String hex(final String identifier) {
+        if (MD5.equals(hash)) {
+            return md5Hex(identifier);
+        }
+        final CRC32 hasher = new CRC32();
+        hasher.update(identifier.getBytes(UTF_8));
+        return padded ? String.format("%08x", hasher.getValue()) : Long.toHexString(hasher.getValue());
+    }
+
+    private void store(final Properties properties, final String prefix) {
+        properties.setProperty(prefix + "hash", hash);
+        properties.setProperty(prefix + "width", Integer.toString(width));
+        properties.setProperty(prefix + "depth", Integer.toString(depth));
+        properties.setProperty(prefix + "padded", Boolean.toString(padded));
+    }
+
+    /**
+     * Get the canonical directory of a partition, which is resolved once for each path to the partition
+     * @param root the partition directory
+     * @return the canonical partition directory
+     * @throws IOException if the path could not be resolved
+     */
+    static File canonical(final File root) throws IOException {
+        final File cached = ROOTS.get(root);
+        if (!isNull(cached)) {
+            return cached;
+        }
+        final File canonical = root.getCanonicalFile();
+        ROOTS.put(root, canonical);
+        ROOTS.put(canonical, canonical);
+        return canonical;
+    }
+
+    private static PartitionLayout load(final Properties properties, final String prefix) {
+        if (isNull(properties.getProperty(prefix + "hash"))) {
+            throw new IllegalArgumentException("Missing " + prefix + "hash");
+        }
+        return new PartitionLayout(properties.getProperty(prefix + "hash"),
+                parseInt(properties.getProperty(prefix + "width")), parseInt(properties.getProperty(prefix + "depth")),
+                Boolean.parseBoolean(properties.getProperty(prefix + "padded")));
+    }
+
+    private static int hexLength(final String hash) {
+        return MD5.equals(hash) ? 32 : 8;
+    }
+}
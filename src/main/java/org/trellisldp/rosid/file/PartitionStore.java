@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.trellisldp.api.Resource;
+import org.trellisldp.rosid.common.ResourceData;
+
+/**
+ * A store that holds every resource of a partition, as an alternative to a directory per resource.
+ *
+ * @author acoburn
+ */
+public interface PartitionStore {
+
+    /**
+     * Get the current state of a resource
+     * @param identifier the identifier
+     * @return the resource, if it exists
+     */
+    Optional<Resource> get(IRI identifier);
+
+    /**
+     * Get the state of a resource at a point in time
+     * @param identifier the identifier
+     * @param time the time
+     * @return the resource, if it existed at that time
+     */
+    Optional<Resource> get(IRI identifier, Instant time);
+
+    /**
+     * Write a journal transaction for a resource
+     * @param identifier the identifier
+     * @param delete the quads to delete
+     * @param add the quads to add
+     * @param time the time
+     * @param cache whether to cache the resulting resource data
+     * @return true if the write succeeded; false otherwise
+     */
+    Boolean write(IRI identifier, Stream<? extends Quad> delete, Stream<? extends Quad> add, Instant time,
+            Boolean cache);
+
+    /**
+     * Get the current data of every resource in the partition
+     * @return the resource data
+     */
+    Stream<ResourceData> scan();
+
+    /**
+     * Remove a resource and its history
+     * @param identifier the identifier
+     * @return the binaries that belonged to the resource
+     */
+    Stream<IRI> tryPurge(IRI identifier);
+}
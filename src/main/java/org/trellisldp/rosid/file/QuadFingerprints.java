@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.util.Arrays.fill;
+
+/**
+ * A compact set of quads, each held as a 128-bit fingerprint of its N-Quads serialization.
+ *
+ * <p>The fingerprints are computed directly from the serialized form, so membership can be tested
+ * without parsing a line of the journal. Two independent 64-bit hashes must both match for a quad to
+ * be considered present: one selects the slot in an open-addressing table, and the second verifies the
+ * match, making a false positive vanishingly unlikely without retaining the text itself.</p>
+ *
+ * <p>Instances of this class are not thread-safe.</p>
+ *
+ * @author acoburn
+ */
+final class QuadFingerprints {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // Pairs of (primary, secondary) hashes; a zero primary hash marks an empty slot
+    private long[] table = new long[INITIAL_CAPACITY * 2];
+    private int size = 0;
+
+    /**
+     * Add a quad to the set
+     * @param line a line containing the serialized quad
+     * @param start the position in the line where the serialized quad begins
+     * @return true if the quad was not already present
+     */
+    public boolean add(final String line, final int start) {
+        return add(primary(line, start), secondary(line, start));
+    }
+
+    /**
+     * Test whether a quad is in the set
+     * @param line a line containing the serialized quad
+     * @param start the position in the line where the serialized quad begins
+     * @return true if the quad is present
+     */
+    public boolean contains(final String line, final int start) {
+        final long primary = primary(line, start);
+        final long secondary = secondary(line, start);
+        final int mask = capacity() - 1;
+        for (int slot = (int) primary & mask; table[slot * 2] != 0L; slot = (slot + 1) & mask) {
+            if (table[slot * 2] == primary && table[slot * 2 + 1] == secondary) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add all of the quads from another set
+     * @param other the other set
+     */
+    public void addAll(final QuadFingerprints other) {
+        for (int slot = 0; slot < other.capacity(); ++slot) {
+            if (other.table[slot * 2] != 0L) {
+                add(other.table[slot * 2], other.table[slot * 2 + 1]);
+            }
+        }
+    }
+
+    /**
+     * Remove all of the quads from the set
+     */
+    public void clear() {
+        if (size > 0) {
+            fill(table, 0L);
+            size = 0;
+        }
+    }
+
+    /**
+     * Get the number of quads in the set
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Test whether the set is empty
+     * @return true if the set has no quads
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private int capacity() {
+        return table.length / 2;
+    }
+
+    private boolean add(final long primary, final long secondary) {
+        final int mask = capacity() - 1;
+        int slot = (int) primary & mask;
+        while (table[slot * 2] != 0L) {
+            if (table[slot * 2] == primary && table[slot * 2 + 1] == secondary) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot * 2] = primary;
+        table[slot * 2 + 1] = secondary;
+        size += 1;
+        // Keep the table at most half full
+        if (size * 2 > capacity()) {
+            resize();
+        }
+        return true;
+    }
+
+    private void resize() {
+        final long[] old = table;
+        table = new long[old.length * 2];
+        size = 0;
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] != 0L) {
+                add(old[i], old[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the characters, with a final mix so that the low bits are well distributed
+     */
+    private static long primary(final String line, final int start) {
+        long hash = FNV_OFFSET;
+        for (int i = start; i < line.length(); ++i) {
+            hash = (hash ^ line.charAt(i)) * FNV_PRIME;
+        }
+        final long mixed = mix(hash);
+        return mixed == 0L ? 1L : mixed;
+    }
+
+    /**
+     * An independent 64-bit multiplicative hash of the characters
+     */
+    private static long secondary(final String line, final int start) {
+        long hash = line.length() - start;
+        for (int i = start; i < line.length(); ++i) {
+            hash = Long.rotateLeft((hash ^ line.charAt(i)) * GOLDEN_GAMMA, 31);
+        }
+        return mix(hash);
+    }
+
+    /**
+     * The finalization step of MurmurHash3
+     */
+    private static long mix(final long value) {
+        long h = value;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+}
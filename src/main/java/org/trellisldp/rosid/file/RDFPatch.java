@@ -13,45 +13,64 @@
  */
 package org.trellisldp.rosid.file;
 
+import static java.lang.Math.min;
 import static java.lang.String.join;
 import static java.lang.System.lineSeparator;
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.nio.file.Files.lines;
+import static java.nio.file.Files.newBufferedReader;
 import static java.nio.file.Files.newBufferedWriter;
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
 import static java.time.Instant.parse;
 import static java.time.temporal.ChronoUnit.MILLIS;
 import static java.util.Collections.emptyIterator;
 import static java.util.Collections.unmodifiableList;
 import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
+import static java.util.Optional.empty;
 import static java.util.Optional.of;
+import static java.util.Optional.ofNullable;
 import static java.util.Spliterator.IMMUTABLE;
 import static java.util.Spliterator.NONNULL;
 import static java.util.Spliterator.ORDERED;
 import static java.util.Spliterators.spliteratorUnknownSize;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Stream.concat;
 import static java.util.stream.StreamSupport.stream;
 import static org.apache.jena.riot.tokens.TokenizerFactory.makeTokenizerString;
 import static org.slf4j.LoggerFactory.getLogger;
 import static org.trellisldp.rosid.file.FileUtils.stringToQuad;
 import static org.trellisldp.vocabulary.RDF.type;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
+import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.commons.io.input.ReversedLinesFileReader;
 import org.apache.commons.rdf.api.IRI;
 import org.apache.commons.rdf.api.Quad;
@@ -66,17 +85,35 @@ import org.trellisldp.vocabulary.Trellis;
 import org.trellisldp.vocabulary.XSD;
 
 /**
+ * Read and write RDF Patch journals.
+ *
+ * <p>The older history of a journal may be moved to a compressed archive (see {@link JournalArchiver}). Such a
+ * journal begins with an {@code H archive} header, which names the archive and the time from which the journal
+ * itself is complete, followed by an {@code H archived} header for each version in the archive. Reads of any
+ * earlier time are served from the archive, while the current state and the list of versions are always read
+ * from the journal alone.</p>
+ *
  * @author acoburn
  */
 final class RDFPatch {
 
     private static final Logger LOGGER = getLogger(RDFPatch.class);
 
+    /* The recent transactions written by this process, which are read from memory rather than from disk */
+    static final JournalTails tails = new JournalTails(JournalTails.DEFAULT_JOURNAL_CAPACITY,
+            JournalTails.DEFAULT_CAPACITY);
+
     private static final String ADD = "A ";
     private static final String DELETE = "D ";
     private static final String TX = "TX .";
     private static final String TX_COMMIT = "TC .";
     private static final String MODIFIED_HEADER = "H modified ";
+    private static final String ARCHIVE_HEADER = "H archive ";
+    private static final String ARCHIVED_HEADER = "H archived ";
+    private static final int TIMESTAMP_LENGTH = "yyyy-MM-ddTHH:mm:ssZ".length();
+    private static final long SECONDS_PER_DAY = 86400L;
+    private static final String CONTAINMENT_SUFFIX = " " + LDP.PreferContainment.ntriplesString() + " .";
+    private static final String MEMBERSHIP_SUFFIX = " " + LDP.PreferMembership.ntriplesString() + " .";
 
     /**
      * Read the triples from the journal that existed up to (and including) the specified time
@@ -87,8 +124,46 @@ final class RDFPatch {
      * @return a stream of RDF triples
      */
     public static Stream<Quad> asStream(final RDF rdf, final File file, final IRI identifier, final Instant time) {
+        return asStream(rdf, file, identifier, time, true);
+    }
+
+    /**
+     * Read the triples from the journal that existed up to (and including) the specified time
+     * @param rdf the rdf object
+     * @param file the file
+     * @param identifier the identifier
+     * @param time the time
+     * @param containment whether to include containment triples; if false, they are skipped without being parsed
+     * @return a stream of RDF triples
+     */
+    public static Stream<Quad> asStream(final RDF rdf, final File file, final IRI identifier, final Instant time,
+            final Boolean containment) {
+        final Optional<File> archive = archive(file, time);
+        if (archive.isPresent()) {
+            LOGGER.debug("Reading archived Journal for {} at {}", identifier, time);
+            try (final Stream<String> lines = readArchive(archive.get(), archiveLength(file).get())) {
+                return asStream(rdf, readUntil(lines.iterator(), time), identifier, time, containment);
+            }
+        }
         LOGGER.debug("Reading Journal for {} as quads", identifier);
-        final StreamReader reader = new StreamReader(rdf, file, identifier, time);
+        final StreamReader reader = new StreamReader(rdf, file, identifier, time, containment);
+        return stream(spliteratorUnknownSize(reader, IMMUTABLE | NONNULL | ORDERED), false).onClose(reader::close);
+    }
+
+    /**
+     * Read the triples from a journal held in memory that existed up to (and including) the specified time
+     * @param rdf the rdf object
+     * @param journal the lines of the journal
+     * @param identifier the identifier
+     * @param time the time
+     * @param containment whether to include containment triples; if false, they are skipped without being parsed
+     * @return a stream of RDF triples
+     */
+    public static Stream<Quad> asStream(final RDF rdf, final List<String> journal, final IRI identifier,
+            final Instant time, final Boolean containment) {
+        LOGGER.debug("Reading in-memory Journal for {} as quads", identifier);
+        final StreamReader reader = new StreamReader(rdf, ReverseLineReader.of(journal), identifier, time,
+                containment);
         return stream(spliteratorUnknownSize(reader, IMMUTABLE | NONNULL | ORDERED), false).onClose(reader::close);
     }
 
@@ -106,6 +181,229 @@ final class RDFPatch {
         return unmodifiableList(ranges);
     }
 
+    /**
+     * Retrieve time values for the history of a resource whose journal is held in memory
+     * @param journal the lines of the journal
+     * @return a list of VersionRange objects
+     */
+    public static List<VersionRange> asTimeMap(final List<String> journal) {
+        final List<VersionRange> ranges = new ArrayList<>();
+        try (final TimeMapReader reader = new TimeMapReader(journal.stream())) {
+            reader.forEachRemaining(ranges::add);
+        }
+        return unmodifiableList(ranges);
+    }
+
+    /**
+     * Find the committed transactions that bound the state of the resource at a given time
+     *
+     * <p>The resulting range starts at the last transaction at or before the given time and ends at the
+     * next transaction. Because the state of the resource is fixed between those two transactions, the
+     * range is only present when both exist and were committed. Only the header lines are parsed.</p>
+     *
+     * @param file the file
+     * @param time the time
+     * @return the range of the closed version, if one exists
+     */
+    public static Optional<VersionRange> closedVersion(final File file, final Instant time) {
+        LOGGER.debug("Reading Journal for the version at {}", time);
+        final Optional<File> archive = archive(file, time);
+        if (archive.isPresent()) {
+            try (final Stream<String> lines = readArchive(archive.get(), archiveLength(file).get())) {
+                return closedVersion(lines.iterator(), time);
+            } catch (final UncheckedIOException ex) {
+                LOGGER.warn("Could not read archived journal at {}: {}", archive.get(), ex.getMessage());
+            }
+            return empty();
+        }
+        try (final ReverseLineReader reader = ReverseLineReader.of(file)) {
+            Instant until = null;
+            Boolean committed = false;
+            String line = reader.readLine();
+            while (nonNull(line)) {
+                if (line.startsWith(TX_COMMIT)) {
+                    committed = true;
+                } else if (line.startsWith(MODIFIED_HEADER)) {
+                    final Instant modified = modifiedToInstant(line);
+                    if (nonNull(modified) && !time.isBefore(modified.truncatedTo(MILLIS))) {
+                        return committed && nonNull(until) ? of(new VersionRange(modified, until)) : empty();
+                    } else if (committed && nonNull(modified)) {
+                        until = modified;
+                    }
+                    committed = false;
+                }
+                line = reader.readLine();
+            }
+        } catch (final IOException | UncheckedIOException ex) {
+            LOGGER.warn("Could not read journal at {}: {}", file, ex.getMessage());
+        }
+        return empty();
+    }
+
+    /**
+     * Find the closed version at a given time in a single forward pass over the lines of an archive, whose
+     * transactions are in time order, stopping at the first committed transaction after that time
+     */
+    private static Optional<VersionRange> closedVersion(final Iterator<String> lines, final Instant time) {
+        Instant from = null;
+        Boolean fromCommitted = false;
+        Instant current = null;
+        Boolean committed = false;
+        while (lines.hasNext()) {
+            final String line = lines.next();
+            if (line.startsWith(TX_COMMIT)) {
+                committed = true;
+            } else if (line.startsWith(MODIFIED_HEADER)) {
+                if (nonNull(current) && !time.isBefore(current.truncatedTo(MILLIS))) {
+                    from = current;
+                    fromCommitted = committed;
+                } else if (nonNull(current) && committed) {
+                    return fromCommitted ? of(new VersionRange(from, current)) : empty();
+                }
+                current = modifiedToInstant(line);
+                committed = false;
+            }
+        }
+        if (nonNull(current) && time.isBefore(current.truncatedTo(MILLIS)) && committed && fromCommitted) {
+            return of(new VersionRange(from, current));
+        }
+        return empty();
+    }
+
+    /**
+     * Find the archive that holds the older history of a journal
+     * @param journal the journal
+     * @return the archive file, if the journal has been archived
+     */
+    static Optional<File> archive(final File journal) {
+        return archiveHeader(journal).map(RDFPatch::archiveFile);
+    }
+
+    /**
+     * Find the number of bytes of the archive that hold the older history of a journal
+     *
+     * <p>Later archive runs append to the archive, so anything beyond this length is not part of the history
+     * that the journal refers to. Journals archived before the length was recorded refer to the whole file.</p>
+     *
+     * @param journal the journal
+     * @return the length of the archive, if the journal has been archived
+     */
+    static Optional<Long> archiveLength(final File journal) {
+        return archiveHeader(journal).map(header -> {
+            final String[] parts = header.split("\"");
+            return parts.length > 3 ? Long.parseLong(parts[3]) : archiveFile(header).length();
+        });
+    }
+
+    /**
+     * Find the time from which an archived journal holds the complete history of its resource
+     * @param journal the journal
+     * @return the time of the earliest version held by the journal, if the journal has been archived
+     */
+    static Optional<Instant> archivedUntil(final File journal) {
+        return archiveHeader(journal).map(header -> parse(header.split("\"")[1]));
+    }
+
+    /**
+     * Read the lines of an archived journal
+     * @param archive the archive file
+     * @param length the number of bytes of the archive to read
+     * @return the lines of the archive, read as the stream is consumed; the stream must be closed
+     */
+    static Stream<String> readArchive(final File archive, final long length) {
+        LOGGER.debug("Reading archived Journal at {}", archive);
+        try {
+            final FileInputStream input = new FileInputStream(archive);
+            final BufferedReader reader;
+            try {
+                // Each archive run appends a gzip member, and the stream reads them in turn
+                reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                                new BoundedInputStream(input, length)), UTF_8));
+            } catch (final IOException ex) {
+                input.close();
+                throw ex;
+            }
+            return reader.lines().onClose(() -> {
+                try {
+                    reader.close();
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        } catch (final IOException ex) {
+            LOGGER.error("Could not read archived journal at {}: {}", archive, ex.getMessage());
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Collect the lines of the transactions of an archive up to a given time, whose transactions are in time order
+     */
+    private static List<String> readUntil(final Iterator<String> lines, final Instant time) {
+        final List<String> journal = new ArrayList<>();
+        while (lines.hasNext()) {
+            final String line = lines.next();
+            if (line.startsWith(MODIFIED_HEADER) && ofNullable(modifiedToInstant(line))
+                    .filter(modified -> time.isBefore(modified.truncatedTo(MILLIS))).isPresent()) {
+                break;
+            }
+            journal.add(line);
+        }
+        return journal;
+    }
+
+    /**
+     * Write the headers that begin an archived journal
+     * @param writer the writer
+     * @param archive the archive file
+     * @param length the number of bytes of the archive that hold the history
+     * @param until the time from which the journal holds the complete history
+     * @param versions the versions that begin before that time
+     * @throws IOException if the headers could not be written
+     */
+    static void writeArchiveHeaders(final Writer writer, final File archive, final long length, final Instant until,
+            final List<VersionRange> versions) throws IOException {
+        writer.write(ARCHIVE_HEADER + "<" + archive.toURI() + "> " + timestamp(until) + " \"" + length + "\"^^" +
+                XSD.long_ + " ." + lineSeparator());
+        for (final VersionRange version : versions) {
+            writer.write(ARCHIVED_HEADER + timestamp(version.getFrom()) + " " + timestamp(version.getUntil()) +
+                    " ." + lineSeparator());
+        }
+    }
+
+    /**
+     * Test whether a line of a journal is one of the headers written by {@link #writeArchiveHeaders}
+     * @param line the line
+     * @return true if the line is an archive header
+     */
+    static Boolean isArchiveHeader(final String line) {
+        return line.startsWith(ARCHIVE_HEADER) || line.startsWith(ARCHIVED_HEADER);
+    }
+
+    private static Optional<File> archive(final File journal, final Instant time) {
+        return archivedUntil(journal).filter(until -> time.isBefore(until.truncatedTo(MILLIS)))
+            .flatMap(until -> archive(journal));
+    }
+
+    private static File archiveFile(final String header) {
+        return new File(URI.create(header.substring(header.indexOf('<') + 1, header.indexOf('>'))));
+    }
+
+    private static Optional<String> archiveHeader(final File journal) {
+        if (journal.isFile()) {
+            try (final BufferedReader reader = newBufferedReader(journal.toPath(), UTF_8)) {
+                return ofNullable(reader.readLine()).filter(line -> line.startsWith(ARCHIVE_HEADER));
+            } catch (final IOException ex) {
+                LOGGER.warn("Could not read journal at {}: {}", journal, ex.getMessage());
+            }
+        }
+        return empty();
+    }
+
+    private static String timestamp(final Instant time) {
+        return "\"" + time.truncatedTo(MILLIS) + "\"^^" + XSD.dateTimeStamp;
+    }
+
     /**
      * Write RDF Patch statements to the specified file
      * @param file the file
@@ -117,38 +415,98 @@ final class RDFPatch {
     public static Boolean write(final File file, final Stream<? extends Quad> delete, final Stream<? extends Quad> add,
             final Instant time) {
         LOGGER.debug("Writing Journal at {}", file.getPath());
+        final long before = file.length();
+        final CapturingWriter transaction;
         try (final BufferedWriter writer = newBufferedWriter(file.toPath(), UTF_8, CREATE, APPEND)) {
-            writer.write(MODIFIED_HEADER + "\"" + time.truncatedTo(MILLIS) + "\"^^" + XSD.dateTimeStamp + " ." +
-                    lineSeparator());
-            writer.write(TX + lineSeparator());
-            final Iterator<String> delIter = delete.map(quadToString).iterator();
-            while (delIter.hasNext()) {
-                writer.write(DELETE + delIter.next() + lineSeparator());
-            }
-            final Iterator<String> addIter = add.map(quadToString).iterator();
-            while (addIter.hasNext()) {
-                writer.write(ADD + addIter.next() + lineSeparator());
-            }
-            writer.write(TX_COMMIT + lineSeparator());
+            transaction = new CapturingWriter(writer, tails.getJournalCapacity());
+            write(transaction, delete, add, time);
         } catch (final IOException ex) {
             LOGGER.error("Error writing data to resource {}: {}", file, ex.getMessage());
+            tails.append(file, before, null);
             return false;
         }
+        tails.append(file, before, transaction.getText());
         return true;
     }
 
+    /**
+     * Write RDF Patch statements, as a single transaction, to a writer
+     * @param writer the writer
+     * @param delete the quads to delete
+     * @param add the quads to add
+     * @param time the time
+     * @throws IOException if the statements could not be written
+     */
+    static void write(final Writer writer, final Stream<? extends Quad> delete, final Stream<? extends Quad> add,
+            final Instant time) throws IOException {
+        writer.write(MODIFIED_HEADER + timestamp(time) + " ." + lineSeparator());
+        writer.write(TX + lineSeparator());
+        final Iterator<String> delIter = delete.map(quadToString).iterator();
+        while (delIter.hasNext()) {
+            writer.write(DELETE + delIter.next() + lineSeparator());
+        }
+        final Iterator<String> addIter = add.map(quadToString).iterator();
+        while (addIter.hasNext()) {
+            writer.write(ADD + addIter.next() + lineSeparator());
+        }
+        writer.write(TX_COMMIT + lineSeparator());
+    }
+
+    /**
+     * Find the binaries of a resource in its journal
+     * @param rdf the RDF object
+     * @param identifier the identifier
+     * @param journal the lines of the journal
+     * @return the identifiers of the binaries
+     */
+    static List<IRI> binaries(final RDF rdf, final IRI identifier, final Stream<String> journal) {
+        return journal.flatMap(line -> {
+            final String[] parts = line.split(" ", 6);
+            if (parts.length == 6 && parts[0].equals("A") &&
+                    parts[1].equals(identifier.toString()) &&
+                    parts[2].equals(DC.hasPart.toString()) &&
+                    parts[4].equals(Trellis.PreferServerManaged.toString())) {
+                return Stream.of(parts[3]);
+            }
+            return Stream.empty();
+        }).map(iri -> iri.substring(1, iri.length() - 1)).map(rdf::createIRI).collect(toList());
+    }
+
     public static final Function<Quad, String> quadToString = quad ->
         join(" ",
                 quad.getSubject().ntriplesString(), quad.getPredicate().ntriplesString(),
                 quad.getObject().ntriplesString(),
                 quad.getGraphName().orElse(Trellis.PreferUserManaged).ntriplesString(), ".");
 
+    /**
+     * Test whether a quad, serialized as a line of N-Quads, belongs to the containment graph
+     * @param line the line
+     * @return true if the quad is a containment triple; false otherwise
+     */
+    public static Boolean isContainmentQuad(final String line) {
+        return line.endsWith(CONTAINMENT_SUFFIX);
+    }
+
+    /**
+     * Find the time of a transaction from the header line that begins it
+     * @param line a line of a journal
+     * @return the time, if the line is a "modified" header
+     */
+    static Optional<Instant> headerTime(final String line) {
+        return line.startsWith(MODIFIED_HEADER) ? ofNullable(modifiedToInstant(line)) : empty();
+    }
+
     /**
      * Convert a "modified" header field into an Instant
      * @param line the line
      * @return the instant
      */
-    private static Instant modifiedToInstant(final String line) {
+    static Instant modifiedToInstant(final String line) {
+        final Instant instant = parseTimestamp(line, MODIFIED_HEADER.length() + 1);
+        if (nonNull(instant)) {
+            return instant;
+        }
+        LOGGER.trace("Parsing a non-standard modification header: {}", line);
         final Tokenizer tokenizer = makeTokenizerString(line);
         try {
             tokenizer.next(); // H
@@ -165,6 +523,78 @@ final class RDFPatch {
         return null;
     }
 
+    /**
+     * Parse a quoted UTC timestamp, in the form written by {@link #write}, at a fixed position in a header line
+     *
+     * <p>This accepts only {@code yyyy-MM-ddTHH:mm:ssZ} and {@code yyyy-MM-ddTHH:mm:ss.SSSZ}, followed by a
+     * closing quote; anything else is left to the general-purpose tokenizer.</p>
+     *
+     * @param line the header line
+     * @param start the position of the first character of the timestamp
+     * @return the instant or null if the timestamp is not in the expected form
+     */
+    private static Instant parseTimestamp(final String line, final int start) {
+        if (!line.startsWith(MODIFIED_HEADER) || line.length() < start + TIMESTAMP_LENGTH + 1 ||
+                line.charAt(start - 1) != '"' || line.charAt(start + 4) != '-' || line.charAt(start + 7) != '-' ||
+                line.charAt(start + 10) != 'T' || line.charAt(start + 13) != ':' || line.charAt(start + 16) != ':') {
+            return null;
+        }
+        final int year = digits(line, start, 4);
+        final int month = digits(line, start + 5, 2);
+        final int day = digits(line, start + 8, 2);
+        final int hour = digits(line, start + 11, 2);
+        final int minute = digits(line, start + 14, 2);
+        final int second = digits(line, start + 17, 2);
+        int millis = 0;
+        int end = start + 19;
+        if (line.charAt(end) == '.') {
+            if (line.length() < end + 6) {
+                return null;
+            }
+            millis = digits(line, end + 1, 3);
+            end += 4;
+        }
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0 ||
+                hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0 ||
+                line.charAt(end) != 'Z' || line.charAt(end + 1) != '"') {
+            return null;
+        }
+        return Instant.ofEpochSecond(epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600L + minute * 60L +
+                second, millis * 1000000L);
+    }
+
+    private static int digits(final String line, final int start, final int length) {
+        int value = 0;
+        for (int i = start; i < start + length; ++i) {
+            final char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static int daysInMonth(final int year, final int month) {
+        if (month == 2) {
+            return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        }
+        return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+    }
+
+    /**
+     * Count the days since 1970-01-01 for a date in the proleptic Gregorian calendar
+     */
+    private static long epochDay(final int year, final int month, final int day) {
+        // Count years from March so that the leap day falls at the end of each year
+        final long y = month <= 2 ? year - 1 : year;
+        final long era = y / 400;
+        final long yearOfEra = y - era * 400;
+        final long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
     /**
      * A class for reading an RDF Patch file into a VersionRange Iterator
      */
@@ -180,13 +610,40 @@ final class RDFPatch {
          * @param file the file
          */
         public TimeMapReader(final File file) {
+            this(lines(file));
+        }
+
+        /**
+         * Create a time map reader
+         * @param lines the lines of the journal
+         */
+        public TimeMapReader(final Stream<String> lines) {
+            lineStream = lines;
+            allLines = lineStream.iterator();
+            tryAdvance();
+        }
+
+        private static Stream<String> lines(final File file) {
+            final Optional<JournalTails.Snapshot> tail = tails.get(file);
             try {
-                lineStream = lines(file.toPath());
+                if (!tail.isPresent()) {
+                    return Files.lines(file.toPath());
+                } else if (tail.get().getStart() == 0L) {
+                    return tail.get().getLines().stream();
+                }
+                // Only the part of the journal that precedes the tail is read from disk
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(new BoundedInputStream(
+                                new FileInputStream(file), tail.get().getStart()), UTF_8));
+                return concat(reader.lines(), tail.get().getLines().stream()).onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (final IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
             } catch (final IOException ex) {
                 throw new UncheckedIOException(ex);
             }
-            allLines = lineStream.iterator();
-            tryAdvance();
         }
 
         @Override
@@ -219,7 +676,11 @@ final class RDFPatch {
             Instant time = null;
             while (allLines.hasNext()) {
                 final String line = allLines.next();
-                if (line.startsWith(MODIFIED_HEADER)) {
+                if (line.startsWith(ARCHIVED_HEADER)) {
+                    final String[] parts = line.split("\"");
+                    buffer = new VersionRange(parse(parts[1]), parse(parts[3]));
+                    return;
+                } else if (line.startsWith(MODIFIED_HEADER)) {
                     time = modifiedToInstant(line);
                     hasUserTriples = false;
                 } else if (isUserTripleQuad(line)) {
@@ -239,20 +700,228 @@ final class RDFPatch {
         }
     }
 
+    /**
+     * A source of journal lines, read from the last to the first
+     */
+    interface ReverseLineReader extends Closeable {
+
+        /**
+         * Read the previous line
+         * @return the line, or null if there are no more lines
+         * @throws IOException if the line could not be read
+         */
+        String readLine() throws IOException;
+
+        /**
+         * Read the lines of a file in reverse, starting with any tail of the file that is held in memory
+         * @param file the file
+         * @return the reader
+         */
+        static ReverseLineReader of(final File file) {
+            final Optional<JournalTails.Snapshot> tail = tails.get(file);
+            if (tail.isPresent()) {
+                LOGGER.trace("Reading the tail of {} from memory", file);
+                final ReverseLineReader memory = of(tail.get().getLines());
+                if (tail.get().getStart() == 0L) {
+                    return memory;
+                }
+                final ReverseLineReader disk = new BoundedReverseLineReader(file, tail.get().getStart());
+                return new ReverseLineReader() {
+                    @Override
+                    public String readLine() throws IOException {
+                        final String line = memory.readLine();
+                        return nonNull(line) ? line : disk.readLine();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        disk.close();
+                    }
+                };
+            }
+            final ReversedLinesFileReader reader;
+            try {
+                reader = new ReversedLinesFileReader(file, UTF_8);
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return new ReverseLineReader() {
+                @Override
+                public String readLine() throws IOException {
+                    return reader.readLine();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        }
+
+        /**
+         * Read lines held in memory in reverse
+         * @param lines the lines
+         * @return the reader
+         */
+        static ReverseLineReader of(final List<String> lines) {
+            final ListIterator<String> iterator = lines.listIterator(lines.size());
+            return new ReverseLineReader() {
+                @Override
+                public String readLine() {
+                    return iterator.hasPrevious() ? iterator.previous() : null;
+                }
+
+                @Override
+                public void close() {
+                    // nothing to release
+                }
+            };
+        }
+    }
+
+    /**
+     * A reader of the lines of the first part of a file, from the last to the first
+     */
+    static final class BoundedReverseLineReader implements ReverseLineReader {
+        private static final int BLOCK_SIZE = 8192;
+
+        private final FileChannel channel;
+        private long position;
+        private byte[] pending = new byte[0];
+        private int cursor = 0;
+        private Boolean finished;
+
+        /**
+         * Create a reader
+         * @param file the file
+         * @param length the number of bytes at the start of the file to read
+         */
+        BoundedReverseLineReader(final File file, final long length) {
+            try {
+                channel = FileChannel.open(file.toPath(), READ);
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            position = length;
+            finished = length == 0L;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            if (position > 0L && cursor == 0 && pending.length == 0) {
+                load();
+                // The final line terminator does not begin another line
+                if (cursor > 0 && pending[cursor - 1] == '\n') {
+                    cursor -= 1;
+                }
+            }
+            while (!finished) {
+                for (int i = cursor - 1; i >= 0; --i) {
+                    if (pending[i] == '\n') {
+                        final String line = decode(i + 1, cursor);
+                        cursor = i;
+                        return line;
+                    }
+                }
+                if (position == 0L) {
+                    finished = true;
+                    return decode(0, cursor);
+                }
+                load();
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void load() throws IOException {
+            final int size = (int) min(BLOCK_SIZE, position);
+            final byte[] block = new byte[size + cursor];
+            final ByteBuffer buffer = ByteBuffer.wrap(block, 0, size);
+            position -= size;
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            System.arraycopy(pending, 0, block, size, cursor);
+            pending = block;
+            cursor = block.length;
+        }
+
+        private String decode(final int from, final int to) {
+            final int end = to > from && pending[to - 1] == '\r' ? to - 1 : to;
+            return new String(pending, from, end - from, UTF_8);
+        }
+    }
+
+    /**
+     * A Writer that keeps a copy of what it writes, up to a limit
+     */
+    private static final class CapturingWriter extends Writer {
+        private final Writer writer;
+        private final long limit;
+        private StringBuilder text = new StringBuilder();
+
+        CapturingWriter(final Writer writer, final long limit) {
+            this.writer = writer;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(final char[] buffer, final int offset, final int length) throws IOException {
+            writer.write(buffer, offset, length);
+            if (nonNull(text)) {
+                text = text.length() + length > limit ? null : text.append(buffer, offset, length);
+            }
+        }
+
+        @Override
+        public void write(final String str, final int offset, final int length) throws IOException {
+            writer.write(str, offset, length);
+            if (nonNull(text)) {
+                text = text.length() + length > limit ? null : text.append(str, offset, offset + length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the underlying writer is closed by its owner
+        }
+
+        /**
+         * Get the text that was written
+         * @return the text, or null if it exceeded the limit
+         */
+        String getText() {
+            return isNull(text) ? null : text.toString();
+        }
+    }
+
     /**
      * A class for reading an RDFPatch file into a Quad Iterator.
      */
     static class StreamReader implements Iterator<Quad>, AutoCloseable {
 
-        private final Set<Quad> deleted = new HashSet<>();
+        // Deleted quads are only ever compared with later lines, so they are held as fingerprints
+        private final QuadFingerprints deleted = new QuadFingerprints();
 
-        private final Set<Quad> patchDeleted = new HashSet<>();
+        private final QuadFingerprints patchDeleted = new QuadFingerprints();
         private final Set<Quad> patchAdded = new HashSet<>();
 
-        private final ReversedLinesFileReader reader;
+        private final ReverseLineReader reader;
         private final Instant time;
         private final RDF rdf;
         private final IRI identifier;
+        private final Boolean containment;
 
         private Boolean hasModified = false;
         private Boolean hasModificationQuads = false;
@@ -273,11 +942,38 @@ final class RDFPatch {
          * @param time the time
          */
         public StreamReader(final RDF rdf, final File file, final IRI identifier, final Instant time) {
+            this(rdf, file, identifier, time, true);
+        }
+
+        /**
+         * Create an iterator that reads a file line-by-line in reverse
+         * @param rdf the RDF object
+         * @param file the file
+         * @param identifier the identifier
+         * @param time the time
+         * @param containment whether to include containment triples
+         */
+        public StreamReader(final RDF rdf, final File file, final IRI identifier, final Instant time,
+                final Boolean containment) {
+            this(rdf, ReverseLineReader.of(file), identifier, time, containment);
+        }
+
+        /**
+         * Create an iterator that reads lines in reverse
+         * @param rdf the RDF object
+         * @param reader the reader
+         * @param identifier the identifier
+         * @param time the time
+         * @param containment whether to include containment triples
+         */
+        StreamReader(final RDF rdf, final ReverseLineReader reader, final IRI identifier, final Instant time,
+                final Boolean containment) {
             this.rdf = rdf;
             this.time = time;
             this.identifier = identifier;
+            this.containment = containment;
+            this.reader = reader;
             try {
-                this.reader = new ReversedLinesFileReader(file, UTF_8);
                 this.line = reader.readLine();
             } catch (final IOException ex) {
                 throw new UncheckedIOException(ex);
@@ -339,9 +1035,17 @@ final class RDFPatch {
                     // reset
                     patchDeleted.clear();
                     patchAdded.clear();
-                } else if (isDataLine(line)) {
-                    final String[] parts = line.split(" ", 2);
-                    stringToQuad(rdf, parts[1]).ifPresent(quadHandler(parts[0]));
+                } else if (isDataLine(line) && !containment && isContainmentQuad(line)) {
+                    // Skipped containment triples still count as modifications to a container
+                    hasContainerModificationQuads = true;
+                } else if (line.startsWith(DELETE)) {
+                    flagModification(line);
+                    patchDeleted.add(line, DELETE.length());
+                } else if (line.startsWith(ADD) && deleted.contains(line, ADD.length())) {
+                    // A quad that is later deleted need not be parsed
+                    flagModification(line);
+                } else if (line.startsWith(ADD)) {
+                    stringToQuad(rdf, line.substring(ADD.length())).ifPresent(quadHandler);
                 }
                 try {
                     line = reader.readLine();
@@ -358,24 +1062,26 @@ final class RDFPatch {
             }
         }
 
-        private Consumer<Quad> quadHandler(final String prefix) {
-            return quad -> {
-                if (quad.getGraphName().equals(of(LDP.PreferContainment)) ||
-                        quad.getGraphName().equals(of(LDP.PreferMembership))) {
-                    hasContainerModificationQuads = true;
-                } else {
-                    hasModificationQuads = true;
-                }
-                if (prefix.equals("D")) {
-                    patchDeleted.add(quad);
-                } else if (prefix.equals("A") && !deleted.contains(quad)) {
-                    if (quad.getGraphName().filter(Trellis.PreferServerManaged::equals).isPresent() &&
-                            quad.getPredicate().equals(type)) {
-                        interactionModel = (IRI) quad.getObject();
-                    }
-                    patchAdded.add(quad);
-                }
-            };
+        private final Consumer<Quad> quadHandler = quad -> {
+            if (quad.getGraphName().equals(of(LDP.PreferContainment)) ||
+                    quad.getGraphName().equals(of(LDP.PreferMembership))) {
+                hasContainerModificationQuads = true;
+            } else {
+                hasModificationQuads = true;
+            }
+            if (quad.getGraphName().filter(Trellis.PreferServerManaged::equals).isPresent() &&
+                    quad.getPredicate().equals(type)) {
+                interactionModel = (IRI) quad.getObject();
+            }
+            patchAdded.add(quad);
+        };
+
+        private void flagModification(final String line) {
+            if (isContainmentQuad(line) || line.endsWith(MEMBERSHIP_SUFFIX)) {
+                hasContainerModificationQuads = true;
+            } else {
+                hasModificationQuads = true;
+            }
         }
 
         private Boolean shouldSetModificationForContainers() {
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.lineSeparator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.isNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * The serialized N-Quads of a cached resource, as ranges of bytes in the cache file.
+ *
+ * <p>Because the cache already holds N-Quads, the ranges can be copied to a client with
+ * {@link FileChannel#transferTo}, which avoids parsing and re-serializing each quad and, on most
+ * platforms, copying the bytes through the heap at all. The cache file is held open until this
+ * object is closed, so a cache that is replaced in the meantime does not affect the export.</p>
+ *
+ * <p>Containment triples from a child index are not in the cache file; when they are selected,
+ * they are serialized after the ranges and the total length is not known in advance.</p>
+ *
+ * @author acoburn
+ */
+public final class RawQuads implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * A contiguous range of bytes in the cache file
+     */
+    public static final class Range {
+        private final long offset;
+        private final long length;
+
+        /**
+         * Create a range
+         * @param offset the offset, in bytes
+         * @param length the length, in bytes
+         */
+        public Range(final long offset, final long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Get the offset of the range
+         * @return the byte offset
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get the length of the range
+         * @return the length in bytes
+         */
+        public long getLength() {
+            return length;
+        }
+    }
+
+    private final FileChannel channel;
+    private final List<Range> ranges;
+    private final Supplier<Stream<String>> trailer;
+
+    /**
+     * Create a raw N-Quads export
+     * @param channel the open cache file
+     * @param ranges the ranges of the file to export, in order
+     * @param trailer a supplier of serialized quads to follow the ranges, or null if there are none
+     */
+    public RawQuads(final FileChannel channel, final List<Range> ranges, final Supplier<Stream<String>> trailer) {
+        this.channel = channel;
+        this.ranges = unmodifiableList(new ArrayList<>(ranges));
+        this.trailer = trailer;
+    }
+
+    /**
+     * Get the open cache file, for callers that copy the ranges themselves
+     * @return the file channel
+     */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Get the ranges of the cache file that hold the selected quads
+     * @return the ranges, in order
+     */
+    public List<Range> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Get the length of the export
+     * @return the length, in bytes, or -1 if serialized containment triples follow the ranges
+     */
+    public long getLength() {
+        if (!isNull(trailer)) {
+            return -1L;
+        }
+        return ranges.stream().mapToLong(Range::getLength).sum();
+    }
+
+    /**
+     * Copy the N-Quads to a channel, which should be in blocking mode
+     * @param target the target channel
+     * @return the number of bytes written
+     * @throws IOException if the quads could not be read or written
+     */
+    public long transferTo(final WritableByteChannel target) throws IOException {
+        long written = 0L;
+        for (final Range range : ranges) {
+            long position = range.getOffset();
+            final long end = range.getOffset() + range.getLength();
+            while (position < end) {
+                final long count = channel.transferTo(position, end - position, target);
+                if (count <= 0L && position >= channel.size()) {
+                    throw new IOException("The cache file ends before the end of its range at " + end);
+                }
+                position += count;
+                written += count;
+            }
+        }
+        if (!isNull(trailer)) {
+            written += writeTrailer(target);
+        }
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long writeTrailer(final WritableByteChannel target) throws IOException {
+        long written = 0L;
+        try (final Stream<String> lines = trailer.get()) {
+            final StringBuilder builder = new StringBuilder();
+            final Iterator<String> iter = lines.iterator();
+            while (iter.hasNext()) {
+                builder.append(iter.next()).append(lineSeparator());
+                if (builder.length() >= BUFFER_SIZE || !iter.hasNext()) {
+                    written += write(target, ByteBuffer.wrap(builder.toString().getBytes(UTF_8)));
+                    builder.setLength(0);
+                }
+            }
+        }
+        return written;
+    }
+
+    private static long write(final WritableByteChannel target, final ByteBuffer buffer) throws IOException {
+        final long length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
+import static java.util.Objects.isNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * The framing of the records in pack files and partition logs.
+ *
+ * <p>Each record is a header line of the form {@code <kind> <identifier> <length> [<count>]}, followed by
+ * {@code <length>} bytes of data.</p>
+ *
+ * @author acoburn
+ */
+final class Records {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The header of a record
+     */
+    static final class Header {
+        final char kind;
+        final String identifier;
+        final long length;
+        final long count;
+        final int size;
+
+        private Header(final char kind, final String identifier, final long length, final long count,
+                final int size) {
+            this.kind = kind;
+            this.identifier = identifier;
+            this.length = length;
+            this.count = count;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A visitor of the records in a file
+     */
+    @FunctionalInterface
+    interface Visitor {
+
+        /**
+         * Visit a record
+         * @param header the header of the record
+         * @param position the position of the record in the file
+         * @throws IOException if the record could not be handled
+         */
+        void visit(Header header, long position) throws IOException;
+    }
+
+    /**
+     * Visit each complete record in a file
+     * @param file the file
+     * @param from the position of the first record
+     * @param size the size of the file
+     * @param visitor the visitor
+     * @return the position after the last complete record, which is less than the size of the file if a record
+     *         is still being written, or was torn by a crash
+     * @throws IOException if the file could not be read
+     */
+    static long scan(final File file, final long from, final long size, final Visitor visitor) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            channel.position(from);
+            final InputStream input = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+            long position = from;
+            while (position < size) {
+                final Header header = read(input, size - position);
+                if (isNull(header)) {
+                    break;
+                }
+                visitor.visit(header, position);
+                skip(input, header.length);
+                position += header.size + header.length;
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Encode a record
+     * @param kind the kind of record
+     * @param identifier the identifier of the resource
+     * @param data the data
+     * @param count an additional count, or a negative value if there is none
+     * @return the bytes of the record
+     */
+    static byte[] encode(final char kind, final String identifier, final byte[] data, final long count) {
+        final byte[] header = (kind + " " + identifier + " " + data.length + (count < 0 ? "" : " " + count) + "\n")
+            .getBytes(UTF_8);
+        final byte[] record = new byte[header.length + data.length];
+        System.arraycopy(header, 0, record, 0, header.length);
+        System.arraycopy(data, 0, record, header.length, data.length);
+        return record;
+    }
+
+    /**
+     * Split journal data into lines
+     * @param journal the journal data
+     * @return the lines
+     */
+    static List<String> lines(final byte[] journal) {
+        final String text = new String(journal, UTF_8);
+        return text.isEmpty() ? emptyList() : unmodifiableList(asList(text.split("\\r?\\n")));
+    }
+
+    private static Header read(final InputStream input, final long available) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (long i = 0; i < available; ++i) {
+            final int b = input.read();
+            if (b < 0) {
+                return null;
+            } else if (b == '\n') {
+                final String[] parts = new String(bytes.toByteArray(), UTF_8).split(" ");
+                if (parts.length < 3 || parts[0].length() != 1) {
+                    return null;
+                }
+                try {
+                    final long length = Long.parseLong(parts[2]);
+                    final int size = bytes.size() + 1;
+                    // A record that is still being written, or that was torn by a crash, is incomplete
+                    if (length < 0L || size + length > available) {
+                        return null;
+                    }
+                    return new Header(parts[0].charAt(0), parts[1], length,
+                            parts.length > 3 ? Long.parseLong(parts[3]) : -1L, size);
+                } catch (final NumberFormatException ex) {
+                    return null;
+                }
+            }
+            bytes.write(b);
+        }
+        return null;
+    }
+
+    private static void skip(final InputStream input, final long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            final long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of record");
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private Records() {
+        // prevent instantiation
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.lineSeparator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.lines;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.isNull;
+import static java.util.stream.Stream.empty;
+import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.apache.commons.io.FileUtils.forceDelete;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.trellisldp.rosid.file.CachedResource.MAPPER;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_MEMENTOS;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
+import static org.trellisldp.rosid.file.FileUtils.stringToQuad;
+import static org.trellisldp.rosid.file.FileUtils.tempFile;
+import static org.trellisldp.rosid.file.RDFPatch.quadToString;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.slf4j.Logger;
+import org.trellisldp.api.Resource;
+import org.trellisldp.api.VersionRange;
+import org.trellisldp.rosid.common.ResourceData;
+
+/**
+ * An object that mediates access to persisted snapshots of historical resource versions.
+ *
+ * <p>Once a later transaction exists in the journal, the state of a resource between two transactions
+ * can never change. Such a closed version is materialized, on first request, as a pair of files in the
+ * {@code mementos} directory, named for the time at which the version begins, and subsequent requests
+ * are served from those files rather than by replaying the journal.</p>
+ *
+ * @author acoburn
+ */
+public class SnapshotResource extends AbstractFileResource {
+
+    private static final Logger LOGGER = getLogger(SnapshotResource.class);
+
+    private static final String JSON_EXTENSION = ".json";
+    private static final String NQUADS_EXTENSION = ".nq";
+
+    private final File quads;
+
+    /**
+     * Create a File-based snapshot reader
+     * @param directory the data storage directory
+     * @param identifier the resource identifier
+     * @param data the resource data
+     * @param quads the file holding the quads for this snapshot
+     */
+    protected SnapshotResource(final File directory, final IRI identifier, final ResourceData data,
+            final File quads) {
+        super(directory, identifier, data);
+        this.quads = quads;
+        LOGGER.debug("Fetching a Snapshot Resource for {}", identifier.getIRIString());
+    }
+
+    /**
+     * Find the resource at a particular point in time, materializing a snapshot if the version is closed
+     * @param directory the directory
+     * @param identifier the identifier
+     * @param time the time
+     * @return the resource, if the version at the given time is closed and its snapshot could be read
+     */
+    public static Optional<Resource> find(final File directory, final IRI identifier, final Instant time) {
+        return find(directory, identifier, time, true);
+    }
+
+    /**
+     * Find the resource at a particular point in time, from a snapshot
+     * @param directory the directory
+     * @param identifier the identifier
+     * @param time the time
+     * @param materialize whether to write the snapshot, if the version is closed and has none yet
+     * @return the resource, if the version at the given time is closed and its snapshot could be read
+     */
+    static Optional<Resource> find(final File directory, final IRI identifier, final Instant time,
+            final Boolean materialize) {
+        if (isNull(directory)) {
+            return Optional.empty();
+        }
+        final File journal = new File(directory, RESOURCE_JOURNAL);
+        if (!journal.exists()) {
+            return Optional.empty();
+        }
+        return RDFPatch.closedVersion(journal, time).map(VersionRange::getFrom).flatMap(from -> {
+            final File json = snapshotFile(directory, from, JSON_EXTENSION);
+            // Versions in the archive tier are read from there, rather than copied back alongside the journal
+            if (!json.exists() && (!materialize || isArchived(journal, from) || !write(directory, identifier, from))) {
+                return Optional.empty();
+            }
+            return read(directory, from).map(data ->
+                    new SnapshotResource(directory, identifier, data, snapshotFile(directory, from, NQUADS_EXTENSION)));
+        });
+    }
+
+    /**
+     * Read the resource data of a snapshot
+     * @param directory the directory
+     * @param from the time at which the version begins
+     * @return the resource data, if present
+     */
+    public static Optional<ResourceData> read(final File directory, final Instant from) {
+        final File json = snapshotFile(directory, from, JSON_EXTENSION);
+        if (!json.exists()) {
+            return Optional.empty();
+        }
+        try {
+            LOGGER.debug("Parsing JSON snapshot metadata");
+            final ResourceData data = MAPPER.readValue(json, ResourceData.class);
+            // The list of mementos grows with the resource, so it is taken from the current cache when available
+            CachedResource.read(directory).map(ResourceData::getGeneratedAtTime).ifPresent(data::setGeneratedAtTime);
+            return Optional.of(data);
+        } catch (final IOException ex) {
+            LOGGER.warn("Error reading snapshot resource: {}", ex.getMessage());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Write a snapshot of the resource version that begins at a given time
+     * @param directory the directory
+     * @param identifier the resource identifier
+     * @param from the time at which the version begins
+     * @return true if the write operation succeeds
+     */
+    public static Boolean write(final File directory, final IRI identifier, final Instant from) {
+        final Optional<ResourceData> data = VersionedResource.read(directory, identifier, from);
+        if (!data.isPresent()) {
+            LOGGER.error("No resource data to snapshot for {} at {}", identifier.getIRIString(), from);
+            return false;
+        }
+
+        final File snapshots = new File(directory, RESOURCE_MEMENTOS);
+        snapshots.mkdirs();
+        LOGGER.debug("Writing snapshot for {} at {}", identifier, from);
+        final File nquadSource = tempFile(snapshots, from.toEpochMilli() + NQUADS_EXTENSION);
+        final File jsonSource = tempFile(snapshots, from.toEpochMilli() + JSON_EXTENSION);
+        try {
+            try (final BufferedWriter writer = newBufferedWriter(nquadSource.toPath(), UTF_8, CREATE, WRITE,
+                        TRUNCATE_EXISTING); final Stream<? extends Quad> stream =
+                        new VersionedResource(directory, identifier, data.get(), from).stream()) {
+                final Iterator<String> lineIter = stream.map(quadToString).iterator();
+                while (lineIter.hasNext()) {
+                    writer.write(lineIter.next() + lineSeparator());
+                }
+            }
+            MAPPER.writeValue(jsonSource, data.get());
+            // The metadata is moved into place last, since its presence marks a complete snapshot
+            moveIntoPlace(nquadSource, snapshotFile(directory, from, NQUADS_EXTENSION));
+            moveIntoPlace(jsonSource, snapshotFile(directory, from, JSON_EXTENSION));
+        } catch (final IOException ex) {
+            LOGGER.error("Error writing snapshot for {}: {}", identifier.getIRIString(), ex.getMessage());
+            deleteQuietly(nquadSource);
+            deleteQuietly(jsonSource);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Delete all of the snapshots for a resource
+     * @param directory the directory
+     * @throws IOException if the snapshots could not be deleted
+     */
+    public static void delete(final File directory) throws IOException {
+        final File snapshots = new File(directory, RESOURCE_MEMENTOS);
+        if (snapshots.exists()) {
+            forceDelete(snapshots);
+        }
+    }
+
+    @Override
+    public Boolean isMemento() {
+        return true;
+    }
+
+    @Override
+    public Stream<Quad> stream() {
+        LOGGER.trace("Streaming snapshot quads for {}", identifier);
+        if (quads.exists()) {
+            try {
+                // TODO -- JDK9 shortcut Optional::stream and flatMap
+                return lines(quads.toPath()).map(line -> stringToQuad(rdf, line)).filter(Optional::isPresent)
+                    .map(Optional::get);
+            } catch (final IOException ex) {
+                LOGGER.warn("Could not read file at {}: {}", quads, ex.getMessage());
+            }
+        }
+        return empty();
+    }
+
+    private static Boolean isArchived(final File journal, final Instant from) {
+        return RDFPatch.archivedUntil(journal).filter(from::isBefore).isPresent();
+    }
+
+    private static File snapshotFile(final File directory, final Instant from, final String extension) {
+        return new File(new File(directory, RESOURCE_MEMENTOS), from.toEpochMilli() + extension);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Instant.now;
+import static java.util.Optional.of;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.Dataset;
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.apache.commons.rdf.api.RDFTerm;
+import org.apache.commons.rdf.api.Triple;
+import org.trellisldp.api.Resource;
+import org.trellisldp.api.ResourceService;
+import org.trellisldp.rosid.file.WorkloadTrace.Event;
+import org.trellisldp.rosid.file.WorkloadTrace.Operation;
+import org.trellisldp.vocabulary.RDF;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * A resource service that records each call to another resource service in a {@link WorkloadTrace}.
+ *
+ * <p>Only the shape of each call is recorded: its time, duration, partition, the hash of its identifier and
+ * the amount of data that it wrote. A recorded trace can be replayed against a fresh data directory, so that
+ * a change to the storage layer is measured with a realistic workload.</p>
+ *
+ * <p>A call that throws an exception is recorded before the exception is rethrown. Each duration covers only
+ * the delegated call and not the lazy streams that it returns (see {@link WorkloadTrace}).</p>
+ *
+ * @author acoburn
+ */
+public class TracingResourceService implements ResourceService {
+
+    private static final String NONE = "-";
+
+    private final ResourceService service;
+    private final WorkloadTrace trace;
+
+    /**
+     * Create a tracing resource service
+     * @param service the resource service to trace
+     * @param trace the trace in which calls are recorded
+     */
+    public TracingResourceService(final ResourceService service, final WorkloadTrace trace) {
+        this.service = service;
+        this.trace = trace;
+    }
+
+    @Override
+    public Optional<Resource> get(final IRI identifier) {
+        final long offset = trace.offset();
+        final long start = nanoTime();
+        final Optional<Resource> resource = call(() -> service.get(identifier), offset, start, Operation.GET,
+                identifier);
+        // The quads of the resource are streamed later, so the duration excludes them
+        record(offset, start, Operation.GET, identifier, 0L, 0L, resource.isPresent() ? "hit" : "miss");
+        return resource;
+    }
+
+    @Override
+    public Optional<Resource> get(final IRI identifier, final Instant time) {
+        final long offset = trace.offset();
+        final long start = nanoTime();
+        final Optional<Resource> resource = call(() -> service.get(identifier, time), offset, start,
+                Operation.MEMENTO, identifier);
+        record(offset, start, Operation.MEMENTO, identifier, 0L, 0L,
+                Long.toString(Math.max(0L, now().toEpochMilli() - time.toEpochMilli())));
+        return resource;
+    }
+
+    @Override
+    public Boolean put(final IRI identifier, final Dataset dataset) {
+        final long offset = trace.offset();
+        final long start = nanoTime();
+        final Boolean status;
+        try {
+            status = service.put(identifier, dataset);
+        } catch (final RuntimeException ex) {
+            recordPut(offset, start, nanoTime(), identifier, dataset, WorkloadTrace.FAILED);
+            throw ex;
+        }
+        final long end = nanoTime();
+        recordPut(offset, start, end, identifier, dataset, dataset.stream(of(Trellis.PreferServerManaged), null,
+                    RDF.type, null).map(Quad::getObject).filter(IRI.class::isInstance).map(IRI.class::cast)
+                .map(IRI::getIRIString).findFirst().orElse(NONE));
+        return status;
+    }
+
+    @Override
+    public Optional<IRI> getContainer(final IRI identifier) {
+        return service.getContainer(identifier);
+    }
+
+    @Override
+    public Stream<IRI> compact(final IRI identifier, final Instant from, final Instant until) {
+        return service.compact(identifier, from, until);
+    }
+
+    @Override
+    public Stream<IRI> purge(final IRI identifier) {
+        final long offset = trace.offset();
+        final long start = nanoTime();
+        final Stream<IRI> binaries = call(() -> service.purge(identifier), offset, start, Operation.PURGE,
+                identifier);
+        record(offset, start, Operation.PURGE, identifier, 0L, 0L, NONE);
+        return binaries;
+    }
+
+    @Override
+    public Stream<? extends Triple> scan(final String partition) {
+        final long offset = trace.offset();
+        final long start = nanoTime();
+        final Stream<? extends Triple> triples;
+        try {
+            triples = service.scan(partition);
+        } catch (final RuntimeException ex) {
+            trace.record(new Event(offset, Operation.SCAN, partition, NONE,
+                        NANOSECONDS.toMicros(nanoTime() - start), 0L, 0L, WorkloadTrace.FAILED));
+            throw ex;
+        }
+        // A scan is lazy, so its duration only covers the start of the scan
+        trace.record(new Event(offset, Operation.SCAN, partition, NONE, NANOSECONDS.toMicros(nanoTime() - start),
+                    0L, 0L, NONE));
+        return triples;
+    }
+
+    @Override
+    public RDFTerm skolemize(final RDFTerm term) {
+        return service.skolemize(term);
+    }
+
+    @Override
+    public RDFTerm unskolemize(final RDFTerm term) {
+        return service.unskolemize(term);
+    }
+
+    @Override
+    public <T extends RDFTerm> T toInternal(final T term, final String baseUrl) {
+        return service.toInternal(term, baseUrl);
+    }
+
+    @Override
+    public <T extends RDFTerm> T toExternal(final T term, final String baseUrl) {
+        return service.toExternal(term, baseUrl);
+    }
+
+    @Override
+    public Stream<? extends Quad> export(final String partition, final Collection<IRI> graphNames) {
+        return service.export(partition, graphNames);
+    }
+
+    @Override
+    public Supplier<String> getIdentifierSupplier() {
+        return service.getIdentifierSupplier();
+    }
+
+    private <T> T call(final Supplier<T> call, final long offset, final long start, final Operation operation,
+            final IRI identifier) {
+        try {
+            return call.get();
+        } catch (final RuntimeException ex) {
+            record(offset, start, operation, identifier, 0L, 0L, WorkloadTrace.FAILED);
+            throw ex;
+        }
+    }
+
+    private void recordPut(final long offset, final long start, final long end, final IRI identifier,
+            final Dataset dataset, final String detail) {
+        // The size of the data is measured after the call, so that it is not counted in the duration
+        final long bytes = dataset.stream().mapToLong(quad -> quad.toString().getBytes(UTF_8).length + 1L).sum();
+        trace.record(new Event(offset, Operation.PUT, partition(identifier), ChangeWatcher.key(
+                        identifier.getIRIString()), NANOSECONDS.toMicros(end - start), dataset.size(), bytes, detail));
+    }
+
+    private void record(final long offset, final long start, final Operation operation, final IRI identifier,
+            final long quads, final long bytes, final String detail) {
+        trace.record(new Event(offset, operation, partition(identifier), ChangeWatcher.key(identifier.getIRIString()),
+                    NANOSECONDS.toMicros(nanoTime() - start), quads, bytes, detail));
+    }
+
+    private static String partition(final IRI identifier) {
+        final String[] parts = identifier.getIRIString().split(":", 2);
+        return of(parts[parts.length - 1].split("/")[0]).filter(name -> !name.isEmpty()).orElse(NONE);
+    }
+}
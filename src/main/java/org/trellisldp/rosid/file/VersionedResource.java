@@ -16,6 +16,7 @@ package org.trellisldp.rosid.file;
 import static java.util.Arrays.asList;
 import static java.util.Collections.unmodifiableSet;
 import static java.util.Optional.of;
+import static java.util.stream.Stream.concat;
 import static org.slf4j.LoggerFactory.getLogger;
 import static org.trellisldp.api.RDFUtils.toDataset;
 import static org.trellisldp.rosid.common.ResourceData.from;
@@ -24,18 +25,23 @@ import static org.trellisldp.rosid.file.RDFPatch.asStream;
 import static org.trellisldp.rosid.file.RDFPatch.asTimeMap;
 
 import java.io.File;
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import org.apache.commons.rdf.api.Dataset;
 import org.apache.commons.rdf.api.IRI;
 import org.apache.commons.rdf.api.Quad;
+import org.apache.commons.rdf.api.Triple;
 import org.slf4j.Logger;
 
 import org.trellisldp.api.Resource;
@@ -82,10 +88,19 @@ public class VersionedResource extends AbstractFileResource {
         quad.getGraphName().filter(Trellis.PreferUserManaged::equals).isPresent() &&
         specialUserProperties.contains(quad.getPredicate()));
 
-    private final Instant time;
+    private static Consumer<Quad> collectChildren(final List<IRI> children) {
+        return quad -> {
+            if (quad.getGraphName().filter(LDP.PreferContainment::equals).isPresent() &&
+                    quad.getObject() instanceof IRI) {
+                children.add((IRI) quad.getObject());
+            }
+        };
+    }
+
+    protected final Instant time;
 
     /**
-     * Write a stream of added/deleted quads to a resource
+     * Write a stream of added/deleted quads to a resource, updating the child index, if one exists
      * @param directory the directory
      * @param delete the quads to delete
      * @param add the quads to add
@@ -94,7 +109,29 @@ public class VersionedResource extends AbstractFileResource {
      */
     public static Boolean write(final File directory, final Stream<? extends Quad> delete,
             final Stream<? extends Quad> add, final Instant time) {
-        return RDFPatch.write(new File(directory, RESOURCE_JOURNAL), delete, add, time);
+        final List<IRI> removed = new ArrayList<>();
+        final List<IRI> added = new ArrayList<>();
+        if (RDFPatch.write(new File(directory, RESOURCE_JOURNAL), delete.peek(collectChildren(removed)),
+                    add.peek(collectChildren(added)), time)) {
+            return removed.isEmpty() && added.isEmpty() || updateChildIndex(directory, removed, added);
+        }
+        return false;
+    }
+
+    private static Boolean updateChildIndex(final File directory, final List<IRI> removed, final List<IRI> added) {
+        if (ChildIndex.update(directory, removed, added) || !ChildIndex.exists(directory)) {
+            return true;
+        }
+        // An index that missed a change no longer matches the journal. Without the index, and the cache that
+        // relies on it, the resource is read from the journal until its cache is next written.
+        try {
+            ChildIndex.delete(directory);
+            CachedResource.delete(directory);
+            return true;
+        } catch (final IOException ex) {
+            LOGGER.error("Error removing the child index in {}: {}", directory, ex.getMessage());
+        }
+        return false;
     }
 
     /**
@@ -139,21 +176,36 @@ public class VersionedResource extends AbstractFileResource {
      */
     public static Optional<ResourceData> read(final File directory, final IRI identifier, final Instant time) {
         LOGGER.debug("Reading journal to generate the resource data");
-        return of(new File(directory, RESOURCE_JOURNAL)).filter(File::exists).flatMap(file -> {
-            final List<Instant> mementos = new ArrayList<>();
-            final List<VersionRange> ranges = asTimeMap(file);
-            ranges.stream().map(VersionRange::getFrom).findFirst().ifPresent(mementos::add);
-            ranges.stream().map(VersionRange::getUntil).forEachOrdered(mementos::add);
-
-            try (final Stream<Quad> stream = asStream(rdf, file, identifier, time)) {
-                try (final Dataset dataset = stream.filter(isResourceTriple).collect(toDataset())) {
-                    LOGGER.debug("Creating resource: {} at {}", identifier, time);
-                    return from(identifier, dataset, mementos);
-                } catch (final Exception ex) {
-                    throw new RuntimeRepositoryException("Error processing dataset", ex);
-                }
+        return of(new File(directory, RESOURCE_JOURNAL)).filter(File::exists).flatMap(file ->
+                read(asTimeMap(file), () -> asStream(rdf, file, identifier, time, false), identifier, time));
+    }
+
+    /**
+     * Read the state of the resource data at a particular point in time from a journal held in memory
+     * @param journal the lines of the journal
+     * @param identifier the identifier
+     * @param time the time
+     * @return the resource data, if it exists
+     */
+    static Optional<ResourceData> read(final List<String> journal, final IRI identifier, final Instant time) {
+        LOGGER.debug("Reading in-memory journal to generate the resource data");
+        return read(asTimeMap(journal), () -> asStream(rdf, journal, identifier, time, false), identifier, time);
+    }
+
+    private static Optional<ResourceData> read(final List<VersionRange> ranges, final Supplier<Stream<Quad>> quads,
+            final IRI identifier, final Instant time) {
+        final List<Instant> mementos = new ArrayList<>();
+        ranges.stream().map(VersionRange::getFrom).findFirst().ifPresent(mementos::add);
+        ranges.stream().map(VersionRange::getUntil).forEachOrdered(mementos::add);
+
+        try (final Stream<Quad> stream = quads.get()) {
+            try (final Dataset dataset = stream.filter(isResourceTriple).collect(toDataset())) {
+                LOGGER.debug("Creating resource: {} at {}", identifier, time);
+                return from(identifier, dataset, mementos);
+            } catch (final Exception ex) {
+                throw new RuntimeRepositoryException("Error processing dataset", ex);
             }
-        });
+        }
     }
 
     /**
@@ -178,8 +230,34 @@ public class VersionedResource extends AbstractFileResource {
     @Override
     public Stream<Quad> stream() {
         LOGGER.debug("Streaming versioned resource data");
-        return of(new File(directory, RESOURCE_JOURNAL)).filter(File::exists)
-            .map(file -> asStream(rdf, file, identifier, time)).orElseGet(Stream::empty)
+        return stream(true);
+    }
+
+    @Override
+    public Stream<? extends Triple> stream(final Collection<IRI> graphNames) {
+        LOGGER.debug("Streaming versioned resource data for {}", graphNames);
+        // Containment triples need not even be parsed unless they are requested
+        return stream(graphNames.contains(LDP.PreferContainment))
+            .filter(quad -> quad.getGraphName().filter(graphNames::contains).isPresent()).map(Quad::asTriple);
+    }
+
+    private Stream<Quad> stream(final Boolean containment) {
+        // The child index reflects the state of the resource at any time since it was last changed
+        final Boolean indexed = containment && ChildIndex.modified(directory)
+            .filter(modified -> !time.isBefore(modified)).isPresent();
+        final Stream<Quad> quads = readJournal(containment && !indexed);
+        return (indexed ? concat(quads, ChildIndex.stream(rdf, directory).map(child ->
+                        rdf.createQuad(LDP.PreferContainment, identifier, LDP.contains, child))) : quads)
             .filter(filterContainmentMembership(getInteractionModel()));
     }
+
+    /**
+     * Read the quads of the journal as of the time of this version
+     * @param containment whether to include containment triples
+     * @return the quads
+     */
+    protected Stream<Quad> readJournal(final Boolean containment) {
+        return of(new File(directory, RESOURCE_JOURNAL)).filter(File::exists)
+            .map(file -> asStream(rdf, file, identifier, time, containment)).orElseGet(Stream::empty);
+    }
 }
@@ -0,0 +1,323 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.String.join;
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.lines;
+import static java.nio.file.Files.newBufferedWriter;
+import static java.util.Objects.isNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+
+/**
+ * A trace of the calls made to a resource service, as recorded by a {@link TracingResourceService}.
+ *
+ * <p>Each call is a line of tab-separated fields: the offset of the call from the start of the trace, in
+ * microseconds; the operation; the partition; the MD5 hash of the identifier (see {@link ChangeWatcher#key});
+ * the duration of the call, in microseconds; the number of quads and the size of the quads, in bytes, that
+ * were written; and a detail that depends on the operation. Identifiers and data are never recorded.</p>
+ *
+ * <p>The duration covers only the call itself. A read returns a resource whose quads are streamed lazily, so
+ * its duration covers finding the resource and its metadata, but not consuming its quads; likewise, the
+ * duration of a scan covers only the start of the scan. A call that throws an exception is recorded with
+ * the detail {@value #FAILED}, and its duration covers the time until it failed.</p>
+ *
+ * <p>Events are written by a background thread, so recording never blocks a caller on I/O. If the writer
+ * falls behind, events are dropped rather than delaying the caller, and counted (see {@link #getDropped}).</p>
+ *
+ * @author acoburn
+ */
+public final class WorkloadTrace implements Closeable {
+
+    private static final Logger LOGGER = getLogger(WorkloadTrace.class);
+
+    private static final String HEADER = "# trellis-rosid workload trace v1";
+
+    private static final String SEPARATOR = "\t";
+
+    private static final long POLL_INTERVAL = 100L;
+
+    /**
+     * The detail of a call that threw an exception
+     */
+    public static final String FAILED = "error";
+
+    /**
+     * The default number of events that may wait for the writer
+     */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    /**
+     * The traced operations
+     */
+    public enum Operation {
+        /** A read of the current state of a resource; the detail is "hit" or "miss" */
+        GET,
+        /** A read of a past state of a resource; the detail is the age of that state, in milliseconds */
+        MEMENTO,
+        /** A write of a resource; the detail is the interaction model, if one was written */
+        PUT,
+        /** A purge of a resource */
+        PURGE,
+        /** A scan of a partition */
+        SCAN
+    }
+
+    /**
+     * A traced call
+     */
+    public static final class Event {
+        private final long offset;
+        private final Operation operation;
+        private final String partition;
+        private final String key;
+        private final long duration;
+        private final long quads;
+        private final long bytes;
+        private final String detail;
+
+        /**
+         * Create an event
+         * @param offset the offset of the call from the start of the trace, in microseconds
+         * @param operation the operation
+         * @param partition the partition
+         * @param key the hash of the identifier
+         * @param duration the duration of the call, in microseconds
+         * @param quads the number of quads written
+         * @param bytes the size of the quads written, in bytes
+         * @param detail a detail that depends on the operation
+         */
+        public Event(final long offset, final Operation operation, final String partition, final String key,
+                final long duration, final long quads, final long bytes, final String detail) {
+            this.offset = offset;
+            this.operation = operation;
+            this.partition = partition;
+            this.key = key;
+            this.duration = duration;
+            this.quads = quads;
+            this.bytes = bytes;
+            this.detail = detail;
+        }
+
+        /**
+         * Get the offset of the call from the start of the trace
+         * @return the offset, in microseconds
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Get the operation
+         * @return the operation
+         */
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Get the partition
+         * @return the partition
+         */
+        public String getPartition() {
+            return partition;
+        }
+
+        /**
+         * Get the hash of the identifier
+         * @return the key
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the duration of the call
+         * @return the duration, in microseconds
+         */
+        public long getDuration() {
+            return duration;
+        }
+
+        /**
+         * Get the number of quads written
+         * @return the number of quads
+         */
+        public long getQuads() {
+            return quads;
+        }
+
+        /**
+         * Get the size of the quads written
+         * @return the size, in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Get the detail of the call
+         * @return the detail
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        /**
+         * Check whether the call threw an exception
+         * @return true if the call failed
+         */
+        public boolean isFailed() {
+            return FAILED.equals(detail);
+        }
+
+        @Override
+        public String toString() {
+            return join(SEPARATOR, Long.toString(offset), operation.name(), partition, key, Long.toString(duration),
+                    Long.toString(quads), Long.toString(bytes), detail);
+        }
+
+        /**
+         * Parse an event
+         * @param line a line of a trace
+         * @return the event
+         * @throws IllegalArgumentException if the line is not an event
+         */
+        public static Event parse(final String line) {
+            final String[] fields = line.split(SEPARATOR, -1);
+            if (fields.length != 8) {
+                throw new IllegalArgumentException("Invalid trace event: " + line);
+            }
+            return new Event(Long.parseLong(fields[0]), Operation.valueOf(fields[1]), fields[2], fields[3],
+                    Long.parseLong(fields[4]), Long.parseLong(fields[5]), Long.parseLong(fields[6]), fields[7]);
+        }
+    }
+
+    private final BlockingQueue<Event> queue;
+    private final BufferedWriter writer;
+    private final Thread thread;
+    private final long start = nanoTime();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Boolean running = true;
+
+    /**
+     * Start a trace
+     * @param file the file to which the trace is written
+     * @param capacity the number of events that may wait for the writer
+     * @throws IOException if the file could not be written
+     */
+    public WorkloadTrace(final File file, final int capacity) throws IOException {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = newBufferedWriter(file.toPath(), UTF_8);
+        writer.write(HEADER);
+        writer.newLine();
+        this.thread = new Thread(this::write, "trellis-rosid-trace");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the offset of the current time from the start of the trace
+     * @return the offset, in microseconds
+     */
+    public long offset() {
+        return NANOSECONDS.toMicros(nanoTime() - start);
+    }
+
+    /**
+     * Record an event, without waiting for it to be written
+     * @param event the event
+     */
+    public void record(final Event event) {
+        if (!queue.offer(event)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the number of events that were dropped because the writer fell behind
+     * @return the number of dropped events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Read the events of a trace
+     * @param file the trace file
+     * @return the events, in the order in which the calls finished
+     * @throws IOException if the file could not be read
+     */
+    public static Stream<Event> read(final File file) throws IOException {
+        return lines(file.toPath(), UTF_8).filter(line -> !line.isEmpty() && !line.startsWith("#"))
+            .map(Event::parse);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            thread.join();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+        if (dropped.get() > 0L) {
+            LOGGER.warn("{} events were dropped from the workload trace", dropped.get());
+        }
+    }
+
+    private void write() {
+        final List<Event> events = new ArrayList<>();
+        try {
+            while (running || !queue.isEmpty()) {
+                final Event event = queue.poll(POLL_INTERVAL, MILLISECONDS);
+                if (isNull(event)) {
+                    writer.flush();
+                    continue;
+                }
+                events.add(event);
+                queue.drainTo(events);
+                for (final Event e : events) {
+                    writer.write(e.toString());
+                    writer.newLine();
+                }
+                events.clear();
+            }
+            writer.flush();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException ex) {
+            LOGGER.error("Error writing the workload trace: {}", ex.getMessage());
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
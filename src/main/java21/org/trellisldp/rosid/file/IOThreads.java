@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.util.concurrent.Executors.newThreadPerTaskExecutor;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+
+/**
+ * The threads on which an {@link IOExecutor} runs its tasks.
+ *
+ * <p>This is the Java 21 implementation from the multi-release jar: each task runs on its own virtual
+ * thread, so a task that blocks on a journal or cache file releases its carrier thread instead of pinning a
+ * platform thread. The {@link IOExecutor} still bounds the number of tasks in flight.</p>
+ *
+ * @author acoburn
+ */
+final class IOThreads {
+
+    /**
+     * Whether tasks run on virtual threads
+     * @return true if each task runs on its own virtual thread
+     */
+    static boolean isVirtual() {
+        return true;
+    }
+
+    /**
+     * Create an executor for blocking I/O
+     * @param prefix the prefix of the thread names
+     * @param threads the number of threads, which virtual threads do not need
+     * @param queueCapacity the maximum number of tasks that may wait for a thread, which virtual threads do not need
+     * @param handler the handler for rejected tasks, which a thread-per-task executor does not use
+     * @return the executor
+     */
+    static ExecutorService newExecutor(final String prefix, final int threads, final int queueCapacity,
+            final RejectedExecutionHandler handler) {
+        return newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 1L).factory());
+    }
+
+    private IOThreads() {
+        // prevent instantiation
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.copyOf;
+import static java.util.Collections.emptyMap;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.write;
+import static org.apache.commons.io.FileUtils.writeByteArrayToFile;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.rosid.common.ResourceData;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class CacheFileTest {
+
+    private File directory;
+    private File file;
+    private ResourceData data;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = new File(new File(getClass().getResource("/").toURI()), "cacheFile");
+        directory.mkdirs();
+        file = new File(directory, RESOURCE_COMBINED_CACHE);
+        data = CachedResource.read(new File(getClass().getResource("/ldpc").toURI())).get();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        final Map<String, GraphOffsets.Section> sections = new LinkedHashMap<>();
+        sections.put("<trellis:graph1>", new GraphOffsets.Section(0L, 10L));
+        sections.put("<trellis:graph2>", new GraphOffsets.Section(10L, 5L));
+        final byte[] header = CacheFile.header(data, new GraphOffsets(sections));
+        writeByteArrayToFile(file, header);
+        write(file, "012345678\nabcd\n", UTF_8, true);
+
+        final CacheFile cache = CacheFile.read(file).get();
+        assertEquals(header.length, cache.getStart());
+        assertEquals(data.getId(), cache.getData().getId());
+        assertEquals(data.getLdpType(), cache.getData().getLdpType());
+        // The offsets are relative to the start of the file
+        assertEquals(header.length, cache.getOffsets().getSections().get("<trellis:graph1>").getOffset());
+        assertEquals(header.length + 10L, cache.getOffsets().getSections().get("<trellis:graph2>").getOffset());
+        assertEquals(15L, cache.getOffsets().getLength());
+    }
+
+    @Test
+    public void testNoQuads() throws IOException {
+        writeByteArrayToFile(file, CacheFile.header(data, new GraphOffsets(emptyMap())));
+        final CacheFile cache = CacheFile.read(file).get();
+        assertEquals(file.length(), cache.getStart());
+        assertTrue(cache.getOffsets().getSections().isEmpty());
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        assertThrows(NoSuchFileException.class, () -> CacheFile.read(file));
+
+        final Map<String, GraphOffsets.Section> sections = new LinkedHashMap<>();
+        sections.put("<trellis:graph>", new GraphOffsets.Section(0L, 10L));
+        final byte[] header = CacheFile.header(data, new GraphOffsets(sections));
+
+        // Quads that do not match the offset table
+        writeByteArrayToFile(file, header);
+        write(file, "0123\n", UTF_8, true);
+        assertFalse(CacheFile.read(file).isPresent());
+
+        // A truncated header
+        writeByteArrayToFile(file, copyOf(header, header.length - 5));
+        assertFalse(CacheFile.read(file).isPresent());
+
+        // Other formats and versions
+        write(file, "{\"id\": \"trellis:repository/ldpc\"}\n", UTF_8);
+        assertFalse(CacheFile.read(file).isPresent());
+        write(file, "trellis-rosid-cache 2 3 0\n{}\n", UTF_8);
+        assertFalse(CacheFile.read(file).isPresent());
+        write(file, "trellis-rosid-cache 1 x 0\n{}\n", UTF_8);
+        assertFalse(CacheFile.read(file).isPresent());
+        write(file, "", UTF_8);
+        assertFalse(CacheFile.read(file).isPresent());
+    }
+}
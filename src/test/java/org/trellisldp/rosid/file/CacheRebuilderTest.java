@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.readFileToString;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.FileUtils.partition;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class CacheRebuilderTest {
+
+    private File partition;
+    private File checkpoint;
+    private File ldpc;
+    private File ldprs;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        final File base = new File(getClass().getResource("/").toURI());
+        partition = new File(base, "rebuild");
+        checkpoint = new File(base, "rebuild.checkpoint");
+        ldpc = new File(partition, partition("trellis:repository/ldpc"));
+        ldprs = new File(partition, partition("trellis:repository/ldprs"));
+        copyJournal("ldpc", ldpc);
+        copyJournal("ldprs", ldprs);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+        checkpoint.delete();
+    }
+
+    @Test
+    public void testRebuild() throws IOException {
+        // An outdated cache is replaced, whether or not it is older than the journal
+        write(new File(ldpc, RESOURCE_CACHE), "{\"id\": \"trellis:repository/ldpc\"}", UTF_8);
+        final CacheRebuilder.Report report = new CacheRebuilder(2, 0L, 0L).rebuild(partition, null);
+        assertEquals(2L, report.getResources());
+        assertEquals(2L, report.getRebuilt());
+        assertEquals(0L, report.getResumed());
+        assertEquals(0L, report.getErrors());
+        assertEquals(new File(ldpc, RESOURCE_JOURNAL).length() + new File(ldprs, RESOURCE_JOURNAL).length(),
+                report.getBytes());
+        assertEquals("trellis:repository/ldpc", CachedResource.read(ldpc).get().getId());
+        assertTrue(CachedResource.read(ldpc).get().getGeneratedAtTime().size() > 0);
+        assertEquals("trellis:repository/ldprs", CachedResource.read(ldprs).get().getId());
+        assertTrue(new File(ldprs, RESOURCE_COMBINED_CACHE).exists());
+        // The outdated cache in the older format is removed along with it
+        assertFalse(new File(ldpc, RESOURCE_CACHE).exists());
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        final File broken = new File(partition, partition("trellis:repository/broken"));
+        broken.mkdirs();
+        write(new File(broken, RESOURCE_JOURNAL), "TX .\nTC .\n", UTF_8);
+        write(checkpoint, partition.toPath().relativize(ldpc.toPath()) + "\n", UTF_8);
+
+        final CacheRebuilder.Report report = new CacheRebuilder(1, 1000L, 1000000L).rebuild(partition, checkpoint);
+        assertEquals(3L, report.getResources());
+        assertEquals(1L, report.getRebuilt());
+        assertEquals(1L, report.getResumed());
+        assertEquals(1L, report.getErrors());
+        assertEquals(asList(broken), report.getFailures());
+        assertFalse(new File(ldpc, RESOURCE_COMBINED_CACHE).exists());
+        assertTrue(new File(ldprs, RESOURCE_COMBINED_CACHE).exists());
+        // The checkpoint is kept, so that only the failed resource is attempted again
+        assertTrue(readFileToString(checkpoint, UTF_8).contains(partition.toPath().relativize(ldprs.toPath())
+                    .toString()));
+
+        deleteDirectory(broken);
+        final CacheRebuilder.Report resumed = new CacheRebuilder(2, 0L, 0L).rebuild(partition, checkpoint);
+        assertEquals(2L, resumed.getResources());
+        assertEquals(2L, resumed.getResumed());
+        assertEquals(0L, resumed.getRebuilt() + resumed.getErrors());
+        assertFalse(checkpoint.exists());
+    }
+
+    @Test
+    public void testManifest() throws IOException {
+        final File manifest = new File(partition, "manifest.txt");
+        write(manifest, "# Resources to rebuild\n\ntrellis:repository/ldprs\ntrellis:repository/missing\n", UTF_8);
+        final CacheRebuilder.Report report = new CacheRebuilder(2, 0L, 0L).rebuild(partition, manifest, null);
+        assertEquals(1L, report.getResources());
+        assertEquals(1L, report.getRebuilt());
+        assertTrue(new File(ldprs, RESOURCE_COMBINED_CACHE).exists());
+        assertFalse(new File(ldpc, RESOURCE_COMBINED_CACHE).exists());
+
+        assertThrows(IOException.class, () -> new CacheRebuilder(1, 0L, 0L).rebuild(partition,
+                    new File(partition, "nonexistent.txt"), null));
+        assertThrows(IllegalArgumentException.class, () -> new CacheRebuilder(0, 0L, 0L));
+    }
+}
@@ -13,25 +13,50 @@
  */
 package org.trellisldp.rosid.file;
 
+import static java.nio.channels.Channels.newChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.time.Instant.now;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static java.util.stream.IntStream.range;
+import static org.apache.commons.io.FileUtils.copyDirectory;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.readFileToString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
 import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.trellisldp.api.Resource;
 import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
 import org.apache.commons.rdf.api.RDF;
+import org.apache.commons.rdf.api.Triple;
 import org.apache.commons.rdf.jena.JenaRDF;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.platform.runner.JUnitPlatform;
 import org.junit.runner.RunWith;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
 
 /**
  * @author acoburn
@@ -121,4 +146,139 @@ public class CachedResourceTest {
         assertEquals(0L, res.get().stream().count());
         quads.setReadable(true);
     }
+
+    @Test
+    public void testMemoizedViews() throws Exception {
+        final File ldpdc = new File(getClass().getResource("/ldpdc").toURI());
+        final Resource res = VersionedResource.find(ldpdc, rdf.createIRI("trellis:repository/ldpdc"), now()).get();
+        assertSame(res.getTypes(), res.getTypes());
+        assertSame(res.getMementos(), res.getMementos());
+        assertSame(res.getInteractionModel(), res.getInteractionModel());
+        assertSame(res.getInsertedContentRelation(), res.getInsertedContentRelation());
+        assertThrows(UnsupportedOperationException.class, () -> res.getTypes().clear());
+        assertThrows(UnsupportedOperationException.class, () -> res.getMementos().clear());
+    }
+
+    @Test
+    public void testMemoize() {
+        final AtomicInteger counter = new AtomicInteger();
+        final Supplier<Integer> supplier = AbstractFileResource.memoize(counter::incrementAndGet);
+        assertEquals(0, counter.get());
+        assertEquals((Integer) 1, supplier.get());
+        assertEquals((Integer) 1, supplier.get());
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        final File ldpc = new File(new File(getClass().getResource("/").toURI()), "publishedLdpc");
+        final IRI ldpcIri = rdf.createIRI("trellis:repository/ldpc");
+        try {
+            copyDirectory(new File(getClass().getResource("/ldpc").toURI()), ldpc);
+            final Resource res = CachedResource.find(ldpc, ldpcIri).get();
+            final TestSubscriber<Quad> unindexed = new TestSubscriber<>();
+            ((CachedResource) res).publish(Runnable::run).subscribe(unindexed);
+            unindexed.request(Long.MAX_VALUE);
+            assertTrue(unindexed.completed);
+            assertEquals(res.stream().collect(toList()), unindexed.items);
+
+            // Enough children to span several chunks of the child index
+            assertTrue(ChildIndex.write(ldpc, range(0, 600)
+                        .mapToObj(i -> rdf.createIRI(ldpcIri.getIRIString() + "/" + i))));
+            final List<Quad> quads = res.stream().collect(toList());
+            assertEquals(600L, quads.stream().filter(q -> LDP.contains.equals(q.getPredicate())).count());
+
+            final TestSubscriber<Quad> indexed = new TestSubscriber<>();
+            ((CachedResource) res).publish(Runnable::run).subscribe(indexed);
+            indexed.request(Long.MAX_VALUE);
+            assertEquals(quads, indexed.items);
+
+            final TestSubscriber<String> lines = new TestSubscriber<>();
+            ((CachedResource) res).publishLines(Runnable::run).subscribe(lines);
+            lines.request(Long.MAX_VALUE);
+            assertTrue(lines.completed);
+            assertEquals(quads.stream().map(RDFPatch.quadToString).collect(toList()), lines.items);
+        } finally {
+            deleteDirectory(ldpc);
+        }
+    }
+
+    @Test
+    public void testLegacyCache() throws Exception {
+        final File ldpc = new File(new File(getClass().getResource("/").toURI()), "legacyLdpc");
+        final IRI ldpcIri = rdf.createIRI("trellis:repository/ldpc");
+        try {
+            copyDirectory(new File(getClass().getResource("/ldpc").toURI()), ldpc);
+            // A cache with separate metadata and quads files is still read
+            assertEquals(new File(ldpc, RESOURCE_CACHE), CachedResource.cacheFile(ldpc));
+            final List<IRI> graphs = asList(Trellis.PreferUserManaged, LDP.PreferContainment);
+            final Resource legacy = CachedResource.find(ldpc, ldpcIri).get();
+            final Set<Triple> triples = legacy.stream(graphs).collect(toSet());
+            assertEquals(8, triples.size());
+            assertEquals(legacy.stream().count(), legacy.stream(Trellis.PreferUserManaged).count() +
+                    legacy.stream(LDP.PreferContainment).count());
+
+            // It is replaced by a single file when the resource is next cached
+            assertTrue(CachedResource.write(ldpc, ldpcIri));
+            assertEquals(new File(ldpc, RESOURCE_COMBINED_CACHE), CachedResource.cacheFile(ldpc));
+            assertFalse(new File(ldpc, RESOURCE_CACHE).exists());
+            assertFalse(new File(ldpc, RESOURCE_QUADS).exists());
+            final Resource res = CachedResource.find(ldpc, ldpcIri).get();
+            assertEquals(legacy.getInteractionModel(), res.getInteractionModel());
+            assertEquals(triples, res.stream(graphs).collect(toSet()));
+        } finally {
+            deleteDirectory(ldpc);
+        }
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        final File ldpc = new File(new File(getClass().getResource("/").toURI()), "exportedLdpc");
+        final IRI ldpcIri = rdf.createIRI("trellis:repository/ldpc");
+        try {
+            copyDirectory(new File(getClass().getResource("/ldpc").toURI()), ldpc);
+            final CachedResource legacy = (CachedResource) CachedResource.find(ldpc, ldpcIri).get();
+            // A cache without an offset table can only be exported whole
+            assertFalse(legacy.export(singleton(Trellis.PreferUserManaged)).isPresent());
+            try (final RawQuads raw = legacy.export().get()) {
+                assertEquals(new File(ldpc, RESOURCE_QUADS).length(), raw.getLength());
+                assertEquals(readFileToString(new File(ldpc, RESOURCE_QUADS), UTF_8), transfer(raw));
+            }
+
+            assertTrue(CachedResource.write(ldpc, ldpcIri));
+            final CachedResource res = (CachedResource) CachedResource.find(ldpc, ldpcIri).get();
+            final List<IRI> graphs = asList(Trellis.PreferUserManaged, LDP.PreferContainment, Trellis.PreferAudit);
+            try (final RawQuads raw = res.export(graphs).get()) {
+                assertEquals(res.stream(graphs).map(Triple.class::cast).collect(toList()), parse(transfer(raw)));
+            }
+
+            assertTrue(ChildIndex.write(ldpc, Stream.of(rdf.createIRI("trellis:repository/ldpc/child"))));
+            try (final RawQuads raw = res.export().get()) {
+                assertEquals(-1L, raw.getLength());
+                assertEquals(res.stream().collect(toSet()), quads(transfer(raw)));
+            }
+            try (final RawQuads raw = res.export(singleton(LDP.PreferContainment)).get()) {
+                assertEquals(singletonList(rdf.createTriple(ldpcIri, LDP.contains,
+                                rdf.createIRI("trellis:repository/ldpc/child"))), parse(transfer(raw)));
+            }
+        } finally {
+            deleteDirectory(ldpc);
+        }
+    }
+
+    private static String transfer(final RawQuads raw) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        raw.transferTo(newChannel(out));
+        return out.toString("UTF-8");
+    }
+
+    private static Set<Quad> quads(final String nquads) {
+        return Stream.of(nquads.split("\\R")).map(line -> FileUtils.stringToQuad(rdf, line))
+            .filter(Optional::isPresent).map(Optional::get).collect(toSet());
+    }
+
+    private static List<Triple> parse(final String nquads) {
+        return Stream.of(nquads.split("\\R")).map(line -> FileUtils.stringToQuad(rdf, line))
+            .filter(Optional::isPresent).map(Optional::get).map(Quad::asTriple).collect(toList());
+    }
 }
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.FileUtils.partition;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class ChangeWatcherTest {
+
+    private static final String RESOURCE_A = "trellis:repository/a";
+    private static final String RESOURCE_B = "trellis:repository/b";
+
+    private final BlockingQueue<ChangeWatcher.Invalidation> events = new LinkedBlockingQueue<>();
+
+    private File root;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        root = new File(new File(getClass().getResource("/").toURI()), "watched");
+        writeJournal(RESOURCE_A, "TX .\n");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(root);
+    }
+
+    @Test
+    public void testWatch() throws Exception {
+        try (final ChangeWatcher watcher = new ChangeWatcher(singletonMap("repository", root.getAbsolutePath()), 16,
+                    50L, false)) {
+            watcher.addListener(events::add);
+            watcher.start();
+            assertFalse(watcher.isPolling("repository"));
+
+            writeJournal(RESOURCE_A, "TC .\n");
+            assertTrue(awaitKey(ChangeWatcher.key(RESOURCE_A)));
+
+            // A resource in directories that did not yet exist
+            writeJournal(RESOURCE_B, "TX .\n");
+            assertTrue(awaitKey(ChangeWatcher.key(RESOURCE_B)));
+        }
+    }
+
+    @Test
+    public void testPolling() throws Exception {
+        writeJournal(RESOURCE_B, "TX .\n");
+        try (final ChangeWatcher watcher = new ChangeWatcher(singletonMap("repository", root.getAbsolutePath()), 16,
+                    20L, true)) {
+            watcher.addListener(events::add);
+            watcher.start();
+            assertTrue(watcher.isPolling("repository"));
+
+            final File journal = new File(new File(root, partition(RESOURCE_A)), RESOURCE_JOURNAL);
+            write(journal, "TC .\n", UTF_8, true);
+            journal.setLastModified(journal.lastModified() - 10000L);
+            assertTrue(awaitKey(ChangeWatcher.key(RESOURCE_A)));
+
+            deleteDirectory(new File(root, partition(RESOURCE_B)));
+            assertTrue(awaitKey(ChangeWatcher.key(RESOURCE_B)));
+        }
+    }
+
+    @Test
+    public void testOverflow() throws Exception {
+        try (final ChangeWatcher watcher = new ChangeWatcher(singletonMap("repository", root.getAbsolutePath()), 1,
+                    1000L, true)) {
+            watcher.addListener(events::add);
+            watcher.publish(new ChangeWatcher.Invalidation("repository", ChangeWatcher.key(RESOURCE_A)));
+            watcher.publish(new ChangeWatcher.Invalidation("repository", ChangeWatcher.key(RESOURCE_B)));
+            watcher.start();
+
+            final ChangeWatcher.Invalidation invalidation = events.poll(10L, SECONDS);
+            assertTrue(invalidation.isBroad());
+            assertFalse(invalidation.getKey().isPresent());
+            assertEquals("repository", invalidation.getPartition());
+            assertEquals("repository:*", invalidation.toString());
+            assertEquals(1L, watcher.getOverflowCount());
+        }
+    }
+
+    @Test
+    public void testKey() {
+        assertEquals(new File(partition(RESOURCE_A)).getName(), ChangeWatcher.key(RESOURCE_A));
+    }
+
+    private void writeJournal(final String identifier, final String data) throws IOException {
+        final File directory = new File(root, partition(identifier));
+        directory.mkdirs();
+        write(new File(directory, RESOURCE_JOURNAL), data, UTF_8, true);
+    }
+
+    private boolean awaitKey(final String key) throws InterruptedException {
+        final long deadline = currentTimeMillis() + SECONDS.toMillis(10L);
+        while (currentTimeMillis() < deadline) {
+            final ChangeWatcher.Invalidation invalidation = events.poll(100L, MILLISECONDS);
+            if (invalidation != null && invalidation.getKey().filter(key::equals).isPresent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.time.Instant.now;
+import static java.time.Instant.parse;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CHILDREN_LOG;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.api.Resource;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class ChildIndexTest {
+
+    private final IRI identifier = rdf.createIRI("trellis:repository/ldpc");
+
+    private File directory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = new File(new File(getClass().getResource("/").toURI()), "childIndex");
+        directory.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testNoIndex() {
+        assertFalse(ChildIndex.exists(directory));
+        assertFalse(ChildIndex.exists(null));
+        assertFalse(ChildIndex.modified(directory).isPresent());
+        assertFalse(ChildIndex.update(directory, emptyList(), singletonList(child(1))));
+        assertFalse(ChildIndex.exists(directory));
+        assertEquals(0L, ChildIndex.stream(rdf, directory).count());
+        assertFalse(ChildIndex.write(null, empty()));
+    }
+
+    @Test
+    public void testWriteAndUpdate() throws IOException {
+        assertTrue(ChildIndex.write(directory, of(child(3), child(1), child(2), child(1))));
+        assertTrue(ChildIndex.exists(directory));
+        assertTrue(ChildIndex.modified(directory).isPresent());
+        assertEquals(asList(child(1), child(2), child(3)), ChildIndex.stream(rdf, directory).collect(toList()));
+
+        assertTrue(ChildIndex.update(directory, singletonList(child(2)), asList(child(4), child(0))));
+        assertTrue(new File(directory, RESOURCE_CHILDREN_LOG).exists());
+        assertEquals(asList(child(0), child(1), child(3), child(4)),
+                ChildIndex.stream(rdf, directory).collect(toList()));
+
+        assertTrue(ChildIndex.update(directory, singletonList(child(4)), singletonList(child(2))));
+        assertEquals(asList(child(0), child(1), child(2), child(3)),
+                ChildIndex.stream(rdf, directory).collect(toList()));
+
+        ChildIndex.compact(directory);
+        assertFalse(new File(directory, RESOURCE_CHILDREN_LOG).exists());
+        assertEquals(asList(child(0), child(1), child(2), child(3)),
+                ChildIndex.stream(rdf, directory).collect(toList()));
+
+        ChildIndex.delete(directory);
+        assertFalse(ChildIndex.exists(directory));
+    }
+
+    @Test
+    public void testExhaustedIterator() {
+        final NavigableMap<String, Boolean> changes = new TreeMap<>();
+        changes.put(child(2).getIRIString(), true);
+        final Iterator<String> merged = new ChildIndex.MergingIterator(singletonList(child(1).getIRIString())
+                .iterator(), changes);
+        assertEquals(child(1).getIRIString(), merged.next());
+        assertEquals(child(2).getIRIString(), merged.next());
+        assertFalse(merged.hasNext());
+        assertThrows(NoSuchElementException.class, merged::next);
+    }
+
+    @Test
+    public void testPaging() {
+        assertTrue(ChildIndex.write(directory, range(0, 2000).mapToObj(this::child)));
+        assertEquals(range(1000, 1010).mapToObj(this::child).collect(toList()),
+                ChildIndex.stream(rdf, directory, child(999).getIRIString()).limit(10).collect(toList()));
+        assertEquals(range(0, 5).mapToObj(this::child).collect(toList()),
+                ChildIndex.stream(rdf, directory, "").limit(5).collect(toList()));
+        assertEquals(0L, ChildIndex.stream(rdf, directory, child(1999).getIRIString()).count());
+        assertEquals(1L, ChildIndex.stream(rdf, directory, child(1998).getIRIString()).count());
+
+        assertTrue(ChildIndex.update(directory, asList(child(1001), child(1002)), singletonList(child(5000))));
+        final List<IRI> page = ChildIndex.stream(rdf, directory, child(1000).getIRIString()).limit(3)
+            .collect(toList());
+        assertEquals(asList(child(1003), child(1004), child(1005)), page);
+        assertEquals(singletonList(child(5000)),
+                ChildIndex.stream(rdf, directory, child(1999).getIRIString()).collect(toList()));
+    }
+
+    @Test
+    public void testCompaction() {
+        assertTrue(ChildIndex.write(directory, empty()));
+        final int count = 2000;
+        range(0, count).forEach(i -> ChildIndex.update(directory, emptyList(), singletonList(child(i))));
+        assertTrue(new File(directory, RESOURCE_CHILDREN_LOG).length() < ChildIndex.LOG_THRESHOLD);
+        assertEquals(range(0, count).mapToObj(this::child).collect(toList()),
+                ChildIndex.stream(rdf, directory).collect(toList()));
+    }
+
+    @Test
+    public void testConcurrentCompaction() throws Exception {
+        assertTrue(ChildIndex.write(directory, empty()));
+        final int threads = 4;
+        final int count = 1500;
+        final ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            // Each thread's changes are logged while the others fold the log into the sorted index
+            final List<Future<?>> futures = range(0, threads).mapToObj(t -> executor.submit(() ->
+                        range(0, count).forEach(i -> assertTrue(ChildIndex.update(directory, emptyList(),
+                                    singletonList(child(t * count + i))))))).collect(toList());
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(range(0, threads * count).mapToObj(this::child).collect(toList()),
+                ChildIndex.stream(rdf, directory).collect(toList()));
+    }
+
+    @Test
+    public void testContainerCache() throws Exception {
+        copyJournal("ldpc", directory);
+
+        assertTrue(CachedResource.write(directory, identifier));
+        assertTrue(ChildIndex.exists(directory));
+        assertFalse(CacheFile.read(new File(directory, RESOURCE_COMBINED_CACHE)).get().getOffsets()
+                .get(LDP.PreferContainment).isPresent());
+        assertEquals(3L, CachedResource.find(directory, identifier).get().stream(LDP.PreferContainment).count());
+
+        final IRI newChild = rdf.createIRI("trellis:repository/ldpc/4");
+        assertTrue(VersionedResource.write(directory, empty(),
+                    of(rdf.createQuad(LDP.PreferContainment, identifier, LDP.contains, newChild)), now()));
+        final Resource cached = CachedResource.find(directory, identifier).get();
+        assertEquals(4L, cached.stream(LDP.PreferContainment).count());
+        assertTrue(cached.stream(LDP.PreferContainment).anyMatch(t -> t.getObject().equals(newChild)));
+        assertEquals(5L, cached.stream(Trellis.PreferUserManaged).count());
+
+        final Resource current = VersionedResource.find(directory, identifier, now()).get();
+        assertEquals(4L, current.stream(LDP.PreferContainment).count());
+        assertEquals(5L, current.stream(Trellis.PreferUserManaged).count());
+
+        final Resource past = VersionedResource.find(directory, identifier, parse("2017-02-16T11:15:02Z")).get();
+        assertEquals(2L, past.stream(LDP.PreferContainment).count());
+        assertEquals(parse("2017-02-16T11:15:02Z"), past.getModified());
+    }
+
+    @Test
+    public void testFailedUpdate() throws Exception {
+        copyJournal("ldpc", directory);
+        assertTrue(CachedResource.write(directory, identifier));
+
+        // A change log that cannot be appended to
+        assertTrue(new File(directory, RESOURCE_CHILDREN_LOG).mkdir());
+        assertTrue(VersionedResource.write(directory, empty(), of(rdf.createQuad(LDP.PreferContainment,
+                            identifier, LDP.contains, rdf.createIRI("trellis:repository/ldpc/4"))), now()));
+        // The index, and the cache that relies on it, are removed rather than left out of step with the journal
+        assertFalse(ChildIndex.exists(directory));
+        assertFalse(CachedResource.cacheFile(directory).exists());
+        assertEquals(4L, VersionedResource.find(directory, identifier, now()).get().stream(LDP.PreferContainment)
+                .count());
+
+        assertTrue(CachedResource.write(directory, identifier));
+        assertEquals(4L, CachedResource.find(directory, identifier).get().stream(LDP.PreferContainment).count());
+    }
+
+    @Test
+    public void testStaleIndex() throws Exception {
+        copyJournal("ldpc", directory);
+        assertTrue(CachedResource.write(directory, identifier));
+
+        // An index that missed changes, as when a process stops between the journal write and the index update
+        assertTrue(ChildIndex.write(directory, of(child(1))));
+        assertEquals(1L, CachedResource.find(directory, identifier).get().stream(LDP.PreferContainment).count());
+
+        // An ordinary cache write trusts the index, but a repair rebuilds it from the journal
+        assertTrue(CachedResource.write(directory, identifier));
+        assertEquals(1L, CachedResource.find(directory, identifier).get().stream(LDP.PreferContainment).count());
+        assertTrue(CacheRebuilder.rebuild(directory, identifier.getIRIString(), bytes -> { }));
+        assertEquals(3L, CachedResource.find(directory, identifier).get().stream(LDP.PreferContainment).count());
+        assertFalse(ChildIndex.stream(rdf, directory).anyMatch(child(1)::equals));
+    }
+
+    private IRI child(final int i) {
+        return rdf.createIRI(String.format("trellis:repository/ldpc/%05d", i));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.IntStream.range;
+import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.apache.commons.io.FileUtils.write;
+import static org.apache.commons.io.FileUtils.writeLines;
+import static org.apache.commons.lang3.StringUtils.repeat;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class ChunkedPublisherTest {
+
+    private static final Executor DIRECT = Runnable::run;
+
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        file = new File(new File(getClass().getResource("/").toURI()), "publisher.txt");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteQuietly(file);
+    }
+
+    @Test
+    public void testDemand() throws IOException {
+        final String longLine = repeat("x", 20000);
+        write(file, "one\ntwo\r\nthree\n\n" + longLine + "\nsix\nseven", UTF_8);
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.lines(file), DIRECT, 3).subscribe(subscriber);
+        assertTrue(subscriber.items.isEmpty());
+
+        subscriber.request(2L);
+        assertEquals(asList("one", "two"), subscriber.items);
+        assertFalse(subscriber.completed);
+
+        subscriber.request(3L);
+        assertEquals(asList("one", "two", "three", "", longLine), subscriber.items);
+        assertFalse(subscriber.completed);
+
+        subscriber.request(5L);
+        assertEquals(asList("one", "two", "three", "", longLine, "six", "seven"), subscriber.items);
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testMissingFile() {
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.lines(file), DIRECT, 3).subscribe(subscriber);
+        subscriber.request(1L);
+        assertTrue(subscriber.items.isEmpty());
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testReplacedFile() throws IOException {
+        write(file, "one\ntwo\nthree\n", UTF_8);
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.lines(file), DIRECT, 2).subscribe(subscriber);
+        subscriber.request(2L);
+        assertEquals(asList("one", "two"), subscriber.items);
+
+        write(file, "a different file\n", UTF_8);
+        subscriber.request(2L);
+        assertEquals(asList("one", "two"), subscriber.items);
+        assertTrue(subscriber.error instanceof IOException);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testCancel() throws IOException {
+        write(file, "one\ntwo\nthree\n", UTF_8);
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.lines(file), DIRECT, 2).subscribe(subscriber);
+        subscriber.request(1L);
+        subscriber.subscription.cancel();
+        subscriber.request(5L);
+        assertEquals(asList("one"), subscriber.items);
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testInvalidRequest() throws IOException {
+        write(file, "one\n", UTF_8);
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.lines(file), DIRECT, 2).subscribe(subscriber);
+        subscriber.request(0L);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(subscriber.items.isEmpty());
+    }
+
+    @Test
+    public void testRejected() {
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.lines(file), task -> {
+            throw new RejectedExecutionException("Full");
+        }, 2).subscribe(subscriber);
+        subscriber.request(1L);
+        assertTrue(subscriber.error instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testSourceOperators() {
+        final List<Integer> numbers = range(0, 10).boxed().collect(toList());
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> numbers(numbers, 0).filter(i -> i % 2 == 0).map(i -> "n" + i)
+                .concat(() -> numbers(numbers, 8).map(i -> "m" + i)), DIRECT, 3).subscribe(subscriber);
+        subscriber.request(Long.MAX_VALUE);
+        assertEquals(asList("n0", "n2", "n4", "n6", "n8", "m8", "m9"), subscriber.items);
+        assertTrue(subscriber.completed);
+    }
+
+    @Test
+    public void testStreamSource() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.of(range(0, 10).boxed().onClose(() -> closed.set(true))),
+                DIRECT, 4).subscribe(subscriber);
+        subscriber.request(5L);
+        assertEquals(asList(0, 1, 2, 3, 4), subscriber.items);
+        assertFalse(closed.get());
+        subscriber.request(Long.MAX_VALUE);
+        assertEquals(range(0, 10).boxed().collect(toList()), subscriber.items);
+        assertTrue(subscriber.completed);
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void testStreamSourceCancel() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final TestSubscriber<Integer> subscriber = new TestSubscriber<>();
+        new ChunkedPublisher<>(() -> ChunkedPublisher.of(range(0, 10).boxed().onClose(() -> closed.set(true))),
+                DIRECT, 4).subscribe(subscriber);
+        subscriber.request(2L);
+        assertFalse(closed.get());
+        subscriber.subscription.cancel();
+        assertTrue(closed.get());
+        assertEquals(asList(0, 1), subscriber.items);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        writeLines(file, "UTF-8", range(0, 1000).mapToObj(Integer::toString).collect(toList()));
+        try (final IOExecutor executor = new IOExecutor(2, 16)) {
+            final TestSubscriber<String> subscriber = new TestSubscriber<>();
+            new ChunkedPublisher<>(() -> ChunkedPublisher.lines(file), executor, 64).subscribe(subscriber);
+            subscriber.request(10L).request(Long.MAX_VALUE);
+            assertTrue(subscriber.terminated.await(10L, SECONDS));
+            assertTrue(subscriber.completed);
+            assertEquals(range(0, 1000).mapToObj(Integer::toString).collect(toList()), subscriber.items);
+        }
+    }
+
+    @Test
+    public void testInvalidChunkSize() {
+        assertThrows(IllegalArgumentException.class, () ->
+                new ChunkedPublisher<>(ChunkedPublisher::empty, DIRECT, 0));
+    }
+
+    private static ChunkedPublisher.Source<Integer> numbers(final List<Integer> numbers, final int from) {
+        return limit -> {
+            final int to = Math.min(numbers.size(), from + limit);
+            return new ChunkedPublisher.Chunk<>(numbers.subList(from, to),
+                    to < numbers.size() ? numbers(numbers, to) : null);
+        };
+    }
+}
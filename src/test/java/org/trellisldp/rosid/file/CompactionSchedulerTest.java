@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.Thread.sleep;
+import static java.time.Instant.now;
+import static java.time.Instant.parse;
+import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.FileUtils.partition;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class CompactionSchedulerTest {
+
+    private static final IRI LDPC = rdf.createIRI("trellis:repository/ldpc");
+    private static final Instant DESCRIBED = parse("2017-03-01T00:00:00Z");
+
+    private File partition;
+    private File archive;
+    private File ldpc;
+    private File ldprs;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        final File base = new File(getClass().getResource("/").toURI());
+        partition = new File(base, "compacted");
+        archive = new File(base, "compactedArchive");
+        ldpc = new File(partition, partition(LDPC));
+        ldprs = new File(partition, partition("trellis:repository/ldprs"));
+        copyJournal("ldpc", ldpc);
+        copyJournal("ldprs", ldprs);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+        deleteDirectory(archive);
+    }
+
+    @Test
+    public void testThresholds() {
+        try (final CompactionScheduler scheduler = new CompactionScheduler(partition, archive, 1000L, 3L, 0L, 0L)) {
+            scheduler.record(ldpc, 100L);
+            scheduler.record(ldpc, 200L);
+            assertEquals(0, scheduler.getQueueSize());
+            scheduler.record(ldpc, 300L);
+            assertEquals(1, scheduler.getQueueSize());
+            // A journal that is too large is queued after a single write, and a resource is only queued once
+            scheduler.record(ldprs, 2000L);
+            scheduler.record(ldprs, 3000L);
+            assertEquals(2, scheduler.getQueueSize());
+            assertFalse(scheduler.getLastReport().isPresent());
+        }
+        assertThrows(IllegalArgumentException.class, () -> new CompactionScheduler(partition, archive, 0L, 1L, 0L,
+                    0L));
+        assertThrows(IllegalArgumentException.class, () -> new CompactionScheduler(partition, archive, 1L, 1L, -1L,
+                    0L));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        final File journal = new File(ldpc, RESOURCE_JOURNAL);
+        try (final CompactionScheduler scheduler = new CompactionScheduler(partition, archive, 1024L * 1024L, 10L,
+                    0L, 0L)) {
+            for (int i = 0; i < 10; ++i) {
+                assertTrue(write(scheduler, i));
+            }
+            assertEquals(1, scheduler.getQueueSize());
+            final long length = journal.length();
+            final Set<String> state = state(now());
+            final Set<String> previous = state(DESCRIBED.plusSeconds(4L));
+
+            final JournalArchiver.Report report = scheduler.compact();
+            assertEquals(1L, report.getResources());
+            assertEquals(1L, report.getArchived());
+            assertEquals(0L, report.getErrors());
+            assertEquals(0, scheduler.getQueueSize());
+            assertEquals(report, scheduler.getLastReport().get());
+            assertTrue(journal.length() < length / 4);
+            assertEquals(state, state(now()));
+            assertEquals(previous, state(DESCRIBED.plusSeconds(4L)));
+
+            // Writes continue after the compaction, and the counts start again
+            assertTrue(write(scheduler, 10));
+            assertEquals(0, scheduler.getQueueSize());
+            assertTrue(state(now()).stream().anyMatch(quad -> quad.contains("Version 10:")));
+        }
+    }
+
+    @Test
+    public void testScan() {
+        try (final CompactionScheduler scheduler = new CompactionScheduler(partition, archive, 100L, 10L, 0L, 0L)) {
+            scheduler.scan();
+            assertEquals(2, scheduler.getQueueSize());
+        }
+        try (final CompactionScheduler scheduler = new CompactionScheduler(partition, archive, 1024L * 1024L, 10L,
+                    0L, 0L)) {
+            scheduler.scan();
+            assertEquals(0, scheduler.getQueueSize());
+        }
+    }
+
+    @Test
+    public void testSchedule() throws Exception {
+        try (final CompactionScheduler scheduler = new CompactionScheduler(partition, archive, 100L, 10L, 50L,
+                    1000L)) {
+            for (int i = 0; i < 100 && !scheduler.getLastReport().filter(report -> report.getResources() > 0)
+                    .isPresent(); ++i) {
+                sleep(50L);
+            }
+            // The initial scan queues both resources, and a quiet partition is compacted
+            assertEquals(2L, scheduler.getLastReport().get().getResources());
+            assertEquals(0, scheduler.getQueueSize());
+        }
+    }
+
+    private Boolean write(final CompactionScheduler scheduler, final int version) {
+        final Boolean written = VersionedResource.write(ldpc, version == 0 ? empty() : of(description(version - 1)),
+                of(description(version)), DESCRIBED.plusSeconds(version));
+        scheduler.record(ldpc, new File(ldpc, RESOURCE_JOURNAL).length());
+        return written;
+    }
+
+    private static Quad description(final int version) {
+        final StringBuilder description = new StringBuilder("Version " + version + ":");
+        while (description.length() < 2000) {
+            description.append(" a long description");
+        }
+        return rdf.createQuad(Trellis.PreferUserManaged, LDPC, DC.description,
+                rdf.createLiteral(description.toString()));
+    }
+
+    private Set<String> state(final Instant time) {
+        try (final Stream<String> quads = VersionedResource.find(ldpc, LDPC, time).get().stream()
+                .map(RDFPatch.quadToString)) {
+            return quads.collect(toSet());
+        }
+    }
+}
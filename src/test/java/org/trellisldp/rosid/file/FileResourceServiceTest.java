@@ -14,12 +14,22 @@
 package org.trellisldp.rosid.file;
 
 import static java.io.File.separator;
+import static java.lang.Thread.sleep;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.lines;
+import static java.nio.file.Files.walk;
+import static java.nio.file.Files.write;
 import static java.time.Instant.MAX;
 import static java.time.Instant.now;
 import static java.time.Instant.parse;
+import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
+import static java.util.Comparator.comparing;
 import static java.util.Optional.of;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.apache.curator.framework.CuratorFrameworkFactory.newClient;
@@ -30,17 +40,28 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.MockitoAnnotations.initMocks;
 import static org.trellisldp.vocabulary.RDF.type;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_LOG;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_PACKS;
+import static org.trellisldp.rosid.file.FileUtils.partition;
+import static org.trellisldp.rosid.file.FileUtils.resourceDirectory;
 import static org.trellisldp.rosid.file.TestUtils.rdf;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import org.apache.commons.rdf.api.Dataset;
 import org.apache.commons.rdf.api.IRI;
@@ -515,6 +536,402 @@ public class FileResourceServiceTest {
         assertEquals(0L, service.scan("non-existent").count());
     }
 
+    @Test
+    public void testRepairOnStartup() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put("repository", partitions.get("repository") + "/root5");
+        final File root = new File(URI.create(config.get("repository")));
+        try {
+            final ResourceService altService = builder(config).repairOnStartup(true).build();
+            final IRI rootIdentifier = rdf.createIRI("trellis:repository");
+            assertTrue(altService.get(rootIdentifier).isPresent());
+            final File cache = new File(FileUtils.resourceDirectory(config, rootIdentifier), RESOURCE_COMBINED_CACHE);
+            assertTrue(cache.delete());
+
+            builder(config).repairOnStartup(true).build().close();
+            assertTrue(cache.exists());
+        } finally {
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testPartitionIsolation() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        config.put("repository", partitions.get("repository") + "/root4");
+        final File journal = new File(getClass().getResource("/journal1.txt").toURI());
+        config.put("invalid", journal.getAbsolutePath() + separator + "invalid");
+        final File root = new File(URI.create(config.get("repository")));
+        try {
+            assertThrows(IOException.class, () -> new FileResourceService(config, partitionUrls, curator,
+                        mockProducer, mockEventService, mockIdSupplier, false));
+            // A failure in one partition does not prevent the others from being initialized
+            assertTrue(new File(FileUtils.resourceDirectory(config, "trellis:repository"), RESOURCE_COMBINED_CACHE)
+                    .exists());
+        } finally {
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testAsyncOperations() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File root = new File(new File(getClass().getResource("/root").toURI()), "root6");
+        config.put("repository", root.getAbsolutePath());
+        try (final IOExecutor executor = new IOExecutor(2, 16)) {
+            final FileResourceService altService = builder(config).executor(executor).build();
+            assertEquals(executor, altService.getExecutor());
+            final IRI resource = rdf.createIRI("trellis:repository/asyncResource");
+            final Dataset data = rdf.createDataset();
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title, rdf.createLiteral("A title")));
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.RDFSource));
+
+            assertFalse(altService.getAsync(resource).get().isPresent());
+            assertTrue(altService.putAsync(resource, data).get());
+            final Resource res = altService.getAsync(resource).get().get();
+            assertEquals(LDP.RDFSource, res.getInteractionModel());
+            assertTrue(altService.getAsync(resource, now()).get().isPresent());
+            final TestSubscriber<Triple> scanned = new TestSubscriber<>();
+            altService.scanAsync("repository").subscribe(scanned);
+            scanned.request(1L);
+            scanned.request(Long.MAX_VALUE);
+            assertTrue(scanned.terminated.await(10L, SECONDS));
+            assertTrue(scanned.completed);
+            assertEquals(2, scanned.items.size());
+            final TestSubscriber<Triple> missing = new TestSubscriber<>();
+            altService.scanAsync("non-existent").subscribe(missing);
+            missing.request(Long.MAX_VALUE);
+            assertTrue(missing.terminated.await(10L, SECONDS));
+            assertTrue(missing.items.isEmpty());
+            assertEquals(0L, executor.getRejectedCount());
+
+            // Requests are recorded against the budget of the partition, and the scan is charged to it
+            final IOBudget budget = altService.getBudget("repository").get();
+            assertEquals(IOBudget.of(root), budget);
+            assertTrue(budget.getForegroundOps() >= 4L);
+            assertTrue(budget.getForegroundBytes() > 0L);
+            assertEquals(2L, budget.getBackgroundOps());
+            assertFalse(altService.getBudget("non-existent").isPresent());
+
+            final TestSubscriber<Quad> subscriber = new TestSubscriber<>();
+            altService.publish(resource).get().subscribe(subscriber);
+            subscriber.request(Long.MAX_VALUE);
+            assertTrue(subscriber.terminated.await(10L, SECONDS));
+            assertEquals(res.stream().collect(toList()), subscriber.items);
+            assertFalse(altService.publish(rdf.createIRI("trellis:repository/nonexistent")).isPresent());
+        } finally {
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testPackedPartition() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File root = new File(new File(getClass().getResource("/root").toURI()), "root7");
+        config.put("repository", root.getAbsolutePath());
+        try (final IOExecutor executor = new IOExecutor(2, 16)) {
+            final FileResourceService altService = builder(config).executor(executor)
+                    .packedPartitions(singleton("repository")).build();
+            final IRI resource = rdf.createIRI("trellis:repository/packedResource");
+            final File directory = new File(root, partition(resource));
+            final Dataset data = rdf.createDataset();
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title, rdf.createLiteral("A title")));
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.RDFSource));
+
+            assertFalse(altService.get(resource).isPresent());
+            assertTrue(altService.put(resource, data));
+            assertFalse(directory.exists());
+            assertTrue(new File(root, RESOURCE_PACKS).isDirectory());
+
+            final Resource res = altService.get(resource).get();
+            assertEquals(LDP.RDFSource, res.getInteractionModel());
+            assertTrue(res.stream().anyMatch(quad -> quad.getObject().equals(rdf.createLiteral("A title"))));
+            assertTrue(altService.get(resource, now()).isPresent());
+            assertFalse(altService.publish(resource).isPresent());
+            assertEquals(2L, altService.scan("repository").count());
+            assertFalse(directory.exists());
+
+            // A journal that grows past the threshold is promoted to its own directory
+            final StringBuilder description = new StringBuilder();
+            while (description.length() <= PackStore.DEFAULT_THRESHOLD) {
+                description.append("A long description. ");
+            }
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.description,
+                        rdf.createLiteral(description.toString())));
+            assertTrue(altService.put(resource, data));
+            assertTrue(new File(directory, RESOURCE_JOURNAL).exists());
+            assertTrue(new File(directory, RESOURCE_COMBINED_CACHE).exists());
+            final Resource promoted = altService.get(resource).get();
+            assertEquals(LDP.RDFSource, promoted.getInteractionModel());
+            assertEquals(2L, promoted.stream().filter(quad -> quad.getPredicate().equals(DC.title) ||
+                        quad.getPredicate().equals(DC.description)).count());
+            assertEquals(2L, altService.scan("repository").count());
+
+            // Purging a packed resource removes it from its pack
+            final IRI small = rdf.createIRI("trellis:repository/smallResource");
+            final Dataset smallData = rdf.createDataset();
+            smallData.add(rdf.createQuad(Trellis.PreferServerManaged, small, type, LDP.RDFSource));
+            smallData.add(rdf.createQuad(Trellis.PreferServerManaged, small, DC.hasPart,
+                        rdf.createIRI("s3://bucket/small")));
+            assertTrue(altService.put(small, smallData));
+            assertTrue(altService.get(small).isPresent());
+            assertEquals(singletonList(rdf.createIRI("s3://bucket/small")),
+                    altService.purge(small).collect(toList()));
+            assertFalse(altService.get(small).isPresent());
+        } finally {
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testConcurrentPromotion() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File root = new File(new File(getClass().getResource("/root").toURI()), "root12");
+        config.put("repository", root.getAbsolutePath());
+        final ExecutorService writers = newFixedThreadPool(8);
+        try (final IOExecutor executor = new IOExecutor(2, 16)) {
+            final FileResourceService altService = builder(config).executor(executor)
+                    .packedPartitions(singleton("repository")).build();
+            final IRI resource = rdf.createIRI("trellis:repository/racedResource");
+            final List<Future<Boolean>> writes = new ArrayList<>();
+            // Transactions are written below the resource lock, as they would be by separate processes
+            for (int i = 0; i < 160; ++i) {
+                final Dataset data = rdf.createDataset();
+                data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.RDFSource));
+                data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title,
+                            rdf.createLiteral("Title " + i)));
+                writes.add(writers.submit(() -> altService.write(resource, Stream.empty(), data.stream(), now(),
+                                false)));
+            }
+            for (final Future<Boolean> write : writes) {
+                assertTrue(write.get(30L, SECONDS));
+            }
+
+            // The journal grew past the threshold, and no write that raced with its promotion was lost
+            final File journal = new File(new File(root, partition(resource)), RESOURCE_JOURNAL);
+            assertTrue(journal.exists());
+            try (final Stream<String> lines = lines(journal.toPath())) {
+                assertEquals(160L, lines.filter("TX ."::equals).count());
+            }
+            assertTrue(altService.get(resource).isPresent());
+        } finally {
+            writers.shutdownNow();
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testLogPartition() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File root = new File(new File(getClass().getResource("/root").toURI()), "root8");
+        config.put("repository", root.getAbsolutePath());
+        assertThrows(IllegalArgumentException.class, () -> builder(config).packedPartitions(singleton("repository"))
+                    .logPartitions(singleton("repository")).build());
+        try (final IOExecutor executor = new IOExecutor(2, 16);
+                final FileResourceService altService = builder(config).executor(executor)
+                    .logPartitions(singleton("repository")).build()) {
+            final IRI resource = rdf.createIRI("trellis:repository/loggedResource");
+            final Dataset data = rdf.createDataset();
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title, rdf.createLiteral("A title")));
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.RDFSource));
+
+            assertTrue(altService.get(rdf.createIRI("trellis:repository")).isPresent());
+            assertFalse(altService.get(resource).isPresent());
+            assertTrue(altService.put(resource, data));
+            assertTrue(new File(root, RESOURCE_LOG).isDirectory());
+            assertFalse(new File(root, partition(resource)).exists());
+
+            final Resource res = altService.get(resource).get();
+            assertEquals(LDP.RDFSource, res.getInteractionModel());
+            assertTrue(res.stream().anyMatch(quad -> quad.getObject().equals(rdf.createLiteral("A title"))));
+            assertTrue(altService.get(resource, now()).isPresent());
+            assertFalse(altService.get(resource, parse("2017-01-01T00:00:00Z")).isPresent());
+            assertFalse(altService.publish(resource).isPresent());
+            assertEquals(2L, altService.scan("repository").count());
+
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, DC.hasPart,
+                        rdf.createIRI("s3://bucket/logged")));
+            assertTrue(altService.put(resource, data));
+            assertEquals(singletonList(rdf.createIRI("s3://bucket/logged")),
+                    altService.purge(resource).collect(toList()));
+            assertFalse(altService.get(resource).isPresent());
+            assertEquals(1L, altService.scan("repository").count());
+
+            // The partition log may only be opened by one service at a time
+            final IOException error = assertThrows(IOException.class, () -> builder(config)
+                    .logPartitions(singleton("repository")).build());
+            assertTrue(error.getMessage().contains("already open in this process"));
+        }
+        // Once the service is closed, another may open the partition
+        try (final FileResourceService reopened = builder(config).logPartitions(singleton("repository")).build()) {
+            assertEquals(1L, reopened.scan("repository").count());
+        } finally {
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testReadOnly() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File root = new File(new File(getClass().getResource("/root").toURI()), "root9");
+        config.put("repository", root.getAbsolutePath());
+        final IRI resource = rdf.createIRI("trellis:repository/replicated");
+        final StringBuilder description = new StringBuilder();
+        while (description.length() <= 100000) {
+            description.append("A long description. ");
+        }
+        try (final IOExecutor executor = new IOExecutor(2, 16)) {
+            final ResourceService writable = new FileResourceService(config, partitionUrls, curator, mockProducer,
+                    mockEventService, mockIdSupplier, false);
+            final Dataset data = rdf.createDataset();
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.RDFSource));
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title, rdf.createLiteral("A title")));
+            assertTrue(writable.put(resource, data));
+            final Instant first = now();
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.description,
+                        rdf.createLiteral(description.toString())));
+            assertTrue(writable.put(resource, data));
+            final long expected = writable.get(resource).get().stream().count();
+
+            final List<Path> files;
+            try (final Stream<Path> paths = walk(root.toPath())) {
+                files = paths.sorted().collect(toList());
+            }
+            final FileResourceService replica = builder(config).repairOnStartup(true).executor(executor)
+                    .readOnly(true).build();
+            final Resource res = replica.get(resource).get();
+            assertEquals(expected, res.stream().count());
+            assertEquals(1L, res.stream(singleton(Trellis.PreferUserManaged)).filter(triple ->
+                        triple.getPredicate().equals(DC.description)).count());
+            assertTrue(replica.get(resource, first).isPresent());
+            assertFalse(replica.get(rdf.createIRI("trellis:repository/missing")).isPresent());
+            assertEquals(2L, replica.scan("repository").count());
+            try (final Stream<Path> paths = walk(root.toPath())) {
+                assertEquals(files, paths.sorted().collect(toList()));
+            }
+
+            assertThrows(UnsupportedOperationException.class, () -> replica.put(resource, data));
+            assertThrows(UnsupportedOperationException.class, () -> replica.purge(resource));
+            assertThrows(UnsupportedOperationException.class, () -> replica.compact(resource, first, now()));
+            assertTrue(replica.get(resource).isPresent());
+
+            final Map<String, String> missing = singletonMap("repository", new File(root, "missing").getAbsolutePath());
+            assertThrows(IOException.class, () -> builder(missing).executor(executor).readOnly(true)
+                        .build());
+            assertFalse(new File(root, "missing").exists());
+        } finally {
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testCompactionScheduler() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File base = new File(getClass().getResource("/root").toURI());
+        final File root = new File(base, "root11");
+        final File archive = new File(base, "archive11");
+        config.put("repository", root.getAbsolutePath());
+        final IRI resource = rdf.createIRI("trellis:repository/compacted");
+        try (final IOExecutor executor = new IOExecutor(2, 16);
+                final FileResourceService altService = builder(config).executor(executor).archive(archive)
+                    .build()) {
+            final CompactionScheduler scheduler = altService.getCompactionScheduler("repository").get();
+            assertFalse(altService.getCompactionScheduler("non-existent").isPresent());
+
+            final Dataset data = rdf.createDataset();
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.RDFSource));
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title, rdf.createLiteral("First")));
+            assertTrue(altService.put(resource, data));
+            final Instant first = now();
+            sleep(10L);
+            data.remove(null, resource, DC.title, null);
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title, rdf.createLiteral("Second")));
+            assertTrue(altService.put(resource, data));
+            assertEquals(0, scheduler.getQueueSize());
+
+            // A resource that crosses a threshold is compacted, and reads the same afterwards
+            final File directory = resourceDirectory(config, resource);
+            scheduler.record(directory, Long.MAX_VALUE);
+            assertEquals(1L, scheduler.compact().getArchived());
+            assertTrue(RDFPatch.archive(new File(directory, RESOURCE_JOURNAL)).isPresent());
+            assertTrue(altService.get(resource).get().stream().anyMatch(quad ->
+                        quad.getObject().equals(rdf.createLiteral("Second"))));
+            assertTrue(altService.get(resource, first).get().stream().anyMatch(quad ->
+                        quad.getObject().equals(rdf.createLiteral("First"))));
+            altService.purge(resource).count();
+            assertFalse(altService.get(resource).isPresent());
+        } finally {
+            deleteDirectory(root);
+            deleteDirectory(archive);
+        }
+    }
+
+    @Test
+    public void testCorruptCache() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File root = new File(new File(getClass().getResource("/root").toURI()), "root13");
+        config.put("repository", root.getAbsolutePath());
+        final IRI resource = rdf.createIRI("trellis:repository/corrupt");
+        try (final FileResourceService altService = builder(config).build()) {
+            final Dataset data = rdf.createDataset();
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.RDFSource));
+            data.add(rdf.createQuad(Trellis.PreferUserManaged, resource, DC.title, rdf.createLiteral("A title")));
+            assertTrue(altService.put(resource, data));
+
+            // A cache that cannot be read is bypassed in favor of the journal, and rebuilt in the background
+            final File directory = resourceDirectory(config, resource);
+            write(new File(directory, RESOURCE_COMBINED_CACHE).toPath(), "corrupt".getBytes(UTF_8));
+            assertFalse(CachedResource.find(directory, resource).isPresent());
+            final Resource res = altService.get(resource).get();
+            assertEquals(LDP.RDFSource, res.getInteractionModel());
+            assertTrue(res.stream().anyMatch(quad -> quad.getObject().equals(rdf.createLiteral("A title"))));
+            for (int i = 0; i < 500 && !CachedResource.find(directory, resource).isPresent(); ++i) {
+                sleep(10L);
+            }
+            assertTrue(CachedResource.find(directory, resource).isPresent());
+        } finally {
+            deleteDirectory(root);
+        }
+    }
+
+    @Test
+    public void testPurgeArchived() throws Exception {
+        final Map<String, String> config = new HashMap<>();
+        final File root = new File(new File(getClass().getResource("/root").toURI()), "root10");
+        final File archive = new File(new File(getClass().getResource("/root").toURI()), "archive10");
+        config.put("repository", root.getAbsolutePath());
+        final IRI resource = rdf.createIRI("trellis:repository/archived");
+        try {
+            final ResourceService altService = new FileResourceService(config, partitionUrls, curator,
+                    mockProducer, mockEventService, mockIdSupplier, false);
+            final Dataset data = rdf.createDataset();
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, type, LDP.NonRDFSource));
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, DC.hasPart,
+                        rdf.createIRI("s3://bucket/first")));
+            assertTrue(altService.put(resource, data));
+            Thread.sleep(10L);
+            data.remove(null, resource, DC.hasPart, null);
+            data.add(rdf.createQuad(Trellis.PreferServerManaged, resource, DC.hasPart,
+                        rdf.createIRI("s3://bucket/second")));
+            assertTrue(altService.put(resource, data));
+
+            // The root container has a single version, so only the resource is archived
+            assertEquals(1L, new JournalArchiver(archive, 0L, 1).archive(root).getArchived());
+            final File history = RDFPatch.archive(new File(new File(root, partition(resource)), RESOURCE_JOURNAL))
+                .get();
+            assertTrue(history.isFile());
+            assertTrue(altService.get(resource).isPresent());
+
+            assertEquals(asList(rdf.createIRI("s3://bucket/first"), rdf.createIRI("s3://bucket/second")),
+                    altService.purge(resource).sorted(comparing(IRI::getIRIString)).collect(toList()));
+            assertFalse(history.exists());
+            assertFalse(altService.get(resource).isPresent());
+        } finally {
+            deleteDirectory(root);
+            deleteDirectory(archive);
+        }
+    }
+
     @Test
     public void testListInvalidPath() throws Exception {
         final Map<String, String> myPartitions = singletonMap("foo",
@@ -558,4 +975,9 @@ public class FileResourceServiceTest {
     public void testCompact() {
         assertThrows(UnsupportedOperationException.class, () -> service.compact(identifier, now(), now()));
     }
+
+    private FileResourceService.Builder builder(final Map<String, String> config) {
+        return FileResourceService.builder().partitionData(config).partitionUrls(partitionUrls).curator(curator)
+            .producer(mockProducer).notifications(mockEventService).idSupplier(mockIdSupplier);
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Instant.now;
+import static java.util.Collections.singleton;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_QUADS_OFFSETS;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.rdf.api.IRI;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.api.Resource;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class GraphOffsetsTest {
+
+    private final IRI identifier = rdf.createIRI("trellis:repository/ldpc");
+
+    private File directory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = new File(new File(getClass().getResource("/").toURI()), "graphOffsets");
+        directory.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Map<String, GraphOffsets.Section> sections = new LinkedHashMap<>();
+        sections.put(Trellis.PreferUserManaged.ntriplesString(), new GraphOffsets.Section(0L, 120L));
+        sections.put(Trellis.PreferServerManaged.ntriplesString(), new GraphOffsets.Section(120L, 30L));
+        final File file = new File(directory, RESOURCE_QUADS_OFFSETS);
+        new GraphOffsets(sections).write(file);
+
+        final GraphOffsets offsets = GraphOffsets.read(file, 150L).get();
+        assertEquals(150L, offsets.getLength());
+        assertEquals(2, offsets.getSections().size());
+        assertEquals(120L, offsets.get(Trellis.PreferServerManaged).get().getOffset());
+        assertEquals(30L, offsets.get(Trellis.PreferServerManaged).get().getLength());
+        assertFalse(offsets.get(LDP.PreferContainment).isPresent());
+    }
+
+    @Test
+    public void testMismatchedLength() throws IOException {
+        final File file = new File(directory, RESOURCE_QUADS_OFFSETS);
+        new GraphOffsets(singletonSection(0L, 100L)).write(file);
+        assertTrue(GraphOffsets.read(file, 100L).isPresent());
+        assertFalse(GraphOffsets.read(file, 101L).isPresent());
+        assertFalse(GraphOffsets.read(new File(directory, "non-existent"), 0L).isPresent());
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        final File file = new File(directory, RESOURCE_QUADS_OFFSETS);
+        write(file, "<trellis:graph> 0 10\n<trellis:other> 20 10\n", UTF_8);
+        assertFalse(GraphOffsets.read(file, 20L).isPresent());
+        write(file, "<trellis:graph> zero 10\n", UTF_8);
+        assertFalse(GraphOffsets.read(file, 10L).isPresent());
+        write(file, "<trellis:graph> 0\n", UTF_8);
+        assertFalse(GraphOffsets.read(file, 0L).isPresent());
+    }
+
+    @Test
+    public void testGraphFilteredStream() throws Exception {
+        copyJournal("ldpc", directory);
+        assertTrue(CachedResource.write(directory, identifier));
+        final File cache = new File(directory, RESOURCE_COMBINED_CACHE);
+        final CacheFile header = CacheFile.read(cache).get();
+        final GraphOffsets offsets = header.getOffsets();
+        assertEquals(cache.length() - header.getStart(), offsets.getLength());
+        assertTrue(offsets.get(Trellis.PreferUserManaged).isPresent());
+
+        final Resource res = CachedResource.find(directory, identifier).get();
+        assertEquals(5L, res.stream(Trellis.PreferUserManaged).count());
+        assertEquals(3L, res.stream(LDP.PreferContainment).count());
+        assertEquals(4L, res.stream(singleton(Trellis.PreferUserManaged)).filter(t ->
+                    t.getSubject().equals(identifier)).count());
+        assertEquals(res.stream().filter(q -> q.getGraphName().filter(Trellis.PreferUserManaged::equals)
+                    .isPresent()).count(), res.stream(Trellis.PreferUserManaged).count());
+
+        // A cache whose quads do not match its offset table is ignored, and the journal still has the resource
+        assertTrue(VersionedResource.write(directory, empty(), of(rdf.createQuad(Trellis.PreferUserManaged,
+                            identifier, DC.subject, rdf.createIRI("http://example.org/subject"))), now()));
+        write(cache, "\n", UTF_8, true);
+        assertFalse(CacheFile.read(cache).isPresent());
+        assertEquals(6L, VersionedResource.find(directory, identifier, now()).get()
+                .stream(Trellis.PreferUserManaged).count());
+
+        assertTrue(CachedResource.write(directory, identifier));
+        assertEquals(6L, CachedResource.find(directory, identifier).get().stream(Trellis.PreferUserManaged)
+                .count());
+    }
+
+    private static Map<String, GraphOffsets.Section> singletonSection(final long offset, final long length) {
+        final Map<String, GraphOffsets.Section> sections = new LinkedHashMap<>();
+        sections.put(Trellis.PreferUserManaged.ntriplesString(), new GraphOffsets.Section(offset, length));
+        return sections;
+    }
+}
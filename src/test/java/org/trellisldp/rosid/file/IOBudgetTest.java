@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class IOBudgetTest {
+
+    @Test
+    public void testShared() {
+        final File root = new File("build/budgets/shared");
+        final IOBudget budget = IOBudget.of(root);
+        assertSame(budget, IOBudget.of(new File(root.getAbsoluteFile(), "../shared")));
+        assertNotEquals(budget, IOBudget.of(new File("build/budgets/other")));
+        assertEquals(0L, budget.getOpsPerSecond());
+        assertEquals(0L, budget.getBytesPerSecond());
+        assertThrows(IllegalArgumentException.class, () -> budget.setLimits(-1L, 0L));
+        assertThrows(IllegalArgumentException.class, () -> budget.setLimits(0L, -1L));
+    }
+
+    @Test
+    public void testUnlimited() {
+        final IOBudget budget = IOBudget.of(new File("build/budgets/unlimited"));
+        final long start = nanoTime();
+        for (int i = 0; i < 1000; ++i) {
+            budget.acquire(1024L * 1024L);
+        }
+        assertTrue(NANOSECONDS.toMillis(nanoTime() - start) < 1000L);
+        assertEquals(1000L, budget.getBackgroundOps());
+        assertEquals(1000L * 1024L * 1024L, budget.getBackgroundBytes());
+        assertEquals(0L, budget.getThrottledMillis());
+    }
+
+    @Test
+    public void testThrottle() {
+        final IOBudget budget = IOBudget.of(new File("build/budgets/throttled"));
+        budget.setLimits(20L, 0L);
+        final long start = nanoTime();
+        for (int i = 0; i < 8; ++i) {
+            budget.acquire(0L);
+        }
+        // Eight operations at 50 ms each, less the allowance for a burst
+        assertTrue(NANOSECONDS.toMillis(nanoTime() - start) >= 250L);
+        assertTrue(budget.getThrottledMillis() >= 250L);
+        assertEquals(8L, budget.getBackgroundOps());
+    }
+
+    @Test
+    public void testForegroundPriority() {
+        final IOBudget budget = IOBudget.of(new File("build/budgets/foreground"));
+        budget.setLimits(0L, 10000L);
+        final long start = nanoTime();
+        // Foreground requests never wait, however much of the budget they spend
+        budget.record(3000L);
+        budget.record(0L);
+        assertTrue(NANOSECONDS.toMillis(nanoTime() - start) < 100L);
+        assertEquals(2L, budget.getForegroundOps());
+        assertEquals(3000L, budget.getForegroundBytes());
+        assertEquals(0L, budget.getThrottledMillis());
+
+        // Maintenance waits for the foreground requests to be paid for
+        budget.acquire(100L);
+        assertTrue(NANOSECONDS.toMillis(nanoTime() - start) >= 150L);
+        assertTrue(budget.getThrottledMillis() >= 150L);
+        assertTrue(budget.toString().contains("background: 1 ops, 100 bytes"));
+    }
+
+    @Test
+    public void testForegroundBurst() {
+        final IOBudget budget = IOBudget.of(new File("build/budgets/burst"));
+        budget.setLimits(0L, 1000L);
+        // A burst of foreground requests that would take ten seconds to pay for in full
+        for (int i = 0; i < 100; ++i) {
+            budget.record(100L);
+        }
+
+        // Maintenance is delayed by the burst, but resumes once the overspent second has passed
+        final long start = nanoTime();
+        budget.acquire(10L);
+        final long elapsed = NANOSECONDS.toMillis(nanoTime() - start);
+        assertTrue(elapsed >= 500L);
+        assertTrue(elapsed < 2000L);
+        assertEquals(10000L, budget.getForegroundBytes());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class IOExecutorTest {
+
+    @Test
+    public void testSubmit() throws Exception {
+        try (final IOExecutor executor = new IOExecutor(2, 4)) {
+            assertEquals("value", executor.submit(() -> "value").get());
+            assertTrue(executor.submit(() -> Thread.currentThread().getName()).get().startsWith("trellis-rosid-io-"));
+            assertTrue(executor.submit(() -> Thread.currentThread().isDaemon()).get());
+            assertFalse(executor.isVirtual());
+        }
+    }
+
+    @Test
+    public void testThreadModel() throws Exception {
+        try (final IOExecutor executor = new IOExecutor(2, 4, false)) {
+            assertFalse(executor.isVirtual());
+            assertTrue(executor.submit(() -> Thread.currentThread().getName()).get().startsWith("trellis-rosid-io-"));
+        }
+        // The Java 8 classes have no virtual threads
+        assertThrows(UnsupportedOperationException.class, () -> new IOExecutor(2, 4, true));
+    }
+
+    @Test
+    public void testRejection() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        try (final IOExecutor executor = new IOExecutor(1, 1)) {
+            final CompletableFuture<Boolean> running = executor.submit(() -> await(latch));
+            final CompletableFuture<Boolean> queued = executor.submit(() -> await(latch));
+            final CompletableFuture<Boolean> rejected = executor.submit(() -> await(latch));
+
+            final ExecutionException ex = assertThrows(ExecutionException.class, rejected::get);
+            assertTrue(ex.getCause() instanceof RejectedExecutionException);
+            assertEquals(1L, executor.getRejectedCount());
+            assertEquals(1, executor.getQueueSize());
+            assertEquals(2, executor.getInFlightCount());
+
+            latch.countDown();
+            assertTrue(running.get());
+            assertTrue(queued.get());
+            assertEquals(0, executor.getQueueSize());
+        }
+    }
+
+    private static Boolean await(final CountDownLatch latch) {
+        try {
+            return latch.await(10L, SECONDS);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Instant.now;
+import static java.time.Instant.parse;
+import static java.util.Arrays.asList;
+import static java.util.Arrays.copyOf;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.readFileToByteArray;
+import static org.apache.commons.io.FileUtils.readFileToString;
+import static org.apache.commons.io.FileUtils.writeStringToFile;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_MEMENTOS;
+import static org.trellisldp.rosid.file.FileUtils.partition;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class JournalArchiverTest {
+
+    private static final IRI LDPC = rdf.createIRI("trellis:repository/ldpc");
+    private static final IRI LDPRS = rdf.createIRI("trellis:repository/ldprs");
+    private static final Instant CREATED = parse("2017-02-15T10:05:00Z");
+    private static final Instant UPDATED = parse("2017-02-15T11:15:00Z");
+    private static final Instant CHILD = parse("2017-02-16T11:15:02Z");
+    private static final Instant DESCRIBED = parse("2017-02-20T00:00:00Z");
+    private static final Instant LAST = DESCRIBED.plusSeconds(9L);
+    private static final Instant ADOPTED = parse("2017-02-21T00:00:00Z");
+    private static final Instant RETITLED = parse("2017-03-01T00:00:00Z");
+
+    private File partition;
+    private File archive;
+    private File ldpc;
+    private File ldprs;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        final File base = new File(getClass().getResource("/").toURI());
+        partition = new File(base, "tiered");
+        archive = new File(base, "cold");
+        ldpc = new File(partition, partition(LDPC));
+        ldprs = new File(partition, partition(LDPRS));
+        copyJournal("ldpc", ldpc);
+        copyJournal("ldprs", ldprs);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+        deleteDirectory(archive);
+    }
+
+    @Test
+    public void testArchive() throws IOException {
+        final File journal = new File(ldpc, RESOURCE_JOURNAL);
+        // A history of large versions, followed by a change to the containment triples alone
+        for (int i = 0; i < 10; ++i) {
+            assertTrue(VersionedResource.write(ldpc, i == 0 ? empty() : of(description(i - 1)), of(description(i)),
+                        DESCRIBED.plusSeconds(i)));
+        }
+        assertTrue(VersionedResource.write(ldpc, empty(), of(rdf.createQuad(LDP.PreferContainment, LDPC,
+                            LDP.contains, rdf.createIRI("trellis:repository/ldpc/4"))), ADOPTED));
+        journal.setLastModified(0L);
+        final List<Instant> times = asList(parse("2017-01-01T00:00:00Z"), CREATED,
+                parse("2017-02-15T11:00:00Z"), UPDATED, CHILD, DESCRIBED.plusSeconds(4L), LAST, ADOPTED, now());
+        final Map<Instant, Set<String>> states = new HashMap<>();
+        times.forEach(time -> states.put(time, state(ldpc, LDPC, time)));
+        final Map<Instant, String> closed = new HashMap<>();
+        times.forEach(time -> closed.put(time, closedVersion(journal, time)));
+        final List<String> versions = versions(journal);
+        final Set<String> ldprsState = state(ldprs, LDPRS, now());
+        assertTrue(SnapshotResource.find(ldpc, LDPC, CREATED).isPresent());
+        assertTrue(CachedResource.write(ldpc, LDPC));
+        final List<Instant> mementos = CachedResource.read(ldpc).get().getGeneratedAtTime();
+        final long length = journal.length();
+
+        final JournalArchiver.Report report = new JournalArchiver(archive, 0L, 2).archive(partition);
+        assertEquals(2L, report.getResources());
+        assertEquals(2L, report.getArchived());
+        assertEquals(0L, report.getErrors());
+        assertTrue(journal.length() < length / 4);
+        assertEquals(0L, journal.lastModified());
+
+        final File history = new File(new File(new File(archive, partition.getName()), partition(LDPC)),
+                "resource." + LAST.toEpochMilli() + ".rdfp.gz");
+        assertTrue(history.isFile());
+        assertTrue(history.length() < length / 2);
+        assertTrue(readFileToString(journal, UTF_8).startsWith("H archive <" + history.toURI() + ">"));
+        assertEquals(LAST, RDFPatch.archivedUntil(journal).get());
+        assertFalse(new File(new File(ldpc, RESOURCE_MEMENTOS), CREATED.toEpochMilli() + ".json").exists());
+
+        // Each version reads the same as before, and the list of versions is unchanged
+        times.forEach(time -> assertEquals(states.get(time), state(ldpc, LDPC, time), "State at " + time));
+        assertEquals(versions, versions(journal));
+        times.forEach(time -> assertEquals(closed.get(time), closedVersion(journal, time), "Version at " + time));
+        assertEquals(ldprsState, state(ldprs, LDPRS, now()));
+        assertEquals(CREATED, RDFPatch.closedVersion(journal, parse("2017-02-15T11:00:00Z")).get().getFrom());
+        assertEquals(CHILD, RDFPatch.closedVersion(journal, CHILD).get().getFrom());
+        assertEquals(LAST, RDFPatch.closedVersion(journal, LAST).get().getFrom());
+        assertFalse(RDFPatch.closedVersion(journal, ADOPTED).isPresent());
+
+        // Archived versions are no longer materialized as snapshots
+        assertFalse(SnapshotResource.find(ldpc, LDPC, CREATED).isPresent());
+        assertFalse(new File(new File(ldpc, RESOURCE_MEMENTOS), CREATED.toEpochMilli() + ".json").exists());
+
+        // The current state never depends on the archive tier
+        final File offline = new File(archive.getParentFile(), "offline");
+        assertTrue(archive.renameTo(offline));
+        try {
+            assertEquals(states.get(ADOPTED), state(ldpc, LDPC, ADOPTED));
+            assertTrue(CachedResource.write(ldpc, LDPC));
+            assertEquals(mementos, CachedResource.read(ldpc).get().getGeneratedAtTime());
+            assertThrows(UncheckedIOException.class, () -> state(ldpc, LDPC, CREATED));
+        } finally {
+            assertTrue(offline.renameTo(archive));
+        }
+
+        final JournalArchiver.Report unchanged = new JournalArchiver(archive, 0L, 1).archive(partition);
+        assertEquals(2L, unchanged.getResources());
+        assertEquals(0L, unchanged.getArchived());
+
+        // A later version appends more of the history to the archive, past what an interrupted run left behind
+        final byte[] archived = readFileToByteArray(history);
+        writeStringToFile(history, "interrupted", UTF_8, true);
+        assertTrue(VersionedResource.write(ldpc, empty(), of(rdf.createQuad(Trellis.PreferUserManaged, LDPC,
+                            DC.title, rdf.createLiteral("A title"))), RETITLED));
+        journal.setLastModified(0L);
+        final Set<String> retitled = state(ldpc, LDPC, now());
+        final JournalArchiver.Report again = new JournalArchiver(archive, 0L, 1).archive(partition);
+        assertEquals(1L, again.getArchived());
+        assertEquals(history, RDFPatch.archive(journal).get());
+        assertEquals(history.length(), (long) RDFPatch.archiveLength(journal).get());
+        assertArrayEquals(archived, copyOf(readFileToByteArray(history), archived.length));
+        assertEquals(RETITLED, RDFPatch.archivedUntil(journal).get());
+        times.forEach(time -> {
+            if (time.isBefore(RETITLED)) {
+                assertEquals(states.get(time), state(ldpc, LDPC, time), "State at " + time);
+            }
+        });
+        assertEquals(retitled, state(ldpc, LDPC, now()));
+        assertEquals(versions.size() + 1, versions(journal).size());
+    }
+
+    @Test
+    public void testOrphanedTempFiles() throws IOException {
+        final File target = new File(new File(archive, partition.getName()), partition(LDPC));
+        target.mkdirs();
+        final File orphan = FileUtils.tempFile(target, "resource." + CREATED.toEpochMilli() + ".rdfp.gz");
+        assertTrue(orphan.createNewFile());
+        orphan.setLastModified(0L);
+        new File(ldpc, RESOURCE_JOURNAL).setLastModified(0L);
+
+        final JournalArchiver.Report report = new JournalArchiver(archive, 0L, 1).archive(partition);
+        assertEquals(0L, report.getErrors());
+        assertFalse(orphan.exists());
+        final File[] files = target.listFiles((dir, name) -> FileUtils.isTempFile(name));
+        assertEquals(0, files.length);
+    }
+
+    @Test
+    public void testAge() throws IOException {
+        final JournalArchiver.Report report = new JournalArchiver(archive, DAYS.toMillis(1L), 1).archive(partition);
+        assertEquals(2L, report.getResources());
+        assertEquals(0L, report.getArchived());
+        assertFalse(RDFPatch.archive(new File(ldpc, RESOURCE_JOURNAL)).isPresent());
+        assertThrows(IllegalArgumentException.class, () -> new JournalArchiver(archive, 0L, 0));
+        assertThrows(IllegalArgumentException.class, () -> new JournalArchiver(archive, -1L, 1));
+    }
+
+    private static Quad description(final int version) {
+        final StringBuilder description = new StringBuilder("Version " + version + ":");
+        while (description.length() < 2000) {
+            description.append(" a long description");
+        }
+        return rdf.createQuad(Trellis.PreferUserManaged, LDPC, DC.description,
+                rdf.createLiteral(description.toString()));
+    }
+
+    private static String closedVersion(final File journal, final Instant time) {
+        return RDFPatch.closedVersion(journal, time).map(range -> range.getFrom() + "/" + range.getUntil())
+            .orElse("none");
+    }
+
+    private static List<String> versions(final File journal) {
+        return RDFPatch.asTimeMap(journal).stream().map(range -> range.getFrom() + "/" + range.getUntil())
+            .collect(toList());
+    }
+
+    private static Set<String> state(final File directory, final IRI identifier, final Instant time) {
+        return VersionedResource.find(directory, identifier, time).map(resource -> {
+            try (final Stream<String> quads = resource.stream().map(RDFPatch.quadToString)) {
+                return quads.collect(toSet());
+            }
+        }).orElseGet(Collections::emptySet);
+    }
+}
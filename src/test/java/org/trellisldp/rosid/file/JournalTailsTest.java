@@ -0,0 +1,242 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAllLines;
+import static java.time.Instant.now;
+import static java.time.Instant.parse;
+import static java.util.Arrays.asList;
+import static java.util.Collections.reverse;
+import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.apache.commons.io.FileUtils.copyFile;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.FileUtils.moveIntoPlace;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class JournalTailsTest {
+
+    private static final IRI IDENTIFIER = rdf.createIRI("trellis:repository/ldprs");
+    private static final Instant TIME1 = parse("2017-03-01T00:00:00Z");
+    private static final Instant TIME2 = parse("2017-03-02T00:00:00Z");
+
+    private File directory;
+    private File journal;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = new File(new File(getClass().getResource("/").toURI()), "tails");
+        journal = copyJournal("ldprs", directory);
+        RDFPatch.tails.clear();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        RDFPatch.tails.clear();
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        final long length = journal.length();
+        assertTrue(RDFPatch.write(journal, empty(), of(title("First")), TIME1));
+        assertTrue(RDFPatch.write(journal, of(title("First")), of(title("Second")), TIME2));
+
+        final JournalTails.Snapshot tail = RDFPatch.tails.get(journal).get();
+        assertEquals(length, tail.getStart());
+        final List<String> lines = readAllLines(journal.toPath(), UTF_8);
+        assertEquals(lines.subList(lines.size() - tail.getLines().size(), lines.size()), tail.getLines());
+        assertEquals(9, tail.getLines().size());
+
+        // The journal reads the same with or without its tail
+        final List<Instant> times = asList(parse("2017-02-15T10:05:00Z"), parse("2017-02-15T11:15:00Z"), TIME1,
+                TIME2, now());
+        final List<Set<String>> states = times.stream().map(this::state).collect(toList());
+        final List<String> versions = versions();
+        final List<Instant> closed = times.stream().map(time -> RDFPatch.closedVersion(journal, time)
+                .map(range -> range.getFrom()).orElse(null)).collect(toList());
+        RDFPatch.tails.clear();
+        assertEquals(states, times.stream().map(this::state).collect(toList()));
+        assertEquals(versions, versions());
+        assertEquals(closed, times.stream().map(time -> RDFPatch.closedVersion(journal, time)
+                .map(range -> range.getFrom()).orElse(null)).collect(toList()));
+        assertEquals(3, versions.size());
+    }
+
+    @Test
+    public void testEntireJournal() throws IOException {
+        final File created = new File(directory, "created.rdfp");
+        assertTrue(RDFPatch.write(created, empty(), of(title("First")), TIME1));
+        assertEquals(0L, RDFPatch.tails.get(created).get().getStart());
+        assertTrue(created.delete());
+        // The journal is read from memory alone, until it changes
+        assertTrue(RDFPatch.write(created, empty(), of(title("First")), TIME1));
+        assertEquals(1L, RDFPatch.asStream(rdf, created, IDENTIFIER, now()).filter(quad ->
+                    quad.getPredicate().equals(DC.title)).count());
+    }
+
+    @Test
+    public void testInvalidation() throws IOException {
+        assertTrue(RDFPatch.write(journal, empty(), of(title("First")), TIME1));
+        assertTrue(RDFPatch.tails.get(journal).isPresent());
+        write(journal, "H modified \"2017-03-03T00:00:00Z\"^^<http://www.w3.org/2001/XMLSchema#dateTimeStamp> .\n",
+                UTF_8, true);
+        assertFalse(RDFPatch.tails.get(journal).isPresent());
+
+        // A write that does not follow the tail starts a new one
+        assertTrue(RDFPatch.write(journal, empty(), of(title("Second")), TIME2));
+        assertTrue(RDFPatch.tails.get(journal).isPresent());
+        try (final RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 5L);
+        }
+        assertFalse(RDFPatch.tails.get(journal).isPresent());
+
+        assertTrue(RDFPatch.write(journal, empty(), of(title("Third")), TIME2));
+        final File copy = new File(directory, "copy.rdfp");
+        copyFile(journal, copy);
+        moveIntoPlace(copy, journal);
+        assertFalse(RDFPatch.tails.get(journal).isPresent());
+        assertEquals(0L, RDFPatch.tails.size());
+    }
+
+    @Test
+    public void testCapacity() throws IOException {
+        final JournalTails tails = new JournalTails(200L, 400L);
+        final String transaction = transaction(100);
+        append(tails, journal, transaction);
+        append(tails, journal, transaction);
+        assertEquals(200L, tails.size());
+        final long length = journal.length();
+        append(tails, journal, transaction);
+        // The oldest transaction gives way to the newest
+        assertEquals(length - 100L, tails.get(journal).get().getStart());
+        assertEquals(200L, tails.size());
+        append(tails, journal, transaction(201));
+        assertFalse(tails.get(journal).isPresent());
+        assertEquals(0L, tails.size());
+
+        final File first = new File(directory, "first.rdfp");
+        final File second = new File(directory, "second.rdfp");
+        final File third = new File(directory, "third.rdfp");
+        append(tails, first, transaction(200));
+        append(tails, second, transaction(200));
+        assertTrue(tails.get(first).isPresent());
+        append(tails, third, transaction(200));
+        // The least recently used tail is discarded
+        assertTrue(tails.get(first).isPresent());
+        assertFalse(tails.get(second).isPresent());
+        assertTrue(tails.get(third).isPresent());
+        assertEquals(400L, tails.size());
+
+        assertThrows(IllegalArgumentException.class, () -> new JournalTails(-1L, 10L));
+        assertThrows(IllegalArgumentException.class, () -> new JournalTails(10L, 5L));
+    }
+
+    @Test
+    public void testBoundedReverseReader() throws IOException {
+        final File file = new File(directory, "lines.txt");
+        final StringBuilder text = new StringBuilder();
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            final String line = i % 100 == 0 ? "" : "Line " + i + " \u00e9\u00e8\u00ea";
+            expected.add(line);
+            text.append(line).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        write(file, text.toString(), UTF_8);
+        assertEquals(expected, readReversed(file, file.length()));
+
+        final int prefix = text.indexOf("Line 1001 ");
+        assertEquals(expected.subList(0, 1001), readReversed(file,
+                    text.substring(0, prefix).getBytes(UTF_8).length));
+        write(file, "no terminator", UTF_8);
+        assertEquals(asList("no terminator"), readReversed(file, file.length()));
+        assertEquals(asList(), readReversed(file, 0L));
+    }
+
+    private static List<String> readReversed(final File file, final long length) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        try (final RDFPatch.ReverseLineReader reader = new RDFPatch.BoundedReverseLineReader(file, length)) {
+            String line = reader.readLine();
+            while (nonNull(line)) {
+                lines.add(line);
+                line = reader.readLine();
+            }
+        }
+        reverse(lines);
+        return lines;
+    }
+
+    private static void append(final JournalTails tails, final File file, final String text) throws IOException {
+        final long before = file.length();
+        write(file, text, UTF_8, true);
+        tails.append(file, before, text);
+    }
+
+    private static String transaction(final int length) {
+        final StringBuilder text = new StringBuilder("TX .\n");
+        while (text.length() < length - 6) {
+            text.append('A');
+        }
+        return text.append("\nTC .\n").toString();
+    }
+
+    private Set<String> state(final Instant time) {
+        try (final Stream<String> quads = RDFPatch.asStream(rdf, journal, IDENTIFIER, time)
+                .map(RDFPatch.quadToString)) {
+            return quads.collect(toSet());
+        }
+    }
+
+    private List<String> versions() {
+        return RDFPatch.asTimeMap(journal).stream().map(range -> range.getFrom() + "/" + range.getUntil())
+            .collect(toList());
+    }
+
+    private static Quad title(final String title) {
+        return rdf.createQuad(Trellis.PreferUserManaged, IDENTIFIER, DC.title, rdf.createLiteral(title));
+    }
+}
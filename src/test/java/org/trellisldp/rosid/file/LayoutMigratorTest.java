@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.PartitionLayout.CRC32;
+import static org.trellisldp.rosid.file.PartitionLayout.LEGACY;
+import static org.trellisldp.rosid.file.PartitionLayout.MD5;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class LayoutMigratorTest {
+
+    private static final String LDPC = "trellis:repository/ldpc";
+    private static final String LDPRS = "trellis:repository/ldprs";
+
+    private File partition;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        partition = new File(new File(getClass().getResource("/").toURI()), "migrate");
+        final File ldpc = new File(partition, LEGACY.path(LDPC));
+        final File ldprs = new File(partition, LEGACY.path(LDPRS));
+        copyJournal("ldpc", ldpc);
+        copyJournal("ldprs", ldprs);
+        assertTrue(CachedResource.write(ldpc, LDPC));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+    }
+
+    @Test
+    public void testMigrate() throws IOException {
+        final PartitionLayout layout = new PartitionLayout(MD5, 2, 2, true);
+        // A lookup may already have created an empty directory in the new layout
+        new File(partition, layout.path(LDPRS)).mkdirs();
+
+        final LayoutMigrator.Report report = new LayoutMigrator(2, 0L).migrate(partition, layout);
+        assertEquals(2L, report.getMoved());
+        assertEquals(0L, report.getUnchanged());
+        assertEquals(0L, report.getErrors());
+        assertEquals(layout, PartitionLayout.read(partition));
+
+        assertTrue(new File(new File(partition, layout.path(LDPC)), RESOURCE_JOURNAL).exists());
+        assertTrue(new File(new File(partition, layout.path(LDPRS)), RESOURCE_JOURNAL).exists());
+        assertFalse(new File(partition, LEGACY.path(LDPC)).exists());
+        assertFalse(new File(partition, LEGACY.path(LDPC).substring(0, 2)).exists());
+        assertEquals(LDPC, CachedResource.read(new File(partition, layout.path(LDPC))).get().getId());
+        assertEquals(new File(partition, layout.path(LDPRS)),
+                FileUtils.resourceDirectory(singletonMap("repository", partition.getAbsolutePath()), LDPRS));
+
+        final LayoutMigrator.Report again = new LayoutMigrator(1, 0L).migrate(partition, layout);
+        assertEquals(0L, again.getMoved() + again.getUnchanged() + again.getErrors());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        final PartitionLayout layout = new PartitionLayout(CRC32, 1, 4, true);
+        layout.migratingFrom(LEGACY).write(partition);
+
+        // A resource moved before the migration was interrupted
+        final File moved = new File(partition, layout.path(LDPC));
+        moved.getParentFile().mkdirs();
+        assertTrue(new File(partition, LEGACY.path(LDPC)).renameTo(moved));
+
+        assertThrows(IOException.class, () -> new LayoutMigrator(1, 0L).migrate(partition,
+                    new PartitionLayout(MD5, 2, 2, true)));
+
+        final LayoutMigrator.Report report = new LayoutMigrator(1, 0L).migrate(partition, layout);
+        assertEquals(1L, report.getMoved());
+        assertEquals(1L, report.getUnchanged());
+        assertEquals(0L, report.getErrors());
+        assertEquals(layout, PartitionLayout.read(partition));
+        assertTrue(new File(new File(partition, layout.path(LDPRS)), RESOURCE_JOURNAL).exists());
+    }
+
+    @Test
+    public void testHeldResource() throws Exception {
+        final PartitionLayout layout = new PartitionLayout(MD5, 2, 2, true);
+        layout.migratingFrom(LEGACY).write(partition);
+        final File held = new File(partition, LEGACY.path(LDPRS));
+        final CompletableFuture<LayoutMigrator.Report> migration;
+        try (final PartitionLayout.Hold hold = PartitionLayout.hold(partition, LDPRS)) {
+            migration = supplyAsync(() -> {
+                try {
+                    return new LayoutMigrator(2, 0L).migrate(partition, layout);
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            // The other resource is moved, but a held resource stays where a writer found it
+            final File moved = new File(new File(partition, layout.path(LDPC)), RESOURCE_JOURNAL);
+            for (int i = 0; i < 100 && !moved.exists(); ++i) {
+                Thread.sleep(50L);
+            }
+            assertTrue(moved.exists());
+            assertTrue(new File(held, RESOURCE_JOURNAL).exists());
+            assertFalse(migration.isDone());
+        }
+        final LayoutMigrator.Report report = migration.get(10L, SECONDS);
+        assertEquals(2L, report.getMoved());
+        assertEquals(0L, report.getErrors());
+        assertFalse(held.exists());
+        assertTrue(new File(new File(partition, layout.path(LDPRS)), RESOURCE_JOURNAL).exists());
+    }
+
+    @Test
+    public void testInvalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new LayoutMigrator(0));
+    }
+}
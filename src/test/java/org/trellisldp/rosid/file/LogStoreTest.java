@@ -0,0 +1,234 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Instant.parse;
+import static java.util.Arrays.asList;
+import static java.util.Arrays.sort;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static java.util.stream.Stream.empty;
+import static java.util.stream.Stream.of;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_LOG;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+import static org.trellisldp.vocabulary.RDF.type;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.api.Resource;
+import org.trellisldp.rosid.common.ResourceData;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class LogStoreTest {
+
+    private static final IRI RESOURCE_A = rdf.createIRI("trellis:repository/a");
+    private static final IRI RESOURCE_B = rdf.createIRI("trellis:repository/b");
+    private static final Instant TIME1 = parse("2017-02-15T10:05:00Z");
+    private static final Instant TIME2 = parse("2017-02-16T10:05:00Z");
+
+    private File partition;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        partition = new File(new File(getClass().getResource("/").toURI()), "logged");
+        partition.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        try (final LogStore log = LogStore.open(partition, 1024L, 0L)) {
+            assertFalse(log.contains(RESOURCE_A));
+            assertFalse(log.get(RESOURCE_A).isPresent());
+
+            assertTrue(create(log, RESOURCE_A, TIME1, "First"));
+            assertTrue(log.write(RESOURCE_A, of(title(RESOURCE_A, "First")), of(title(RESOURCE_A, "Second")), TIME2,
+                        false));
+            assertTrue(create(log, RESOURCE_B, TIME1, "Other"));
+            assertTrue(log.contains(RESOURCE_A));
+
+            final Resource current = log.get(RESOURCE_A).get();
+            assertEquals(LDP.RDFSource, current.getInteractionModel());
+            assertEquals(TIME2, current.getModified());
+            assertEquals(1L, current.stream().filter(quad -> quad.getObject().equals(rdf.createLiteral("Second")))
+                    .count());
+            assertFalse(current.stream().anyMatch(quad -> quad.getObject().equals(rdf.createLiteral("First"))));
+
+            final Resource past = log.get(RESOURCE_A, TIME1).get();
+            assertEquals(TIME1, past.getModified());
+            assertTrue(past.stream().anyMatch(quad -> quad.getObject().equals(rdf.createLiteral("First"))));
+            assertFalse(log.get(RESOURCE_A, parse("2017-01-01T00:00:00Z")).isPresent());
+
+            assertEquals(new HashSet<>(asStrings(RESOURCE_A, RESOURCE_B)),
+                    log.scan().map(ResourceData::getId).collect(toSet()));
+            assertTrue(new File(partition, RESOURCE_LOG).isDirectory());
+        }
+    }
+
+    @Test
+    public void testPurge() throws IOException {
+        try (final LogStore log = LogStore.open(partition, 1024L, 0L)) {
+            assertTrue(create(log, RESOURCE_A, TIME1, "First"));
+            assertTrue(log.write(RESOURCE_A, empty(), of(rdf.createQuad(Trellis.PreferServerManaged, RESOURCE_A,
+                                DC.hasPart, rdf.createIRI("s3://bucket/a"))), TIME2, true));
+            assertEquals(asList(rdf.createIRI("s3://bucket/a")), log.tryPurge(RESOURCE_A).collect(toList()));
+            assertFalse(log.contains(RESOURCE_A));
+            assertFalse(log.get(RESOURCE_A).isPresent());
+            assertEquals(0L, log.tryPurge(RESOURCE_A).count());
+            assertEquals(0L, log.scan().count());
+
+            // A purged resource may be created again
+            assertTrue(create(log, RESOURCE_A, TIME2, "Again"));
+            assertTrue(log.get(RESOURCE_A).get().stream().anyMatch(quad ->
+                        quad.getObject().equals(rdf.createLiteral("Again"))));
+        }
+    }
+
+    @Test
+    public void testRestart() throws IOException {
+        try (final LogStore log = LogStore.open(partition, 512L, 0L)) {
+            for (int i = 0; i < 20; ++i) {
+                assertTrue(create(log, rdf.createIRI("trellis:repository/" + i), TIME1, "Title " + i));
+            }
+            assertTrue(log.getSegmentCount() > 1);
+            assertEquals(0L, log.tryPurge(rdf.createIRI("trellis:repository/0")).count());
+        }
+        final File directory = new File(partition, RESOURCE_LOG);
+        assertTrue(directory.listFiles((dir, name) -> name.endsWith(".hint")).length > 0);
+        final File[] segments = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        sort(segments);
+        final long length = segments[segments.length - 1].length();
+        write(segments[segments.length - 1], "J trellis:repository/torn 100\nH modified", UTF_8, true);
+
+        try (final LogStore log = LogStore.open(partition, 512L, 0L)) {
+            assertEquals(length, segments[segments.length - 1].length());
+            assertEquals(19L, log.scan().count());
+            assertFalse(log.contains(rdf.createIRI("trellis:repository/0")));
+            assertFalse(log.contains(rdf.createIRI("trellis:repository/torn")));
+            assertTrue(log.get(rdf.createIRI("trellis:repository/19")).get().stream().anyMatch(quad ->
+                        quad.getObject().equals(rdf.createLiteral("Title 19"))));
+            assertTrue(create(log, RESOURCE_A, TIME2, "After"));
+        }
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        try (final LogStore log = LogStore.open(partition, 512L, 0L)) {
+            for (int i = 0; i < 10; ++i) {
+                assertTrue(create(log, rdf.createIRI("trellis:repository/" + i), TIME1, "Title " + i));
+            }
+            for (int i = 0; i < 8; ++i) {
+                log.tryPurge(rdf.createIRI("trellis:repository/" + i)).count();
+            }
+            final long size = log.getSize();
+            final long reclaimed = log.compact();
+            assertTrue(reclaimed > 0L);
+            assertEquals(size - reclaimed, log.getSize());
+            assertEquals(0L, log.compact());
+            assertEquals(2L, log.scan().count());
+            assertTrue(log.get(rdf.createIRI("trellis:repository/9")).get().stream().anyMatch(quad ->
+                        quad.getObject().equals(rdf.createLiteral("Title 9"))));
+            assertTrue(log.get(rdf.createIRI("trellis:repository/8"), TIME1).isPresent());
+        }
+
+        // The compacted segments and their hints are read on restart
+        try (final LogStore log = LogStore.open(partition, 512L, 0L)) {
+            assertEquals(2L, log.scan().count());
+            assertFalse(log.contains(rdf.createIRI("trellis:repository/0")));
+            assertTrue(log.get(rdf.createIRI("trellis:repository/8")).isPresent());
+        }
+    }
+
+    @Test
+    public void testExclusive() throws IOException {
+        try (final LogStore log = LogStore.open(partition)) {
+            assertThrows(IOException.class, () -> LogStore.open(partition));
+        }
+        LogStore.open(partition).close();
+        assertThrows(IllegalArgumentException.class, () -> LogStore.open(partition, 0L, 0L));
+    }
+
+    @Test
+    public void testReadOnly() throws IOException {
+        try (final LogStore log = LogStore.open(partition, 1024L, 0L)) {
+            assertTrue(create(log, RESOURCE_A, TIME1, "First"));
+            assertTrue(log.write(RESOURCE_A, of(title(RESOURCE_A, "First")), of(title(RESOURCE_A, "Second")), TIME2,
+                        false));
+
+            // A replica may read alongside the writer, and never takes the lock
+            try (final LogStore replica = LogStore.openReadOnly(partition)) {
+                assertTrue(replica.get(RESOURCE_A).get().stream().anyMatch(quad ->
+                            quad.getObject().equals(rdf.createLiteral("Second"))));
+                assertTrue(replica.get(RESOURCE_A, TIME1).isPresent());
+                assertFalse(create(replica, RESOURCE_B, TIME2, "Other"));
+                assertEquals(0L, replica.compact());
+                assertFalse(replica.contains(RESOURCE_B));
+            }
+        }
+        final String[] files = new File(partition, RESOURCE_LOG).list();
+        sort(files);
+        try (final LogStore replica = LogStore.openReadOnly(partition)) {
+            assertEquals(asStrings(RESOURCE_A), replica.scan().map(ResourceData::getId).collect(toList()));
+        }
+        final String[] after = new File(partition, RESOURCE_LOG).list();
+        sort(after);
+        assertEquals(asList(files), asList(after));
+        try (final LogStore replica = LogStore.openReadOnly(new File(partition, "empty"))) {
+            assertEquals(0L, replica.scan().count());
+        }
+        assertFalse(new File(partition, "empty").exists());
+    }
+
+    private static Boolean create(final LogStore log, final IRI identifier, final Instant time,
+            final String title) {
+        return log.write(identifier, empty(), of(rdf.createQuad(Trellis.PreferServerManaged, identifier, type,
+                        LDP.RDFSource), title(identifier, title)), time, true);
+    }
+
+    private static Quad title(final IRI identifier, final String title) {
+        return rdf.createQuad(Trellis.PreferUserManaged, identifier, DC.title, rdf.createLiteral(title));
+    }
+
+    private static List<String> asStrings(final IRI... identifiers) {
+        return of(identifiers).map(IRI::getIRIString).collect(toList());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toSet;
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.readFileToString;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_PACKS;
+import static org.trellisldp.rosid.file.FileUtils.partition;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class PackStoreTest {
+
+    private static final String RESOURCE_A = "trellis:repository/a";
+    private static final String RESOURCE_B = "trellis:repository/b";
+    private static final String TX1 = "H modified \"2017-02-15T10:05:00Z\" .\nTX .\nA <a> <b> \"1\" <g> .\nTC .\n";
+    private static final String TX2 = "H modified \"2017-02-16T10:05:00Z\" .\nTX .\nA <a> <b> \"2\" <g> .\nTC .\n";
+
+    private File partition;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        partition = new File(new File(getClass().getResource("/").toURI()), "packed");
+        partition.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        final PackStore store = new PackStore(partition, 1024);
+        assertFalse(PackStore.exists(partition));
+        assertFalse(store.journal(RESOURCE_A).isPresent());
+
+        assertTrue(store.write(RESOURCE_A, TX1));
+        assertTrue(store.write(RESOURCE_B, TX1));
+        assertTrue(store.write(RESOURCE_A, TX2));
+        assertTrue(PackStore.exists(partition));
+        assertEquals(asList((TX1 + TX2).split("\n")), store.journal(RESOURCE_A).get());
+        assertEquals(asList(TX1.split("\n")), store.journal(RESOURCE_B).get());
+        assertEquals(new HashSet<>(asList(RESOURCE_A, RESOURCE_B)), store.identifiers().collect(toSet()));
+        assertFalse(store.directory(RESOURCE_A).isPresent());
+        assertFalse(new File(partition, partition(RESOURCE_A)).exists());
+
+        // Another store, as in another process, reads the same records
+        assertEquals(store.journal(RESOURCE_A), new PackStore(partition, 1024).journal(RESOURCE_A));
+
+        store.remove(RESOURCE_B);
+        assertFalse(store.journal(RESOURCE_B).isPresent());
+        assertEquals(1L, store.identifiers().count());
+    }
+
+    @Test
+    public void testPromote() throws IOException {
+        final PackStore store = new PackStore(partition, TX1.length() + TX2.length() - 1);
+        assertTrue(store.write(RESOURCE_A, TX1));
+        assertTrue(store.write(RESOURCE_A, TX2));
+
+        final File directory = new File(partition, partition(RESOURCE_A));
+        assertEquals(directory, store.directory(RESOURCE_A).get());
+        assertEquals(TX1 + TX2, readFileToString(new File(directory, RESOURCE_JOURNAL), UTF_8));
+        assertFalse(store.journal(RESOURCE_A).isPresent());
+
+        // Once promoted, the resource is written in its own directory
+        assertFalse(store.write(RESOURCE_A, TX1));
+        assertEquals(TX1 + TX2, readFileToString(new File(directory, RESOURCE_JOURNAL), UTF_8));
+    }
+
+    @Test
+    public void testNoPacking() throws IOException {
+        final PackStore store = new PackStore(partition, 0);
+        assertTrue(store.write(RESOURCE_A, TX1));
+        assertTrue(store.directory(RESOURCE_A).isPresent());
+        assertFalse(store.journal(RESOURCE_A).isPresent());
+        assertThrows(IllegalArgumentException.class, () -> new PackStore(partition, -1));
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        final PackStore store = new PackStore(partition, 1024);
+        assertTrue(store.write(RESOURCE_A, TX1));
+        final File pack = new File(new File(partition, RESOURCE_PACKS), md5Hex(RESOURCE_B).substring(0, 2) + ".pack");
+        write(pack, "J " + RESOURCE_B + " 500\nH modified", UTF_8, true);
+        assertFalse(store.journal(RESOURCE_B).isPresent());
+
+        // The torn record is discarded by the next write
+        assertTrue(store.write(RESOURCE_B, TX2));
+        assertEquals(asList(TX2.split("\n")), store.journal(RESOURCE_B).get());
+        assertEquals(asList(TX2.split("\n")), new PackStore(partition, 1024).journal(RESOURCE_B).get());
+    }
+}
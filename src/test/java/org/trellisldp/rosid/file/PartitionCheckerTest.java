@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Instant.parse;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.readFileToString;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_COMBINED_CACHE;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_MEMENTOS;
+import static org.trellisldp.rosid.file.FileUtils.partition;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class PartitionCheckerTest {
+
+    private static final String TORN = "H modified \"2017-02-17T10:00:00Z\"^^" +
+        "<http://www.w3.org/2001/XMLSchema#dateTimeStamp> .\nTX .\n" +
+        "A <trellis:repository/ldpc> <http://www.w3.org/2000/01/rdf-schema#label> \"Torn\" " +
+        "<http://www.trellisldp.org/ns/trellis#PreferUserManaged> .\n";
+
+    private File partition;
+    private File ldpc;
+    private File ldprs;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        partition = new File(new File(getClass().getResource("/").toURI()), "fsck");
+        ldpc = new File(partition, partition("trellis:repository/ldpc"));
+        ldprs = new File(partition, partition("trellis:repository/ldprs"));
+        copyJournal("ldpc", ldpc);
+        copyJournal("ldprs", ldprs);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+    }
+
+    @Test
+    public void testCheckAndRepair() throws IOException {
+        assertTrue(CachedResource.write(ldpc, "trellis:repository/ldpc"));
+        new File(ldpc, RESOURCE_JOURNAL).setLastModified(parse("2017-01-01T00:00:00Z").toEpochMilli());
+        final String committed = readFileToString(new File(ldpc, RESOURCE_JOURNAL), UTF_8);
+        write(new File(ldpc, RESOURCE_JOURNAL), TORN, UTF_8, true);
+        write(new File(ldpc, RESOURCE_CACHE + "abcdefghijklmnop"), "{", UTF_8);
+        new File(ldpc, RESOURCE_MEMENTOS).mkdirs();
+        write(new File(new File(ldpc, RESOURCE_MEMENTOS), "1487243702000.nqabcdefghijklmnop"), "", UTF_8);
+        write(new File(ldpc, "resource.jsonbackup"), "", UTF_8);
+
+        final PartitionChecker.Report check = new PartitionChecker(2, 0L, false).check(partition);
+        assertEquals(2L, check.getResources());
+        assertEquals(1L, check.getTornJournals());
+        assertEquals(2L, check.getTempFiles());
+        // The torn journal invalidates one cache, and the other resource has none
+        assertEquals(2L, check.getStaleCaches());
+        assertEquals(0L, check.getErrors());
+        assertFalse(new File(ldprs, RESOURCE_COMBINED_CACHE).exists());
+
+        final PartitionChecker.Report repair = new PartitionChecker(2, 1000L, true).check(partition);
+        assertEquals(check.toString(), repair.toString());
+        assertEquals(committed, readFileToString(new File(ldpc, RESOURCE_JOURNAL), UTF_8));
+        assertFalse(new File(ldpc, RESOURCE_CACHE + "abcdefghijklmnop").exists());
+        assertTrue(new File(ldpc, "resource.jsonbackup").exists());
+        assertTrue(new File(ldprs, RESOURCE_COMBINED_CACHE).exists());
+        assertEquals("trellis:repository/ldprs", CachedResource.read(ldprs).get().getId());
+
+        final PartitionChecker.Report clean = new PartitionChecker(1, 0L, false).check(partition);
+        assertEquals(2L, clean.getResources());
+        assertEquals(0L, clean.getTornJournals() + clean.getTempFiles() + clean.getStaleCaches() +
+                clean.getErrors());
+    }
+
+    @Test
+    public void testCommittedLength() throws IOException {
+        final File journal = new File(partition, RESOURCE_JOURNAL);
+        write(journal, "", UTF_8);
+        assertEquals(0L, PartitionChecker.committedLength(journal));
+
+        write(journal, TORN, UTF_8);
+        assertEquals(0L, PartitionChecker.committedLength(journal));
+
+        final String tx = "H modified \"2017-02-15T10:05:00Z\"^^" +
+            "<http://www.w3.org/2001/XMLSchema#dateTimeStamp> .\r\nTX .\r\n" +
+            "A <trellis:repository/a> <http://example.org/p> \"TC .\" <trellis:graph> .\r\nTC .\r\n";
+        write(journal, tx + "\n\n", UTF_8);
+        assertEquals(journal.length(), PartitionChecker.committedLength(journal));
+        write(journal, tx + "H mod", UTF_8);
+        assertEquals(tx.length(), PartitionChecker.committedLength(journal));
+
+        // A torn transaction that spans several blocks
+        final StringBuilder builder = new StringBuilder(tx);
+        builder.append("TX .\n");
+        for (int i = 0; i < 1000; ++i) {
+            builder.append("A <trellis:repository/a> <http://example.org/p> \"").append(i).append("\" <g> .\n");
+        }
+        write(journal, builder.toString(), UTF_8);
+        assertEquals(tx.length(), PartitionChecker.committedLength(journal));
+    }
+
+    @Test
+    public void testArchiveTempFiles() throws IOException {
+        // An archive run that stops before its files are moved into place leaves a journal and an archive behind
+        final File journal = FileUtils.tempFile(ldpc, RESOURCE_JOURNAL);
+        final File history = FileUtils.tempFile(ldpc, "resource.1487243702000.rdfp.gz");
+        write(journal, TORN, UTF_8);
+        write(history, "", UTF_8);
+
+        final PartitionChecker.Report check = new PartitionChecker(1, 0L, false).check(partition);
+        assertEquals(2L, check.getTempFiles());
+        assertTrue(journal.exists());
+        assertTrue(history.exists());
+
+        final PartitionChecker.Report repair = new PartitionChecker(1, 0L, true).check(partition);
+        assertEquals(2L, repair.getTempFiles());
+        assertEquals(0L, repair.getErrors());
+        assertFalse(journal.exists());
+        assertFalse(history.exists());
+        assertTrue(new File(ldpc, RESOURCE_JOURNAL).isFile());
+    }
+
+    @Test
+    public void testInvalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new PartitionChecker(0, 0L, true));
+    }
+
+    @Test
+    public void testTempFileNames() {
+        assertTrue(FileUtils.isTempFile("resource.nqabcdefghijklmnop"));
+        assertTrue(FileUtils.isTempFile("resource.offsetsabcdefghijklmnop"));
+        assertTrue(FileUtils.isTempFile("resource.childrenabcdefghijklmnop"));
+        assertTrue(FileUtils.isTempFile("1487243702000.jsonabcdefghijklmnop"));
+        assertFalse(FileUtils.isTempFile("resource.nq"));
+        assertFalse(FileUtils.isTempFile("resource.children.log"));
+        assertFalse(FileUtils.isTempFile("resource.nqabcdefghijklmno"));
+        assertTrue(FileUtils.isTempFile("resource.rdfpabcdefghijklmnop"));
+        assertTrue(FileUtils.isTempFile(FileUtils.tempFile(partition, RESOURCE_JOURNAL).getName()));
+        assertTrue(FileUtils.isTempFile(FileUtils.tempFile(partition, "resource.1487243702000.rdfp.gz").getName()));
+        assertFalse(FileUtils.isTempFile("resource.1487243702000.rdfp.gz"));
+        assertFalse(FileUtils.isTempFile("resource.rdfp.gzabcdefghijklmnop"));
+        assertTrue(FileUtils.isTempFile(FileUtils.tempFile(partition, RESOURCE_CACHE).getName()));
+    }
+}
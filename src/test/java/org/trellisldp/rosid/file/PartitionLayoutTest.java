@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.io.File.separator;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.PARTITION_LAYOUT;
+import static org.trellisldp.rosid.file.Constants.PARTITION_LOCK;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.PartitionLayout.CRC32;
+import static org.trellisldp.rosid.file.PartitionLayout.LEGACY;
+import static org.trellisldp.rosid.file.PartitionLayout.MD5;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class PartitionLayoutTest {
+
+    private File partition;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        partition = new File(new File(getClass().getResource("/").toURI()), "layout");
+        partition.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(partition);
+    }
+
+    @Test
+    public void testLegacy() {
+        for (int i = 0; i < 100; ++i) {
+            final String identifier = "trellis:repository/resource" + i;
+            assertEquals(FileUtils.partition(identifier), LEGACY.path(identifier));
+        }
+        assertEquals(FileUtils.MAX + 1, LEGACY.getResourceDepth());
+    }
+
+    @Test
+    public void testPadded() {
+        final PartitionLayout layout = new PartitionLayout(CRC32, 2, 4, true);
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(5, layout.path("trellis:repository/resource" + i).split(separator).length);
+        }
+    }
+
+    @Test
+    public void testMd5() {
+        final PartitionLayout layout = new PartitionLayout(MD5, 3, 2, false);
+        assertEquals("900" + separator + "150" + separator + "900150983cd24fb0d6963f7d28e17f72", layout.path("abc"));
+        assertEquals(3, layout.getResourceDepth());
+    }
+
+    @Test
+    public void testInvalid() {
+        assertThrows(IllegalArgumentException.class, () -> new PartitionLayout("sha1", 2, 2, false));
+        assertThrows(IllegalArgumentException.class, () -> new PartitionLayout(MD5, 0, 2, false));
+        assertThrows(IllegalArgumentException.class, () -> new PartitionLayout(MD5, 2, -1, false));
+        assertThrows(IllegalArgumentException.class, () -> new PartitionLayout(CRC32, 3, 3, false));
+    }
+
+    @Test
+    public void testReadWrite() throws IOException {
+        assertEquals(LEGACY, PartitionLayout.read(partition));
+        assertEquals(LEGACY, PartitionLayout.of(partition));
+
+        final PartitionLayout layout = new PartitionLayout(MD5, 2, 3, true);
+        layout.write(partition);
+        assertEquals(layout, PartitionLayout.read(partition));
+        assertEquals(layout, PartitionLayout.of(partition));
+        assertNull(PartitionLayout.read(partition).getPrevious());
+
+        final PartitionLayout migrating = layout.migratingFrom(LEGACY);
+        assertNotEquals(layout, migrating);
+        migrating.write(partition);
+        assertEquals(migrating, PartitionLayout.read(partition));
+        assertEquals(LEGACY, PartitionLayout.read(partition).getPrevious());
+        assertEquals(layout, migrating.withoutPrevious());
+        assertEquals(FileUtils.MAX + 1, migrating.getResourceDepth());
+
+        write(new File(partition, PARTITION_LAYOUT), "hash=sha1\n", UTF_8);
+        assertThrows(IOException.class, () -> PartitionLayout.read(partition));
+        write(new File(partition, PARTITION_LAYOUT), "width=2\n", UTF_8);
+        assertThrows(IOException.class, () -> PartitionLayout.read(partition));
+    }
+
+    @Test
+    public void testOtherPath() throws IOException {
+        final File root = new File(partition, "other");
+        new File(root, "subdirectory").mkdirs();
+        final File other = new File(new File(root, "subdirectory"), "..");
+        assertEquals(LEGACY, PartitionLayout.of(other));
+        assertEquals(root.getCanonicalFile(), PartitionLayout.canonical(other));
+
+        // A change is seen at once through any path to the partition
+        final PartitionLayout layout = new PartitionLayout(MD5, 2, 3, true);
+        layout.write(root);
+        assertEquals(layout, PartitionLayout.of(other));
+    }
+
+    @Test
+    public void testHold() throws IOException {
+        final File root = new File(partition, "held");
+        root.mkdirs();
+        final String identifier = "trellis:repository/resource";
+        // Nothing is locked outside of a migration
+        try (final PartitionLayout.Hold hold = PartitionLayout.hold(root, identifier)) {
+            assertFalse(new File(root, PARTITION_LOCK).exists());
+        }
+
+        new PartitionLayout(MD5, 2, 2, true).migratingFrom(LEGACY).write(root);
+        try (final PartitionLayout.Hold hold = PartitionLayout.hold(root, identifier)) {
+            assertTrue(new File(root, PARTITION_LOCK).exists());
+        }
+        // A hold is released when it is closed
+        try (final PartitionLayout.Hold hold = PartitionLayout.lock(root, identifier)) {
+            assertTrue(new File(root, PARTITION_LOCK).exists());
+        }
+    }
+
+    @Test
+    public void testInvalidDescriptor() throws IOException {
+        write(new File(partition, PARTITION_LAYOUT), "hash=md5\nwidth=x\ndepth=2\n", UTF_8);
+        assertThrows(UncheckedIOException.class, () -> PartitionLayout.of(partition));
+    }
+
+    @Test
+    public void testDirectoryDuringMigration() throws IOException {
+        final String identifier = "trellis:repository/resource";
+        final PartitionLayout layout = new PartitionLayout(MD5, 2, 2, true).migratingFrom(LEGACY);
+        final File current = new File(partition, layout.path(identifier));
+        final File old = new File(partition, LEGACY.path(identifier));
+
+        // A new resource is created in the new layout
+        assertEquals(current, layout.directory(partition, identifier));
+
+        // A resource that has not yet been moved is found in the old layout
+        old.mkdirs();
+        write(new File(old, RESOURCE_JOURNAL), "", UTF_8);
+        assertEquals(old, layout.directory(partition, identifier));
+
+        // Once moved, it is found in the new layout
+        current.mkdirs();
+        write(new File(current, RESOURCE_JOURNAL), "", UTF_8);
+        assertEquals(current, layout.directory(partition, identifier));
+        assertEquals(current, layout.withoutPrevious().directory(partition, identifier));
+    }
+}
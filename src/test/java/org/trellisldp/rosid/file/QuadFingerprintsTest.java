@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.time.Instant.now;
+import static java.util.stream.IntStream.range;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+import static org.trellisldp.vocabulary.RDF.type;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.IRI;
+import org.apache.commons.rdf.api.Quad;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class QuadFingerprintsTest {
+
+    private final IRI identifier = rdf.createIRI("trellis:repository/churn");
+
+    private File directory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = new File(new File(getClass().getResource("/").toURI()), "fingerprints");
+        directory.mkdirs();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testAddAndContains() {
+        final QuadFingerprints fingerprints = new QuadFingerprints();
+        assertTrue(fingerprints.isEmpty());
+        assertTrue(fingerprints.add("D " + line(1), 2));
+        assertFalse(fingerprints.add("D " + line(1), 2));
+        assertTrue(fingerprints.contains("A " + line(1), 2));
+        assertTrue(fingerprints.contains(line(1), 0));
+        assertFalse(fingerprints.contains("A " + line(2), 2));
+        assertFalse(fingerprints.contains(line(1), 2));
+        assertEquals(1, fingerprints.size());
+
+        fingerprints.clear();
+        assertTrue(fingerprints.isEmpty());
+        assertFalse(fingerprints.contains(line(1), 0));
+    }
+
+    @Test
+    public void testResizeAndAddAll() {
+        final QuadFingerprints first = new QuadFingerprints();
+        range(0, 10000).forEach(i -> first.add(line(i), 0));
+        assertEquals(10000, first.size());
+        assertTrue(range(0, 10000).allMatch(i -> first.contains(line(i), 0)));
+        assertTrue(range(10000, 20000).noneMatch(i -> first.contains(line(i), 0)));
+
+        final QuadFingerprints second = new QuadFingerprints();
+        range(5000, 15000).forEach(i -> second.add(line(i), 0));
+        second.addAll(first);
+        assertEquals(15000, second.size());
+        assertTrue(range(0, 15000).allMatch(i -> second.contains(line(i), 0)));
+    }
+
+    @Test
+    public void testChurn() {
+        final Instant start = now().minusSeconds(3600);
+        assertTrue(RDFPatch.write(new File(directory, RESOURCE_JOURNAL), Stream.empty(),
+                    Stream.of(rdf.createQuad(Trellis.PreferServerManaged, identifier, type, LDP.RDFSource)), start));
+        range(0, 200).forEach(i -> assertTrue(RDFPatch.write(new File(directory, RESOURCE_JOURNAL),
+                        Stream.of(title(i - 1)), Stream.of(title(i), title(i + 1000)), start.plusSeconds(i + 1))));
+
+        final File journal = new File(directory, RESOURCE_JOURNAL);
+        try (final Stream<Quad> quads = RDFPatch.asStream(rdf, journal, identifier, now())) {
+            final long titles = quads.filter(q -> q.getPredicate().equals(DC.title)).count();
+            // The last title remains, along with every title from the second series
+            assertEquals(201L, titles);
+        }
+        try (final Stream<Quad> quads = RDFPatch.asStream(rdf, journal, identifier, start.plusSeconds(100))) {
+            assertTrue(quads.anyMatch(title(99)::equals));
+        }
+        try (final Stream<Quad> quads = RDFPatch.asStream(rdf, journal, identifier, start.plusSeconds(100))) {
+            assertFalse(quads.anyMatch(title(98)::equals));
+        }
+    }
+
+    private Quad title(final int i) {
+        return rdf.createQuad(Trellis.PreferUserManaged, identifier, DC.title, rdf.createLiteral("Title " + i));
+    }
+
+    private static String line(final int i) {
+        return "<trellis:repository/resource> <http://purl.org/dc/terms/title> \"Title " + i +
+            "\" <http://www.trellisldp.org/ns/trellis#PreferUserManaged> .";
+    }
+}
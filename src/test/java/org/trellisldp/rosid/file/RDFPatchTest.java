@@ -24,6 +24,7 @@ import static org.apache.commons.io.FileUtils.deleteDirectory;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
@@ -39,9 +40,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import org.apache.commons.rdf.api.Graph;
 import org.apache.commons.rdf.api.IRI;
@@ -217,4 +220,30 @@ public class RDFPatchTest {
         assertFalse(file.exists());
         assertThrows(UncheckedIOException.class, () -> new RDFPatch.TimeMapReader(file));
     }
+
+    @Test
+    public void testModifiedHeader() {
+        final String suffix = "\"^^<http://www.w3.org/2001/XMLSchema#dateTimeStamp> .";
+        final Random random = new Random(42L);
+        for (int i = 0; i < 10000; ++i) {
+            // Any instant between the years 0000 and 9999
+            final Instant time = Instant.ofEpochMilli(Math.floorMod(random.nextLong(), 315537897600000L) -
+                    62167219200000L);
+            assertEquals(time, RDFPatch.modifiedToInstant("H modified \"" + time + suffix));
+        }
+        assertEquals(parse("2017-02-15T10:05:00Z"), RDFPatch.modifiedToInstant("H modified \"2017-02-15T10:05:00Z" +
+                    suffix));
+        assertEquals(parse("1969-12-31T23:59:59.999Z"),
+                RDFPatch.modifiedToInstant("H modified \"1969-12-31T23:59:59.999Z" + suffix));
+        assertEquals(parse("2016-02-29T23:59:59.999Z"),
+                RDFPatch.modifiedToInstant("H modified \"2016-02-29T23:59:59.999Z" + suffix));
+        // Non-standard forms are handled by the tokenizer
+        assertEquals(parse("2017-02-15T10:05:00.123456Z"),
+                RDFPatch.modifiedToInstant("H modified \"2017-02-15T10:05:00.123456Z" + suffix));
+        assertEquals(parse("2017-02-15T10:05:00.5Z"),
+                RDFPatch.modifiedToInstant("H modified  \"2017-02-15T10:05:00.5Z" + suffix));
+        assertThrows(DateTimeParseException.class, () ->
+                RDFPatch.modifiedToInstant("H modified \"2017-02-30T10:05:00Z" + suffix));
+        assertNull(RDFPatch.modifiedToInstant("H modified <trellis:repository/resource> ."));
+    }
 }
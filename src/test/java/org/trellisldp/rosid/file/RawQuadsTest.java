@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.lang.System.lineSeparator;
+import static java.nio.channels.Channels.newChannel;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Arrays.asList;
+import static org.apache.commons.io.FileUtils.deleteQuietly;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class RawQuadsTest {
+
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        file = new File(new File(getClass().getResource("/").toURI()), "raw.nq");
+        write(file, "aaa\nbbb\nccc\n", UTF_8);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleteQuietly(file);
+    }
+
+    @Test
+    public void testRanges() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final FileChannel channel = FileChannel.open(file.toPath(), READ);
+        try (final RawQuads raw = new RawQuads(channel, asList(new RawQuads.Range(4L, 4L),
+                        new RawQuads.Range(0L, 4L)), null)) {
+            assertEquals(8L, raw.getLength());
+            assertEquals(2, raw.getRanges().size());
+            assertEquals(8L, raw.transferTo(newChannel(out)));
+        }
+        assertEquals("bbb\naaa\n", out.toString("UTF-8"));
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testTrailer() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final RawQuads raw = new RawQuads(FileChannel.open(file.toPath(), READ),
+                    asList(new RawQuads.Range(8L, 4L)), () -> Stream.of("ddd", "eee"))) {
+            assertEquals(-1L, raw.getLength());
+            assertTrue(raw.getChannel().isOpen());
+            raw.transferTo(newChannel(out));
+        }
+        assertEquals("ccc\nddd" + lineSeparator() + "eee" + lineSeparator(), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        try (final RawQuads raw = new RawQuads(FileChannel.open(file.toPath(), READ),
+                    asList(new RawQuads.Range(8L, 40L)), null)) {
+            assertThrows(IOException.class, () -> raw.transferTo(newChannel(new ByteArrayOutputStream())));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.time.Instant.now;
+import static java.time.Instant.parse;
+import static java.util.stream.Collectors.toSet;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.write;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_MEMENTOS;
+import static org.trellisldp.rosid.file.TestUtils.copyJournal;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+
+import org.apache.commons.rdf.api.IRI;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.trellisldp.api.Resource;
+import org.trellisldp.api.VersionRange;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class SnapshotResourceTest {
+
+    private final IRI identifier = rdf.createIRI("trellis:repository/ldpc");
+
+    private File directory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        directory = new File(new File(getClass().getResource("/").toURI()), "snapshots");
+        copyJournal("ldpc", directory);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        deleteDirectory(directory);
+    }
+
+    @Test
+    public void testClosedVersion() {
+        final File journal = new File(directory, RESOURCE_JOURNAL);
+        final VersionRange range = RDFPatch.closedVersion(journal, parse("2017-02-16T11:15:02.500Z")).get();
+        assertEquals(parse("2017-02-16T11:15:02Z"), range.getFrom());
+        assertEquals(parse("2017-02-16T11:15:03Z"), range.getUntil());
+        assertEquals(parse("2017-02-15T10:05:00Z"),
+                RDFPatch.closedVersion(journal, parse("2017-02-15T11:00:00Z")).get().getFrom());
+        assertFalse(RDFPatch.closedVersion(journal, now()).isPresent());
+        assertFalse(RDFPatch.closedVersion(journal, parse("2017-02-15T10:04:59Z")).isPresent());
+        assertFalse(RDFPatch.closedVersion(new File(directory, "non-existent"), now()).isPresent());
+    }
+
+    @Test
+    public void testUncommittedTransaction() throws IOException {
+        final File journal = new File(directory, RESOURCE_JOURNAL);
+        write(journal, "H modified \"2017-02-17T10:00:00Z\"^^<http://www.w3.org/2001/XMLSchema#dateTimeStamp> .\n" +
+                "TX .\n", UTF_8, true);
+        // A transaction without a commit does not close the preceding version
+        assertFalse(RDFPatch.closedVersion(journal, parse("2017-02-16T11:15:03Z")).isPresent());
+        assertTrue(RDFPatch.closedVersion(journal, parse("2017-02-16T11:15:02Z")).isPresent());
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        final Instant time = parse("2017-02-16T11:15:02.500Z");
+        final Resource versioned = VersionedResource.find(directory, identifier, time).get();
+        final Resource snapshot = SnapshotResource.find(directory, identifier, time).get();
+        assertTrue(snapshot.isMemento());
+        assertTrue(new File(directory, RESOURCE_MEMENTOS).exists());
+        assertEquals(versioned.getModified(), snapshot.getModified());
+        assertEquals(versioned.getInteractionModel(), snapshot.getInteractionModel());
+        assertEquals(versioned.getTypes(), snapshot.getTypes());
+        assertEquals(versioned.getMementos().size(), snapshot.getMementos().size());
+        assertEquals(versioned.stream().collect(toSet()), snapshot.stream().collect(toSet()));
+        assertEquals(2L, snapshot.stream(LDP.PreferContainment).count());
+        assertEquals(5L, snapshot.stream(Trellis.PreferUserManaged).count());
+
+        // Later reads of the same version are served from the snapshot, at any time within the version
+        final File quads = new File(new File(directory, RESOURCE_MEMENTOS),
+                parse("2017-02-16T11:15:02Z").toEpochMilli() + ".nq");
+        write(quads, "", UTF_8);
+        assertEquals(0L, SnapshotResource.find(directory, identifier, parse("2017-02-16T11:15:02Z")).get().stream()
+                .count());
+
+        assertFalse(SnapshotResource.find(directory, identifier, now()).isPresent());
+        assertFalse(SnapshotResource.find(null, identifier, time).isPresent());
+
+        SnapshotResource.delete(directory);
+        assertFalse(new File(directory, RESOURCE_MEMENTOS).exists());
+        SnapshotResource.delete(directory);
+        assertFalse(new File(directory, RESOURCE_MEMENTOS).exists());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * A subscriber that records what it receives and requests items only when told to.
+ *
+ * @author acoburn
+ */
+class TestSubscriber<T> implements Subscriber<T> {
+
+    final List<T> items = new CopyOnWriteArrayList<>();
+    final CountDownLatch terminated = new CountDownLatch(1);
+    volatile Subscription subscription;
+    volatile Throwable error;
+    volatile boolean completed;
+
+    @Override
+    public void onSubscribe(final Subscription subscription) {
+        this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(final T item) {
+        items.add(item);
+    }
+
+    @Override
+    public void onError(final Throwable error) {
+        this.error = error;
+        terminated.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+        completed = true;
+        terminated.countDown();
+    }
+
+    TestSubscriber<T> request(final long n) {
+        subscription.request(n);
+        return this;
+    }
+}
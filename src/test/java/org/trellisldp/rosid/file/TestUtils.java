@@ -13,9 +13,16 @@
  */
 package org.trellisldp.rosid.file;
 
+import static java.lang.System.currentTimeMillis;
+import static org.apache.commons.io.FileUtils.copyFile;
+import static org.trellisldp.rosid.file.Constants.RESOURCE_JOURNAL;
+
 import org.trellisldp.vocabulary.LDP;
 import org.trellisldp.vocabulary.Trellis;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
 import java.util.function.Predicate;
 
 import org.apache.commons.rdf.api.RDF;
@@ -41,6 +48,24 @@ class TestUtils {
     public static final Predicate<Quad> isMembership = quad ->
         quad.getGraphName().filter(LDP.PreferMembership::equals).isPresent();
 
+    /**
+     * Copy the journal of a test resource into a directory, as though it had just been written
+     * @param fixture the name of the test resource, e.g. "ldpc"
+     * @param directory the directory, which is created if necessary
+     * @return the copied journal
+     * @throws IOException if the journal could not be copied
+     * @throws URISyntaxException if the test resource could not be located
+     */
+    public static File copyJournal(final String fixture, final File directory) throws IOException,
+            URISyntaxException {
+        directory.mkdirs();
+        final File journal = new File(directory, RESOURCE_JOURNAL);
+        copyFile(new File(new File(TestUtils.class.getResource("/" + fixture).toURI()), RESOURCE_JOURNAL), journal);
+        // The copy would otherwise keep the modification time of the checkout
+        journal.setLastModified(currentTimeMillis());
+        return journal;
+    }
+
     private TestUtils() {
         // Prevent instantiation
     }
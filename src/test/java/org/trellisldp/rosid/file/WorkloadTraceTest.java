@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.trellisldp.rosid.file;
+
+import static java.time.Instant.now;
+import static java.util.Optional.empty;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+import static org.trellisldp.rosid.file.TestUtils.rdf;
+import static org.trellisldp.vocabulary.RDF.type;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.commons.rdf.api.Dataset;
+import org.apache.commons.rdf.api.IRI;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.runner.JUnitPlatform;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.trellisldp.api.ResourceService;
+import org.trellisldp.rosid.file.WorkloadTrace.Event;
+import org.trellisldp.rosid.file.WorkloadTrace.Operation;
+import org.trellisldp.vocabulary.DC;
+import org.trellisldp.vocabulary.LDP;
+import org.trellisldp.vocabulary.Trellis;
+
+/**
+ * @author acoburn
+ */
+@RunWith(JUnitPlatform.class)
+public class WorkloadTraceTest {
+
+    private static final IRI identifier = rdf.createIRI("trellis:repository/resource");
+
+    @Mock
+    private ResourceService mockService;
+
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        initMocks(this);
+        file = new File(new File(getClass().getResource("/").toURI()), "trace.tsv");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testTrace() throws Exception {
+        when(mockService.get(any(IRI.class))).thenReturn(empty());
+        when(mockService.get(any(IRI.class), any())).thenReturn(empty());
+        when(mockService.put(any(IRI.class), any(Dataset.class))).thenReturn(true);
+        when(mockService.purge(any(IRI.class))).thenReturn(Stream.empty());
+        when(mockService.scan(any(String.class))).thenAnswer(inv -> Stream.empty());
+
+        final Dataset dataset = rdf.createDataset();
+        dataset.add(rdf.createQuad(Trellis.PreferServerManaged, identifier, type, LDP.RDFSource));
+        dataset.add(rdf.createQuad(Trellis.PreferUserManaged, identifier, DC.title, rdf.createLiteral("A title")));
+
+        try (final WorkloadTrace trace = new WorkloadTrace(file, WorkloadTrace.DEFAULT_CAPACITY)) {
+            final ResourceService service = new TracingResourceService(mockService, trace);
+            assertTrue(service.put(identifier, dataset));
+            assertFalse(service.get(identifier).isPresent());
+            assertFalse(service.get(identifier, now().minusSeconds(60)).isPresent());
+            assertEquals(0L, service.scan("repository").count());
+            assertEquals(0L, service.purge(identifier).count());
+            assertEquals(0L, trace.getDropped());
+        }
+
+        final List<Event> events = WorkloadTrace.read(file).collect(toList());
+        assertEquals(5, events.size());
+        assertEquals(Operation.PUT, events.get(0).getOperation());
+        assertEquals(Operation.GET, events.get(1).getOperation());
+        assertEquals(Operation.MEMENTO, events.get(2).getOperation());
+        assertEquals(Operation.SCAN, events.get(3).getOperation());
+        assertEquals(Operation.PURGE, events.get(4).getOperation());
+        events.forEach(event -> assertEquals("repository", event.getPartition()));
+
+        final Event put = events.get(0);
+        assertEquals(ChangeWatcher.key(identifier.getIRIString()), put.getKey());
+        assertEquals(2L, put.getQuads());
+        assertTrue(put.getBytes() > 100L);
+        assertEquals(LDP.RDFSource.getIRIString(), put.getDetail());
+        assertEquals("miss", events.get(1).getDetail());
+        assertTrue(Long.parseLong(events.get(2).getDetail()) >= 60000L);
+        assertTrue(events.get(4).getOffset() >= events.get(0).getOffset());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        when(mockService.get(any(IRI.class))).thenThrow(new IllegalStateException("Expected"));
+        when(mockService.put(any(IRI.class), any(Dataset.class))).thenThrow(new IllegalStateException("Expected"));
+
+        final Dataset dataset = rdf.createDataset();
+        dataset.add(rdf.createQuad(Trellis.PreferServerManaged, identifier, type, LDP.RDFSource));
+
+        try (final WorkloadTrace trace = new WorkloadTrace(file, WorkloadTrace.DEFAULT_CAPACITY)) {
+            final ResourceService service = new TracingResourceService(mockService, trace);
+            assertThrows(IllegalStateException.class, () -> service.put(identifier, dataset));
+            assertThrows(IllegalStateException.class, () -> service.get(identifier));
+        }
+
+        final List<Event> events = WorkloadTrace.read(file).collect(toList());
+        assertEquals(2, events.size());
+        assertEquals(Operation.PUT, events.get(0).getOperation());
+        assertEquals(1L, events.get(0).getQuads());
+        assertEquals(Operation.GET, events.get(1).getOperation());
+        events.forEach(event -> assertTrue(event.isFailed()));
+        events.forEach(event -> assertEquals(WorkloadTrace.FAILED, event.getDetail()));
+    }
+
+    @Test
+    public void testParse() {
+        final Event event = new Event(1234L, Operation.PUT, "repository", "abcdef", 56L, 7L, 890L,
+                LDP.Container.getIRIString());
+        final Event parsed = Event.parse(event.toString());
+        assertEquals(event.toString(), parsed.toString());
+        assertEquals(1234L, parsed.getOffset());
+        assertEquals(56L, parsed.getDuration());
+        assertEquals(890L, parsed.getBytes());
+        assertThrows(IllegalArgumentException.class, () -> Event.parse("1234\tPUT\trepository"));
+        assertThrows(IllegalArgumentException.class, () -> Event.parse("1234\tPOST\trepository\tabc\t1\t1\t1\t-"));
+    }
+}